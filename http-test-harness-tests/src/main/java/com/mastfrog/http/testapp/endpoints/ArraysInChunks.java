@@ -100,7 +100,7 @@ public class ArraysInChunks extends Acteur {
             if (isLast) {
                 out.write(new byte[]{']'});
             } else {
-                out.write(new byte[]{'\n'});
+                out.write(new byte[]{',', '\n'});
             }
             return isLast ? Status.DONE : Status.NOT_DONE;
         }
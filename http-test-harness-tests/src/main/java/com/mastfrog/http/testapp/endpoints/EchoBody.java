@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.testapp.endpoints;
+
+import com.mastfrog.acteur.Acteur;
+import com.mastfrog.acteur.Event;
+import com.mastfrog.acteur.HttpEvent;
+import com.mastfrog.acteur.ResponseWriter;
+import com.mastfrog.acteur.annotations.HttpCall;
+import static com.mastfrog.acteur.headers.Headers.CONTENT_TYPE;
+import static com.mastfrog.acteur.headers.Method.POST;
+import static com.mastfrog.acteur.headers.Method.PUT;
+import com.mastfrog.acteur.preconditions.Description;
+import com.mastfrog.acteur.preconditions.Methods;
+import com.mastfrog.acteur.preconditions.Path;
+import static com.mastfrog.mime.MimeType.OCTET_STREAM;
+import javax.inject.Inject;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+@HttpCall
+@Path("/echoBody")
+@Methods({POST, PUT})
+@Description("Replies with the request body, unaltered")
+public class EchoBody extends Acteur {
+
+    @Inject
+    EchoBody() {
+        add(CONTENT_TYPE, OCTET_STREAM);
+        setResponseWriter(EchoWriter.class);
+        ok();
+    }
+
+    static class EchoWriter extends ResponseWriter {
+
+        @Override
+        public Status write(Event<?> evt, Output out) throws Exception {
+            out.write(((HttpEvent) evt).content().retainedDuplicate());
+            return Status.DONE;
+        }
+    }
+}
@@ -1,9 +1,15 @@
 package com.mastfrog.http.testapp;
 
+import com.mastfrog.http.harness.AggregateResults;
+import com.mastfrog.http.harness.AssertionResult;
+import com.mastfrog.http.harness.BaselineComparison;
 import com.mastfrog.http.harness.FailureSeverity;
 import com.mastfrog.http.harness.HttpTestHarness;
+import com.mastfrog.http.harness.MappedFileBody;
 import com.mastfrog.http.harness.TestReport;
+import com.mastfrog.http.harness.ThrottledBody;
 import com.mastfrog.http.harness.TestResults;
+import com.mastfrog.http.harness.difference.DifferencingOptions;
 import com.google.inject.Binder;
 import com.mastfrog.acteur.Event;
 import com.mastfrog.acteur.HttpEvent;
@@ -11,6 +17,7 @@ import com.mastfrog.acteur.debug.Probe;
 import com.mastfrog.acteur.util.RequestID;
 import com.mastfrog.http.harness.HarnessLogLevel;
 import com.mastfrog.http.harness.RequestIdProvider;
+import com.mastfrog.http.harness.SyntheticBody;
 import com.mastfrog.predicates.Predicates;
 import com.mastfrog.predicates.string.StringPredicates;
 import com.mastfrog.http.testapp.endpoints.LeaveChannelOpenAndNeverRespond;
@@ -18,6 +25,7 @@ import com.mastfrog.http.testapp.endpoints.SomeObject;
 import static com.mastfrog.mime.MimeType.JSON_UTF_8;
 import com.mastfrog.util.collections.CollectionUtils;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.ProtocolException;
 import java.net.http.HttpClient.Version;
 import static java.net.http.HttpClient.Version.HTTP_1_1;
@@ -26,6 +34,9 @@ import java.net.http.HttpRequest.BodyPublisher;
 import java.net.http.HttpRequest.BodyPublishers;
 import java.net.http.HttpResponse;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -37,8 +48,11 @@ import java.util.concurrent.Flow;
 import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import org.junit.jupiter.api.AfterAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 import org.junit.jupiter.api.BeforeEach;
@@ -218,6 +232,38 @@ public class TestHarnessTest {
                 }).printResults();
     }
 
+    @Test
+    public void testJsonBodyEquals() {
+        harness.get("json?text=skiddoo&val=23")
+                .test(asserts -> {
+                    // member order should not matter
+                    asserts.assertResponseCode(200)
+                            .assertJsonBodyEquals("{\"text\" : \"skiddoo\", \"value\" : 23}");
+                }).assertNoFailures();
+    }
+
+    @Test
+    public void testJsonPath() {
+        harness.get("json?text=skiddoo&val=23")
+                .test(asserts -> {
+                    asserts.assertResponseCode(200)
+                            .assertJsonPathEquals("$.value", 23)
+                            .assertJsonPath("$.text", String.class,
+                                    StringPredicates.startsWith("skid"));
+                }).assertNoFailures();
+    }
+
+    @Test
+    public void testJsonPathOnStreamedArray() {
+        // Matched as chunks arrive, without buffering the body
+        harness.get("arrayChunks?count=5000&by=250")
+                .test(asserts -> {
+                    asserts.withoutBufferingBody()
+                            .assertOk()
+                            .assertJsonPathEquals("$[4999]", 4999L);
+                }).assertNoFailures();
+    }
+
     @Test
     public void testThrowInAssertsReleasesPermit() {
         try {
@@ -257,6 +303,22 @@ public class TestHarnessTest {
                 }).printResults();
     }
 
+    @Test
+    public void testFlightRecordingIsAttachedToFailures() {
+        TestResults<HttpResponse<String>> res = harness.get("hello")
+                .test(asserts -> {
+                    asserts.withSeverity(FailureSeverity.WARNING, warn -> {
+                        warn.assertResponseCode(13);
+                    });
+                });
+        // The failed response code warning should carry the events the
+        // harness recorded up to that point
+        List<String> recording = res.flightRecording().orElseThrow(()
+                -> new AssertionError("No flight recording for failed assertion"));
+        assertTrue(recording.stream().anyMatch(line -> line.contains("headers status=20")),
+                () -> "Headers not recorded in " + recording);
+    }
+
     @Test
     public void testRequestHungWithNoHeadersSentTimesOut() throws Exception {
         // This test makes an HTTP request that will simply be left open forever,
@@ -326,6 +388,28 @@ public class TestHarnessTest {
         assertTrue(s.contains("5. ABCDEFGHIJKLMNOPQRSTUVWXYZ"), s);
     }
 
+    @Test
+    public void testEachElementOfStreamedArray() throws Exception {
+        // Elements are tested as chunks arrive, without buffering the body
+        TestResults<HttpResponse<String>> res = harness.get("arrayChunks?count=5000&by=250")
+                .test(asserts -> {
+                    asserts.withoutBufferingBody()
+                            .assertOk()
+                            .assertEachElement(Long.class,
+                                    Predicates.namedPredicate("non-negative", l -> l >= 0))
+                            .withSeverity(FailureSeverity.WARNING, asserts2 -> {
+                                asserts2.assertEachElement(Long.class,
+                                        Predicates.namedPredicate("less than 1234", l -> l < 1234));
+                            });
+                }).await();
+        List<AssertionResult> failed = res.allResults().stream()
+                .filter(r -> !r.isOk())
+                .collect(Collectors.toList());
+        assertEquals(1, failed.size(), failed::toString);
+        assertEquals("Element 1234 failed: 1234", failed.get(0).actualValue());
+        assertEquals("", res.get().body(), "Body should not have been buffered");
+    }
+
     @Test
     public void testJsonInput() {
         SomeObject obj = new SomeObject(23, "skiddoo");
@@ -339,6 +423,268 @@ public class TestHarnessTest {
                 }).printResults();
     }
 
+    @Test
+    public void testDeserializedBodyEqualsHonorsIgnoredPathsAndTolerances() throws Exception {
+        // The endpoint answers with SomeObject(24, "skiddoo-xx")
+        DifferencingOptions opts = DifferencingOptions.DEFAULT
+                .withIgnoredPaths("text")
+                .withTolerance("value", 1);
+        harness.postObject("jsonInput", new SomeObject(23, "skiddoo"))
+                .test(asserts -> {
+                    asserts.assertDeserializedBodyEquals(SomeObject.class,
+                            new SomeObject(25, "something else"), opts);
+                }).assertNoFailures();
+        TestResults<HttpResponse<String>> res = harness.postObject("jsonInput",
+                new SomeObject(23, "skiddoo"))
+                .applyingAssertions(asserts -> {
+                    asserts.assertDeserializedBodyEquals(SomeObject.class,
+                            new SomeObject(26, "something else"), opts);
+                }).await();
+        List<AssertionResult> failed = res.allResults().stream()
+                .filter(r -> !r.isOk())
+                .collect(Collectors.toList());
+        assertEquals(1, failed.size(), failed::toString);
+    }
+
+    @Test
+    public void testJsonInputFromMappedFile() throws Exception {
+        Path file = Files.createTempFile("TestHarnessTest", ".json");
+        try {
+            Files.write(file, "{\"value\":23,\"text\":\"skiddoo\"}"
+                    .getBytes(StandardCharsets.UTF_8));
+            MappedFileBody body = MappedFileBody.of(file);
+            for (int i = 0; i < 4; i++) {
+                harness.post("jsonInput", i % 2 == 0 ? body : body.range(0, body.contentLength()))
+                        .test(asserts -> {
+                            asserts.assertResponseCodeGreaterThan(199)
+                                    .assertResponseCodeLessThan(400)
+                                    .assertDeserializedBodyEquals(
+                                            new SomeObject(24, "skiddoo-xx"));
+                        }).assertNoFailures();
+            }
+            harness.post("jsonInput", file)
+                    .test(asserts -> {
+                        asserts.assertDeserializedBodyEquals(
+                                new SomeObject(24, "skiddoo-xx"));
+                    }).assertNoFailures();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testSyntheticBodyIsEchoed() throws Exception {
+        SyntheticBody[] bodies = {
+            SyntheticBody.randomBytes(42, 300_003),
+            SyntheticBody.repeating("abcdefg", 100_000),
+            SyntheticBody.jsonArray("{\"id\":{index},\"name\":\"item-{index}\"}", 5_000)
+        };
+        for (SyntheticBody body : bodies) {
+            harness.post("echoBody", body)
+                    .test(asserts -> {
+                        asserts.assertOk()
+                                .withoutBufferingBody()
+                                .assertBodyDigest(body);
+                    }).assertNoFailures();
+        }
+        TestResults<HttpResponse<String>> res = harness.post("echoBody",
+                SyntheticBody.randomBytes(43, 1_000))
+                .applyingAssertions(asserts -> {
+                    asserts.withoutBufferingBody()
+                            .assertBodyDigest(SyntheticBody.randomBytes(42, 1_000));
+                }).await();
+        List<AssertionResult> failed = res.allResults().stream()
+                .filter(r -> !r.isOk())
+                .collect(Collectors.toList());
+        assertEquals(1, failed.size(), failed::toString);
+    }
+
+    @Test
+    public void testThrottledUpload() throws Exception {
+        SyntheticBody body = SyntheticBody.randomBytes(7, 20_000);
+        long start = System.nanoTime();
+        harness.post("echoBody", ThrottledBody.of(body, 40_000).withChunkSize(2_000))
+                .test(asserts -> {
+                    asserts.assertOk()
+                            .assertBodyDigest(body);
+                });
+        long elapsed = Duration.ofNanos(System.nanoTime() - start).toMillis();
+        assertTrue(elapsed >= 400, "Upload was not throttled: " + elapsed + "ms");
+    }
+
+    @Test
+    public void testReadRateLimit() throws Exception {
+        SyntheticBody body = SyntheticBody.randomBytes(11, 400_000);
+        long start = System.nanoTime();
+        harness.post("echoBody", body)
+                .readRateLimit(500_000)
+                .test(asserts -> {
+                    asserts.assertOk()
+                            .withoutBufferingBody()
+                            .assertBodyDigest(body);
+                });
+        long elapsed = Duration.ofNanos(System.nanoTime() - start).toMillis();
+        assertTrue(elapsed >= 400, "Read was not slowed: " + elapsed + "ms");
+    }
+
+    @Test
+    public void testChunkTimings() throws Exception {
+        TestResults<HttpResponse<String>> res = harness.get("time?delaySeconds=1")
+                .responseFinishedTimeout(Duration.ofMillis(2_500))
+                .applyingAssertions(asserts -> {
+                    asserts.assertOk()
+                            .assertTimesOut()
+                            .assertMaxInterChunkGap(Duration.ofSeconds(5))
+                            .withSeverity(FailureSeverity.WARNING, warn -> {
+                                warn.assertMaxInterChunkGap(Duration.ofMillis(100));
+                            });
+                }).await();
+        List<AssertionResult> failed = res.allResults().stream()
+                .filter(r -> !r.isOk())
+                .collect(Collectors.toList());
+        assertEquals(1, failed.size(), failed::toString);
+        assertEquals(FailureSeverity.WARNING, failed.get(0).severity(), failed::toString);
+        assertTrue(res.chunkStatistics().chunkCount() >= 1, res.chunkStatistics()::toString);
+        assertTrue(res.chunkStatistics().maxGap().toMillis() >= 500,
+                res.chunkStatistics()::toString);
+
+        res = harness.get("arrayChunks?count=5000&by=250")
+                .test(asserts -> {
+                    asserts.assertOk()
+                            .assertMaxInterChunkGap(Duration.ofSeconds(5))
+                            .assertInterChunkGapPercentile(90, Duration.ofSeconds(1));
+                });
+        assertEquals(res.get().body().length(), res.chunkStatistics().totalBytes());
+    }
+
+    @Test
+    public void testTimingAssertions() throws Exception {
+        harness.get("delayed?delay=300")
+                .test(asserts -> {
+                    asserts.assertOk()
+                            .assertHeadersWithin(Duration.ofSeconds(10))
+                            .assertTimeToFirstByteUnder(Duration.ofSeconds(10))
+                            .assertTotalTimeUnder(Duration.ofSeconds(10));
+                });
+        TestResults<HttpResponse<String>> res = harness.get("delayed?delay=300")
+                .applyingAssertions(asserts -> {
+                    asserts.assertOk()
+                            .withSeverity(FailureSeverity.WARNING, warn -> {
+                                warn.assertTotalTimeUnder(Duration.ofMillis(100));
+                            });
+                }).await();
+        List<AssertionResult> failed = res.allResults().stream()
+                .filter(r -> !r.isOk())
+                .collect(Collectors.toList());
+        assertEquals(1, failed.size(), failed::toString);
+        Duration measured = (Duration) failed.get(0).actualValue();
+        assertTrue(measured.toMillis() >= 300, failed::toString);
+
+        SyntheticBody body = SyntheticBody.randomBytes(3, 1_000_000);
+        harness.post("echoBody", body)
+                .test(asserts -> {
+                    asserts.assertOk()
+                            .withoutBufferingBody()
+                            .assertMinThroughput(1_000);
+                });
+        res = harness.post("echoBody", body)
+                .readRateLimit(2_000_000)
+                .applyingAssertions(asserts -> {
+                    asserts.withoutBufferingBody()
+                            .assertMinThroughput(100_000_000);
+                }).await();
+        assertTrue(res.hasFailures(), res::toString);
+    }
+
+    @Test
+    public void testAggregateResults() throws Exception {
+        // The hello endpoint randomly answers 200 or 201
+        for (int i = 0; i < 50; i++) {
+            harness.get("hello").applyingAssertions(asserts
+                    -> asserts.assertResponseCodeIn(200, 201));
+        }
+        AggregateResults agg = harness.aggregateResults()
+                .assertPercentileUnder(99.0, Duration.ofSeconds(10))
+                .assertErrorRateBelow(1.0);
+        assertEquals("testAggregateResults", agg.name());
+        assertEquals(50, agg.runs(), agg::toString);
+        assertEquals(0, agg.errors(), agg::toString);
+        assertTrue(agg.min().compareTo(agg.percentile(50)) <= 0, agg::toString);
+        assertTrue(agg.percentile(99).compareTo(agg.max()) <= 0, agg::toString);
+
+        for (int i = 0; i < 4; i++) {
+            harness.get("delayed?delay=200").group("slo-delayed")
+                    .applyingAssertions(asserts -> asserts.assertOk());
+        }
+        AggregateResults delayed = harness.aggregateResults("slo-delayed");
+        AssertionError err = assertThrows(AssertionError.class, ()
+                -> delayed.assertPercentileUnder(99.0, Duration.ofMillis(100)));
+        assertTrue(delayed.percentile(99).toMillis() >= 200, err::getMessage);
+        assertEquals(4, delayed.runs(), delayed::toString);
+
+        for (int i = 0; i < 4; i++) {
+            boolean fail = i == 0;
+            harness.get("hello").group("slo-errors")
+                    .applyingAssertions(asserts -> {
+                        if (fail) {
+                            asserts.assertResponseCode(404);
+                        } else {
+                            asserts.assertResponseCodeIn(200, 201);
+                        }
+                    });
+        }
+        AggregateResults errors = harness.aggregateResults("slo-errors")
+                .assertErrorRateBelow(30);
+        assertEquals(1, errors.errors(), errors::toString);
+        assertEquals(25D, errors.errorPercentage(), 0.0001);
+        assertThrows(AssertionError.class, () -> errors.assertErrorRateBelow(10));
+        assertThrows(AssertionError.class, ()
+                -> harness.aggregateResults("nothing-ran").assertErrorRateBelow(10));
+    }
+
+    @Test
+    public void testBaselineComparison() throws Exception {
+        TestReport localReport = new TestReport("baseline");
+        HttpTestHarness<String> local = HttpTestHarness.builder()
+                .withHttpVersion(HTTP_1_1)
+                .withTestReport(localReport)
+                .awaitingReadinessOn(app.startupLatch())
+                .build()
+                .convertingToUrisWith(app);
+        try {
+            for (int i = 0; i < 10; i++) {
+                local.get("hello?run=" + i).applyingAssertions(asserts
+                        -> asserts.assertResponseCodeIn(200, 201));
+            }
+            local.aggregateResults().await();
+            Path saved = Files.createTempFile("baseline", ".json");
+            try {
+                try (OutputStream out = Files.newOutputStream(saved)) {
+                    localReport.save(out);
+                }
+                // Identical distributions can never be a regression
+                BaselineComparison cmp = localReport.compareWithBaseline(saved)
+                        .assertNoRegressions();
+                assertEquals(1, cmp.comparisons().size(), cmp::toString);
+                BaselineComparison.EndpointComparison hello = cmp.comparisons().get(0);
+                assertEquals("GET /hello", hello.endpoint(), cmp::toString);
+                assertEquals(BaselineComparison.Verdict.UNCHANGED, hello.verdict(), cmp::toString);
+                assertEquals(10, hello.baselineRuns());
+                assertEquals(10, hello.currentRuns());
+                assertEquals(0D, hello.change());
+                assertTrue(localReport.toMap().containsKey("baselineComparison"));
+                assertTrue(localReport.toHtml().contains("UNCHANGED"));
+
+                BaselineComparison twoFiles = BaselineComparison.compare(saved, saved);
+                assertEquals(hello.pValue(), twoFiles.comparisons().get(0).pValue());
+            } finally {
+                Files.delete(saved);
+            }
+        } finally {
+            local.shutdown();
+        }
+    }
+
     @Test
     public void testOutboundHeaders() {
         // Test that we are sending headers correctly
@@ -24,11 +24,11 @@
 package com.mastfrog.http.harness;
 
 import com.mastfrog.util.codec.Codec;
-import com.mastfrog.util.preconditions.Exceptions;
-import java.io.IOException;
+import static com.mastfrog.util.preconditions.Checks.notNull;
 import java.net.URI;
 import java.net.http.HttpRequest;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.nio.charset.StandardCharsets;
 
 /**
@@ -38,10 +38,12 @@ import java.nio.charset.StandardCharsets;
  */
 abstract class AbstractHttpTestHarness implements HttpTestHarness<URI> {
 
+    final Codecs codecs;
     final Codec codec;
 
-    AbstractHttpTestHarness(Codec codec) {
-        this.codec = codec;
+    AbstractHttpTestHarness(Codecs codecs) {
+        this.codecs = codecs;
+        this.codec = codecs.defaultCodec();
     }
 
     @Override
@@ -69,6 +71,11 @@ abstract class AbstractHttpTestHarness implements HttpTestHarness<URI> {
         return put(uri, HttpRequest.BodyPublishers.ofString(string, charset));
     }
 
+    @Override
+    public TestRequest put(URI uri, Path file) {
+        return put(uri, MappedFileBody.of(file));
+    }
+
     @Override
     public TestRequest put(URI uri, HttpRequest.BodyPublisher pub) {
         return request().PUT(pub).uri(uri);
@@ -89,6 +96,11 @@ abstract class AbstractHttpTestHarness implements HttpTestHarness<URI> {
         return post(uri, HttpRequest.BodyPublishers.ofString(string, charset));
     }
 
+    @Override
+    public TestRequest post(URI uri, Path file) {
+        return post(uri, MappedFileBody.of(file));
+    }
+
     @Override
     public TestRequest post(URI uri, HttpRequest.BodyPublisher pub) {
         return request().POST(pub).uri(uri);
@@ -96,19 +108,29 @@ abstract class AbstractHttpTestHarness implements HttpTestHarness<URI> {
 
     @Override
     public <T> TestRequest putObject(URI uri, T toSerialize) {
-        try {
-            return put(uri, codec.writeValueAsBytes(toSerialize));
-        } catch (IOException ex) {
-            return Exceptions.chuck(ex);
-        }
+        return put(uri, new SerializingBodyPublisher(notNull("toSerialize",
+                toSerialize), codec));
     }
 
     @Override
     public <T> TestRequest postObject(URI uri, T toSerialize) {
-        try {
-            return post(uri, codec.writeValueAsBytes(toSerialize));
-        } catch (IOException ex) {
-            return Exceptions.chuck(ex);
-        }
+        return post(uri, new SerializingBodyPublisher(notNull("toSerialize",
+                toSerialize), codec));
+    }
+
+    @Override
+    public <T> TestRequest putObject(URI uri, T toSerialize, String contentType) {
+        return put(uri, new SerializingBodyPublisher(notNull("toSerialize",
+                toSerialize), codecs.forContentType(notNull("contentType",
+                        contentType))))
+                .header("Content-Type", contentType);
+    }
+
+    @Override
+    public <T> TestRequest postObject(URI uri, T toSerialize, String contentType) {
+        return post(uri, new SerializingBodyPublisher(notNull("toSerialize",
+                toSerialize), codecs.forContentType(notNull("contentType",
+                        contentType))))
+                .header("Content-Type", contentType);
     }
 }
@@ -0,0 +1,160 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import java.time.Duration;
+
+/**
+ * Results aggregated over every run of a group of requests - by default, all
+ * of the requests launched from one test method - for asserting on the
+ * distribution of response times and failures the way a service level
+ * objective does (&quot;p99 under 150ms with under 0.1% errors&quot;), rather
+ * than on any single response.
+ * <p>
+ * Each run is counted when its response has completed, failed or timed out
+ * and all of its assertions have run; its duration is the time from the
+ * request being handed to the HTTP client until then. A run is an
+ * <i>error</i> if the request failed or timed out, or if any of its
+ * {@link FailureSeverity#FATAL fatal} assertions did not pass. Durations are
+ * kept in a fixed-size histogram, not a list, so a group can be run any
+ * number of times; percentiles are accurate to within about 1.6%, always
+ * erring on the high side.
+ * </p>
+ * <p>
+ * The <code>assert*</code> methods wait for all runs launched so far in the
+ * group to complete, and throw an <code>AssertionError</code> if the
+ * objective is not met - or if there are no completed runs to judge it by.
+ * </p>
+ * <pre>
+ * for (int i = 0; i &lt; 1000; i++) {
+ *     harness.get("/hello").applyingAssertions(a -&gt; a.assertOk());
+ * }
+ * harness.aggregateResults("myTestMethod")
+ *         .assertPercentileUnder(99.0, Duration.ofMillis(150))
+ *         .assertErrorRateBelow(0.1);
+ * </pre>
+ *
+ * @see TestRequest#group(java.lang.String)
+ * @author Tim Boudreau
+ */
+public interface AggregateResults {
+
+    /**
+     * The name of the group - the test method, unless the requests were
+     * explicitly assigned to a group.
+     *
+     * @return A name
+     */
+    String name();
+
+    /**
+     * The number of runs that have completed.
+     *
+     * @return A count
+     */
+    long runs();
+
+    /**
+     * The number of completed runs which were errors.
+     *
+     * @return A count
+     */
+    long errors();
+
+    /**
+     * The percentage, from 0 to 100, of completed runs which were errors.
+     *
+     * @return A percentage, or 0 if there are no runs
+     */
+    double errorPercentage();
+
+    /**
+     * Get the response time at the passed percentile of completed runs.
+     *
+     * @param percentile A percentile greater than 0, up to 100
+     * @return A duration, or null if there are no runs
+     */
+    Duration percentile(double percentile);
+
+    /**
+     * The fastest completed run.
+     *
+     * @return A duration, or null if there are no runs
+     */
+    Duration min();
+
+    /**
+     * The slowest completed run.
+     *
+     * @return A duration, or null if there are no runs
+     */
+    Duration max();
+
+    /**
+     * The mean duration of completed runs.
+     *
+     * @return A duration, or null if there are no runs
+     */
+    Duration mean();
+
+    /**
+     * Wait for all runs launched so far in this group to complete.
+     *
+     * @return this
+     * @throws InterruptedException if interrupted
+     */
+    AggregateResults await() throws InterruptedException;
+
+    /**
+     * Wait for all runs launched so far in this group to complete, or the
+     * passed timeout to elapse.
+     *
+     * @param dur A timeout
+     * @return false if timed out
+     * @throws InterruptedException if interrupted
+     */
+    boolean await(Duration dur) throws InterruptedException;
+
+    /**
+     * Wait for all launched runs to complete, and throw an assertion error if
+     * the response time at the passed percentile is not less than the passed
+     * limit.
+     *
+     * @param percentile A percentile greater than 0, up to 100, e.g. 99.0
+     * @param limit The exclusive upper bound
+     * @return this
+     */
+    AggregateResults assertPercentileUnder(double percentile, Duration limit);
+
+    /**
+     * Wait for all launched runs to complete, and throw an assertion error if
+     * the percentage of runs which were errors is not less than the passed
+     * percentage - so <code>assertErrorRateBelow(0.1)</code> fails if one
+     * run in a thousand or more failed.
+     *
+     * @param percentage A percentage greater than 0, up to 100
+     * @return this
+     */
+    AggregateResults assertErrorRateBelow(double percentage);
+}
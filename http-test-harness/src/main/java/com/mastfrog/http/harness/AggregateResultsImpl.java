@@ -0,0 +1,196 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import static com.mastfrog.util.preconditions.Checks.notNull;
+import com.mastfrog.util.preconditions.Exceptions;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+final class AggregateResultsImpl implements AggregateResults {
+
+    private final String name;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private int pending;
+
+    AggregateResultsImpl(String name) {
+        this.name = name;
+    }
+
+    synchronized void launched() {
+        pending++;
+    }
+
+    void completed(long nanos, boolean error) {
+        // Count the error first, so runs() never includes a run whose
+        // error is not yet visible
+        if (error) {
+            errors.increment();
+        }
+        histogram.record(nanos);
+        synchronized (this) {
+            if (--pending == 0) {
+                notifyAll();
+            }
+        }
+    }
+
+    synchronized void abandoned() {
+        if (--pending == 0) {
+            notifyAll();
+        }
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public long runs() {
+        return histogram.count();
+    }
+
+    @Override
+    public long errors() {
+        return errors.sum();
+    }
+
+    @Override
+    public double errorPercentage() {
+        long runs = runs();
+        return runs == 0 ? 0 : (errors() * 100D) / runs;
+    }
+
+    private static Duration nanos(long value) {
+        return value < 0 ? null : Duration.ofNanos(value);
+    }
+
+    @Override
+    public Duration percentile(double percentile) {
+        return nanos(histogram.percentile(checkPercentage("percentile", percentile)));
+    }
+
+    @Override
+    public Duration min() {
+        return nanos(histogram.min());
+    }
+
+    @Override
+    public Duration max() {
+        return nanos(histogram.max());
+    }
+
+    @Override
+    public Duration mean() {
+        return nanos(histogram.mean());
+    }
+
+    @Override
+    public synchronized AggregateResultsImpl await() throws InterruptedException {
+        while (pending > 0) {
+            wait();
+        }
+        return this;
+    }
+
+    @Override
+    public synchronized boolean await(Duration dur) throws InterruptedException {
+        long deadline = System.nanoTime() + dur.toNanos();
+        while (pending > 0) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    private long awaitRuns() {
+        try {
+            await();
+        } catch (InterruptedException ex) {
+            return Exceptions.chuck(ex);
+        }
+        long runs = runs();
+        if (runs == 0) {
+            throw new AssertionError(name + ": no completed runs");
+        }
+        return runs;
+    }
+
+    @Override
+    public AggregateResultsImpl assertPercentileUnder(double percentile, Duration limit) {
+        checkPercentage("percentile", percentile);
+        notNull("limit", limit);
+        long runs = awaitRuns();
+        Duration actual = percentile(percentile);
+        if (actual.compareTo(limit) >= 0) {
+            throw new AssertionError(name + ": p" + percentile + " of " + runs
+                    + " runs was " + actual + ", not under " + limit
+                    + " (" + this + ")");
+        }
+        return this;
+    }
+
+    @Override
+    public AggregateResultsImpl assertErrorRateBelow(double percentage) {
+        checkPercentage("percentage", percentage);
+        long runs = awaitRuns();
+        double actual = errorPercentage();
+        if (actual >= percentage) {
+            throw new AssertionError(name + ": " + errors() + " of " + runs
+                    + " runs were errors (" + actual + "%), not below "
+                    + percentage + "%");
+        }
+        return this;
+    }
+
+    private static double checkPercentage(String what, double value) {
+        if (!(value > 0 && value <= 100)) {
+            throw new IllegalArgumentException(what
+                    + " must be greater than 0 and at most 100, but was " + value);
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        long runs = runs();
+        if (runs == 0) {
+            return name + ": no runs";
+        }
+        return name + ": " + runs + " runs, " + errors() + " errors, min "
+                + min() + ", mean " + mean() + ", p50 " + percentile(50)
+                + ", p90 " + percentile(90) + ", p99 " + percentile(99)
+                + ", max " + max();
+    }
+}
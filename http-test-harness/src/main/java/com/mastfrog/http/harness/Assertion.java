@@ -48,6 +48,10 @@ abstract class Assertion<T, R> {
         this.test = test;
     }
 
+    FailureSeverity severity() {
+        return severity;
+    }
+
     AssertionResult errorResult(Throwable thrown) {
         return new AssertionResult(AssertionStatus.INTERNAL_ERROR,
                 severity, toString(), thrown, null);
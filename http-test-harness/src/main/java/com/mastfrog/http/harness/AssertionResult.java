@@ -24,6 +24,7 @@
 package com.mastfrog.http.harness;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.mastfrog.http.harness.difference.Difference;
@@ -31,6 +32,7 @@ import static com.mastfrog.util.preconditions.Checks.notNull;
 import com.mastfrog.util.strings.Escaper;
 import com.mastfrog.util.strings.Strings;
 import static java.nio.charset.StandardCharsets.US_ASCII;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
@@ -53,6 +55,18 @@ public final class AssertionResult {
     private final String message;
     @JsonProperty(value = "differences", required = false)
     private final Map<String, Set<Difference<?>>> differences;
+    @JsonProperty(value = "flightRecording", required = false)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final List<String> flightRecording;
+
+    public AssertionResult(
+            AssertionStatus status,
+            FailureSeverity severity,
+            String message,
+            Object actualValue,
+            Map<String, Set<Difference<?>>> differences) {
+        this(status, severity, message, actualValue, differences, null);
+    }
 
     @JsonCreator
     public AssertionResult(
@@ -60,18 +74,38 @@ public final class AssertionResult {
             @JsonProperty("severity") FailureSeverity severity,
             @JsonProperty("message") String message,
             @JsonProperty("actualValue") Object actualValue,
-            @JsonProperty(value = "differences", required = false) Map<String, Set<Difference<?>>> differences) {
+            @JsonProperty(value = "differences", required = false) Map<String, Set<Difference<?>>> differences,
+            @JsonProperty(value = "flightRecording", required = false) List<String> flightRecording) {
         this.status = notNull("status", status);
         this.severity = notNull("severity", severity);
         this.message = notNull("message", message);
         this.actualValue = actualValue;
         this.differences = differences;
+        this.flightRecording = flightRecording;
+    }
+
+    AssertionResult withFlightRecording(List<String> recording) {
+        if (recording == null || recording.isEmpty()) {
+            return this;
+        }
+        return new AssertionResult(status, severity, message, actualValue,
+                differences, recording);
     }
 
     public Optional<Map<String, Set<Difference<?>>>> differences() {
         return Optional.ofNullable(differences);
     }
 
+    /**
+     * If this assertion did not succeed, and the harness was recording events
+     * for the request, the formatted events leading up to this result.
+     *
+     * @return The recorded events, if any
+     */
+    public Optional<List<String>> flightRecording() {
+        return Optional.ofNullable(flightRecording);
+    }
+
     public String message() {
         return message;
     }
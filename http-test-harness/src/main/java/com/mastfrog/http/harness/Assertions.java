@@ -23,11 +23,15 @@
  */
 package com.mastfrog.http.harness;
 
+import com.mastfrog.http.harness.difference.DifferencingOptions;
 import com.mastfrog.predicates.Predicates;
 import com.mastfrog.predicates.integer.IntPredicates;
 import com.mastfrog.predicates.string.StringPredicates;
+import static com.mastfrog.util.preconditions.Checks.notNull;
 import java.net.http.HttpClient;
 import java.nio.ByteBuffer;
+import java.time.Duration;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import java.util.function.Consumer;
 import java.util.function.IntPredicate;
 import java.util.function.Predicate;
@@ -250,6 +254,15 @@ public interface Assertions {
      */
     Assertions assertBody(Predicate<? super String> bodyTest);
 
+    /**
+     * Assert that the passed predicate returns true for the raw bytes of the
+     * response body, without decoding them as text - for binary formats.
+     *
+     * @param bodyTest A predicate
+     * @return this
+     */
+    Assertions assertBodyBytes(Predicate<? super byte[]> bodyTest);
+
     /**
      * Assert that the response body is a character for character exact match
      * for the passed string, ignoring leading or trailing whitespace.
@@ -324,7 +337,7 @@ public interface Assertions {
      * @return this
      */
     default Assertions assertBodyEndsWith(String substring) {
-        return assertBody(StringPredicates.startsWith(substring));
+        return assertBody(StringPredicates.endsWith(substring));
     }
 
     /**
@@ -340,6 +353,20 @@ public interface Assertions {
      */
     <T> Assertions assertDeserializedBodyEquals(Class<T> type, T object);
 
+    /**
+     * Assert that the response body, parsed as JSON, has object equality with
+     * the passed object, using the passed limits on how much differencing is
+     * done to describe a failure, rather than the harness's defaults.
+     *
+     * @param <T> The type to use when deserializing
+     * @param type The type to use when deserializing
+     * @param object An object of the type
+     * @param options Limits on differencing
+     * @return this
+     */
+    <T> Assertions assertDeserializedBodyEquals(Class<T> type, T object,
+            DifferencingOptions options);
+
     /**
      * Assert that the response body, parsed as JSON, has object equality with
      * the passed object.
@@ -354,6 +381,54 @@ public interface Assertions {
         return assertDeserializedBodyEquals(type, object);
     }
 
+    /**
+     * Assert that the response body is JSON equivalent to the passed JSON -
+     * whitespace and the order of object members are ignored, and numbers are
+     * compared numerically. Unlike <code>assertDeserializedBodyEquals()</code>,
+     * neither document is deserialized; the two are compared token by token,
+     * and failures report differences keyed by JSON pointer.
+     *
+     * @param expectedJson The expected JSON
+     * @return this
+     */
+    Assertions assertJsonBodyEquals(byte[] expectedJson);
+
+    /**
+     * Assert that the response body is JSON equivalent to the passed JSON,
+     * using the passed limits on how much differencing is done, rather than
+     * the harness's defaults.
+     *
+     * @param expectedJson The expected JSON
+     * @param options Limits on differencing
+     * @return this
+     */
+    Assertions assertJsonBodyEquals(byte[] expectedJson, DifferencingOptions options);
+
+    /**
+     * Assert that the response body is JSON equivalent to the passed JSON -
+     * whitespace and the order of object members are ignored, and numbers are
+     * compared numerically.
+     *
+     * @param expectedJson The expected JSON
+     * @return this
+     */
+    default Assertions assertJsonBodyEquals(String expectedJson) {
+        return assertJsonBodyEquals(expectedJson.getBytes(UTF_8));
+    }
+
+    /**
+     * Assert that the response body is JSON equivalent to the passed JSON,
+     * using the passed limits on how much differencing is done.
+     *
+     * @param expectedJson The expected JSON
+     * @param options Limits on differencing
+     * @return this
+     */
+    default Assertions assertJsonBodyEquals(String expectedJson,
+            DifferencingOptions options) {
+        return assertJsonBodyEquals(expectedJson.getBytes(UTF_8), options);
+    }
+
     /**
      * Assert that the response body, parsed as JSON, gets a result of true from
      * the passed predicate.
@@ -369,6 +444,103 @@ public interface Assertions {
      */
     <T> Assertions assertObject(String description, Class<T> type, Predicate<? super T> test);
 
+    /**
+     * Assert that the response body is a JSON array, every element of which,
+     * deserialized as the passed type, gets a result of true from the passed
+     * predicate. Elements are parsed and tested one at a time as the body
+     * arrives, rather than deserializing the whole array at the end, so this
+     * is suitable for very large, streamed arrays (combine it with
+     * <code>withoutBufferingBody()</code> to keep memory use flat). If an
+     * element fails, testing stops and the failure reports that element and
+     * its index.
+     *
+     * @param <T> The element type
+     * @param type The type to deserialize each element as
+     * @param test A predicate - note toString() will be called on it
+     * @return this
+     */
+    <T> Assertions assertEachElement(Class<T> type, Predicate<? super T> test);
+
+    /**
+     * Assert that the values in the response body selected by a JSONPath-style
+     * path, deserialized as the passed type, all get a result of true from the
+     * passed predicate, and that there is at least one. The path is evaluated
+     * against the JSON as it arrives, and only the selected values are
+     * deserialized, so checking a few fields of a very large document is
+     * cheap.
+     * <p>
+     * The supported subset of JSONPath is a path starting with <code>$</code>
+     * followed by any number of <code>.name</code>, <code>['name']</code>,
+     * <code>[index]</code>, <code>.*</code> or <code>[*]</code> steps - e.g.
+     * <code>$.meta.count</code> or <code>$.items[*].id</code>.
+     * </p>
+     *
+     * @param <T> The value type
+     * @param path A path
+     * @param type The type to deserialize selected values as
+     * @param test A predicate - note toString() will be called on it
+     * @return this
+     * @throws IllegalArgumentException if the path is invalid or uses
+     * unsupported syntax
+     */
+    <T> Assertions assertJsonPath(String path, Class<T> type, Predicate<? super T> test);
+
+    /**
+     * Assert that the values in the response body selected by a JSONPath-style
+     * path, as described for <code>assertJsonPath()</code>, are equal to the
+     * passed object when deserialized as its type.
+     *
+     * @param path A path
+     * @param expected The expected value
+     * @return this
+     */
+    @SuppressWarnings("unchecked")
+    default Assertions assertJsonPathEquals(String path, Object expected) {
+        notNull("expected", expected);
+        return assertJsonPath(path, (Class<Object>) expected.getClass(),
+                Predicates.namedPredicate("equal to " + expected, expected::equals));
+    }
+
+    /**
+     * Assert that the digest of the response body, computed as the body
+     * arrives rather than by buffering it, is the passed value - for checking
+     * large bodies, particularly in combination with
+     * <code>withoutBufferingBody()</code>.
+     *
+     * @param algorithm A MessageDigest algorithm name, such as SHA-256
+     * @param expectedHex The expected digest in hexadecimal
+     * @return this
+     * @throws IllegalArgumentException if the algorithm is not available
+     */
+    Assertions assertBodyDigest(String algorithm, String expectedHex);
+
+    /**
+     * Assert that the response body is byte-for-byte the same as the passed
+     * synthetic body - as when testing an endpoint which echoes what was
+     * uploaded - by comparing SHA-256 digests, without buffering either.
+     *
+     * @param expected The body that should have been echoed
+     * @return this
+     */
+    default Assertions assertBodyDigest(SyntheticBody expected) {
+        return assertBodyDigest("SHA-256", notNull("expected", expected)
+                .digest("SHA-256"));
+    }
+
+    /**
+     * Do not accumulate the response body in memory; assertions which work
+     * on the body as it arrives (chunk assertions, contains / starts-with /
+     * ends-with / most regular expression assertions,
+     * <code>assertEachElement()</code>, <code>assertJsonPath()</code> and
+     * <code>assertBodyDigest()</code>)
+     * still run, but assertions on the
+     * whole body will see an empty body, and so will the response returned by
+     * <code>TestResults.get()</code>.
+     *
+     * @return this
+     */
+    Assertions withoutBufferingBody();
+
     /**
      * Assert that the HTTP version is what is expected.
      *
@@ -413,6 +585,74 @@ public interface Assertions {
      */
     Assertions assertThrown(Class<? extends Throwable> expectedFailure);
 
+    /**
+     * Assert that no more than the passed duration passes between the
+     * response headers arriving and the first body chunk, or between any two
+     * body chunks - for streaming endpoints which should deliver data
+     * regularly. Evaluated when the response completes, or, for a stream
+     * that never ends, when the request times out - in which case the time
+     * since the last chunk, or since the headers if none came, counts as a
+     * gap. See
+     * {@link ChunkStatistics} for what counts as a chunk.
+     *
+     * @param max The maximum gap
+     * @return this
+     */
+    Assertions assertMaxInterChunkGap(Duration max);
+
+    /**
+     * Assert that a percentile of the gaps between body chunks, as described
+     * for <code>assertMaxInterChunkGap()</code>, is no more than the passed
+     * duration - tolerating a few outliers.
+     *
+     * @param percentile A percentile greater than zero and no more than 100
+     * @param max The maximum gap at that percentile
+     * @return this
+     */
+    Assertions assertInterChunkGapPercentile(double percentile, Duration max);
+
+    /**
+     * Assert that the response headers arrive within the passed time of the
+     * request being handed to the HTTP client. Like the other timing
+     * assertions, this is measured with the harness's own monotonic clock,
+     * is evaluated when the response completes or the request times out (a
+     * phase that never happened fails), and reports the measured value.
+     *
+     * @param max The maximum time
+     * @return this
+     */
+    Assertions assertHeadersWithin(Duration max);
+
+    /**
+     * Assert that the first byte of the response body arrives within the
+     * passed time of the request being handed to the HTTP client - or, if
+     * the body is empty, that the response completes within it.
+     *
+     * @param max The maximum time
+     * @return this
+     */
+    Assertions assertTimeToFirstByteUnder(Duration max);
+
+    /**
+     * Assert that the response is complete within the passed time of the
+     * request being handed to the HTTP client.
+     *
+     * @param max The maximum time
+     * @return this
+     */
+    Assertions assertTotalTimeUnder(Duration max);
+
+    /**
+     * Assert that the response body arrives at no less than the passed rate,
+     * measured from the headers arriving to the response completing. For
+     * small bodies the measurement is dominated by timer resolution and
+     * scheduling, so this is most useful for large ones.
+     *
+     * @param bytesPerSecond The minimum rate
+     * @return this
+     */
+    Assertions assertMinThroughput(long bytesPerSecond);
+
     /**
      * Add an assertion which will be called for each HTTP chunked encoding
      * chunk as it arrives; the byte buffer passed to the predicate will be
@@ -23,11 +23,17 @@
  */
 package com.mastfrog.http.harness;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
 import com.mastfrog.concurrent.IncrementableLatch;
+import com.mastfrog.http.harness.FlightRecorder.Event;
 import com.mastfrog.http.harness.difference.Difference;
 import com.mastfrog.http.harness.difference.Differencing;
+import com.mastfrog.http.harness.difference.DifferencingOptions;
 import com.mastfrog.predicates.Predicates;
+import com.mastfrog.predicates.string.StringPredicates;
 import com.mastfrog.util.codec.Codec;
+import static com.mastfrog.util.preconditions.Checks.greaterThanZero;
 import static com.mastfrog.util.preconditions.Checks.notNull;
 import com.mastfrog.util.preconditions.Exceptions;
 import java.io.ByteArrayOutputStream;
@@ -51,6 +57,7 @@ import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Flow;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
@@ -59,6 +66,7 @@ import java.util.function.Function;
 import java.util.function.IntPredicate;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
 /**
  * Implementation of Assertions, which intercepts callbacks from the HTTP client
@@ -73,13 +81,19 @@ final class AssertionsImpl implements Assertions, HttpResponse.BodyHandler<Strin
     private final List<Assertion<ByteBuffer, ?>> chunkAssertions = new ArrayList<>(8);
     private final List<Assertion<Throwable, ?>> thrownAssertions = new ArrayList<>(8);
     private final List<Assertion<Boolean, ?>> timeoutAssertions = new ArrayList<>(1);
+    private final List<Assertion<ChunkStatistics, ?>> chunkTimingAssertions = new ArrayList<>(1);
+    private final List<Assertion<ResponseTimings, ?>> timingAssertions = new ArrayList<>(2);
     private final Set<Assertion<?, ?>> invokedAssertions = ConcurrentHashMap.newKeySet();
     private final String reqInfo;
     final Consumer<AssertionResult> resultConsumer;
     final AtomicBoolean aborted;
     private final AtomicBoolean done = new AtomicBoolean();
-    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-    private final Codec mapper;
+    // Timings are judged once, by whichever of timeout or completion is first
+    private final AtomicBoolean timingsJudged = new AtomicBoolean();
+    private final BodyBuffer bytes = new BodyBuffer();
+    private final Codecs codecs;
+    // Chosen by the response's content type once headers arrive
+    private volatile Codec mapper;
     private final CompletableFuture<String> future = new CompletableFuture<>();
     private final IncrementableLatch latch;
     private final Optional<Duration> overallResponseTimeout;
@@ -87,14 +101,33 @@ final class AssertionsImpl implements Assertions, HttpResponse.BodyHandler<Strin
     private volatile boolean timedOut;
     private volatile Task task;
     private volatile Flow.Subscription subscription;
+    private final FlightRecorder recorder;
+    private final DifferencingOptions differencingOptions;
+    private BodyMatcher bodyMatcher;
+    private final List<JsonArrayElements<?>> elementStreams = new ArrayList<>(1);
+    private JsonPathMatcher jsonPaths;
+    private final List<BodyDigest> digests = new ArrayList<>(1);
+    private volatile boolean bufferBody = true;
+    private volatile Pacer readPacer;
+    private volatile Executor readExecutor;
+    private final ChunkTimeline timeline = new ChunkTimeline();
+    private volatile long sentAt = ResponseTimings.UNSET;
+    private volatile long headersAt = ResponseTimings.UNSET;
+    private volatile long firstByteAt = ResponseTimings.UNSET;
+    private volatile long completedAt = ResponseTimings.UNSET;
+    private long received;
 
     AssertionsImpl(String reqInfo, Consumer<AssertionResult> resultConsumer, AtomicBoolean aborted,
-            Codec mapper, IncrementableLatch latch,
-            Optional<Duration> overallResponseTimeout) {
+            Codecs codecs, IncrementableLatch latch,
+            Optional<Duration> overallResponseTimeout, FlightRecorder recorder,
+            DifferencingOptions differencingOptions) {
+        this.recorder = recorder;
+        this.differencingOptions = differencingOptions;
         this.reqInfo = reqInfo;
         this.resultConsumer = resultConsumer;
         this.aborted = aborted;
-        this.mapper = mapper;
+        this.codecs = codecs;
+        this.mapper = codecs.defaultCodec();
         this.latch = latch;
         this.overallResponseTimeout = overallResponseTimeout;
     }
@@ -130,9 +163,28 @@ final class AssertionsImpl implements Assertions, HttpResponse.BodyHandler<Strin
      */
     @Override
     public void run() {
+        long when = invokedAt.get();
+        if (when != 0L) {
+            recorder.record(Event.WATCHDOG, System.currentTimeMillis() - when);
+        }
         abortIfTimedOut();
     }
 
+    /**
+     * Mark the moment the request is handed to the HTTP client, from which
+     * response timings are measured.
+     *
+     * @param nanoTime The current <code>System.nanoTime()</code>
+     */
+    void sending(long nanoTime) {
+        sentAt = nanoTime;
+    }
+
+    ResponseTimings timings() {
+        return new ResponseTimings(sentAt, headersAt, firstByteAt, completedAt,
+                received);
+    }
+
     AssertionsImpl launched(long when, Task task) {
         invokedAt.compareAndSet(0L, when);
         this.task = task;
@@ -156,17 +208,31 @@ final class AssertionsImpl implements Assertions, HttpResponse.BodyHandler<Strin
     void onTimeout() {
         if (!timedOut) {
             timedOut = true;
+            long when = invokedAt.get();
+            recorder.record(Event.TIMED_OUT, when == 0L ? 0L
+                    : System.currentTimeMillis() - when);
             runAssertions(true, timeoutAssertions);
+            // A stream which never ends still has meaningful timings, and
+            // the stall it ended in is one of its gaps
+            runTimingAssertions(timeline.openSnapshot(System.nanoTime()));
             Task t = task;
             if (t != null) {
                 t.cancel();
+                recorder.record(Event.CANCELLED);
             }
             pendingAssertions().forEach(a -> {
-                resultConsumer.accept(a.didNotRunResult());
+                emit(a.didNotRunResult());
             });
         }
     }
 
+    private void runTimingAssertions(ChunkStatistics chunks) {
+        if (timingsJudged.compareAndSet(false, true)) {
+            runAssertions(chunks, chunkTimingAssertions);
+            runAssertions(timings(), timingAssertions);
+        }
+    }
+
     boolean abortIfTimedOut() {
         boolean result = !timedOut && isTimedOut();
         if (result) {
@@ -200,6 +266,14 @@ final class AssertionsImpl implements Assertions, HttpResponse.BodyHandler<Strin
         if (aborted.get() || abortIfTimedOut()) {
             return null;
         }
+        recorder.record(Event.HEADERS, responseInfo.statusCode(),
+                responseInfo.headers().map().size());
+        recorder.record(Event.RESPONSE_VERSION, responseInfo.version().ordinal());
+        long now = System.nanoTime();
+        headersAt = now;
+        timeline.start(now);
+        mapper = codecs.forContentType(responseInfo.headers()
+                .firstValue("content-type").orElse(null));
         runAssertions(responseInfo, headerAssertions);
         return this;
     }
@@ -214,9 +288,15 @@ final class AssertionsImpl implements Assertions, HttpResponse.BodyHandler<Strin
         return addHeaderAssertion(new ResponseCodeAssertion("Response code", severity(), adapt(responseCode)));
     }
 
+    @Override
+    public AssertionsImpl assertBodyBytes(Predicate<? super byte[]> bodyTest) {
+        return addBodyAssertion(new BodyAssertion<>(ByteArrayOutputStream::toByteArray,
+                "Body bytes", severity(), bodyTest));
+    }
+
     @Override
     public AssertionsImpl assertBody(Predicate<? super String> bodyTest) {
-        return addBodyAssertion(new BodyAssertion<>(out -> new String(out.toByteArray(), StandardCharsets.UTF_8), "Body", severity(), bodyTest));
+        return addBodyAssertion(new BodyAssertion<>(out -> out.toString(StandardCharsets.UTF_8), "Body", severity(), bodyTest));
     }
 
     @Override
@@ -231,24 +311,181 @@ final class AssertionsImpl implements Assertions, HttpResponse.BodyHandler<Strin
                 expected));
     }
 
+    private BodyMatcher bodyMatcher() {
+        if (bodyMatcher == null) {
+            bodyMatcher = new BodyMatcher();
+        }
+        return bodyMatcher;
+    }
+
+    @Override
+    public AssertionsImpl assertBodyContains(String substring) {
+        return addBodyAssertion(new StreamingBodyAssertion(severity(),
+                bodyMatcher().contains(notNull("substring", substring))));
+    }
+
+    @Override
+    public AssertionsImpl assertBodyStartsWith(String substring) {
+        return addBodyAssertion(new StreamingBodyAssertion(severity(),
+                bodyMatcher().startsWith(notNull("substring", substring))));
+    }
+
+    @Override
+    public AssertionsImpl assertBodyEndsWith(String substring) {
+        return addBodyAssertion(new StreamingBodyAssertion(severity(),
+                bodyMatcher().endsWith(notNull("substring", substring))));
+    }
+
+    @Override
+    public AssertionsImpl assertBodyMatches(Pattern pattern) {
+        BodyMatcher.Target target = bodyMatcher().matches(notNull("pattern", pattern));
+        if (target == null) {
+            // Uses syntax that needs backtracking - match the whole body
+            return assertBody(StringPredicates.pattern(pattern));
+        }
+        return addBodyAssertion(new StreamingBodyAssertion(severity(), target));
+    }
+
+    @Override
+    public AssertionsImpl assertBodyMatchesRegex(String pattern) {
+        return assertBodyMatches(Pattern.compile(notNull("pattern", pattern)));
+    }
+
+    @Override
+    public <T> AssertionsImpl assertEachElement(Class<T> type, Predicate<? super T> test) {
+        JsonArrayElements<T> elements = new JsonArrayElements<>(notNull("type", type),
+                notNull("test", test), this::codec);
+        elementStreams.add(elements);
+        return addBodyAssertion(new EachElementAssertion(severity(), elements,
+                "each element as " + type.getSimpleName() + " " + test));
+    }
+
+    @Override
+    public <T> AssertionsImpl assertJsonPath(String path, Class<T> type,
+            Predicate<? super T> test) {
+        if (jsonPaths == null) {
+            jsonPaths = new JsonPathMatcher(this::codec);
+        }
+        return addBodyAssertion(new JsonPathAssertion(severity(), jsonPaths.select(
+                notNull("path", path), notNull("type", type), notNull("test", test))));
+    }
+
+    @Override
+    public AssertionsImpl assertBodyDigest(String algorithm, String expectedHex) {
+        BodyDigest digest = new BodyDigest(notNull("algorithm", algorithm),
+                notNull("expectedHex", expectedHex));
+        digests.add(digest);
+        return addBodyAssertion(new DigestAssertion(severity(), digest));
+    }
+
+    @Override
+    public AssertionsImpl assertMaxInterChunkGap(Duration max) {
+        chunkTimingAssertions.add(new TimingAssertion<>("Max gap between chunks",
+                severity(), ChunkStatistics::maxGap, atMost(notNull("max", max))));
+        return this;
+    }
+
+    @Override
+    public AssertionsImpl assertInterChunkGapPercentile(double percentile, Duration max) {
+        if (!(percentile > 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Bad percentile " + percentile);
+        }
+        chunkTimingAssertions.add(new TimingAssertion<>("p" + percentile
+                + " gap between chunks", severity(),
+                (ChunkStatistics stats) -> stats.gapPercentile(percentile),
+                atMost(notNull("max", max))));
+        return this;
+    }
+
+    @Override
+    public AssertionsImpl assertHeadersWithin(Duration max) {
+        return addTimingAssertion(new TimingAssertion<>("Time to headers",
+                severity(), ResponseTimings::headers, atMost(notNull("max", max))));
+    }
+
+    @Override
+    public AssertionsImpl assertTimeToFirstByteUnder(Duration max) {
+        return addTimingAssertion(new TimingAssertion<>("Time to first body byte",
+                severity(), ResponseTimings::firstByte, atMost(notNull("max", max))));
+    }
+
+    @Override
+    public AssertionsImpl assertTotalTimeUnder(Duration max) {
+        return addTimingAssertion(new TimingAssertion<>("Total time",
+                severity(), ResponseTimings::total, atMost(notNull("max", max))));
+    }
+
+    @Override
+    public AssertionsImpl assertMinThroughput(long bytesPerSecond) {
+        greaterThanZero("bytesPerSecond", bytesPerSecond);
+        return addTimingAssertion(new TimingAssertion<>("Body bytes/sec",
+                severity(), ResponseTimings::throughput,
+                Predicates.namedPredicate("at least " + bytesPerSecond,
+                        actual -> actual != null && actual >= bytesPerSecond)));
+    }
+
+    private AssertionsImpl addTimingAssertion(Assertion<ResponseTimings, ?> a) {
+        timingAssertions.add(a);
+        return this;
+    }
+
+    private static Predicate<Duration> atMost(Duration max) {
+        return Predicates.namedPredicate("at most " + max,
+                actual -> actual != null && actual.compareTo(max) <= 0);
+    }
+
+    /**
+     * Get the arrival times and sizes of the body chunks received so far.
+     *
+     * @return A snapshot
+     */
+    ChunkStatistics chunkStatistics() {
+        return timeline.snapshot();
+    }
+
+    @Override
+    public AssertionsImpl withoutBufferingBody() {
+        bufferBody = false;
+        return this;
+    }
+
     @Override
     public <T> AssertionsImpl assertObject(String description, Class<T> type, Predicate<? super T> test) {
-        return addBodyAssertion(new BodyAssertion<>(new JsonConverter<>(type, mapper),
+        return addBodyAssertion(new BodyAssertion<>(new JsonConverter<>(type, this::codec),
                 "Body as " + type.getSimpleName(), severity(), Predicates.namedPredicate(description, test)));
     }
 
     @Override
     public <T> Assertions assertDeserializedBodyEquals(Class<T> type, T object) {
+        return assertDeserializedBodyEquals(type, object, differencingOptions);
+    }
+
+    @Override
+    public <T> Assertions assertDeserializedBodyEquals(Class<T> type, T object,
+            DifferencingOptions options) {
         return addBodyAssertion(new ObjectEqualityAssertion<>(
-                new JsonConverter<>(type, mapper), severity(), object));
+                new JsonConverter<>(type, this::codec), severity(), object,
+                notNull("options", options)));
     }
 
     @Override
     @SuppressWarnings("unchecked")
     public <T> Assertions assertDeserializedBodyEquals(T object) {
         notNull("object", object);
-        return addBodyAssertion(new ObjectEqualityAssertion<>(
-                new JsonConverter<>((Class<T>) object.getClass(), mapper), severity(), object));
+        return assertDeserializedBodyEquals((Class<T>) object.getClass(), object);
+    }
+
+    @Override
+    public Assertions assertJsonBodyEquals(byte[] expectedJson) {
+        return assertJsonBodyEquals(expectedJson, differencingOptions);
+    }
+
+    @Override
+    public Assertions assertJsonBodyEquals(byte[] expectedJson,
+            DifferencingOptions options) {
+        return addBodyAssertion(new JsonEqualityAssertion(severity(), this::codec,
+                notNull("expectedJson", expectedJson),
+                notNull("options", options)));
     }
 
     @Override
@@ -294,6 +531,8 @@ final class AssertionsImpl implements Assertions, HttpResponse.BodyHandler<Strin
                 + bodyAssertions.size()
                 + chunkAssertions.size()
                 + timeoutAssertions.size()
+                + chunkTimingAssertions.size()
+                + timingAssertions.size()
                 + invokedAssertions.size()
                 + thrownAssertions.size()
         );
@@ -301,6 +540,8 @@ final class AssertionsImpl implements Assertions, HttpResponse.BodyHandler<Strin
         result.addAll(chunkAssertions);
         result.addAll(bodyAssertions);
         result.addAll(timeoutAssertions);
+        result.addAll(chunkTimingAssertions);
+        result.addAll(timingAssertions);
         result.addAll(thrownAssertions);
         result.removeAll(invokedAssertions);
         return result;
@@ -311,13 +552,36 @@ final class AssertionsImpl implements Assertions, HttpResponse.BodyHandler<Strin
         return future;
     }
 
+    /**
+     * Pace reading the body to the passed rate, requesting one batch of bytes
+     * from the client at a time. Requests are made on the passed executor
+     * rather than the pacer's timer thread, since the client may deliver the
+     * next batch, and run body assertions, on the requesting thread.
+     *
+     * @param bytesPerSecond A rate
+     * @param executor The executor to request batches on, or null to use
+     * a shared pool
+     */
+    void readRateLimit(long bytesPerSecond, Executor executor) {
+        readPacer = new Pacer(bytesPerSecond);
+        readExecutor = executor;
+    }
+
     @Override
     public void onSubscribe(Flow.Subscription subscription) {
         this.subscription = subscription;
         if (aborted.get() || abortIfTimedOut()) {
             subscription.cancel();
         } else {
-            subscription.request(Long.MAX_VALUE);
+            subscription.request(readPacer == null ? Long.MAX_VALUE : 1);
+        }
+    }
+
+    private void requestNextBatch() {
+        // done() clears the subscription before it sets the done flag
+        Flow.Subscription sub = subscription;
+        if (sub != null && !done.get() && !aborted.get() && !timedOut) {
+            sub.request(1);
         }
     }
 
@@ -329,6 +593,15 @@ final class AssertionsImpl implements Assertions, HttpResponse.BodyHandler<Strin
         } catch (Exception | Error e) {
             result = a.errorResult(e);
         }
+        emit(result);
+    }
+
+    private void emit(AssertionResult result) {
+        recorder.record(Event.ASSERTION, result.status().ordinal(),
+                result.severity().ordinal());
+        if (recorder.isEnabled() && result.status().isNonSuccess()) {
+            result = result.withFlightRecording(recorder.format());
+        }
         resultConsumer.accept(result);
     }
 
@@ -348,6 +621,7 @@ final class AssertionsImpl implements Assertions, HttpResponse.BodyHandler<Strin
     @Override
     public synchronized void onNext(List<ByteBuffer> item) {
         // We really do need some lock here.
+        long batchBytes = 0;
         for (ByteBuffer buf : item) {
             try {
                 // DO NOT FLIP THE BUFFER HERE.  LOOKS LIKE YOU SHOULD, BUT NO.
@@ -357,12 +631,42 @@ final class AssertionsImpl implements Assertions, HttpResponse.BodyHandler<Strin
                 runAssertions(chunkAssertions, buf::duplicate);
                 byte[] all = new byte[buf.remaining()];
                 buf.get(all);
-                bytes.write(all);
+                if (bufferBody) {
+                    bytes.write(all);
+                }
+                received += all.length;
+                batchBytes += all.length;
+                if (bodyMatcher != null) {
+                    bodyMatcher.feed(all, 0, all.length);
+                }
+                for (JsonArrayElements<?> elements : elementStreams) {
+                    elements.feed(all, 0, all.length);
+                }
+                if (jsonPaths != null) {
+                    jsonPaths.feed(all, 0, all.length);
+                }
+                for (BodyDigest digest : digests) {
+                    digest.feed(all, 0, all.length);
+                }
+                recorder.record(Event.CHUNK, all.length, received);
             } catch (IOException ex) {
                 throw new Error(ex);
             }
         }
+        if (batchBytes > 0) {
+            long now = System.nanoTime();
+            if (firstByteAt == ResponseTimings.UNSET) {
+                firstByteAt = now;
+            }
+            timeline.record(now, (int) batchBytes);
+        }
         abortIfTimedOut();
+        Pacer pacer = readPacer;
+        if (pacer != null) {
+            pacer.sent(batchBytes);
+            Pacer.schedule(this::requestNextBatch, pacer.delayNanos(),
+                    readExecutor);
+        }
     }
 
     private volatile Throwable lastThrown;
@@ -378,6 +682,7 @@ final class AssertionsImpl implements Assertions, HttpResponse.BodyHandler<Strin
             return;
         }
         lastThrown = throwable;
+        recorder.record(Event.ERROR);
         if (timedOut && (throwable instanceof CancellationException || throwable instanceof IOException)) {
             // make sure
             task.cancel();
@@ -390,7 +695,7 @@ final class AssertionsImpl implements Assertions, HttpResponse.BodyHandler<Strin
             }
             runAssertions(throwable, thrownAssertions);
             pendingAssertions().forEach(a -> {
-                resultConsumer.accept(a.errorResult(throwable));
+                emit(a.errorResult(throwable));
             });
         } finally {
             done();
@@ -399,8 +704,22 @@ final class AssertionsImpl implements Assertions, HttpResponse.BodyHandler<Strin
 
     @Override
     public synchronized void onComplete() {
-        byte[] b = bytes.toByteArray();
+        completedAt = System.nanoTime();
+        recorder.record(Event.COMPLETED, received);
         try {
+            if (bodyMatcher != null) {
+                bodyMatcher.finish();
+            }
+            for (JsonArrayElements<?> elements : elementStreams) {
+                elements.finish();
+            }
+            if (jsonPaths != null) {
+                jsonPaths.finish();
+            }
+            for (BodyDigest digest : digests) {
+                digest.finish();
+            }
+            runTimingAssertions(timeline.snapshot());
             runAssertions(bytes, bodyAssertions);
         } finally {
             try {
@@ -409,7 +728,7 @@ final class AssertionsImpl implements Assertions, HttpResponse.BodyHandler<Strin
                 }
             } finally {
                 try {
-                    future.complete(new String(b, StandardCharsets.UTF_8));
+                    future.complete(bytes.toString(StandardCharsets.UTF_8));
                 } finally {
                     done();
                 }
@@ -424,19 +743,35 @@ final class AssertionsImpl implements Assertions, HttpResponse.BodyHandler<Strin
         }
     }
 
+    private Codec codec() {
+        return mapper;
+    }
+
     static class JsonConverter<T> implements Function<ByteArrayOutputStream, T> {
 
         private final Class<T> type;
-        private final Codec mapper;
+        private final Supplier<Codec> codec;
 
         JsonConverter(Class<T> type, Codec mapper) {
+            this(type, () -> mapper);
+        }
+
+        JsonConverter(Class<T> type, Supplier<Codec> codec) {
             this.type = type;
-            this.mapper = mapper;
+            this.codec = codec;
         }
 
         @Override
         public T apply(ByteArrayOutputStream t) {
+            Codec mapper = codec.get();
             try {
+                if (t instanceof BodyBuffer) {
+                    // Parse the body in place rather than copying it
+                    BodyBuffer body = (BodyBuffer) t;
+                    return mapper instanceof ObjectMapperCodec
+                            ? ((ObjectMapperCodec) mapper).readValue(body.toByteBuffer(), type)
+                            : mapper.readValue(body.inputStream(), type);
+                }
                 return mapper.readValue(t.toByteArray(), type);
             } catch (IOException ex) {
                 return Exceptions.chuck(ex);
@@ -536,13 +871,133 @@ final class AssertionsImpl implements Assertions, HttpResponse.BodyHandler<Strin
         }
     }
 
+    /**
+     * Reports the result of a contains / starts-with / ends-with / regex test
+     * that the body matcher has already run over the body as it arrived; the
+     * body is only decoded into a String if the test failed, to show what was
+     * received instead.
+     */
+    private static final class StreamingBodyAssertion extends Assertion<ByteArrayOutputStream, String> {
+
+        StreamingBodyAssertion(FailureSeverity severity, BodyMatcher.Target target) {
+            super("Body", severity, new TargetPredicate(target));
+        }
+
+        @Override
+        String convert(ByteArrayOutputStream obj) {
+            return ((TargetPredicate) test).target.isMatched()
+                    ? null
+                    : obj.toString(StandardCharsets.UTF_8);
+        }
+
+        private static final class TargetPredicate implements Predicate<String> {
+
+            private final BodyMatcher.Target target;
+
+            TargetPredicate(BodyMatcher.Target target) {
+                this.target = target;
+            }
+
+            @Override
+            public boolean test(String ignored) {
+                return target.isMatched();
+            }
+
+            @Override
+            public String toString() {
+                return target.toString();
+            }
+        }
+    }
+
+    /**
+     * Reports the outcome of testing the elements of a JSON array body as
+     * they were parsed.
+     */
+    private static final class EachElementAssertion extends Assertion<ByteArrayOutputStream, String> {
+
+        private final JsonArrayElements<?> elements;
+
+        EachElementAssertion(FailureSeverity severity, JsonArrayElements<?> elements,
+                String description) {
+            super("Body", severity, Predicates.namedPredicate(description,
+                    ignored -> elements.isSuccess()));
+            this.elements = elements;
+        }
+
+        @Override
+        String convert(ByteArrayOutputStream obj) {
+            return elements.outcome();
+        }
+    }
+
+    /**
+     * Reports the outcome of a JSON path selector evaluated while the body
+     * arrived.
+     */
+    private static final class JsonPathAssertion extends Assertion<ByteArrayOutputStream, String> {
+
+        private final JsonPathMatcher.Selector<?> selector;
+
+        JsonPathAssertion(FailureSeverity severity, JsonPathMatcher.Selector<?> selector) {
+            super("Body", severity, Predicates.namedPredicate(selector.toString(),
+                    ignored -> selector.isSuccess()));
+            this.selector = selector;
+        }
+
+        @Override
+        String convert(ByteArrayOutputStream obj) {
+            return selector.outcome();
+        }
+    }
+
+    /**
+     * Reports whether the digest of the body, computed as it arrived, matched.
+     */
+    private static final class DigestAssertion extends Assertion<ByteArrayOutputStream, String> {
+
+        private final BodyDigest digest;
+
+        DigestAssertion(FailureSeverity severity, BodyDigest digest) {
+            super("Body", severity, Predicates.namedPredicate(digest.toString(),
+                    ignored -> digest.isSuccess()));
+            this.digest = digest;
+        }
+
+        @Override
+        String convert(ByteArrayOutputStream obj) {
+            return digest.outcome();
+        }
+    }
+
+    /**
+     * Tests a measurement taken from the chunk or phase timings; a phase
+     * which never happened is measured as null, and fails.
+     */
+    private static final class TimingAssertion<S, T> extends Assertion<S, T> {
+
+        private final Function<S, T> measure;
+
+        TimingAssertion(String name, FailureSeverity severity,
+                Function<S, T> measure, Predicate<? super T> test) {
+            super(name, severity, test);
+            this.measure = measure;
+        }
+
+        @Override
+        T convert(S obj) {
+            return measure.apply(obj);
+        }
+    }
+
     private static final class ObjectEqualityAssertion<T> extends Assertion<ByteArrayOutputStream, T> implements Differencing {
 
         private final Function<ByteArrayOutputStream, T> converter;
         private final T mustEqual;
 
-        ObjectEqualityAssertion(Function<ByteArrayOutputStream, T> converter, FailureSeverity severity, T mustEqual) {
-            super("Object equality", severity, new ObjectEquality<T>(mustEqual));
+        ObjectEqualityAssertion(Function<ByteArrayOutputStream, T> converter,
+                FailureSeverity severity, T mustEqual, DifferencingOptions options) {
+            super("Object equality", severity, new ObjectEquality<T>(mustEqual, options));
             this.mustEqual = mustEqual;
             this.converter = converter;
         }
@@ -565,16 +1020,30 @@ final class AssertionsImpl implements Assertions, HttpResponse.BodyHandler<Strin
         static class ObjectEquality<T> implements Predicate<T>, Differencing {
 
             private final T expected;
+            private final DifferencingOptions options;
             private volatile T got;
 
-            ObjectEquality(T expected) {
+            ObjectEquality(T expected, DifferencingOptions options) {
                 this.expected = expected;
+                this.options = options;
             }
 
+            private volatile Map<String, Set<Difference<?>>> computed;
+
             @Override
             public boolean test(T t) {
                 boolean result = Objects.equals(expected, t);
-                if (!result) {
+                if (!result && (!options.ignoredPaths().isEmpty()
+                        || !options.tolerances().isEmpty())) {
+                    // equals() knows nothing of ignored paths and tolerances,
+                    // so let the differences decide
+                    Map<String, Set<Difference<?>>> diffs
+                            = Differencing.difference(expected, t, options);
+                    result = !Differencing.hasDifferences(diffs);
+                    if (!result) {
+                        computed = diffs;
+                    }
+                } else if (!result) {
                     got = t;
                 }
                 return result;
@@ -582,14 +1051,89 @@ final class AssertionsImpl implements Assertions, HttpResponse.BodyHandler<Strin
 
             @Override
             public Map<String, Set<Difference<?>>> differences() {
+                Map<String, Set<Difference<?>>> result = computed;
+                if (result != null) {
+                    computed = null;
+                    return result;
+                }
                 T g = got;
                 got = null;
-                Map<String, Set<Difference<?>>> result = Differencing.difference(expected, g);
+                result = Differencing.difference(expected, g, options);
                 return result;
             }
         }
     }
 
+    private static final class JsonEqualityAssertion extends Assertion<ByteArrayOutputStream, byte[]> {
+
+        private final Supplier<Codec> codec;
+
+        JsonEqualityAssertion(FailureSeverity severity, Supplier<Codec> codec,
+                byte[] expected, DifferencingOptions options) {
+            super("JSON equality", severity, new JsonEquality(expected, options,
+                    () -> Codecs.jsonFactory(codec.get())));
+            this.codec = codec;
+        }
+
+        @Override
+        byte[] convert(ByteArrayOutputStream obj) {
+            return obj.toByteArray();
+        }
+
+        @Override
+        AssertionResult test(ByteArrayOutputStream obj) {
+            byte[] body = convert(obj);
+            boolean success = test.test(body);
+            // Only hang onto the body text if it needs to be reported
+            return new AssertionResult(AssertionStatus.of(success), severity(),
+                    toString(), success ? null
+                    : Codecs.displayText(body, Codecs.jsonFactory(codec.get())),
+                    success ? null : ((Differencing) test).differences());
+        }
+
+        static class JsonEquality implements Predicate<byte[]>, Differencing {
+
+            private final byte[] expected;
+            private final DifferencingOptions options;
+            private final Supplier<JsonFactory> format;
+            private volatile Map<String, Set<Difference<?>>> differences;
+
+            JsonEquality(byte[] expected, DifferencingOptions options,
+                    Supplier<JsonFactory> format) {
+                this.expected = expected;
+                this.options = options;
+                this.format = format;
+            }
+
+            @Override
+            public boolean test(byte[] t) {
+                // The expected document is always JSON text; the response may
+                // be in whatever format its content type's codec speaks
+                try (JsonParser exp = Codecs.TEXT.createParser(expected);
+                        JsonParser got = format.get().createParser(t)) {
+                    Map<String, Set<Difference<?>>> diffs
+                            = Differencing.jsonDifference(exp, got, options);
+                    differences = diffs;
+                    // A truncation marker alone means the output was
+                    // limited, not that the documents differ
+                    return !Differencing.hasDifferences(diffs);
+                } catch (IOException ex) {
+                    return Exceptions.chuck(ex);
+                }
+            }
+
+            @Override
+            public Map<String, Set<Difference<?>>> differences() {
+                return differences;
+            }
+
+            @Override
+            public String toString() {
+                return "equivalent to " + new String(expected, StandardCharsets.UTF_8);
+            }
+        }
+    }
+
     private static final class HeaderAssertion extends Assertion<HttpResponse.ResponseInfo, String> {
 
         HeaderAssertion(String headerName, FailureSeverity severity, Predicate<? super String> test) {
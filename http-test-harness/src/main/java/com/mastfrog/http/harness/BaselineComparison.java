@@ -0,0 +1,521 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import static com.mastfrog.util.preconditions.Checks.notNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Compares the response times in two {@link TestReport}s - typically a saved
+ * baseline from an earlier build and the current run - endpoint by endpoint,
+ * flagging those which have become significantly slower (or faster) by the
+ * passed {@link RegressionCriteria}.
+ * <p>
+ * Each endpoint (HTTP method and path, ignoring host, port and query) is
+ * tested with a one-sided Mann-Whitney U test over the durations of all of
+ * its runs in each report, and is only a regression if the result is
+ * significant <i>and</i> the median has moved by at least the minimum
+ * change. Runs in reports saved before endpoints were recorded are grouped
+ * by test method instead, so such a baseline will only be compared usefully
+ * with another such report.
+ * </p>
+ * <pre>
+ * BaselineComparison comparison = report.compareWithBaseline(
+ *         Paths.get("baseline.json"));
+ * comparison.assertNoRegressions();
+ * </pre>
+ * <p>
+ * A comparison made through the report is also included as a section in the
+ * report's JSON and HTML output.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class BaselineComparison implements Iterable<BaselineComparison.EndpointComparison> {
+
+    private final RegressionCriteria criteria;
+    private final List<EndpointComparison> comparisons;
+
+    private BaselineComparison(RegressionCriteria criteria,
+            List<EndpointComparison> comparisons) {
+        this.criteria = criteria;
+        this.comparisons = Collections.unmodifiableList(comparisons);
+    }
+
+    /**
+     * Compare two saved JSON test reports using the default criteria.
+     *
+     * @param baseline The baseline report
+     * @param current The current report
+     * @return A comparison
+     * @throws IOException If a file cannot be read or parsed
+     */
+    public static BaselineComparison compare(Path baseline, Path current)
+            throws IOException {
+        return compare(baseline, current, RegressionCriteria.DEFAULT);
+    }
+
+    /**
+     * Compare two saved JSON test reports.
+     *
+     * @param baseline The baseline report
+     * @param current The current report
+     * @param criteria What counts as a regression
+     * @return A comparison
+     * @throws IOException If a file cannot be read or parsed
+     */
+    public static BaselineComparison compare(Path baseline, Path current,
+            RegressionCriteria criteria) throws IOException {
+        return compare(load(baseline), load(current), criteria);
+    }
+
+    /**
+     * Compare two test reports in the form produced by
+     * {@link TestReport#toMap()}, or read back from its saved JSON.
+     *
+     * @param baseline The baseline report
+     * @param current The current report
+     * @param criteria What counts as a regression
+     * @return A comparison
+     * @throws IllegalArgumentException if either map is not a test report
+     */
+    public static BaselineComparison compare(Map<String, ?> baseline,
+            Map<String, ?> current, RegressionCriteria criteria) {
+        notNull("criteria", criteria);
+        Map<String, long[]> before = durationsByEndpoint(notNull("baseline", baseline));
+        Map<String, long[]> after = durationsByEndpoint(notNull("current", current));
+        TreeSet<String> endpoints = new TreeSet<>(before.keySet());
+        endpoints.addAll(after.keySet());
+        List<EndpointComparison> result = new ArrayList<>(endpoints.size());
+        for (String endpoint : endpoints) {
+            result.add(EndpointComparison.create(endpoint,
+                    before.getOrDefault(endpoint, new long[0]),
+                    after.getOrDefault(endpoint, new long[0]), criteria));
+        }
+        return new BaselineComparison(criteria, result);
+    }
+
+    static Map<String, Object> load(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return load(in);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> load(InputStream in) throws IOException {
+        return new ObjectMapper().readValue(in, Map.class);
+    }
+
+    private static Map<String, long[]> durationsByEndpoint(Map<String, ?> report) {
+        Object results = report.get("results");
+        if (!(results instanceof Map<?, ?>)) {
+            throw new IllegalArgumentException("Not a test report - no "
+                    + "results: " + report.keySet());
+        }
+        Map<String, List<Long>> byEndpoint = new TreeMap<>();
+        for (Map.Entry<?, ?> test : ((Map<?, ?>) results).entrySet()) {
+            if (!(test.getValue() instanceof Map<?, ?>)) {
+                continue;
+            }
+            Object runs = ((Map<?, ?>) test.getValue()).get("runs");
+            if (!(runs instanceof List<?>)) {
+                continue;
+            }
+            for (Object run : (List<?>) runs) {
+                if (!(run instanceof Map<?, ?>)) {
+                    continue;
+                }
+                Map<?, ?> runMap = (Map<?, ?>) run;
+                Object duration = runMap.get("duration");
+                if (!(duration instanceof String)) {
+                    continue;
+                }
+                Object endpoint = runMap.get("endpoint");
+                String key = endpoint instanceof String
+                        ? (String) endpoint
+                        : String.valueOf(test.getKey());
+                try {
+                    byEndpoint.computeIfAbsent(key, k -> new ArrayList<>())
+                            .add(Duration.parse((String) duration).toNanos());
+                } catch (DateTimeParseException | ArithmeticException ex) {
+                    throw new IllegalArgumentException("Bad duration '"
+                            + duration + "' in " + test.getKey(), ex);
+                }
+            }
+        }
+        Map<String, long[]> result = new TreeMap<>();
+        byEndpoint.forEach((endpoint, durations) -> {
+            long[] arr = new long[durations.size()];
+            for (int i = 0; i < arr.length; i++) {
+                arr[i] = durations.get(i);
+            }
+            result.put(endpoint, arr);
+        });
+        return result;
+    }
+
+    /**
+     * The criteria the comparison was made with.
+     *
+     * @return The criteria
+     */
+    public RegressionCriteria criteria() {
+        return criteria;
+    }
+
+    /**
+     * The comparison of every endpoint which appears in either report,
+     * sorted by endpoint.
+     *
+     * @return A list
+     */
+    public List<EndpointComparison> comparisons() {
+        return comparisons;
+    }
+
+    /**
+     * The endpoints which have significantly regressed.
+     *
+     * @return A list, empty if none
+     */
+    public List<EndpointComparison> regressions() {
+        List<EndpointComparison> result = new ArrayList<>();
+        for (EndpointComparison c : comparisons) {
+            if (c.verdict() == Verdict.REGRESSED) {
+                result.add(c);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Throw an assertion error listing any endpoints which have regressed.
+     * Endpoints with too few runs to judge do not cause a failure.
+     *
+     * @return this
+     */
+    public BaselineComparison assertNoRegressions() {
+        List<EndpointComparison> regressions = regressions();
+        if (!regressions.isEmpty()) {
+            StringBuilder sb = new StringBuilder().append(regressions.size())
+                    .append(" of ").append(comparisons.size())
+                    .append(" endpoints regressed (").append(criteria)
+                    .append("):");
+            for (EndpointComparison c : regressions) {
+                sb.append("\n  * ").append(c);
+            }
+            throw new AssertionError(sb);
+        }
+        return this;
+    }
+
+    @Override
+    public Iterator<EndpointComparison> iterator() {
+        return comparisons.iterator();
+    }
+
+    /**
+     * Convert this comparison to a JSON-renderable map.
+     *
+     * @return A map
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("criteria", criteria.toString());
+        result.put("regressions", regressions().size());
+        List<Map<String, Object>> endpoints = new ArrayList<>(comparisons.size());
+        for (EndpointComparison c : comparisons) {
+            endpoints.add(c.toMap());
+        }
+        result.put("endpoints", endpoints);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Baseline comparison (")
+                .append(criteria).append("):");
+        for (EndpointComparison c : comparisons) {
+            sb.append("\n  * ").append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The outcome of comparing one endpoint.
+     */
+    public enum Verdict {
+        /**
+         * Significantly slower, by at least the minimum change.
+         */
+        REGRESSED,
+        /**
+         * Significantly faster, by at least the minimum change.
+         */
+        IMPROVED,
+        /**
+         * No significant change of at least the minimum size.
+         */
+        UNCHANGED,
+        /**
+         * Too few runs in one or both reports to judge.
+         */
+        INSUFFICIENT_DATA
+    }
+
+    /**
+     * The comparison of the response times of one endpoint.
+     */
+    public static final class EndpointComparison {
+
+        private final String endpoint;
+        private final Verdict verdict;
+        private final int baselineRuns;
+        private final int currentRuns;
+        private final Duration baselineMedian;
+        private final Duration currentMedian;
+        private final double change;
+        private final double pValue;
+        private final double probabilityOfSlower;
+
+        private EndpointComparison(String endpoint, Verdict verdict,
+                int baselineRuns, int currentRuns, Duration baselineMedian,
+                Duration currentMedian, double change, double pValue,
+                double probabilityOfSlower) {
+            this.endpoint = endpoint;
+            this.verdict = verdict;
+            this.baselineRuns = baselineRuns;
+            this.currentRuns = currentRuns;
+            this.baselineMedian = baselineMedian;
+            this.currentMedian = currentMedian;
+            this.change = change;
+            this.pValue = pValue;
+            this.probabilityOfSlower = probabilityOfSlower;
+        }
+
+        static EndpointComparison create(String endpoint, long[] baseline,
+                long[] current, RegressionCriteria criteria) {
+            long[] before = baseline.clone();
+            long[] after = current.clone();
+            Arrays.sort(before);
+            Arrays.sort(after);
+            Duration baselineMedian = median(before);
+            Duration currentMedian = median(after);
+            if (before.length < criteria.minimumRuns()
+                    || after.length < criteria.minimumRuns()) {
+                double change = baselineMedian == null || currentMedian == null
+                        ? Double.NaN
+                        : change(baselineMedian, currentMedian);
+                return new EndpointComparison(endpoint, Verdict.INSUFFICIENT_DATA,
+                        before.length, after.length, baselineMedian,
+                        currentMedian, change, Double.NaN, Double.NaN);
+            }
+            double change = change(baselineMedian, currentMedian);
+            MannWhitney test = MannWhitney.test(before, after);
+            Verdict verdict;
+            double p;
+            if (change >= 0) {
+                p = test.pGreater();
+                verdict = p < criteria.significance()
+                        && change >= criteria.minimumChange()
+                        ? Verdict.REGRESSED
+                        : Verdict.UNCHANGED;
+            } else {
+                p = test.pLess();
+                verdict = p < criteria.significance()
+                        && -change >= criteria.minimumChange()
+                        ? Verdict.IMPROVED
+                        : Verdict.UNCHANGED;
+            }
+            return new EndpointComparison(endpoint, verdict, before.length,
+                    after.length, baselineMedian, currentMedian, change, p,
+                    test.probabilityOfGreater());
+        }
+
+        private static Duration median(long[] sorted) {
+            if (sorted.length == 0) {
+                return null;
+            }
+            int mid = sorted.length / 2;
+            if (sorted.length % 2 == 1) {
+                return Duration.ofNanos(sorted[mid]);
+            }
+            // Halve before adding so huge values cannot overflow
+            return Duration.ofNanos(sorted[mid - 1] / 2 + sorted[mid] / 2
+                    + (sorted[mid - 1] % 2 + sorted[mid] % 2) / 2);
+        }
+
+        private static double change(Duration baseline, Duration current) {
+            long before = baseline.toNanos();
+            long after = current.toNanos();
+            if (before == 0) {
+                return after == 0 ? 0 : Double.POSITIVE_INFINITY;
+            }
+            return (after - before) / (double) before;
+        }
+
+        /**
+         * The endpoint - HTTP method and path - or the test method, for runs
+         * from reports which did not record endpoints.
+         *
+         * @return The endpoint
+         */
+        public String endpoint() {
+            return endpoint;
+        }
+
+        /**
+         * The outcome of the comparison.
+         *
+         * @return A verdict
+         */
+        public Verdict verdict() {
+            return verdict;
+        }
+
+        /**
+         * The number of runs of this endpoint in the baseline report.
+         *
+         * @return A count
+         */
+        public int baselineRuns() {
+            return baselineRuns;
+        }
+
+        /**
+         * The number of runs of this endpoint in the current report.
+         *
+         * @return A count
+         */
+        public int currentRuns() {
+            return currentRuns;
+        }
+
+        /**
+         * The median duration of runs in the baseline report.
+         *
+         * @return A duration, or null if there were none
+         */
+        public Duration baselineMedian() {
+            return baselineMedian;
+        }
+
+        /**
+         * The median duration of runs in the current report.
+         *
+         * @return A duration, or null if there were none
+         */
+        public Duration currentMedian() {
+            return currentMedian;
+        }
+
+        /**
+         * The relative change in the median - 0.25 meaning 25% slower, -0.25
+         * 25% faster.
+         *
+         * @return A fraction, NaN if either report has no runs, or infinite
+         * if the baseline median was zero and the current one is not
+         */
+        public double change() {
+            return change;
+        }
+
+        /**
+         * The one-sided p-value of the Mann-Whitney U test in the direction
+         * the median moved - the probability of seeing a difference at
+         * least this large if nothing had changed.
+         *
+         * @return A probability, or NaN if there was insufficient data
+         */
+        public double pValue() {
+            return pValue;
+        }
+
+        /**
+         * The probability that a random current run is slower than a random
+         * baseline run, ties counting half - 0.5 means no tendency either
+         * way; this is the effect size that accompanies the U test.
+         *
+         * @return A probability, or NaN if there was insufficient data
+         */
+        public double probabilityOfSlower() {
+            return probabilityOfSlower;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("endpoint", endpoint);
+            result.put("verdict", verdict.name());
+            result.put("baselineRuns", baselineRuns);
+            result.put("currentRuns", currentRuns);
+            if (baselineMedian != null) {
+                result.put("baselineMedian", baselineMedian.toString());
+            }
+            if (currentMedian != null) {
+                result.put("currentMedian", currentMedian.toString());
+            }
+            // Jackson would write non-finite values as invalid JSON
+            if (Double.isFinite(change)) {
+                result.put("change", change);
+            }
+            if (Double.isFinite(pValue)) {
+                result.put("pValue", pValue);
+                result.put("probabilityOfSlower", probabilityOfSlower);
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(endpoint).append(": ")
+                    .append(verdict).append(", median ").append(baselineMedian)
+                    .append(" -> ").append(currentMedian);
+            if (!Double.isNaN(change)) {
+                sb.append(String.format(" (%+.1f%%)", change * 100));
+            }
+            sb.append(" over ").append(baselineRuns).append(" / ")
+                    .append(currentRuns).append(" runs");
+            if (!Double.isNaN(pValue)) {
+                sb.append(String.format(", p=%.3g, P(slower)=%.2f", pValue,
+                        probabilityOfSlower));
+            }
+            return sb.toString();
+        }
+    }
+}
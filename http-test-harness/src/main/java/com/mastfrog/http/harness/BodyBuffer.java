@@ -0,0 +1,62 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Accumulates a response body, and lets codecs read it in place rather than
+ * through the copy <code>toByteArray()</code> makes.
+ *
+ * @author Tim Boudreau
+ */
+final class BodyBuffer extends ByteArrayOutputStream {
+
+    BodyBuffer() {
+        super(1_024);
+    }
+
+    /**
+     * Get a view of the bytes written so far, which is invalidated by further
+     * writes and must not be modified; it is array-backed, so Jackson can
+     * parse it in place.
+     *
+     * @return A buffer
+     */
+    synchronized ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(buf, 0, count);
+    }
+
+    /**
+     * Get a stream over the bytes written so far, without copying them.
+     *
+     * @return A stream
+     */
+    synchronized InputStream inputStream() {
+        return new ByteArrayInputStream(buf, 0, count);
+    }
+}
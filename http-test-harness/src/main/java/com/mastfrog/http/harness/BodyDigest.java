@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Digests a response body as it arrives, so that a large body can be checked
+ * against an expected digest without being buffered.
+ *
+ * @author Tim Boudreau
+ */
+final class BodyDigest {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private final MessageDigest digest;
+    private final String algorithm;
+    private final String expected;
+    private long length;
+    private String actual;
+
+    BodyDigest(String algorithm, String expectedHex) {
+        this.digest = messageDigest(algorithm);
+        this.algorithm = algorithm;
+        this.expected = expectedHex.toLowerCase(Locale.ROOT);
+    }
+
+    static MessageDigest messageDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalArgumentException("No digest algorithm " + algorithm, ex);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        char[] result = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            result[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            result[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(result);
+    }
+
+    void feed(byte[] bytes, int offset, int length) {
+        digest.update(bytes, offset, length);
+        this.length += length;
+    }
+
+    void finish() {
+        if (actual == null) {
+            actual = hex(digest.digest());
+        }
+    }
+
+    boolean isSuccess() {
+        return expected.equals(actual);
+    }
+
+    String outcome() {
+        return actual == null
+                ? "Body incomplete after " + length + " bytes"
+                : algorithm + " " + actual + " of " + length + " bytes";
+    }
+
+    @Override
+    public String toString() {
+        return algorithm + " digest is " + expected;
+    }
+}
@@ -0,0 +1,477 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Runs all of the contains / starts-with / ends-with / regular expression
+ * assertions on a response body in a single pass over its bytes as they
+ * arrive, rather than decoding the whole body into a String and scanning it
+ * once per assertion. Bytes are decoded as UTF-8 into a small reusable buffer
+ * (sequences split across chunks are carried over); literal substrings are
+ * found with a single Aho-Corasick automaton, prefixes are checked as the
+ * first characters go by, suffixes are checked against a ring buffer of the
+ * last characters seen, and regular expressions are run as
+ * {@link StreamingPattern}s. Once every target has been decided, and none
+ * depends on the end of the body, input is ignored.
+ *
+ * @author Tim Boudreau
+ */
+final class BodyMatcher {
+
+    private static final int CARRY = 8;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CharBuffer chars = CharBuffer.allocate(1_024);
+    private final ByteBuffer carry = ByteBuffer.allocate(CARRY * 2);
+    private final List<Target> literals = new ArrayList<>(4);
+    private final List<Target> prefixes = new ArrayList<>(2);
+    private final List<Target> suffixes = new ArrayList<>(2);
+    private final List<Target> patterns = new ArrayList<>(2);
+    private StreamingPattern.Matcher[] matchers;
+    private Literals automaton;
+    private int literalState;
+    private int undecided;
+    private int maxPrefix;
+    private char[] tail;
+    private long position;
+    private boolean started;
+    private boolean finished;
+
+    /**
+     * Register a substring the body must contain.
+     *
+     * @param literal A string
+     * @return A target whose result is available after <code>finish()</code>
+     */
+    Target contains(String literal) {
+        return register(new Target(Kind.CONTAINS, literal, null), literals);
+    }
+
+    /**
+     * Register a prefix the body must start with.
+     *
+     * @param literal A string
+     * @return A target
+     */
+    Target startsWith(String literal) {
+        maxPrefix = Math.max(maxPrefix, literal.length());
+        return register(new Target(Kind.STARTS_WITH, literal, null), prefixes);
+    }
+
+    /**
+     * Register a suffix the body must end with.
+     *
+     * @param literal A string
+     * @return A target
+     */
+    Target endsWith(String literal) {
+        return register(new Target(Kind.ENDS_WITH, literal, null), suffixes);
+    }
+
+    /**
+     * Register a regular expression some part of the body must match, if it
+     * can be matched incrementally.
+     *
+     * @param pattern A pattern
+     * @return A target, or null if the pattern uses syntax which cannot be
+     * matched incrementally
+     */
+    Target matches(Pattern pattern) {
+        StreamingPattern compiled = StreamingPattern.compile(pattern);
+        if (compiled == null) {
+            return null;
+        }
+        return register(new Target(Kind.MATCHES, pattern.pattern(), compiled), patterns);
+    }
+
+    private Target register(Target target, List<Target> into) {
+        if (started) {
+            throw new IllegalStateException("Cannot add body patterns once "
+                    + "the body has started arriving");
+        }
+        into.add(target);
+        if (target.kind != Kind.ENDS_WITH && target.text.isEmpty()) {
+            target.decided = target.matched = true;
+        } else {
+            undecided++;
+        }
+        return target;
+    }
+
+    private void start() {
+        started = true;
+        List<String> lits = new ArrayList<>(literals.size());
+        for (Target t : literals) {
+            lits.add(t.text);
+        }
+        automaton = literals.isEmpty() ? null : new Literals(lits);
+        matchers = new StreamingPattern.Matcher[patterns.size()];
+        for (int i = 0; i < matchers.length; i++) {
+            matchers[i] = patterns.get(i).pattern.matcher();
+        }
+        int maxSuffix = 0;
+        for (Target t : suffixes) {
+            maxSuffix = Math.max(maxSuffix, t.text.length());
+        }
+        tail = new char[maxSuffix];
+    }
+
+    private boolean needsInput() {
+        return undecided > 0 && (undecided > suffixes.size() || tail.length > 0);
+    }
+
+    /**
+     * Feed some bytes of the body.
+     *
+     * @param bytes An array
+     * @param offset The start offset
+     * @param length The number of bytes
+     */
+    void feed(byte[] bytes, int offset, int length) {
+        if (!started) {
+            start();
+        }
+        if (finished || length == 0 || !needsInput()) {
+            return;
+        }
+        if (carry.position() > 0) {
+            // Complete a multi-byte sequence split across chunks, using a
+            // few bytes of the new chunk, before decoding the rest in place
+            int borrow = Math.min(length, CARRY);
+            int before = carry.position();
+            carry.put(bytes, offset, borrow).flip();
+            decode(carry, false);
+            int consumed = carry.position() - before;
+            if (consumed < 0) {
+                // Still incomplete - the chunk was tiny
+                carry.compact();
+                return;
+            }
+            carry.clear();
+            offset += consumed;
+            length -= consumed;
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes, offset, length);
+        decode(in, false);
+        if (in.hasRemaining()) {
+            carry.put(in);
+        }
+    }
+
+    private void decode(ByteBuffer in, boolean endOfInput) {
+        CoderResult result;
+        do {
+            // Overflow means the char buffer filled; underflow means we
+            // consumed all we can (possibly leaving a partial sequence)
+            chars.clear();
+            result = decoder.decode(in, chars, endOfInput);
+            chars.flip();
+            scan(chars);
+        } while (result.isOverflow());
+    }
+
+    private void scan(CharBuffer buf) {
+        char[] arr = buf.array();
+        int end = buf.limit();
+        for (int i = 0; i < end && needsInput(); i++) {
+            char c = arr[i];
+            if (position < maxPrefix) {
+                checkPrefixes(c);
+            }
+            position++;
+            if (automaton != null) {
+                literalState = automaton.step(literalState, c, this);
+            }
+            for (int j = 0; j < matchers.length; j++) {
+                Target t = patterns.get(j);
+                if (!t.decided) {
+                    matchers[j].accept(c);
+                    if (matchers[j].isMatched()) {
+                        decide(t, true);
+                    }
+                }
+            }
+            if (tail.length > 0) {
+                tail[(int) ((position - 1) % tail.length)] = c;
+            }
+        }
+    }
+
+    private void checkPrefixes(char c) {
+        for (Target t : prefixes) {
+            if (!t.decided && position < t.text.length()) {
+                if (t.text.charAt((int) position) != c) {
+                    decide(t, false);
+                } else if (position == t.text.length() - 1) {
+                    decide(t, true);
+                }
+            }
+        }
+    }
+
+    void literalFound(int index) {
+        Target t = literals.get(index);
+        if (!t.decided) {
+            decide(t, true);
+        }
+    }
+
+    private void decide(Target t, boolean matched) {
+        t.matched = matched;
+        t.decided = true;
+        undecided--;
+    }
+
+    /**
+     * Signal the end of the body, deciding every target.
+     */
+    void finish() {
+        if (finished) {
+            return;
+        }
+        if (!started) {
+            start();
+        }
+        if (needsInput()) {
+            // Any incomplete trailing sequence becomes a replacement char
+            carry.flip();
+            decode(carry, true);
+            chars.clear();
+            decoder.flush(chars);
+            chars.flip();
+            scan(chars);
+        }
+        finished = true;
+        for (int j = 0; j < matchers.length; j++) {
+            Target t = patterns.get(j);
+            if (!t.decided) {
+                decide(t, matchers[j].finish());
+            }
+        }
+        for (Target t : suffixes) {
+            decide(t, hasSuffix(t.text));
+        }
+        for (Target t : literals) {
+            if (!t.decided) {
+                decide(t, false);
+            }
+        }
+        for (Target t : prefixes) {
+            if (!t.decided) {
+                decide(t, false);
+            }
+        }
+    }
+
+    private boolean hasSuffix(String suffix) {
+        int len = suffix.length();
+        if (len > position) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            long pos = position - len + i;
+            if (tail[(int) (pos % tail.length)] != suffix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    enum Kind {
+        CONTAINS("contains(", ")"),
+        STARTS_WITH("starts_with(", ")"),
+        ENDS_WITH("ends_with(", ")"),
+        MATCHES("Matches pattern ", "");
+
+        private final String prefix;
+        private final String suffix;
+
+        Kind(String prefix, String suffix) {
+            this.prefix = prefix;
+            this.suffix = suffix;
+        }
+    }
+
+    /**
+     * One thing being looked for in the body, and, once the body is finished,
+     * whether it was found.
+     */
+    static final class Target {
+
+        private final Kind kind;
+        private final String text;
+        private final StreamingPattern pattern;
+        private boolean decided;
+        private boolean matched;
+
+        Target(Kind kind, String text, StreamingPattern pattern) {
+            this.kind = kind;
+            this.text = text;
+            this.pattern = pattern;
+        }
+
+        boolean isDecided() {
+            return decided;
+        }
+
+        boolean isMatched() {
+            return matched;
+        }
+
+        @Override
+        public String toString() {
+            // Same text as the equivalent StringPredicates, so results read
+            // the same whichever way an assertion was run
+            return kind.prefix + text + kind.suffix;
+        }
+    }
+
+    /**
+     * Aho-Corasick automaton over chars; each node's outgoing edges are
+     * stored as a sorted array of chars with parallel targets, and its
+     * output list includes those of the nodes its failure links lead to.
+     */
+    private static final class Literals {
+
+        private char[][] edgeChars = new char[16][];
+        private int[][] edgeTargets = new int[16][];
+        private int[] fail = new int[16];
+        private int[][] outputs = new int[16][];
+        private int count = 1;
+
+        Literals(List<String> literals) {
+            edgeChars[0] = new char[0];
+            edgeTargets[0] = new int[0];
+            outputs[0] = new int[0];
+            for (int i = 0; i < literals.size(); i++) {
+                String lit = literals.get(i);
+                if (lit.isEmpty()) {
+                    continue;
+                }
+                int node = 0;
+                for (int j = 0; j < lit.length(); j++) {
+                    int next = edge(node, lit.charAt(j));
+                    if (next < 0) {
+                        next = addNode();
+                        addEdge(node, lit.charAt(j), next);
+                    }
+                    node = next;
+                }
+                outputs[node] = append(outputs[node], i);
+            }
+            // Breadth-first, so failure links always point at a node whose
+            // own link has already been computed
+            int[] queue = new int[count];
+            int head = 0;
+            int tailIx = 0;
+            for (int target : edgeTargets[0]) {
+                fail[target] = 0;
+                queue[tailIx++] = target;
+            }
+            while (head < tailIx) {
+                int node = queue[head++];
+                char[] cs = edgeChars[node];
+                int[] ts = edgeTargets[node];
+                for (int i = 0; i < cs.length; i++) {
+                    int child = ts[i];
+                    int f = fail[node];
+                    int next;
+                    while ((next = edge(f, cs[i])) < 0 && f != 0) {
+                        f = fail[f];
+                    }
+                    fail[child] = next >= 0 && next != child ? next : 0;
+                    for (int out : outputs[fail[child]]) {
+                        outputs[child] = append(outputs[child], out);
+                    }
+                    queue[tailIx++] = child;
+                }
+            }
+        }
+
+        int step(int state, char c, BodyMatcher into) {
+            int next;
+            while ((next = edge(state, c)) < 0 && state != 0) {
+                state = fail[state];
+            }
+            state = next < 0 ? 0 : next;
+            for (int out : outputs[state]) {
+                into.literalFound(out);
+            }
+            return state;
+        }
+
+        private int edge(int node, char c) {
+            char[] cs = edgeChars[node];
+            int ix = Arrays.binarySearch(cs, c);
+            return ix < 0 ? -1 : edgeTargets[node][ix];
+        }
+
+        private int addNode() {
+            if (count == fail.length) {
+                int len = count * 2;
+                edgeChars = Arrays.copyOf(edgeChars, len);
+                edgeTargets = Arrays.copyOf(edgeTargets, len);
+                fail = Arrays.copyOf(fail, len);
+                outputs = Arrays.copyOf(outputs, len);
+            }
+            edgeChars[count] = new char[0];
+            edgeTargets[count] = new int[0];
+            outputs[count] = new int[0];
+            return count++;
+        }
+
+        private void addEdge(int node, char c, int target) {
+            char[] cs = edgeChars[node];
+            int ix = -Arrays.binarySearch(cs, c) - 1;
+            char[] newChars = new char[cs.length + 1];
+            int[] newTargets = new int[cs.length + 1];
+            System.arraycopy(cs, 0, newChars, 0, ix);
+            System.arraycopy(edgeTargets[node], 0, newTargets, 0, ix);
+            newChars[ix] = c;
+            newTargets[ix] = target;
+            System.arraycopy(cs, ix, newChars, ix + 1, cs.length - ix);
+            System.arraycopy(edgeTargets[node], ix, newTargets, ix + 1, cs.length - ix);
+            edgeChars[node] = newChars;
+            edgeTargets[node] = newTargets;
+        }
+
+        private static int[] append(int[] arr, int val) {
+            int[] result = Arrays.copyOf(arr, arr.length + 1);
+            result[arr.length] = val;
+            return result;
+        }
+    }
+}
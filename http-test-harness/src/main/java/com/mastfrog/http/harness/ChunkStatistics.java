@@ -0,0 +1,221 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import static com.mastfrog.util.preconditions.Checks.greaterThanZero;
+import static com.mastfrog.util.preconditions.Checks.notNull;
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * When each batch of response body bytes arrived, and how large it was, for
+ * judging how regularly a streaming endpoint delivers data. A "chunk" here
+ * is a batch of bytes as the HTTP client delivered it to the harness, which
+ * usually, but not necessarily, corresponds to an HTTP chunk or frame - data
+ * which arrives in quick succession may be coalesced.
+ * <p>
+ * Times are measured from when the response headers arrived, and the gap
+ * before the first chunk is measured from then too, so a stream which sends
+ * headers and then stalls shows a gap. Statistics taken while the stream is
+ * still open - when it is judged because it timed out - also count the time
+ * from the last chunk (or the headers, if none came) to the moment they were
+ * taken as a gap, so a stream which stalls never looks smooth.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class ChunkStatistics {
+
+    static final ChunkStatistics EMPTY = new ChunkStatistics(new long[0], new int[0], 0);
+    private final long[] arrivals;
+    private final int[] sizes;
+    private final int count;
+    // Time from the headers to when the snapshot was taken, if the stream
+    // was still open, else -1
+    private final long openUntil;
+    private long[] sortedGaps;
+
+    ChunkStatistics(long[] arrivals, int[] sizes, int count) {
+        this(arrivals, sizes, count, -1);
+    }
+
+    ChunkStatistics(long[] arrivals, int[] sizes, int count, long openUntil) {
+        this.arrivals = arrivals;
+        this.sizes = sizes;
+        this.count = count;
+        this.openUntil = openUntil;
+    }
+
+    /**
+     * Determine whether these statistics were taken before the stream ended,
+     * in which case the time since the last chunk counts as a gap.
+     *
+     * @return true if the stream was still open
+     */
+    public boolean isOpen() {
+        return openUntil >= 0;
+    }
+
+    /**
+     * The number of chunks received.
+     *
+     * @return A count
+     */
+    public int chunkCount() {
+        return count;
+    }
+
+    /**
+     * The total number of body bytes received.
+     *
+     * @return A byte count
+     */
+    public long totalBytes() {
+        long result = 0;
+        for (int i = 0; i < count; i++) {
+            result += sizes[i];
+        }
+        return result;
+    }
+
+    /**
+     * The size of one chunk.
+     *
+     * @param chunk The index of the chunk
+     * @return Its size in bytes
+     */
+    public int size(int chunk) {
+        return sizes[checkIndex(chunk)];
+    }
+
+    /**
+     * When a chunk arrived, relative to the response headers.
+     *
+     * @param chunk The index of the chunk
+     * @return The elapsed time
+     */
+    public Duration arrivalTime(int chunk) {
+        return Duration.ofNanos(arrivals[checkIndex(chunk)]);
+    }
+
+    private int checkIndex(int chunk) {
+        if (chunk < 0 || chunk >= count) {
+            throw new IndexOutOfBoundsException(chunk + " of " + count);
+        }
+        return chunk;
+    }
+
+    /**
+     * The time from the headers to the last chunk.
+     *
+     * @return A duration
+     */
+    public Duration duration() {
+        return count == 0 ? Duration.ZERO : Duration.ofNanos(arrivals[count - 1]);
+    }
+
+    /**
+     * The longest time between the headers or a chunk and the next chunk -
+     * or, if the stream was still open, the time since the last one.
+     *
+     * @return A duration, zero if there were no chunks and the stream was
+     * not open
+     */
+    public Duration maxGap() {
+        long[] gaps = sortedGaps();
+        return gaps.length == 0 ? Duration.ZERO : Duration.ofNanos(gaps[gaps.length - 1]);
+    }
+
+    /**
+     * A percentile of the times between chunks, by the nearest-rank method.
+     *
+     * @param percentile A percentile greater than zero and no more than 100
+     * @return A duration, zero if there were no gaps
+     */
+    public Duration gapPercentile(double percentile) {
+        if (!(percentile > 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Bad percentile " + percentile);
+        }
+        long[] gaps = sortedGaps();
+        if (gaps.length == 0) {
+            return Duration.ZERO;
+        }
+        int rank = (int) Math.ceil(percentile / 100D * gaps.length);
+        return Duration.ofNanos(gaps[Math.max(0, rank - 1)]);
+    }
+
+    private synchronized long[] sortedGaps() {
+        if (sortedGaps == null) {
+            long[] gaps = new long[isOpen() ? count + 1 : count];
+            for (int i = 0; i < count; i++) {
+                gaps[i] = arrivals[i] - (i == 0 ? 0 : arrivals[i - 1]);
+            }
+            if (isOpen()) {
+                gaps[count] = Math.max(0, openUntil - (count == 0 ? 0 : arrivals[count - 1]));
+            }
+            Arrays.sort(gaps);
+            sortedGaps = gaps;
+        }
+        return sortedGaps;
+    }
+
+    /**
+     * The rate at which bytes arrived over time, in consecutive intervals of
+     * the passed length starting when the headers arrived.
+     *
+     * @param interval The length of each interval
+     * @return An array of rates in bytes per second, one per interval up to
+     * the one the last chunk arrived in
+     */
+    public double[] bytesPerSecond(Duration interval) {
+        long nanos = greaterThanZero("interval", notNull("interval", interval).toNanos());
+        if (count == 0) {
+            return new double[0];
+        }
+        long buckets = arrivals[count - 1] / nanos + 1;
+        if (buckets > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Interval " + interval
+                    + " too short for " + duration());
+        }
+        double[] result = new double[(int) buckets];
+        for (int i = 0; i < count; i++) {
+            result[(int) (arrivals[i] / nanos)] += sizes[i];
+        }
+        double seconds = nanos / 1_000_000_000D;
+        for (int i = 0; i < result.length; i++) {
+            result[i] /= seconds;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        if (count == 0) {
+            return isOpen() ? "No chunks in " + maxGap() : "No chunks";
+        }
+        return count + " chunks, " + totalBytes() + " bytes over " + duration()
+                + ", max gap " + maxGap() + ", median gap " + gapPercentile(50)
+                + ", p99 gap " + gapPercentile(99) + (isOpen() ? ", still open" : "");
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import java.util.Arrays;
+
+/**
+ * Records the arrival time and size of each batch of body bytes in a pair of
+ * growable primitive arrays - twelve bytes a chunk, no objects.
+ *
+ * @author Tim Boudreau
+ */
+final class ChunkTimeline {
+
+    private long origin;
+    private boolean started;
+    private long[] arrivals = new long[16];
+    private int[] sizes = new int[16];
+    private int count;
+
+    /**
+     * Mark the time the response headers arrived, from which arrivals are
+     * measured.
+     *
+     * @param nanoTime A <code>System.nanoTime()</code> value
+     */
+    synchronized void start(long nanoTime) {
+        if (!started) {
+            started = true;
+            origin = nanoTime;
+        }
+    }
+
+    synchronized void record(long nanoTime, int bytes) {
+        if (!started) {
+            start(nanoTime);
+        }
+        if (count == arrivals.length) {
+            arrivals = Arrays.copyOf(arrivals, count * 2);
+            sizes = Arrays.copyOf(sizes, count * 2);
+        }
+        arrivals[count] = nanoTime - origin;
+        sizes[count++] = bytes;
+    }
+
+    synchronized ChunkStatistics snapshot() {
+        return count == 0 ? ChunkStatistics.EMPTY
+                : new ChunkStatistics(Arrays.copyOf(arrivals, count),
+                        Arrays.copyOf(sizes, count), count);
+    }
+
+    /**
+     * Take a snapshot of a stream which has not ended, in which the time from
+     * the last arrival - or the headers, if nothing arrived - to now counts
+     * as a gap.
+     *
+     * @param nanoTime A <code>System.nanoTime()</code> value for now
+     * @return A snapshot, empty if the headers never arrived
+     */
+    synchronized ChunkStatistics openSnapshot(long nanoTime) {
+        return !started ? ChunkStatistics.EMPTY
+                : new ChunkStatistics(Arrays.copyOf(arrivals, count),
+                        Arrays.copyOf(sizes, count), count, nanoTime - origin);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.mastfrog.util.codec.Codec;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The default codec, plus codecs registered for particular content types -
+ * say, an ObjectMapper over a Smile or CBOR factory for
+ * <code>application/x-jackson-smile</code> or <code>application/cbor</code> -
+ * which are chosen by the <code>Content-Type</code> of a request or response.
+ *
+ * @author Tim Boudreau
+ */
+final class Codecs {
+
+    static final JsonFactory TEXT = new JsonFactory();
+    private final Codec defaultCodec;
+    private final Map<String, Codec> byContentType;
+
+    Codecs(Codec defaultCodec, Map<String, Codec> byContentType) {
+        this.defaultCodec = defaultCodec;
+        Map<String, Codec> normalized = new LinkedHashMap<>(byContentType.size());
+        byContentType.forEach((type, codec) -> normalized.put(mediaType(type), codec));
+        this.byContentType = Collections.unmodifiableMap(normalized);
+    }
+
+    Codec defaultCodec() {
+        return defaultCodec;
+    }
+
+    /**
+     * Get a copy of this with a different default codec, or this if it is
+     * the same.
+     *
+     * @param codec A codec
+     * @return A Codecs
+     */
+    Codecs withDefault(Codec codec) {
+        return codec == defaultCodec ? this : new Codecs(codec, byContentType);
+    }
+
+    /**
+     * Get the codec for a content type header value, ignoring parameters
+     * such as charset; if none is registered, or the value is null, the
+     * default codec is returned.
+     *
+     * @param contentType A content type or null
+     * @return A codec
+     */
+    Codec forContentType(String contentType) {
+        if (contentType == null || byContentType.isEmpty()) {
+            return defaultCodec;
+        }
+        return byContentType.getOrDefault(mediaType(contentType), defaultCodec);
+    }
+
+    static String mediaType(String contentType) {
+        int semi = contentType.indexOf(';');
+        String result = semi < 0 ? contentType : contentType.substring(0, semi);
+        return result.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Get the Jackson factory which parses what a codec produces - the
+     * mapper's own factory for a Jackson codec, which may be a binary format,
+     * or text JSON for anything else.
+     *
+     * @param codec A codec
+     * @return A factory
+     */
+    static JsonFactory jsonFactory(Codec codec) {
+        return codec instanceof ObjectMapperCodec
+                ? ((ObjectMapperCodec) codec).factory()
+                : TEXT;
+    }
+
+    /**
+     * Create a parser for incrementally parsing what a codec produces.
+     *
+     * @param codec A codec
+     * @return A parser which must be fed with a ByteArrayFeeder
+     * @throws IOException if the codec's format cannot be parsed
+     * incrementally
+     */
+    static JsonParser nonBlockingParser(Codec codec) throws IOException {
+        JsonFactory factory = jsonFactory(codec);
+        if (!factory.canParseAsync()) {
+            throw new IOException(factory.getFormatName()
+                    + " cannot be parsed incrementally");
+        }
+        return factory.createNonBlockingByteArrayParser();
+    }
+
+    /**
+     * Render a body for display in a test result - as-is if it is text, or
+     * transcoded to JSON text if it is in a binary format.
+     *
+     * @param body The body
+     * @param factory The factory for its format
+     * @return A string
+     */
+    static String displayText(byte[] body, JsonFactory factory) {
+        if (!factory.canHandleBinaryNatively()) {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+        StringWriter out = new StringWriter();
+        try (JsonParser parser = factory.createParser(body);
+                JsonGenerator gen = TEXT.createGenerator(out)) {
+            while (parser.nextToken() != null) {
+                gen.copyCurrentEvent(parser);
+            }
+        } catch (IOException ex) {
+            out.append(" (").append(body.length + " bytes, unreadable as ")
+                    .append(factory.getFormatName()).append(": ")
+                    .append(ex.getMessage()).append(')');
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import java.net.http.HttpClient;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A cheap, per-request ring buffer of harness events, so that when a rare
+ * failure shows up in a load run, there is some context for what the harness
+ * saw leading up to it, without paying for verbose logging on every request.
+ * <p>
+ * Events are stored as primitive longs - an event ordinal, a monotonic
+ * timestamp and two numeric arguments - and are only turned into text when an
+ * assertion did not succeed and the recording is attached to its result.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class FlightRecorder {
+
+    static final int DEFAULT_CAPACITY = 256;
+    static final FlightRecorder NONE = new FlightRecorder(0);
+    private static final int SLOTS = 4;
+    private final long[] ring;
+    private final int capacity;
+    private final long origin = System.nanoTime();
+    private long count;
+    private long formattedAt = -1;
+    private List<String> formatted;
+
+    FlightRecorder(int capacity) {
+        this.capacity = capacity;
+        this.ring = new long[capacity * SLOTS];
+    }
+
+    static FlightRecorder create(int capacity) {
+        return capacity <= 0 ? NONE : new FlightRecorder(capacity);
+    }
+
+    boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    void record(Event event) {
+        record(event, 0, 0);
+    }
+
+    void record(Event event, long a) {
+        record(event, a, 0);
+    }
+
+    synchronized void record(Event event, long a, long b) {
+        if (capacity == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (event == Event.WATCHDOG && count > 0) {
+            // The watchdog fires every hundred milliseconds or so; collapse
+            // consecutive checks into a single entry so they do not push
+            // everything interesting out of the buffer
+            int last = (int) ((count - 1) % capacity) * SLOTS;
+            if (ring[last] == Event.WATCHDOG.ordinal()) {
+                ring[last + 1] = now;
+                ring[last + 2] = a;
+                ring[last + 3]++;
+                return;
+            }
+            b = 1;
+        }
+        int ix = (int) (count++ % capacity) * SLOTS;
+        ring[ix] = event.ordinal();
+        ring[ix + 1] = now;
+        ring[ix + 2] = a;
+        ring[ix + 3] = b;
+    }
+
+    /**
+     * Format the recorded events, oldest first, with timestamps relative to
+     * the creation of this recorder.
+     *
+     * @return A list of lines
+     */
+    synchronized List<String> format() {
+        if (capacity == 0) {
+            return Collections.emptyList();
+        }
+        if (formattedAt == count && formatted != null) {
+            return formatted;
+        }
+        List<String> result = new ArrayList<>((int) Math.min(count, capacity) + 1);
+        long first = Math.max(0, count - capacity);
+        if (first > 0) {
+            result.add("(" + first + " earlier events dropped)");
+        }
+        Event[] events = Event.values();
+        StringBuilder sb = new StringBuilder(64);
+        for (long i = first; i < count; i++) {
+            int ix = (int) (i % capacity) * SLOTS;
+            sb.setLength(0);
+            long micros = (ring[ix + 1] - origin) / 1_000;
+            sb.append('+').append(micros / 1_000).append('.');
+            long frac = micros % 1_000;
+            if (frac < 100) {
+                sb.append('0');
+            }
+            if (frac < 10) {
+                sb.append('0');
+            }
+            sb.append(frac).append("ms ");
+            events[(int) ring[ix]].describe(ring[ix + 2], ring[ix + 3], sb);
+            result.add(sb.toString());
+        }
+        formattedAt = count;
+        return formatted = Collections.unmodifiableList(result);
+    }
+
+    @Override
+    public String toString() {
+        return String.join("\n", format());
+    }
+
+    /**
+     * Kinds of events the harness records; each has names for up to two
+     * numeric arguments.
+     */
+    enum Event {
+        AWAITED_READY("waitedMicros", null),
+        PERMIT_REQUESTED("available", null),
+        PERMIT_ACQUIRED("waitedMicros", "available"),
+        PERMIT_RELEASED("available", null),
+        REQUEST_BUILT("headers", null) {
+            @Override
+            void describe(long a, long b, StringBuilder into) {
+                super.describe(a, b, into);
+                into.append(" version=").append(version(b));
+            }
+        },
+        TIMEOUTS("responseStartMillis", "responseFinishedMillis"),
+        SENT,
+        HEADERS("status", "headers"),
+        RESPONSE_VERSION(null, null) {
+            @Override
+            void describe(long a, long b, StringBuilder into) {
+                super.describe(a, b, into);
+                into.append(' ').append(version(a));
+            }
+        },
+        CHUNK("bytes", "totalBytes"),
+        WATCHDOG("elapsedMillis", "checks"),
+        TIMED_OUT("elapsedMillis", null),
+        CANCELLED,
+        ERROR,
+        COMPLETED("totalBytes", null),
+        ASSERTION(null, null) {
+            @Override
+            void describe(long a, long b, StringBuilder into) {
+                super.describe(a, b, into);
+                into.append(' ').append(AssertionStatus.values()[(int) a])
+                        .append(' ').append(FailureSeverity.values()[(int) b]);
+            }
+        };
+
+        private final String first;
+        private final String second;
+
+        Event() {
+            this(null, null);
+        }
+
+        Event(String first, String second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        void describe(long a, long b, StringBuilder into) {
+            into.append(name().toLowerCase());
+            if (first != null) {
+                into.append(' ').append(first).append('=').append(a);
+            }
+            if (second != null) {
+                into.append(' ').append(second).append('=').append(b);
+            }
+        }
+
+        static String version(long ordinal) {
+            HttpClient.Version[] all = HttpClient.Version.values();
+            return ordinal >= 0 && ordinal < all.length
+                    ? all[(int) ordinal].name()
+                    : "default";
+        }
+    }
+}
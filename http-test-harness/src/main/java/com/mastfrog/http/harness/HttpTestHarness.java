@@ -25,6 +25,7 @@ package com.mastfrog.http.harness;
 
 import java.net.http.HttpRequest;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.List;
 import java.util.function.Function;
@@ -121,6 +122,18 @@ public interface HttpTestHarness<U> {
      */
     TestRequest put(U uri, String string, Charset charset);
 
+    /**
+     * Initiate an HTTP PUT request, with the contents of a file as its body,
+     * sent from a shared, read-only memory mapping of the file without
+     * copying it into memory - see {@link MappedFileBody}, which can also send
+     * a range of a file.
+     *
+     * @param uri A URI or similar object
+     * @param file A file
+     * @return An object for configuring and launching the request
+     */
+    TestRequest put(U uri, Path file);
+
     /**
      * Initiate an HTTP PUT request, with a BodyPublisher that the HTTP client
      * will call back to fetch the request body.
@@ -135,6 +148,9 @@ public interface HttpTestHarness<U> {
      * Initiate an HTTP PUT request, with a request body serialized from the
      * passed object using the Codec this harness was configured with when it
      * was created (for example, Jackson's ObjectMapper).
+     * The object is serialized lazily, as the body is sent, so large payloads
+     * are never held in memory in full; a failure to serialize it fails the
+     * request.
      *
      * @param <T> A type
      * @param uri A URI or similar
@@ -144,6 +160,21 @@ public interface HttpTestHarness<U> {
      */
     <T> TestRequest putObject(U uri, T toSerialize);
 
+    /**
+     * Initiate an HTTP PUT request, with a request body serialized from the
+     * passed object using the Codec registered for the passed content type
+     * (or the default codec if there is none), and a
+     * <code>Content-Type</code> header with that type.
+     *
+     * @param <T> A type
+     * @param uri A URI or similar
+     * @param toSerialize An object to convert using the codec into a byte
+     * stream
+     * @param contentType The content type
+     * @return this
+     */
+    <T> TestRequest putObject(U uri, T toSerialize, String contentType);
+
     /**
      * Initiate an HTTP POST request, with a byte-array body.
      *
@@ -174,6 +205,18 @@ public interface HttpTestHarness<U> {
      */
     TestRequest post(U uri, String string, Charset charset);
 
+    /**
+     * Initiate an HTTP POST request, with the contents of a file as its body,
+     * sent from a shared, read-only memory mapping of the file without
+     * copying it into memory - see {@link MappedFileBody}, which can also send
+     * a range of a file.
+     *
+     * @param uri A URI or similar object
+     * @param file A file
+     * @return An object for configuring and launching the request
+     */
+    TestRequest post(U uri, Path file);
+
     /**
      * Initiate an HTTP PUT request, with a BodyPublisher that the HTTP client
      * will call back to fetch the request body.
@@ -188,6 +231,9 @@ public interface HttpTestHarness<U> {
      * Initiate an HTTP POST request, with a request body serialized from the
      * passed object using the Codec this harness was configured with when it
      * was created (for example, Jackson's ObjectMapper).
+     * The object is serialized lazily, as the body is sent, so large payloads
+     * are never held in memory in full; a failure to serialize it fails the
+     * request.
      *
      * @param <T> A type
      * @param uri A URI or similar
@@ -197,6 +243,21 @@ public interface HttpTestHarness<U> {
      */
     <T> TestRequest postObject(U uri, T toSerialize);
 
+    /**
+     * Initiate an HTTP POST request, with a request body serialized from the
+     * passed object using the Codec registered for the passed content type
+     * (or the default codec if there is none), and a
+     * <code>Content-Type</code> header with that type.
+     *
+     * @param <T> A type
+     * @param uri A URI or similar
+     * @param toSerialize An object to convert using the codec into a byte
+     * stream
+     * @param contentType The content type
+     * @return this
+     */
+    <T> TestRequest postObject(U uri, T toSerialize, String contentType);
+
     /**
      * Shut down this test harness, immediately aborting any requests in
      * progress, and waiting for them to exit.
@@ -272,6 +333,29 @@ public interface HttpTestHarness<U> {
      */
     int currentlyRunningTasks();
 
+    /**
+     * Get the results aggregated over every run of requests launched from
+     * the calling test method which were not assigned to some other group -
+     * for asserting on percentiles of response time and on error rates
+     * across many runs.
+     *
+     * @return The aggregate results for the calling test method
+     */
+    AggregateResults aggregateResults();
+
+    /**
+     * Get the results aggregated over every run of requests in the named
+     * group - either requests explicitly assigned to it with
+     * <code>TestRequest.group()</code>, or, if it is the name of a test
+     * method, requests launched from that method which were not assigned to
+     * a group.
+     *
+     * @param group The name of a group
+     * @return The aggregate results, with no runs if nothing has been
+     * launched in that group yet
+     */
+    AggregateResults aggregateResults(String group);
+
     /**
      * Create a builder for a new HttpTestHarness.
      *
@@ -0,0 +1,239 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.mastfrog.util.codec.Codec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Parses a JSON array response body with a non-blocking parser as chunks
+ * arrive, deserializing and testing each element as soon as its last token has
+ * been seen and then discarding it, so memory use is bounded by the size of
+ * the largest element rather than of the array. Testing stops at the first
+ * element which fails the predicate or cannot be deserialized, and that element
+ * and its index are what is reported.
+ *
+ * @author Tim Boudreau
+ */
+final class JsonArrayElements<T> {
+
+    private final Class<T> type;
+    private final Predicate<? super T> test;
+    private final Supplier<Codec> codec;
+    private JsonParser parser;
+    private TokenBuffer element;
+    private int depth;
+    private long index;
+    private boolean complete;
+    private String failure;
+
+    JsonArrayElements(Class<T> type, Predicate<? super T> test, Supplier<Codec> codec) {
+        this.type = type;
+        this.test = test;
+        this.codec = codec;
+    }
+
+    /**
+     * Feed some bytes of the body.
+     *
+     * @param bytes An array
+     * @param offset The start offset
+     * @param length The number of bytes
+     */
+    void feed(byte[] bytes, int offset, int length) {
+        if (failure != null || length == 0) {
+            return;
+        }
+        try {
+            if (parser == null) {
+                parser = Codecs.nonBlockingParser(codec.get());
+            }
+            ((ByteArrayFeeder) parser.getNonBlockingInputFeeder())
+                    .feedInput(bytes, offset, offset + length);
+            drain();
+        } catch (IOException | RuntimeException ex) {
+            fail("Invalid JSON after " + index + " elements: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Signal the end of the body.
+     */
+    void finish() {
+        if (failure != null) {
+            return;
+        }
+        try {
+            if (parser == null) {
+                fail("Empty body - expected a JSON array");
+                return;
+            }
+            ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).endOfInput();
+            drain();
+            if (failure == null && !complete) {
+                fail("Body ended after " + index + " elements of an unterminated array");
+            }
+        } catch (IOException | RuntimeException ex) {
+            fail("Invalid JSON after " + index + " elements: " + ex.getMessage());
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Whether every element of a well-formed array passed the test; only
+     * meaningful after <code>finish()</code>.
+     *
+     * @return true if the array was good
+     */
+    boolean isSuccess() {
+        return failure == null && complete;
+    }
+
+    /**
+     * The number of elements tested.
+     *
+     * @return A count
+     */
+    long count() {
+        return index;
+    }
+
+    /**
+     * Describe the outcome - the number of elements, or which element failed
+     * and why.
+     *
+     * @return A description
+     */
+    String outcome() {
+        return failure != null ? failure : index + " elements";
+    }
+
+    private void drain() throws IOException {
+        JsonToken tok;
+        while (failure == null && (tok = parser.nextToken()) != null
+                && tok != JsonToken.NOT_AVAILABLE) {
+            onToken(tok);
+        }
+    }
+
+    private void onToken(JsonToken tok) throws IOException {
+        if (complete) {
+            fail("Content after the end of the array: " + tok);
+            return;
+        }
+        switch (depth) {
+            case 0:
+                if (tok != JsonToken.START_ARRAY) {
+                    fail("Body is not a JSON array but starts with " + tok);
+                } else {
+                    depth = 1;
+                }
+                return;
+            case 1:
+                if (tok == JsonToken.END_ARRAY) {
+                    depth = 0;
+                    complete = true;
+                    return;
+                }
+                element = new TokenBuffer(parser);
+                element.copyCurrentEvent(parser);
+                if (tok.isStructStart()) {
+                    depth++;
+                } else {
+                    elementComplete();
+                }
+                return;
+            default:
+                element.copyCurrentEvent(parser);
+                if (tok.isStructStart()) {
+                    depth++;
+                } else if (tok.isStructEnd() && --depth == 1) {
+                    elementComplete();
+                }
+        }
+    }
+
+    private void elementComplete() {
+        TokenBuffer tokens = element;
+        element = null;
+        long ix = index++;
+        T value;
+        try {
+            value = deserialize(tokens, type, codec.get());
+        } catch (IOException | RuntimeException ex) {
+            fail("Element " + ix + " could not be deserialized as "
+                    + type.getSimpleName() + ": " + ex.getMessage());
+            return;
+        }
+        boolean ok;
+        try {
+            ok = test.test(value);
+        } catch (RuntimeException ex) {
+            fail("Element " + ix + " threw " + ex + " testing " + value);
+            return;
+        }
+        if (!ok) {
+            fail("Element " + ix + " failed: " + value);
+        }
+    }
+
+    static <T> T deserialize(TokenBuffer tokens, Class<T> type, Codec codec)
+            throws IOException {
+        if (codec instanceof ObjectMapperCodec) {
+            return ((ObjectMapperCodec) codec).readValue(tokens, type);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        try (JsonGenerator gen = Codecs.TEXT.createGenerator(out)) {
+            tokens.serialize(gen);
+        }
+        return codec.readValue(out.toByteArray(), type);
+    }
+
+    private void fail(String msg) {
+        failure = msg;
+        element = null;
+        close();
+    }
+
+    private void close() {
+        JsonParser p = parser;
+        parser = null;
+        if (p != null) {
+            try {
+                p.close();
+            } catch (IOException ex) {
+                // nothing to do
+            }
+        }
+    }
+}
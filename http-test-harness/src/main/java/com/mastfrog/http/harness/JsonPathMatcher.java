@@ -0,0 +1,530 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.mastfrog.util.codec.Codec;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Evaluates any number of JSONPath-style selectors against a JSON body in a
+ * single pass over the token stream of a non-blocking parser, as chunks
+ * arrive. For each container, the matcher computes which selectors could
+ * still match something inside it; containers no selector can reach are
+ * skipped by counting brackets, without looking at their contents, and only
+ * the values a selector selects are buffered and deserialized - so the cost
+ * of an assertion depends on what it selects, not on the size of the
+ * document.
+ * <p>
+ * Supported syntax is a path starting with <code>$</code>, followed by any
+ * number of <code>.name</code>, <code>['name']</code>, <code>[n]</code>,
+ * <code>.*</code> or <code>[*]</code> steps.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class JsonPathMatcher {
+
+    private final List<Selector<?>> selectors = new ArrayList<>(4);
+    private final List<Capture> captures = new ArrayList<>(4);
+    private final Supplier<Codec> codec;
+    private JsonParser parser;
+    private Frame frame;
+    private int skipDepth;
+    private boolean rootSeen;
+    private boolean rootDone;
+    private boolean started;
+    private boolean finished;
+    private String failure;
+
+    JsonPathMatcher(Supplier<Codec> codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Register a selector, whose results are available after
+     * <code>finish()</code>.
+     *
+     * @param <T> The type selected values are deserialized as
+     * @param path A path
+     * @param type The type
+     * @param test A test each selected value must pass
+     * @return A selector
+     * @throws IllegalArgumentException if the path is not valid or uses
+     * unsupported syntax
+     */
+    <T> Selector<T> select(String path, Class<T> type, Predicate<? super T> test) {
+        if (started) {
+            throw new IllegalStateException("Cannot add JSON paths once the "
+                    + "body has started arriving");
+        }
+        Selector<T> result = new Selector<>(path, parse(path), type, test);
+        selectors.add(result);
+        return result;
+    }
+
+    /**
+     * Feed some bytes of the body.
+     *
+     * @param bytes An array
+     * @param offset The start offset
+     * @param length The number of bytes
+     */
+    void feed(byte[] bytes, int offset, int length) {
+        started = true;
+        if (finished || failure != null || length == 0 || rootDone) {
+            return;
+        }
+        try {
+            if (parser == null) {
+                parser = Codecs.nonBlockingParser(codec.get());
+            }
+            ((ByteArrayFeeder) parser.getNonBlockingInputFeeder())
+                    .feedInput(bytes, offset, offset + length);
+            drain();
+        } catch (IOException | RuntimeException ex) {
+            fail("Invalid JSON: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Signal the end of the body.
+     */
+    void finish() {
+        if (finished) {
+            return;
+        }
+        finished = started = true;
+        try {
+            if (failure == null && !rootDone) {
+                if (parser == null) {
+                    fail("Empty body - expected JSON");
+                } else {
+                    ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).endOfInput();
+                    drain();
+                    if (failure == null && !rootDone) {
+                        fail("Body ended before the end of the JSON document");
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            fail("Invalid JSON: " + ex.getMessage());
+        } finally {
+            close();
+        }
+    }
+
+    private void drain() throws IOException {
+        JsonToken tok;
+        while (failure == null && !rootDone && (tok = parser.nextToken()) != null
+                && tok != JsonToken.NOT_AVAILABLE) {
+            onToken(tok);
+        }
+        if (rootDone) {
+            // Anything after the document is the parser's problem, not ours
+            close();
+        }
+    }
+
+    private void onToken(JsonToken tok) throws IOException {
+        if (skipDepth > 0) {
+            // Nothing wants anything in here - just count brackets
+            if (tok.isStructStart()) {
+                skipDepth++;
+            } else if (tok.isStructEnd()) {
+                skipDepth--;
+                if (skipDepth == 0) {
+                    frame.next();
+                }
+            }
+            return;
+        }
+        switch (tok) {
+            case FIELD_NAME:
+                frame.field = parser.currentName();
+                copy();
+                return;
+            case END_OBJECT:
+            case END_ARRAY:
+                copy();
+                Frame ended = frame;
+                frame = ended.parent;
+                completeCaptures(ended.depth);
+                if (frame == null) {
+                    rootDone = true;
+                } else {
+                    frame.next();
+                }
+                return;
+            default:
+                value(tok);
+        }
+    }
+
+    private void value(JsonToken tok) throws IOException {
+        int depth = frame == null ? 0 : frame.depth + 1;
+        int[] childStates;
+        if (frame == null) {
+            if (rootSeen) {
+                throw new IOException("Multiple root values");
+            }
+            rootSeen = true;
+            childStates = new int[selectors.size()];
+            int count = 0;
+            for (int i = 0; i < selectors.size(); i++) {
+                if (selectors.get(i).steps.length == 0) {
+                    startCapture(i, depth);
+                } else {
+                    childStates[count++] = i << 16;
+                }
+            }
+            childStates = Arrays.copyOf(childStates, count);
+        } else {
+            childStates = frame.childStates(this, depth);
+        }
+        copy();
+        if (tok.isStructStart()) {
+            if (childStates.length == 0 && captures.isEmpty()) {
+                skipDepth = 1;
+                if (frame == null) {
+                    rootDone = true;
+                }
+                return;
+            }
+            frame = new Frame(frame, depth, tok == JsonToken.START_ARRAY, childStates);
+        } else {
+            completeCaptures(depth);
+            if (frame == null) {
+                rootDone = true;
+            } else {
+                frame.next();
+            }
+        }
+    }
+
+    private void startCapture(int selector, int depth) {
+        captures.add(new Capture(selectors.get(selector), depth,
+                new TokenBuffer(parser), currentPath()));
+    }
+
+    private void copy() throws IOException {
+        for (int i = 0; i < captures.size(); i++) {
+            captures.get(i).tokens.copyCurrentEvent(parser);
+        }
+    }
+
+    private void completeCaptures(int depth) {
+        for (int i = captures.size() - 1; i >= 0; i--) {
+            Capture cap = captures.get(i);
+            if (cap.depth == depth) {
+                captures.remove(i);
+                cap.selector.accept(cap, codec.get());
+            }
+        }
+    }
+
+    private String currentPath() {
+        List<Frame> frames = new ArrayList<>();
+        for (Frame f = frame; f != null; f = f.parent) {
+            frames.add(f);
+        }
+        StringBuilder sb = new StringBuilder("$");
+        for (int i = frames.size() - 1; i >= 0; i--) {
+            Frame f = frames.get(i);
+            if (f.array) {
+                sb.append('[').append(f.index).append(']');
+            } else if (isIdentifier(f.field)) {
+                sb.append('.').append(f.field);
+            } else {
+                sb.append("['").append(f.field.replace("'", "\\'")).append("']");
+            }
+        }
+        return sb.toString();
+    }
+
+    private void fail(String msg) {
+        failure = msg;
+        captures.clear();
+        for (Selector<?> sel : selectors) {
+            sel.parseFailure(msg);
+        }
+        close();
+    }
+
+    private void close() {
+        JsonParser p = parser;
+        parser = null;
+        if (p != null) {
+            try {
+                p.close();
+            } catch (IOException ex) {
+                // nothing to do
+            }
+        }
+    }
+
+    private static boolean isIdentifier(String name) {
+        if (name.isEmpty() || !Character.isJavaIdentifierStart(name.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < name.length(); i++) {
+            if (!Character.isJavaIdentifierPart(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse a path into steps; a step is a property name, an Integer index, or
+     * null for a wildcard.
+     */
+    static Object[] parse(String path) {
+        if (!path.startsWith("$")) {
+            throw new IllegalArgumentException("JSON path must start with $: " + path);
+        }
+        List<Object> steps = new ArrayList<>();
+        int pos = 1;
+        int len = path.length();
+        while (pos < len) {
+            char c = path.charAt(pos);
+            if (c == '.') {
+                pos++;
+                if (pos < len && path.charAt(pos) == '.') {
+                    throw new IllegalArgumentException("Recursive descent (..) "
+                            + "is not supported: " + path);
+                }
+                int start = pos;
+                while (pos < len && path.charAt(pos) != '.' && path.charAt(pos) != '[') {
+                    pos++;
+                }
+                String name = path.substring(start, pos);
+                if (name.isEmpty()) {
+                    throw new IllegalArgumentException("Empty name at " + start
+                            + " in " + path);
+                }
+                steps.add("*".equals(name) ? null : name);
+            } else if (c == '[') {
+                int close;
+                if (pos + 1 < len && (path.charAt(pos + 1) == '\'' || path.charAt(pos + 1) == '"')) {
+                    char quote = path.charAt(pos + 1);
+                    StringBuilder name = new StringBuilder();
+                    int i = pos + 2;
+                    for (; i < len && path.charAt(i) != quote; i++) {
+                        if (path.charAt(i) == '\\' && i + 1 < len) {
+                            i++;
+                        }
+                        name.append(path.charAt(i));
+                    }
+                    if (i + 1 >= len || path.charAt(i + 1) != ']') {
+                        throw new IllegalArgumentException("Unterminated name at "
+                                + pos + " in " + path);
+                    }
+                    steps.add(name.toString());
+                    close = i + 1;
+                } else {
+                    close = path.indexOf(']', pos);
+                    if (close < 0) {
+                        throw new IllegalArgumentException("Unterminated [ at "
+                                + pos + " in " + path);
+                    }
+                    String content = path.substring(pos + 1, close).trim();
+                    if ("*".equals(content)) {
+                        steps.add(null);
+                    } else {
+                        try {
+                            int ix = Integer.parseInt(content);
+                            if (ix < 0) {
+                                throw new NumberFormatException();
+                            }
+                            steps.add(ix);
+                        } catch (NumberFormatException ex) {
+                            throw new IllegalArgumentException("Unsupported "
+                                    + "subscript [" + content + "] in " + path
+                                    + " - only names, non-negative indices "
+                                    + "and * are supported");
+                        }
+                    }
+                }
+                pos = close + 1;
+            } else {
+                throw new IllegalArgumentException("Unexpected '" + c + "' at "
+                        + pos + " in " + path);
+            }
+        }
+        return steps.toArray();
+    }
+
+    /**
+     * An open object or array which some selector can still match inside of.
+     * States are encoded as selector index in the high 16 bits and the index
+     * of the step that applies to children of this container in the low.
+     */
+    private static final class Frame {
+
+        final Frame parent;
+        final int depth;
+        final boolean array;
+        final int[] states;
+        int index;
+        String field;
+
+        Frame(Frame parent, int depth, boolean array, int[] states) {
+            this.parent = parent;
+            this.depth = depth;
+            this.array = array;
+            this.states = states;
+        }
+
+        void next() {
+            if (array) {
+                index++;
+            }
+        }
+
+        int[] childStates(JsonPathMatcher matcher, int depth) {
+            int[] result = null;
+            int count = 0;
+            for (int state : states) {
+                int sel = state >>> 16;
+                int step = state & 0xFFFF;
+                Object[] steps = matcher.selectors.get(sel).steps;
+                Object s = steps[step];
+                boolean matches = s == null
+                        || (array ? s instanceof Integer && (Integer) s == index
+                                : s instanceof String && s.equals(field));
+                if (!matches) {
+                    continue;
+                }
+                if (step + 1 == steps.length) {
+                    matcher.startCapture(sel, depth);
+                } else {
+                    if (result == null) {
+                        result = new int[states.length];
+                    }
+                    result[count++] = (sel << 16) | (step + 1);
+                }
+            }
+            return result == null ? new int[0] : Arrays.copyOf(result, count);
+        }
+    }
+
+    private static final class Capture {
+
+        final Selector<?> selector;
+        final int depth;
+        final TokenBuffer tokens;
+        final String path;
+
+        Capture(Selector<?> selector, int depth, TokenBuffer tokens, String path) {
+            this.selector = selector;
+            this.depth = depth;
+            this.tokens = tokens;
+            this.path = path;
+        }
+    }
+
+    /**
+     * A compiled path, the test its values must pass, and once the body has
+     * been processed, the outcome.
+     */
+    static final class Selector<T> {
+
+        private final String path;
+        private final Object[] steps;
+        private final Class<T> type;
+        private final Predicate<? super T> test;
+        private int matches;
+        private String failure;
+
+        Selector(String path, Object[] steps, Class<T> type, Predicate<? super T> test) {
+            this.path = path;
+            this.steps = steps;
+            this.type = type;
+            this.test = test;
+        }
+
+        void accept(Capture cap, Codec codec) {
+            matches++;
+            if (failure != null) {
+                return;
+            }
+            T value;
+            try {
+                value = JsonArrayElements.deserialize(cap.tokens, type, codec);
+            } catch (IOException | RuntimeException ex) {
+                failure = cap.path + " could not be deserialized as "
+                        + type.getSimpleName() + ": " + ex.getMessage();
+                return;
+            }
+            try {
+                if (!test.test(value)) {
+                    failure = cap.path + " failed: " + value;
+                }
+            } catch (RuntimeException ex) {
+                failure = cap.path + " threw " + ex + " testing " + value;
+            }
+        }
+
+        void parseFailure(String msg) {
+            if (failure == null) {
+                failure = msg;
+            }
+        }
+
+        /**
+         * Whether at least one value was selected, and all passed the test.
+         *
+         * @return true if successful
+         */
+        boolean isSuccess() {
+            return failure == null && matches > 0;
+        }
+
+        /**
+         * Describe the outcome - the number of values selected, or the first
+         * one that failed and why.
+         *
+         * @return A description
+         */
+        String outcome() {
+            return failure != null ? failure
+                    : matches == 0 ? "Nothing matched " + path
+                            : matches + (matches == 1 ? " match" : " matches");
+        }
+
+        @Override
+        public String toString() {
+            return path + " as " + type.getSimpleName() + " " + test;
+        }
+    }
+}
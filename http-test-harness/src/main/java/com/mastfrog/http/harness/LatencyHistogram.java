@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size, thread-safe histogram of nanosecond durations with
+ * log-linear buckets, so percentiles over any number of runs can be computed
+ * without retaining the individual values. Values below 128ns get a bucket
+ * each; above that, each power of two is split into 64 equal buckets, so a
+ * reported percentile is never more than 1/64th (about 1.6%) above the true
+ * value, and the whole range of a long fits in under 4000 buckets.
+ *
+ * @author Tim Boudreau
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = bucketFor(Long.MAX_VALUE) + 1;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(-1);
+
+    static int bucketFor(long nanos) {
+        if (nanos < SUB_BUCKETS * 2) {
+            return (int) nanos;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(nanos)) - SUB_BUCKET_BITS;
+        return (shift * SUB_BUCKETS) + (int) (nanos >>> shift);
+    }
+
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS * 2) {
+            return bucket;
+        }
+        int shift = (bucket / SUB_BUCKETS) - 1;
+        long mantissa = (bucket % SUB_BUCKETS) + SUB_BUCKETS;
+        long lowest = mantissa << shift;
+        return lowest + ((1L << shift) - 1);
+    }
+
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketFor(nanos));
+        sum.add(nanos);
+        min.accumulateAndGet(nanos, Math::min);
+        max.accumulateAndGet(nanos, Math::max);
+        count.increment();
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    long min() {
+        return count() == 0 ? -1 : min.get();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    long mean() {
+        long ct = count();
+        return ct == 0 ? -1 : sum.sum() / ct;
+    }
+
+    /**
+     * Get the value at the passed percentile by the nearest-rank method,
+     * rounded up to the top of its bucket but never above the largest value
+     * recorded.
+     *
+     * @param percentile A percentile from 0 to 100
+     * @return The value, or -1 if nothing has been recorded
+     */
+    long percentile(double percentile) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil((percentile / 100D) * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValueIn(i), max());
+            }
+        }
+        return max();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import java.util.Arrays;
+
+/**
+ * The Mann-Whitney U (Wilcoxon rank-sum) test of whether one sample of
+ * durations tends to be larger than another, using the normal approximation
+ * with tie and continuity corrections - adequate for the eight or more
+ * samples per side regression detection insists on. Being rank-based, it
+ * makes no assumption that latencies are normally distributed, and a few
+ * outliers from a garbage collection pause cannot swing it the way they
+ * swing a mean.
+ *
+ * @author Tim Boudreau
+ */
+final class MannWhitney {
+
+    private final double u;
+    private final long pairs;
+    private final double pGreater;
+    private final double pLess;
+
+    private MannWhitney(double u, long pairs, double pGreater, double pLess) {
+        this.u = u;
+        this.pairs = pairs;
+        this.pGreater = pGreater;
+        this.pLess = pLess;
+    }
+
+    /**
+     * Compare two samples, neither of which may be empty.
+     *
+     * @param baseline The baseline sample
+     * @param current The current sample
+     * @return The test result
+     */
+    static MannWhitney test(long[] baseline, long[] current) {
+        int n1 = baseline.length;
+        int n2 = current.length;
+        int n = n1 + n2;
+        long[] a = baseline.clone();
+        long[] b = current.clone();
+        Arrays.sort(a);
+        Arrays.sort(b);
+        double currentRankSum = 0;
+        double tieTerm = 0;
+        int ranked = 0;
+        for (int i = 0, j = 0; i < n1 || j < n2;) {
+            long value = j >= n2 || (i < n1 && a[i] <= b[j])
+                    ? a[i]
+                    : b[j];
+            int inBaseline = 0;
+            int inCurrent = 0;
+            while (i < n1 && a[i] == value) {
+                i++;
+                inBaseline++;
+            }
+            while (j < n2 && b[j] == value) {
+                j++;
+                inCurrent++;
+            }
+            // Tied values all get the mean of the ranks they span
+            double t = inBaseline + inCurrent;
+            currentRankSum += inCurrent * (ranked + (t + 1D) / 2D);
+            tieTerm += (t * t * t) - t;
+            ranked += inBaseline + inCurrent;
+        }
+        double u = currentRankSum - (n2 * (n2 + 1D)) / 2D;
+        long pairs = (long) n1 * n2;
+        double mean = pairs / 2D;
+        double variance = (pairs / 12D) * ((n + 1D) - tieTerm / ((double) n * (n - 1D)));
+        if (variance <= 0) {
+            // Every value is identical - no evidence either way
+            return new MannWhitney(u, pairs, 1, 1);
+        }
+        double sd = Math.sqrt(variance);
+        double zGreater = (u - mean - 0.5) / sd;
+        double zLess = (mean - u - 0.5) / sd;
+        return new MannWhitney(u, pairs, upperTail(zGreater), upperTail(zLess));
+    }
+
+    /**
+     * The U statistic for the current sample - the number of (baseline,
+     * current) pairs where the current value is larger, counting ties as
+     * half.
+     */
+    double u() {
+        return u;
+    }
+
+    /**
+     * The probability that a randomly chosen current value is larger than a
+     * randomly chosen baseline one, ties counting half - 0.5 when neither
+     * tends to be larger.
+     */
+    double probabilityOfGreater() {
+        return u / pairs;
+    }
+
+    /**
+     * One-sided p-value for current values tending to be larger.
+     */
+    double pGreater() {
+        return pGreater;
+    }
+
+    /**
+     * One-sided p-value for current values tending to be smaller.
+     */
+    double pLess() {
+        return pLess;
+    }
+
+    static double upperTail(double z) {
+        return 0.5 * erfc(z / Math.sqrt(2));
+    }
+
+    static double erfc(double x) {
+        // Chebyshev approximation from Numerical Recipes, fractional error
+        // under 1.2e-7 everywhere
+        double z = Math.abs(x);
+        double t = 1D / (1D + 0.5 * z);
+        double result = t * Math.exp(-z * z - 1.26551223 + t * (1.00002368
+                + t * (0.37409196 + t * (0.09678418 + t * (-0.18628806
+                + t * (0.27886807 + t * (-1.13520398 + t * (1.48851587
+                + t * (-0.82215223 + t * 0.17087277)))))))));
+        return x >= 0 ? result : 2D - result;
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import static com.mastfrog.util.preconditions.Checks.greaterThanZero;
+import static com.mastfrog.util.preconditions.Checks.nonNegative;
+import static com.mastfrog.util.preconditions.Checks.notNull;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A request body publisher over a memory-mapped file, which hands the HTTP
+ * client read-only slices of the mapping rather than copying the file into
+ * heap buffers. The mapping for a file is made once and shared by every
+ * publisher for it, so uploading one large fixture file from hundreds of
+ * concurrent requests costs no more heap than uploading it once.
+ * <p>
+ * Mappings are cached by path, and remade if the file's size or modification
+ * time changes; files are expected to be fixtures which are not modified
+ * while a request is sending them.
+ * </p>
+ * <p>
+ * The cache only holds mappings weakly - a mapping stays cached as long as
+ * some publisher for it is reachable, and the JVM unmaps the file once
+ * neither publishers nor slices of it still queued by the HTTP client are, so
+ * per-test temporary files do not stay mapped for the life of the JVM. Java offers no way to unmap a
+ * file on demand, so on Windows, where a mapped file cannot be deleted,
+ * delete temporary fixtures only after dropping their publishers.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class MappedFileBody implements HttpRequest.BodyPublisher {
+
+    private static final int SEGMENT_SIZE = 1 << 30;
+    private static final int DEFAULT_SLICE_SIZE = 64 * 1024;
+    private static final Map<Path, MappingReference> MAPPINGS = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Mapping> COLLECTED = new ReferenceQueue<>();
+    private final Mapping mapping;
+    private final long offset;
+    private final long length;
+    private final int sliceSize;
+
+    private MappedFileBody(Mapping mapping, long offset, long length, int sliceSize) {
+        this.mapping = mapping;
+        this.offset = offset;
+        this.length = length;
+        this.sliceSize = sliceSize;
+    }
+
+    /**
+     * Get a publisher for the entire contents of a file.
+     *
+     * @param file A file
+     * @return A publisher
+     * @throws UncheckedIOException if the file cannot be mapped
+     */
+    public static MappedFileBody of(Path file) {
+        Mapping mapping = mapping(notNull("file", file));
+        return new MappedFileBody(mapping, 0, mapping.size, DEFAULT_SLICE_SIZE);
+    }
+
+    /**
+     * Get a publisher for a range of bytes within a file.
+     *
+     * @param file A file
+     * @param offset The offset of the first byte to send
+     * @param length The number of bytes to send
+     * @return A publisher
+     * @throws UncheckedIOException if the file cannot be mapped
+     * @throws IllegalArgumentException if the range is not within the file
+     */
+    public static MappedFileBody of(Path file, long offset, long length) {
+        return of(file).range(offset, length);
+    }
+
+    /**
+     * Get a publisher for a range of the bytes this one sends, sharing the
+     * same mapping.
+     *
+     * @param offset The offset of the first byte to send, relative to the
+     * start of this publisher's range
+     * @param length The number of bytes to send
+     * @return A publisher
+     * @throws IllegalArgumentException if the range is not within this one
+     */
+    public MappedFileBody range(long offset, long length) {
+        nonNegative("offset", offset);
+        nonNegative("length", length);
+        if (offset + length > this.length) {
+            throw new IllegalArgumentException("Range " + offset + ":" + length
+                    + " is outside " + this.length + " bytes of " + mapping.path);
+        }
+        return new MappedFileBody(mapping, this.offset + offset, length, sliceSize);
+    }
+
+    /**
+     * Get a publisher which hands the client slices of at most the passed
+     * size - the default is 64Kb.
+     *
+     * @param sliceSize The maximum number of bytes passed to the client at a
+     * time
+     * @return A publisher
+     */
+    public MappedFileBody withSliceSize(int sliceSize) {
+        return new MappedFileBody(mapping, offset, length,
+                greaterThanZero("sliceSize", sliceSize));
+    }
+
+    @Override
+    public long contentLength() {
+        return length;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        subscriber.onSubscribe(new Slices(subscriber));
+    }
+
+    @Override
+    public String toString() {
+        return "MappedFileBody(" + mapping.path + " " + offset + ":" + length + ")";
+    }
+
+    private static Mapping mapping(Path file) {
+        Path key = file.toAbsolutePath().normalize();
+        expungeCollected();
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(key,
+                    BasicFileAttributes.class);
+            long modified = attrs.lastModifiedTime().toMillis();
+            // Strongly held here, so it cannot be collected before returning
+            Mapping[] result = new Mapping[1];
+            MAPPINGS.compute(key, (k, old) -> {
+                Mapping existing = old == null ? null : old.get();
+                if (existing != null && existing.size == attrs.size()
+                        && existing.lastModified == modified) {
+                    result[0] = existing;
+                    return old;
+                }
+                try {
+                    result[0] = new Mapping(k, attrs.size(), modified);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                return new MappingReference(result[0]);
+            });
+            return result[0];
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static void expungeCollected() {
+        Reference<? extends Mapping> ref;
+        while ((ref = COLLECTED.poll()) != null) {
+            MappingReference mr = (MappingReference) ref;
+            MAPPINGS.remove(mr.path, mr);
+        }
+    }
+
+    /**
+     * Determine whether a mapping of a file is currently cached, for tests.
+     *
+     * @param file A file
+     * @return true if a mapping is cached and has not been collected
+     */
+    static boolean isCached(Path file) {
+        expungeCollected();
+        MappingReference ref = MAPPINGS.get(file.toAbsolutePath().normalize());
+        return ref != null && ref.get() != null;
+    }
+
+    private static final class MappingReference extends WeakReference<Mapping> {
+
+        private final Path path;
+
+        MappingReference(Mapping mapping) {
+            super(mapping, COLLECTED);
+            this.path = mapping.path;
+        }
+    }
+
+    /**
+     * A file mapped as one or more read-only segments of up to a gigabyte -
+     * a single MappedByteBuffer cannot exceed 2Gb.
+     */
+    private static final class Mapping {
+
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+        private final MappedByteBuffer[] segments;
+
+        Mapping(Path path, long size, long lastModified) throws IOException {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            int count = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            segments = new MappedByteBuffer[count];
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                for (int i = 0; i < count; i++) {
+                    long start = (long) i * SEGMENT_SIZE;
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                            Math.min(SEGMENT_SIZE, size - start));
+                }
+            }
+        }
+
+        /**
+         * Get a read-only slice of the mapping, which does not cross a
+         * segment boundary and so may be shorter than requested.
+         */
+        ByteBuffer slice(long position, int maxLength) {
+            ByteBuffer segment = segments[(int) (position / SEGMENT_SIZE)];
+            int start = (int) (position % SEGMENT_SIZE);
+            int end = (int) Math.min(segment.capacity(), (long) start + maxLength);
+            // Duplicate so concurrent requests never share position and limit
+            ByteBuffer result = segment.asReadOnlyBuffer();
+            result.limit(end).position(start);
+            return result.slice();
+        }
+    }
+
+    private final class Slices implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private long sent;
+
+        Slices(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancelled = true;
+                subscriber.onError(new IllegalArgumentException("Bad demand " + n));
+                return;
+            }
+            demand.accumulateAndGet(n, (a, b) -> {
+                long result = a + b;
+                return result < 0 ? Long.MAX_VALUE : result;
+            });
+            if (wip.getAndIncrement() != 0) {
+                // Called reentrantly from onNext(), or concurrently; the
+                // thread already sending will pick up the new demand
+                return;
+            }
+            int missed = 1;
+            for (;;) {
+                while (!cancelled && sent < length && demand.get() > 0) {
+                    ByteBuffer slice = mapping.slice(offset + sent,
+                            (int) Math.min(sliceSize, length - sent));
+                    sent += slice.remaining();
+                    demand.decrementAndGet();
+                    subscriber.onNext(slice);
+                }
+                if (!cancelled && sent == length) {
+                    cancelled = true;
+                    subscriber.onComplete();
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
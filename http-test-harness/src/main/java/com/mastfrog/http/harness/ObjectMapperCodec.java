@@ -23,20 +23,39 @@
  */
 package com.mastfrog.http.harness;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedOutputStream;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import com.mastfrog.util.codec.Codec;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Codec wrapper for Jackson ObjectMapper.
+ * <p>
+ * The ObjectReader and ObjectWriter for each type are looked up once and
+ * cached, so serializing and deserializing does not go through the mapper's
+ * generic, per-call lookup of (de)serializers; changes to the mapper's
+ * configuration after this codec has been used for a type will not be seen
+ * for that type.
+ * </p>
  *
  * @author Tim Boudreau
  */
 final class ObjectMapperCodec implements Codec {
 
     private final ObjectMapper mapper;
+    private final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final Map<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
 
     ObjectMapperCodec() {
         this(new ObjectMapper());
@@ -46,23 +65,76 @@ final class ObjectMapperCodec implements Codec {
         this.mapper = mapper;
     }
 
+    /**
+     * Get the factory of the underlying mapper, which determines the format
+     * (JSON, or a binary format such as Smile or CBOR) this codec produces.
+     *
+     * @return A factory
+     */
+    JsonFactory factory() {
+        return mapper.getFactory();
+    }
+
+    private ObjectReader reader(Class<?> type) {
+        return readers.computeIfAbsent(type, mapper::readerFor);
+    }
+
+    private ObjectWriter writer(Object o) {
+        return o == null ? mapper.writer()
+                : writers.computeIfAbsent(o.getClass(), mapper::writerFor);
+    }
+
     @Override
     public <T> String writeValueAsString(T t) throws IOException {
-        return mapper.writeValueAsString(t);
+        return writer(t).writeValueAsString(t);
     }
 
     @Override
     public <T> void writeValue(T t, OutputStream out) throws IOException {
-        out.write(writeValueAsBytes(out));
+        writer(t).writeValue(out, t);
+    }
+
+    @Override
+    public <T> void writeValue(T t, ByteBuffer buf) throws IOException {
+        writer(t).writeValue(new ByteBufferBackedOutputStream(buf), t);
     }
 
     @Override
     public <T> byte[] writeValueAsBytes(T t) throws IOException {
-        return mapper.writeValueAsBytes(t);
+        return writer(t).writeValueAsBytes(t);
     }
 
     @Override
     public <T> T readValue(InputStream in, Class<T> type) throws IOException {
-        return mapper.readValue(in, type);
+        return reader(type).readValue(in);
+    }
+
+    @Override
+    public <T> T readValue(byte[] bytes, Class<T> type) throws IOException {
+        return reader(type).readValue(bytes);
+    }
+
+    @Override
+    public <T> T readValue(String string, Class<T> type) throws IOException {
+        return reader(type).readValue(string);
+    }
+
+    <T> T readValue(byte[] bytes, int offset, int length, Class<T> type)
+            throws IOException {
+        return reader(type).readValue(bytes, offset, length);
+    }
+
+    <T> T readValue(ByteBuffer buf, Class<T> type) throws IOException {
+        if (buf.hasArray()) {
+            return readValue(buf.array(), buf.arrayOffset() + buf.position(),
+                    buf.remaining(), type);
+        }
+        return readValue(new ByteBufferBackedInputStream(buf.duplicate()), type);
+    }
+
+    <T> T readValue(TokenBuffer tokens, Class<T> type) throws IOException {
+        try (JsonParser parser = tokens.asParser(mapper)) {
+            return reader(type).readValue(parser);
+        }
     }
 }
@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces a flow of bytes to a fixed rate, on a single timer thread shared by
+ * every paced body in the JVM, so thousands of slow uploads or slow reads do
+ * not need a sleeping thread each. Anything which touches a body publisher or
+ * subscriber - which may read files, serialize objects, or run assertions
+ * inline - must be scheduled with an executor to hand it off to, so the timer
+ * thread itself only ever does that hand-off.
+ * <p>
+ * An instance tracks the earliest time the next bytes may go; sending bytes
+ * pushes that time forward by however long they take at the configured
+ * rate. Time spent idle does not accumulate credit for a later burst.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class Pacer {
+
+    private static final ScheduledExecutorService TIMER = timer();
+    private static final ExecutorService HANDOFF = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "http-test-harness-paced-work");
+        t.setDaemon(true);
+        return t;
+    });
+    private final double nanosPerByte;
+    private long nextAt = System.nanoTime();
+
+    Pacer(long bytesPerSecond) {
+        this.nanosPerByte = 1_000_000_000D / bytesPerSecond;
+    }
+
+    private static ScheduledExecutorService timer() {
+        ScheduledThreadPoolExecutor result = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "http-test-harness-pacer");
+            t.setDaemon(true);
+            return t;
+        });
+        result.setRemoveOnCancelPolicy(true);
+        return result;
+    }
+
+    private static void schedule(Runnable task, long delayNanos) {
+        TIMER.schedule(task, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Schedule a task which may do unbounded work - such as requesting more
+     * data from an HTTP client, which may deliver it and complete the
+     * response inline, or pulling bytes from a publisher which reads a file -
+     * so that the timer only hands it off to an executor when it comes due.
+     *
+     * @param task A task
+     * @param delayNanos The delay before it runs
+     * @param executor The executor to run it on, or null to use a shared
+     * pool of daemon threads
+     */
+    static void schedule(Runnable task, long delayNanos, Executor executor) {
+        Executor target = executor == null ? HANDOFF : executor;
+        schedule(() -> target.execute(task), delayNanos);
+    }
+
+    /**
+     * Get how long until more bytes may be sent.
+     *
+     * @return A number of nanoseconds, zero if bytes may be sent now
+     */
+    synchronized long delayNanos() {
+        return Math.max(0, nextAt - System.nanoTime());
+    }
+
+    /**
+     * Record that some bytes were sent.
+     *
+     * @param bytes The byte count
+     */
+    synchronized void sent(long bytes) {
+        nextAt = Math.max(nextAt, System.nanoTime()) + (long) (bytes * nanosPerByte);
+    }
+
+    /**
+     * Delay sending anything more by the passed amount, beyond what the
+     * rate requires.
+     *
+     * @param nanos A number of nanoseconds
+     */
+    synchronized void pause(long nanos) {
+        nextAt = Math.max(nextAt, System.nanoTime()) + nanos;
+    }
+}
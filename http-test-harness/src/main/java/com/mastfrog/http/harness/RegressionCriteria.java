@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import static com.mastfrog.util.preconditions.Checks.greaterThanZero;
+
+/**
+ * What it takes for a {@link BaselineComparison} to call a change in response
+ * times a regression (or an improvement): the difference must be both
+ * statistically significant - unlikely to be noise, by a one-sided
+ * Mann-Whitney U test - <i>and</i> large enough to matter, as a relative
+ * change in the median. Requiring both keeps a build from failing on a
+ * real-but-trivial 1% shift that a large sample makes significant, or on a
+ * dramatic-looking change in a handful of noisy runs.
+ * <p>
+ * Instances are immutable; the <code>with</code> methods return modified
+ * copies.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class RegressionCriteria {
+
+    /**
+     * The default criteria - significant at the 1% level, a median at least
+     * 10% slower or faster, and at least 8 runs on each side.
+     */
+    public static final RegressionCriteria DEFAULT
+            = new RegressionCriteria(0.01, 0.1, 8);
+    private final double significance;
+    private final double minimumChange;
+    private final int minimumRuns;
+
+    private RegressionCriteria(double significance, double minimumChange,
+            int minimumRuns) {
+        this.significance = significance;
+        this.minimumChange = minimumChange;
+        this.minimumRuns = minimumRuns;
+    }
+
+    /**
+     * Get the default criteria.
+     *
+     * @return The defaults
+     */
+    public static RegressionCriteria defaults() {
+        return DEFAULT;
+    }
+
+    /**
+     * The p-value below which a difference is considered significant.
+     *
+     * @return A probability
+     */
+    public double significance() {
+        return significance;
+    }
+
+    /**
+     * The smallest relative change in median response time which is
+     * reported, as a fraction - 0.1 meaning 10%.
+     *
+     * @return A fraction
+     */
+    public double minimumChange() {
+        return minimumChange;
+    }
+
+    /**
+     * The fewest runs of an endpoint in either report for it to be compared
+     * at all.
+     *
+     * @return A number of runs
+     */
+    public int minimumRuns() {
+        return minimumRuns;
+    }
+
+    /**
+     * Set the p-value below which a difference is considered significant.
+     *
+     * @param significance A probability greater than 0 and less than 1
+     * @return A new criteria
+     */
+    public RegressionCriteria withSignificance(double significance) {
+        if (!(significance > 0 && significance < 1)) {
+            throw new IllegalArgumentException("Significance must be between "
+                    + "0 and 1 exclusive, but was " + significance);
+        }
+        return new RegressionCriteria(significance, minimumChange, minimumRuns);
+    }
+
+    /**
+     * Set the smallest relative change in median response time which is
+     * reported.
+     *
+     * @param minimumChange A fraction greater than or equal to zero - 0.1
+     * meaning 10%
+     * @return A new criteria
+     */
+    public RegressionCriteria withMinimumChange(double minimumChange) {
+        if (!(minimumChange >= 0) || Double.isInfinite(minimumChange)) {
+            throw new IllegalArgumentException("Minimum change must be a "
+                    + "non-negative fraction, but was " + minimumChange);
+        }
+        return new RegressionCriteria(significance, minimumChange, minimumRuns);
+    }
+
+    /**
+     * Set the fewest runs of an endpoint in either report for it to be
+     * compared; the statistics used are unreliable below about 8.
+     *
+     * @param minimumRuns A number greater than zero
+     * @return A new criteria
+     */
+    public RegressionCriteria withMinimumRuns(int minimumRuns) {
+        return new RegressionCriteria(significance, minimumChange,
+                greaterThanZero("minimumRuns", minimumRuns));
+    }
+
+    @Override
+    public String toString() {
+        return "p < " + significance + ", median change >= "
+                + (minimumChange * 100) + "%, runs >= " + minimumRuns;
+    }
+}
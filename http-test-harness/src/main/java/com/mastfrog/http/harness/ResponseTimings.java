@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import java.time.Duration;
+
+/**
+ * Monotonic timestamps of the phases of one request, relative to when it was
+ * sent, for performance assertions; a phase which had not happened when the
+ * snapshot was taken - because the request timed out or failed - has a null
+ * duration.
+ *
+ * @author Tim Boudreau
+ */
+final class ResponseTimings {
+
+    static final long UNSET = Long.MIN_VALUE;
+    private final long sentAt;
+    private final long headersAt;
+    private final long firstByteAt;
+    private final long completedAt;
+    private final long bytes;
+
+    ResponseTimings(long sentAt, long headersAt, long firstByteAt,
+            long completedAt, long bytes) {
+        this.sentAt = sentAt;
+        this.headersAt = headersAt;
+        this.firstByteAt = firstByteAt;
+        this.completedAt = completedAt;
+        this.bytes = bytes;
+    }
+
+    private Duration since(long sentAt, long when) {
+        return sentAt == UNSET || when == UNSET ? null : Duration.ofNanos(when - sentAt);
+    }
+
+    /**
+     * Time from sending the request until the response headers arrived.
+     */
+    Duration headers() {
+        return since(sentAt, headersAt);
+    }
+
+    /**
+     * Time from sending the request until the first byte of the body
+     * arrived, or until the response completed if the body was empty.
+     */
+    Duration firstByte() {
+        return since(sentAt, firstByteAt == UNSET ? completedAt : firstByteAt);
+    }
+
+    /**
+     * Time from sending the request until the response completed.
+     */
+    Duration total() {
+        return since(sentAt, completedAt);
+    }
+
+    /**
+     * Body bytes per second from the headers arriving to the response
+     * completing, or null if it did not complete.
+     */
+    Long throughput() {
+        if (headersAt == UNSET || completedAt == UNSET) {
+            return null;
+        }
+        long nanos = completedAt - headersAt;
+        return nanos <= 0 ? Long.MAX_VALUE : (long) (bytes * 1_000_000_000D / nanos);
+    }
+
+    @Override
+    public String toString() {
+        return "headers " + headers() + ", first byte " + firstByte()
+                + ", total " + total() + ", " + bytes + " bytes at "
+                + throughput() + " bytes/sec";
+    }
+}
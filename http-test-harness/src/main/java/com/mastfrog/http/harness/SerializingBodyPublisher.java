@@ -0,0 +1,286 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import com.mastfrog.util.codec.Codec;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A body publisher which serializes an object lazily, as the HTTP client asks
+ * for data, rather than serializing the whole thing into a byte array before
+ * the request is sent - so uploading a very large payload starts immediately
+ * and does not need the entire serialized form in memory.
+ * <p>
+ * The codec writes into fixed-size buffers on a background thread; at most
+ * a few filled buffers are queued ahead of the client's demand, after which
+ * the serializing thread blocks until the client catches up. Every buffer
+ * handed to the client is newly allocated - a client which has consumed a
+ * buffer may still hold slices of it, queued for the socket, and the Flow
+ * API gives no signal when it is done with them. The content length is
+ * unknown, so HTTP/1.1 requests are sent chunked.
+ * </p>
+ * <p>
+ * Each subscription serializes the object afresh, so the publisher can be
+ * reused for retries and redirects.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class SerializingBodyPublisher implements HttpRequest.BodyPublisher {
+
+    static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+    static final int DEFAULT_MAX_QUEUED = 4;
+    private static final ExecutorService SERIALIZERS
+            = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "http-test-harness-body-serializer");
+                t.setDaemon(true);
+                return t;
+            });
+    private final Object value;
+    private final Codec codec;
+    private final int bufferSize;
+    private final int maxQueued;
+
+    SerializingBodyPublisher(Object value, Codec codec) {
+        this(value, codec, DEFAULT_BUFFER_SIZE, DEFAULT_MAX_QUEUED);
+    }
+
+    SerializingBodyPublisher(Object value, Codec codec, int bufferSize,
+            int maxQueued) {
+        this.value = value;
+        this.codec = codec;
+        this.bufferSize = bufferSize;
+        this.maxQueued = maxQueued;
+    }
+
+    @Override
+    public long contentLength() {
+        return -1;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        Upload upload = new Upload(subscriber);
+        subscriber.onSubscribe(upload);
+    }
+
+    @Override
+    public String toString() {
+        return "SerializingBodyPublisher(" + value.getClass().getName() + ")";
+    }
+
+    final class Upload implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final ArrayDeque<ByteBuffer> ready = new ArrayDeque<>(maxQueued);
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicBoolean started = new AtomicBoolean();
+        private volatile boolean cancelled;
+        private volatile boolean done;
+        private volatile Throwable failure;
+        private boolean terminated;
+
+        Upload(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                failure = new IllegalArgumentException("Bad demand " + n);
+                done = true;
+                drain();
+                cancel();
+                return;
+            }
+            demand.accumulateAndGet(n, (a, b) -> {
+                long result = a + b;
+                return result < 0 ? Long.MAX_VALUE : result;
+            });
+            if (started.compareAndSet(false, true)) {
+                SERIALIZERS.execute(this::serialize);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+
+        private void serialize() {
+            try (Output out = new Output()) {
+                codec.writeValue(value, out);
+            } catch (Throwable thrown) {
+                failure = thrown;
+            } finally {
+                done = true;
+                drain();
+            }
+        }
+
+        /**
+         * Get a buffer to serialize into; never one already handed to the
+         * client, which may still be reading it.
+         */
+        ByteBuffer acquire() {
+            return ByteBuffer.allocate(bufferSize);
+        }
+
+        void enqueue(ByteBuffer filled) throws IOException {
+            synchronized (this) {
+                while (ready.size() >= maxQueued && !cancelled) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted", ex);
+                    }
+                }
+                if (cancelled) {
+                    throw new IOException("Cancelled");
+                }
+                ready.add(filled);
+            }
+            drain();
+        }
+
+        private synchronized ByteBuffer next() {
+            ByteBuffer result = ready.pollFirst();
+            if (result != null) {
+                notifyAll();
+            }
+            return result;
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            for (;;) {
+                while (!cancelled && demand.get() > 0) {
+                    ByteBuffer buf = next();
+                    if (buf == null) {
+                        break;
+                    }
+                    demand.decrementAndGet();
+                    subscriber.onNext(buf);
+                }
+                if (done && !terminated && !cancelled && nothingToSend()) {
+                    terminated = true;
+                    Throwable thrown = failure;
+                    if (thrown != null) {
+                        subscriber.onError(thrown);
+                    } else {
+                        subscriber.onComplete();
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        private synchronized boolean nothingToSend() {
+            return ready.isEmpty() || failure != null;
+        }
+
+        /**
+         * Stream the codec writes into, which hands off each buffer as it is
+         * filled.
+         */
+        final class Output extends OutputStream {
+
+            private ByteBuffer current;
+            private boolean closed;
+
+            @Override
+            public void write(int b) throws IOException {
+                ensureBuffer().put((byte) b);
+                if (!current.hasRemaining()) {
+                    handOff();
+                }
+            }
+
+            @Override
+            public void write(byte[] bytes, int off, int len) throws IOException {
+                while (len > 0) {
+                    ByteBuffer buf = ensureBuffer();
+                    int count = Math.min(len, buf.remaining());
+                    buf.put(bytes, off, count);
+                    off += count;
+                    len -= count;
+                    if (!buf.hasRemaining()) {
+                        handOff();
+                    }
+                }
+            }
+
+            private ByteBuffer ensureBuffer() throws IOException {
+                if (closed || cancelled) {
+                    throw new IOException(closed ? "Closed" : "Cancelled");
+                }
+                if (current == null) {
+                    current = acquire();
+                }
+                return current;
+            }
+
+            private void handOff() throws IOException {
+                ByteBuffer buf = current;
+                current = null;
+                buf.flip();
+                enqueue(buf);
+            }
+
+            @Override
+            public void close() throws IOException {
+                // Codecs may close the stream themselves, so this is called
+                // more than once
+                if (!closed) {
+                    closed = true;
+                    if (current != null && current.position() > 0 && !cancelled) {
+                        handOff();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,782 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A regular expression compiled to a Thompson NFA which can be run over text a
+ * character at a time, so that whether a response body contains a match (in
+ * the sense of <code>Matcher.find()</code>) can be determined as chunks
+ * arrive, without ever holding the body as a String.
+ * <p>
+ * Only the subset of <code>java.util.regex</code> syntax whose meaning does
+ * not depend on backtracking is supported: literals and escapes, <code>.</code>,
+ * character classes (without nesting or intersection), the predefined classes
+ * <code>\d \w \s</code> and their negations, groups (capturing, non-capturing
+ * and named - captures are irrelevant to whether there is a match),
+ * alternation, the greedy and reluctant quantifiers <code>* + ? {m,n}</code>,
+ * and <code>^</code> and <code>$</code> as start and end of input (where, as
+ * in the JDK, <code>$</code> also matches before a final line terminator, and
+ * only the end of the pattern may follow it). Anything
+ * else - flags, backreferences, lookaround, possessive quantifiers, boundaries,
+ * Unicode properties - makes {@link #compile(Pattern)} return null, and the
+ * caller should fall back to matching the whole body with the JDK's
+ * implementation. Characters are UTF-16 units, so <code>.</code> matches half
+ * of a surrogate pair.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class StreamingPattern {
+
+    private static final int MAX_STATES = 16_384;
+    private static final int MAX_REPEAT = 1_000;
+    private static final byte CHAR = 0;
+    private static final byte SPLIT = 1;
+    private static final byte BEGIN = 2;
+    private static final byte END = 3;
+    private static final byte MATCH = 4;
+    private final String source;
+    private final byte[] types;
+    private final int[] out1;
+    private final int[] out2;
+    private final CharSet[] sets;
+    private final int start;
+
+    private StreamingPattern(String source, byte[] types, int[] out1, int[] out2,
+            CharSet[] sets, int start) {
+        this.source = source;
+        this.types = types;
+        this.out1 = out1;
+        this.out2 = out2;
+        this.sets = sets;
+        this.start = start;
+    }
+
+    /**
+     * Compile a pattern, if it uses only the supported subset of syntax and
+     * has no flags.
+     *
+     * @param pattern A pattern
+     * @return A streaming pattern, or null
+     */
+    static StreamingPattern compile(Pattern pattern) {
+        if (pattern.flags() != 0) {
+            return null;
+        }
+        return compile(pattern.pattern());
+    }
+
+    /**
+     * Compile a pattern, if it uses only the supported subset of syntax.
+     *
+     * @param regex A regular expression
+     * @return A streaming pattern, or null
+     */
+    static StreamingPattern compile(String regex) {
+        try {
+            Node ast = new Parser(regex).parse();
+            Builder b = new Builder();
+            int match = b.add(MATCH, -1, -1, null);
+            int start = ast.compile(b, match);
+            checkEnds(b);
+            return new StreamingPattern(regex, Arrays.copyOf(b.types, b.count),
+                    Arrays.copyOf(b.out1, b.count), Arrays.copyOf(b.out2, b.count),
+                    Arrays.copyOf(b.sets, b.count), start);
+        } catch (Unsupported ex) {
+            return null;
+        }
+    }
+
+    private static void checkEnds(Builder b) throws Unsupported {
+        // A $ which can be followed by more input matches before a final
+        // line terminator and then consumes it - rare, and not worth
+        // supporting, so insist that only further $'s or the end follow
+        for (int i = 0; i < b.count; i++) {
+            if (b.types[i] != END) {
+                continue;
+            }
+            BitSet seen = new BitSet(b.count);
+            int[] stack = new int[b.count * 2 + 1];
+            int top = 0;
+            stack[top++] = b.out1[i];
+            while (top > 0) {
+                int s = stack[--top];
+                if (s < 0 || seen.get(s)) {
+                    continue;
+                }
+                seen.set(s);
+                switch (b.types[s]) {
+                    case SPLIT:
+                        stack[top++] = b.out1[s];
+                        stack[top++] = b.out2[s];
+                        break;
+                    case END:
+                        stack[top++] = b.out1[s];
+                        break;
+                    case MATCH:
+                        break;
+                    default:
+                        throw new Unsupported("Input after $");
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a matcher to feed characters to.
+     *
+     * @return A new matcher
+     */
+    Matcher matcher() {
+        return new Matcher();
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028'
+                || c == '\u2029';
+    }
+
+    /**
+     * Runs the NFA over characters as they are fed to it, tracking the set of
+     * live states; a new thread is started at every position, which gives
+     * <code>find()</code> rather than <code>matches()</code> semantics.
+     */
+    final class Matcher {
+
+        private int[] current = new int[16];
+        private int currentCount;
+        private int[] next = new int[16];
+        private int nextCount;
+        private final int[] marks = new int[types.length];
+        private int generation = 1;
+        private boolean matched;
+        private boolean atStart = true;
+        private char last;
+        // Live end-of-input assertions from just before a trailing line
+        // terminator, which $ also matches before
+        private int[] beforeTerminator = new int[0];
+
+        boolean isMatched() {
+            return matched;
+        }
+
+        void accept(char c) {
+            if (matched) {
+                return;
+            }
+            if (atStart) {
+                addFromStart(false);
+            }
+            if (isLineTerminator(c)) {
+                if (!(c == '\n' && last == '\r')) {
+                    beforeTerminator = endStates();
+                }
+            } else if (beforeTerminator.length > 0) {
+                beforeTerminator = new int[0];
+            }
+            last = c;
+            generation++;
+            nextCount = 0;
+            for (int i = 0; i < currentCount && !matched; i++) {
+                int s = current[i];
+                if (types[s] == CHAR && sets[s].contains(c)) {
+                    nextCount = add(out1[s], next, nextCount, false, false);
+                }
+            }
+            int[] t = current;
+            current = next;
+            next = t;
+            currentCount = nextCount;
+            if (!matched) {
+                // Every position is a possible start of a match
+                generation++;
+                for (int i = 0; i < currentCount; i++) {
+                    marks[current[i]] = generation;
+                }
+                currentCount = add(start, current, currentCount, false, false);
+            }
+        }
+
+        /**
+         * Signal the end of input, resolving <code>$</code>.
+         *
+         * @return Whether there was a match
+         */
+        boolean finish() {
+            if (matched) {
+                return true;
+            }
+            if (atStart) {
+                addFromStart(true);
+            }
+            int[] ends = endStates();
+            generation++;
+            for (int s : ends) {
+                add(out1[s], next, 0, false, true);
+            }
+            for (int s : beforeTerminator) {
+                add(out1[s], next, 0, false, true);
+            }
+            return matched;
+        }
+
+        private void addFromStart(boolean atEnd) {
+            atStart = false;
+            generation++;
+            currentCount = add(start, current, 0, true, atEnd);
+        }
+
+        private int[] endStates() {
+            int count = 0;
+            for (int i = 0; i < currentCount; i++) {
+                if (types[current[i]] == END) {
+                    count++;
+                }
+            }
+            if (count == 0) {
+                return new int[0];
+            }
+            int[] result = new int[count];
+            for (int i = 0, j = 0; i < currentCount; i++) {
+                if (types[current[i]] == END) {
+                    result[j++] = current[i];
+                }
+            }
+            return result;
+        }
+
+        private int add(int state, int[] into, int count, boolean atBeginning,
+                boolean atEnd) {
+            // Iterative epsilon closure, so long chains of optional
+            // repetitions cannot overflow the stack
+            int[] stack = new int[8];
+            int top = 0;
+            stack[top++] = state;
+            while (top > 0) {
+                int s = stack[--top];
+                if (s < 0 || marks[s] == generation) {
+                    continue;
+                }
+                marks[s] = generation;
+                switch (types[s]) {
+                    case MATCH:
+                        matched = true;
+                        return count;
+                    case SPLIT:
+                        if (top + 2 > stack.length) {
+                            stack = Arrays.copyOf(stack, stack.length * 2);
+                        }
+                        stack[top++] = out2[s];
+                        stack[top++] = out1[s];
+                        break;
+                    case BEGIN:
+                        if (atBeginning) {
+                            if (top == stack.length) {
+                                stack = Arrays.copyOf(stack, stack.length * 2);
+                            }
+                            stack[top++] = out1[s];
+                        }
+                        break;
+                    case END:
+                        if (atEnd) {
+                            if (top == stack.length) {
+                                stack = Arrays.copyOf(stack, stack.length * 2);
+                            }
+                            stack[top++] = out1[s];
+                        } else if (into != null) {
+                            // Park it until we know if input ends here
+                            into = roomFor(into, count);
+                            into[count++] = s;
+                        }
+                        break;
+                    default:
+                        if (into != null) {
+                            into = roomFor(into, count);
+                            into[count++] = s;
+                        }
+                }
+            }
+            return count;
+        }
+
+        private int[] roomFor(int[] arr, int count) {
+            return count == arr.length ? grow(arr) : arr;
+        }
+
+        private int[] grow(int[] arr) {
+            int[] result = Arrays.copyOf(arr, arr.length * 2);
+            if (arr == current) {
+                current = result;
+            } else if (arr == next) {
+                next = result;
+            }
+            return result;
+        }
+    }
+
+    private static final class Unsupported extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        Unsupported(String msg) {
+            super(msg, null, false, false);
+        }
+    }
+
+    private static final class Builder {
+
+        byte[] types = new byte[32];
+        int[] out1 = new int[32];
+        int[] out2 = new int[32];
+        CharSet[] sets = new CharSet[32];
+        int count;
+
+        int add(byte type, int a, int b, CharSet set) throws Unsupported {
+            if (count == MAX_STATES) {
+                throw new Unsupported("Too many states");
+            }
+            if (count == types.length) {
+                int len = count * 2;
+                types = Arrays.copyOf(types, len);
+                out1 = Arrays.copyOf(out1, len);
+                out2 = Arrays.copyOf(out2, len);
+                sets = Arrays.copyOf(sets, len);
+            }
+            types[count] = type;
+            out1[count] = a;
+            out2[count] = b;
+            sets[count] = set;
+            return count++;
+        }
+    }
+
+    /**
+     * Regex syntax tree node; compiled back to front, so each node is given
+     * the state that follows it.
+     */
+    private interface Node {
+
+        int compile(Builder b, int next) throws Unsupported;
+    }
+
+    private static final class Parser {
+
+        private final String src;
+        private int pos;
+
+        Parser(String src) {
+            this.src = src;
+        }
+
+        Node parse() throws Unsupported {
+            Node result = alternation();
+            if (pos < src.length()) {
+                throw new Unsupported("Unbalanced ) at " + pos);
+            }
+            return result;
+        }
+
+        private boolean more() {
+            return pos < src.length();
+        }
+
+        private char peek() {
+            return src.charAt(pos);
+        }
+
+        private Node alternation() throws Unsupported {
+            List<Node> alternatives = new ArrayList<>(2);
+            alternatives.add(sequence());
+            while (more() && peek() == '|') {
+                pos++;
+                alternatives.add(sequence());
+            }
+            if (alternatives.size() == 1) {
+                return alternatives.get(0);
+            }
+            return (b, next) -> {
+                int s = alternatives.get(alternatives.size() - 1).compile(b, next);
+                for (int i = alternatives.size() - 2; i >= 0; i--) {
+                    s = b.add(SPLIT, alternatives.get(i).compile(b, next), s, null);
+                }
+                return s;
+            };
+        }
+
+        private Node sequence() throws Unsupported {
+            List<Node> items = new ArrayList<>();
+            while (more() && peek() != '|' && peek() != ')') {
+                items.add(quantified(atom()));
+            }
+            return (b, next) -> {
+                int s = next;
+                for (int i = items.size() - 1; i >= 0; i--) {
+                    s = items.get(i).compile(b, s);
+                }
+                return s;
+            };
+        }
+
+        private Node quantified(Node atom) throws Unsupported {
+            if (!more()) {
+                return atom;
+            }
+            int min;
+            int max;
+            switch (peek()) {
+                case '*':
+                    min = 0;
+                    max = -1;
+                    pos++;
+                    break;
+                case '+':
+                    min = 1;
+                    max = -1;
+                    pos++;
+                    break;
+                case '?':
+                    min = 0;
+                    max = 1;
+                    pos++;
+                    break;
+                case '{':
+                    int close = src.indexOf('}', pos);
+                    if (close < 0) {
+                        throw new Unsupported("Unclosed {");
+                    }
+                    String[] parts = src.substring(pos + 1, close).split(",", -1);
+                    try {
+                        min = Integer.parseInt(parts[0].trim());
+                        max = parts.length == 1 ? min
+                                : parts[1].trim().isEmpty() ? -1
+                                : Integer.parseInt(parts[1].trim());
+                    } catch (NumberFormatException ex) {
+                        throw new Unsupported("Bad repetition " + src.substring(pos, close + 1));
+                    }
+                    if (parts.length > 2 || min > MAX_REPEAT || max > MAX_REPEAT
+                            || (max >= 0 && max < min)) {
+                        throw new Unsupported("Bad repetition " + src.substring(pos, close + 1));
+                    }
+                    pos = close + 1;
+                    break;
+                default:
+                    return atom;
+            }
+            if (more() && peek() == '+') {
+                // Possessive quantifiers can prevent a match that
+                // backtracking would find
+                throw new Unsupported("Possessive quantifier");
+            } else if (more() && peek() == '?') {
+                // Reluctance changes what is matched, not whether
+                pos++;
+            }
+            int mn = min;
+            int mx = max;
+            Node result = (b, next) -> {
+                int s = next;
+                if (mx < 0) {
+                    int loop = b.add(SPLIT, -1, next, null);
+                    b.out1[loop] = atom.compile(b, loop);
+                    s = loop;
+                } else {
+                    for (int i = 0; i < mx - mn; i++) {
+                        s = b.add(SPLIT, atom.compile(b, s), next, null);
+                    }
+                }
+                for (int i = 0; i < mn; i++) {
+                    s = atom.compile(b, s);
+                }
+                return s;
+            };
+            return quantified(result);
+        }
+
+        private Node atom() throws Unsupported {
+            char c = src.charAt(pos++);
+            switch (c) {
+                case '(':
+                    if (more() && peek() == '?') {
+                        pos++;
+                        if (more() && peek() == ':') {
+                            pos++;
+                        } else if (more() && peek() == '<' && pos + 1 < src.length()
+                                && Character.isLetter(src.charAt(pos + 1))) {
+                            int close = src.indexOf('>', pos);
+                            if (close < 0) {
+                                throw new Unsupported("Bad group name");
+                            }
+                            pos = close + 1;
+                        } else {
+                            throw new Unsupported("Unsupported group construct at " + pos);
+                        }
+                    }
+                    Node inner = alternation();
+                    if (!more() || peek() != ')') {
+                        throw new Unsupported("Unclosed group");
+                    }
+                    pos++;
+                    return inner;
+                case '[':
+                    return set(charClass());
+                case '.':
+                    return set(CharSet.DOT);
+                case '^':
+                    return (b, next) -> b.add(BEGIN, next, -1, null);
+                case '$':
+                    return (b, next) -> b.add(END, next, -1, null);
+                case '\\':
+                    return set(escape(false));
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    throw new Unsupported("Dangling quantifier at " + (pos - 1));
+                default:
+                    return set(CharSet.of(c));
+            }
+        }
+
+        private static Node set(CharSet set) {
+            return (b, next) -> b.add(CHAR, next, -1, set);
+        }
+
+        private CharSet escape(boolean inClass) throws Unsupported {
+            if (!more()) {
+                throw new Unsupported("Trailing backslash");
+            }
+            char c = src.charAt(pos++);
+            switch (c) {
+                case 'd':
+                    return CharSet.DIGIT;
+                case 'D':
+                    return CharSet.DIGIT.negate();
+                case 'w':
+                    return CharSet.WORD;
+                case 'W':
+                    return CharSet.WORD.negate();
+                case 's':
+                    return CharSet.SPACE;
+                case 'S':
+                    return CharSet.SPACE.negate();
+                case 't':
+                    return CharSet.of('\t');
+                case 'n':
+                    return CharSet.of('\n');
+                case 'r':
+                    return CharSet.of('\r');
+                case 'f':
+                    return CharSet.of('\f');
+                case 'a':
+                    return CharSet.of('\u0007');
+                case 'e':
+                    return CharSet.of('\u001B');
+                case 'x':
+                    return CharSet.of(hex(2));
+                case 'u':
+                    return CharSet.of(hex(4));
+                default:
+                    if (!Character.isLetterOrDigit(c)) {
+                        return CharSet.of(c);
+                    }
+                    throw new Unsupported("Unsupported escape \\" + c);
+            }
+        }
+
+        private char hex(int digits) throws Unsupported {
+            if (pos + digits > src.length()) {
+                throw new Unsupported("Bad hex escape");
+            }
+            try {
+                char result = (char) Integer.parseInt(src.substring(pos, pos + digits), 16);
+                pos += digits;
+                return result;
+            } catch (NumberFormatException ex) {
+                throw new Unsupported("Bad hex escape");
+            }
+        }
+
+        private CharSet charClass() throws Unsupported {
+            boolean negated = more() && peek() == '^';
+            if (negated) {
+                pos++;
+            }
+            CharSet result = CharSet.EMPTY;
+            boolean first = true;
+            for (;;) {
+                if (!more()) {
+                    throw new Unsupported("Unclosed character class");
+                }
+                char c = src.charAt(pos++);
+                if (c == ']' && !first) {
+                    break;
+                }
+                first = false;
+                if (c == '[' || (c == '&' && more() && peek() == '&')) {
+                    throw new Unsupported("Nested or intersected character class");
+                }
+                CharSet item;
+                char low;
+                if (c == '\\') {
+                    item = escape(true);
+                    if (!item.isSingle()) {
+                        result = result.union(item);
+                        continue;
+                    }
+                    low = item.single();
+                } else {
+                    low = c;
+                }
+                if (pos + 1 < src.length() && peek() == '-' && src.charAt(pos + 1) != ']') {
+                    pos++;
+                    char high = src.charAt(pos++);
+                    if (high == '\\') {
+                        CharSet h = escape(true);
+                        if (!h.isSingle()) {
+                            throw new Unsupported("Bad range");
+                        }
+                        high = h.single();
+                    } else if (high == '[') {
+                        throw new Unsupported("Nested character class");
+                    }
+                    if (high < low) {
+                        throw new Unsupported("Bad range");
+                    }
+                    result = result.union(CharSet.range(low, high));
+                } else {
+                    result = result.union(CharSet.of(low));
+                }
+            }
+            return negated ? result.negate() : result;
+        }
+    }
+
+    /**
+     * An immutable set of characters as sorted, non-overlapping inclusive
+     * ranges.
+     */
+    static final class CharSet {
+
+        static final CharSet EMPTY = new CharSet(new char[0]);
+        static final CharSet DIGIT = range('0', '9');
+        static final CharSet WORD = range('a', 'z').union(range('A', 'Z'))
+                .union(DIGIT).union(of('_'));
+        static final CharSet SPACE = of(' ').union(range('\t', '\r'));
+        static final CharSet DOT = of('\n').union(of('\r')).union(of('\u0085'))
+                .union(range('\u2028', '\u2029')).negate();
+        // low, high, low, high...
+        private final char[] ranges;
+
+        private CharSet(char[] ranges) {
+            this.ranges = ranges;
+        }
+
+        static CharSet of(char c) {
+            return new CharSet(new char[]{c, c});
+        }
+
+        static CharSet range(char low, char high) {
+            return new CharSet(new char[]{low, high});
+        }
+
+        boolean isSingle() {
+            return ranges.length == 2 && ranges[0] == ranges[1];
+        }
+
+        char single() {
+            return ranges[0];
+        }
+
+        boolean contains(char c) {
+            if (ranges.length == 2) {
+                return c >= ranges[0] && c <= ranges[1];
+            }
+            int lo = 0;
+            int hi = ranges.length / 2 - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (c < ranges[mid * 2]) {
+                    hi = mid - 1;
+                } else if (c > ranges[mid * 2 + 1]) {
+                    lo = mid + 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        CharSet union(CharSet other) {
+            int n = ranges.length / 2 + other.ranges.length / 2;
+            int[][] all = new int[n][];
+            int ix = 0;
+            for (int i = 0; i < ranges.length; i += 2) {
+                all[ix++] = new int[]{ranges[i], ranges[i + 1]};
+            }
+            for (int i = 0; i < other.ranges.length; i += 2) {
+                all[ix++] = new int[]{other.ranges[i], other.ranges[i + 1]};
+            }
+            Arrays.sort(all, (a, b) -> Integer.compare(a[0], b[0]));
+            char[] merged = new char[n * 2];
+            int count = 0;
+            for (int[] r : all) {
+                if (count > 0 && r[0] <= merged[count - 1] + 1) {
+                    merged[count - 1] = (char) Math.max(merged[count - 1], r[1]);
+                } else {
+                    merged[count++] = (char) r[0];
+                    merged[count++] = (char) r[1];
+                }
+            }
+            return new CharSet(Arrays.copyOf(merged, count));
+        }
+
+        CharSet negate() {
+            char[] result = new char[ranges.length + 2];
+            int count = 0;
+            int next = 0;
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (ranges[i] > next) {
+                    result[count++] = (char) next;
+                    result[count++] = (char) (ranges[i] - 1);
+                }
+                next = ranges[i + 1] + 1;
+            }
+            if (next <= Character.MAX_VALUE) {
+                result[count++] = (char) next;
+                result[count++] = Character.MAX_VALUE;
+            }
+            return new CharSet(Arrays.copyOf(result, count));
+        }
+    }
+}
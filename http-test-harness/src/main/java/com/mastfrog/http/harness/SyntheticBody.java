@@ -0,0 +1,432 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import static com.mastfrog.util.preconditions.Checks.nonNegative;
+import static com.mastfrog.util.preconditions.Checks.notNull;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A request body of arbitrary size which is generated on the fly as the HTTP
+ * client asks for it, rather than built in memory up front - for
+ * stress-testing upload endpoints. Content is deterministic: seeded random
+ * bytes, a repeating pattern, or a JSON array of records made from a
+ * template, so the same body can be sent any number of times, and what an
+ * endpoint echoes back can be checked against it with
+ * <code>Assertions.assertBodyDigest(SyntheticBody)</code>, which digests the
+ * response as it arrives instead of buffering it.
+ * <p>
+ * Bodies are generated into small buffers as the client asks for them - a
+ * new one for each hand-off, since a client which has consumed a buffer may
+ * still hold slices of it queued for the socket. Instances are immutable
+ * and may be shared across concurrent requests.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class SyntheticBody implements HttpRequest.BodyPublisher {
+
+    /**
+     * The placeholder in a JSON record template which is replaced by the
+     * record's index.
+     */
+    public static final String INDEX_PLACEHOLDER = "{index}";
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private final long length;
+    private final Supplier<Generator> generators;
+    private final String description;
+
+    private SyntheticBody(long length, Supplier<Generator> generators,
+            String description) {
+        this.length = length;
+        this.generators = generators;
+        this.description = description;
+    }
+
+    /**
+     * Create a body of pseudo-random bytes, which will be the same for the
+     * same seed and size.
+     *
+     * @param seed A random seed
+     * @param size The number of bytes
+     * @return A body
+     */
+    public static SyntheticBody randomBytes(long seed, long size) {
+        return new SyntheticBody(nonNegative("size", size),
+                () -> new RandomGenerator(seed, size),
+                size + " random bytes seeded with " + seed);
+    }
+
+    /**
+     * Create a body which repeats the passed bytes, truncating the last
+     * repetition if the size is not a multiple of the pattern length.
+     *
+     * @param pattern Some bytes
+     * @param size The number of bytes
+     * @return A body
+     */
+    public static SyntheticBody repeating(byte[] pattern, long size) {
+        if (notNull("pattern", pattern).length == 0) {
+            throw new IllegalArgumentException("Empty pattern");
+        }
+        byte[] copy = pattern.clone();
+        return new SyntheticBody(nonNegative("size", size),
+                () -> new RepeatingGenerator(copy, size),
+                size + " bytes repeating a " + copy.length + " byte pattern");
+    }
+
+    /**
+     * Create a body which repeats the UTF-8 encoding of the passed text.
+     *
+     * @param pattern Some text
+     * @param size The number of bytes
+     * @return A body
+     */
+    public static SyntheticBody repeating(String pattern, long size) {
+        return repeating(notNull("pattern", pattern).getBytes(StandardCharsets.UTF_8), size);
+    }
+
+    /**
+     * Create a body which is a JSON array of <code>count</code> records,
+     * each of which is the passed template with every occurrence of
+     * {@link #INDEX_PLACEHOLDER} replaced by the record's index, starting
+     * from zero - e.g. <code>{"id":{index},"name":"item-{index}"}</code>. The
+     * template is not validated as JSON.
+     *
+     * @param recordTemplate A template
+     * @param count The number of records
+     * @return A body
+     */
+    public static SyntheticBody jsonArray(String recordTemplate, long count) {
+        nonNegative("count", count);
+        List<byte[]> parts = new ArrayList<>();
+        String rest = notNull("recordTemplate", recordTemplate);
+        for (int ix = rest.indexOf(INDEX_PLACEHOLDER); ix >= 0;
+                ix = rest.indexOf(INDEX_PLACEHOLDER)) {
+            parts.add(rest.substring(0, ix).getBytes(StandardCharsets.UTF_8));
+            rest = rest.substring(ix + INDEX_PLACEHOLDER.length());
+        }
+        parts.add(rest.getBytes(StandardCharsets.UTF_8));
+        byte[][] segments = parts.toArray(new byte[parts.size()][]);
+        long fixed = 0;
+        for (byte[] seg : segments) {
+            fixed += seg.length;
+        }
+        // Brackets, commas between records, the fixed parts of each record,
+        // and the digits of every index for each placeholder
+        long length = 2 + Math.max(0, count - 1) + count * fixed
+                + (segments.length - 1) * digitsBelow(count);
+        return new SyntheticBody(length, () -> new JsonArrayGenerator(segments, count),
+                "JSON array of " + count + " records like " + recordTemplate);
+    }
+
+    /**
+     * The total number of decimal digits in all the integers from zero up to
+     * but not including <code>n</code>.
+     */
+    static long digitsBelow(long n) {
+        long result = 0;
+        long low = 0;
+        long high = 10;
+        for (int digits = 1; low < n; digits++) {
+            long end = digits == 19 ? n : Math.min(n, high);
+            result += (end - low) * digits;
+            if (digits == 19) {
+                break;
+            }
+            low = high;
+            if (digits < 18) {
+                high *= 10;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long contentLength() {
+        return length;
+    }
+
+    /**
+     * Compute a digest of this body by generating it, without sending it
+     * anywhere.
+     *
+     * @param algorithm A MessageDigest algorithm name, such as SHA-256
+     * @return The digest, as lower-case hexadecimal
+     * @throws IllegalArgumentException if the algorithm is not available
+     */
+    public String digest(String algorithm) {
+        MessageDigest digest = BodyDigest.messageDigest(algorithm);
+        ByteBuffer buf = newBuffer();
+        Generator gen = generators.get();
+        while (!gen.isDone()) {
+            buf.clear();
+            gen.fill(buf);
+            buf.flip();
+            digest.update(buf);
+        }
+        return BodyDigest.hex(digest.digest());
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        subscriber.onSubscribe(new Generation(subscriber, generators.get()));
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+
+    private static ByteBuffer newBuffer() {
+        return ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Produces the bytes of one copy of a body, in order.
+     */
+    private interface Generator {
+
+        /**
+         * Fill the buffer, or as much of it as remains of the body.
+         */
+        void fill(ByteBuffer buf);
+
+        boolean isDone();
+    }
+
+    private static final class RandomGenerator implements Generator {
+
+        private final SplittableRandom random;
+        private long remaining;
+
+        RandomGenerator(long seed, long size) {
+            random = new SplittableRandom(seed);
+            remaining = size;
+        }
+
+        @Override
+        public void fill(ByteBuffer buf) {
+            // Buffers are little-endian, so whole longs produce the same bytes
+            // as the byte-at-a-time tail would
+            while (remaining >= 8 && buf.remaining() >= 8) {
+                buf.putLong(random.nextLong());
+                remaining -= 8;
+            }
+            if (remaining > 0 && remaining < 8 && buf.remaining() >= remaining) {
+                long word = random.nextLong();
+                for (; remaining > 0; remaining--, word >>>= 8) {
+                    buf.put((byte) word);
+                }
+            }
+        }
+
+        @Override
+        public boolean isDone() {
+            return remaining == 0;
+        }
+    }
+
+    private static final class RepeatingGenerator implements Generator {
+
+        private final byte[] pattern;
+        private long remaining;
+        private int offset;
+
+        RepeatingGenerator(byte[] pattern, long size) {
+            this.pattern = pattern;
+            this.remaining = size;
+        }
+
+        @Override
+        public void fill(ByteBuffer buf) {
+            while (remaining > 0 && buf.hasRemaining()) {
+                int count = (int) Math.min(remaining,
+                        Math.min(buf.remaining(), pattern.length - offset));
+                buf.put(pattern, offset, count);
+                remaining -= count;
+                offset = (offset + count) % pattern.length;
+            }
+        }
+
+        @Override
+        public boolean isDone() {
+            return remaining == 0;
+        }
+    }
+
+    private static final class JsonArrayGenerator implements Generator {
+
+        private static final byte[] OPEN = {'['};
+        private static final byte[] CLOSE = {']'};
+        private final byte[][] segments;
+        private final long count;
+        private final byte[] digits = new byte[20];
+        private byte[] record = new byte[64];
+        private byte[] pending = OPEN;
+        private int pendingLength = 1;
+        private int pendingOffset;
+        private long next;
+        private boolean done;
+
+        JsonArrayGenerator(byte[][] segments, long count) {
+            this.segments = segments;
+            this.count = count;
+        }
+
+        @Override
+        public void fill(ByteBuffer buf) {
+            while (buf.hasRemaining() && !done) {
+                if (pendingOffset == pendingLength) {
+                    if (pending == CLOSE) {
+                        done = true;
+                        break;
+                    }
+                    advance();
+                }
+                int count = Math.min(buf.remaining(), pendingLength - pendingOffset);
+                buf.put(pending, pendingOffset, count);
+                pendingOffset += count;
+            }
+            if (!done && pending == CLOSE && pendingOffset == pendingLength) {
+                done = true;
+            }
+        }
+
+        private void advance() {
+            pendingOffset = 0;
+            if (next == count) {
+                pending = CLOSE;
+                pendingLength = 1;
+                return;
+            }
+            int digitCount = formatIndex(next);
+            int size = next > 0 ? 1 : 0;
+            for (byte[] seg : segments) {
+                size += seg.length;
+            }
+            size += digitCount * (segments.length - 1);
+            if (record.length < size) {
+                record = new byte[Math.max(size, record.length * 2)];
+            }
+            int pos = 0;
+            if (next > 0) {
+                record[pos++] = ',';
+            }
+            for (int i = 0; i < segments.length; i++) {
+                if (i > 0) {
+                    System.arraycopy(digits, digits.length - digitCount, record,
+                            pos, digitCount);
+                    pos += digitCount;
+                }
+                System.arraycopy(segments[i], 0, record, pos, segments[i].length);
+                pos += segments[i].length;
+            }
+            pending = record;
+            pendingLength = pos;
+            next++;
+        }
+
+        private int formatIndex(long value) {
+            int pos = digits.length;
+            do {
+                digits[--pos] = (byte) ('0' + (value % 10));
+                value /= 10;
+            } while (value > 0);
+            return digits.length - pos;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done;
+        }
+    }
+
+    private final class Generation implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final Generator generator;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+
+        Generation(Flow.Subscriber<? super ByteBuffer> subscriber, Generator generator) {
+            this.subscriber = subscriber;
+            this.generator = generator;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancelled = true;
+                subscriber.onError(new IllegalArgumentException("Bad demand " + n));
+                return;
+            }
+            demand.accumulateAndGet(n, (a, b) -> {
+                long result = a + b;
+                return result < 0 ? Long.MAX_VALUE : result;
+            });
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            for (;;) {
+                while (!cancelled && !generator.isDone() && demand.get() > 0) {
+                    ByteBuffer buf = newBuffer();
+                    generator.fill(buf);
+                    buf.flip();
+                    if (!buf.hasRemaining()) {
+                        break;
+                    }
+                    demand.decrementAndGet();
+                    subscriber.onNext(buf);
+                }
+                if (!cancelled && generator.isDone()) {
+                    cancelled = true;
+                    subscriber.onComplete();
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
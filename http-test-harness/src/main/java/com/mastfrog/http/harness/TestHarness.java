@@ -24,7 +24,9 @@
 package com.mastfrog.http.harness;
 
 import com.mastfrog.concurrent.IncrementableLatch;
+import com.mastfrog.http.harness.difference.DifferencingOptions;
 import com.mastfrog.util.codec.Codec;
+import static com.mastfrog.util.preconditions.Checks.notNull;
 import com.mastfrog.util.preconditions.Exceptions;
 import com.mastfrog.util.strings.Strings;
 import java.net.http.HttpClient;
@@ -38,6 +40,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
@@ -75,8 +78,13 @@ final class TestHarness extends AbstractHttpTestHarness {
     private final Optional<Semaphore> concurrentRequestsThrottle;
     private final Optional<RequestIdProvider> requestIdProvider;
     private final BiConsumer<HarnessLogLevel, Supplier<String>> logger;
+    private final int flightRecorderCapacity;
+    private final DifferencingOptions differencingOptions;
+    private final Map<String, AggregateResultsImpl> aggregates
+            = new ConcurrentHashMap<>();
 
-    TestHarness(HttpClient client, Codec codec, Duration defaultTimeout,
+    TestHarness(HttpClient client, Codec codec,
+            Map<String, Codec> codecsByContentType, Duration defaultTimeout,
             Map<String, String> defaultHeaders, Version defaultVersion,
             Duration timeoutCheckInterval,
             Consumer<AssertionResult> resultsConsumer,
@@ -84,10 +92,11 @@ final class TestHarness extends AbstractHttpTestHarness {
             Supplier<String> testMethodFindingStrategy,
             CountDownLatch awaitReady, Semaphore concurrentRequestsThrottle,
             RequestIdProvider requestIdProvider,
-            BiConsumer<HarnessLogLevel, Supplier<String>> logger) {
-        super(codec == null
+            BiConsumer<HarnessLogLevel, Supplier<String>> logger,
+            int flightRecorderCapacity, DifferencingOptions differencingOptions) {
+        super(new Codecs(codec == null
                 ? new ObjectMapperCodec()
-                : codec);
+                : codec, codecsByContentType));
         this.client = client == null
                 ? HttpClient.newHttpClient()
                 : client;
@@ -116,14 +125,21 @@ final class TestHarness extends AbstractHttpTestHarness {
         this.concurrentRequestsThrottle = Optional.ofNullable(concurrentRequestsThrottle);
         this.logger = logger;
         this.requestIdProvider = Optional.ofNullable(requestIdProvider);
+        this.flightRecorderCapacity = flightRecorderCapacity;
+        this.differencingOptions = differencingOptions == null
+                ? DifferencingOptions.DEFAULT
+                : differencingOptions;
     }
 
-    private boolean awaitReady() {
+    private boolean awaitReady(FlightRecorder recorder) {
         awaitReady.ifPresent(awr -> {
             if (awr.getCount() > 0) {
                 Duration wait = defaultOverallTimeout.orElse(Duration.ofSeconds(30));
+                long then = System.nanoTime();
                 try {
                     awr.await(wait.toMillis(), TimeUnit.MILLISECONDS);
+                    recorder.record(FlightRecorder.Event.AWAITED_READY,
+                            (System.nanoTime() - then) / 1_000);
                 } catch (InterruptedException ex) {
                     Thread.currentThread().interrupt();
                     logger.accept(HarnessLogLevel.IMPORTANT, () -> {
@@ -136,16 +152,20 @@ final class TestHarness extends AbstractHttpTestHarness {
         return !Thread.interrupted();
     }
 
-    private Runnable acquirePermitIfThrottlingRequests() {
+    private Runnable acquirePermitIfThrottlingRequests(FlightRecorder recorder) {
         return concurrentRequestsThrottle.<Runnable>map(sem -> {
             try {
                 AtomicBoolean released = new AtomicBoolean();
                 int permits = sem.availablePermits();
                 logger.accept(HarnessLogLevel.DEBUG, () -> "Attempt to acquire one of " + permits + " permits"
                         + " on " + Thread.currentThread().getName());
+                recorder.record(FlightRecorder.Event.PERMIT_REQUESTED, permits);
                 long then = System.currentTimeMillis();
+                long thenNanos = System.nanoTime();
                 sem.acquire();
                 long elapsed = System.currentTimeMillis() - then;
+                recorder.record(FlightRecorder.Event.PERMIT_ACQUIRED,
+                        (System.nanoTime() - thenNanos) / 1_000, sem.availablePermits());
                 logger.accept(HarnessLogLevel.DEBUG,
                         () -> "Acquired permit of " + sem.availablePermits() + " had " + permits
                         + " on " + Thread.currentThread().getName() + " in " + elapsed + "ms");
@@ -159,6 +179,8 @@ final class TestHarness extends AbstractHttpTestHarness {
                                 + Thread.currentThread() + " avail "
                                 + sem.availablePermits());
                         sem.release();
+                        recorder.record(FlightRecorder.Event.PERMIT_RELEASED,
+                                sem.availablePermits());
                     }
                 };
             } catch (InterruptedException ex) {
@@ -179,6 +201,20 @@ final class TestHarness extends AbstractHttpTestHarness {
         return bookkeeping.running();
     }
 
+    @Override
+    public AggregateResults aggregateResults() {
+        return aggregateResults(testMethodFindingStrategy.get());
+    }
+
+    @Override
+    public AggregateResults aggregateResults(String group) {
+        return aggregate(notNull("group", group));
+    }
+
+    private AggregateResultsImpl aggregate(String group) {
+        return aggregates.computeIfAbsent(group, AggregateResultsImpl::new);
+    }
+
     @Override
     public TestHarness shutdown() {
         try {
@@ -233,7 +269,8 @@ final class TestHarness extends AbstractHttpTestHarness {
     private static String findCallingMethod() {
         for (StackTraceElement stackTrace : new Exception().getStackTrace()) {
             String s = stackTrace.toString();
-            if (s.contains("TestRequest.java") || s.contains("TestHarness.java")) {
+            if (s.contains("TestRequest.java") || s.contains("TestHarness.java")
+                    || s.contains("URIConvertingTestHarness.java")) {
                 continue;
             }
             return stackTrace.getMethodName();
@@ -270,14 +307,19 @@ final class TestHarness extends AbstractHttpTestHarness {
         public TestResults<HttpResponse<String>> applyingAssertions(Consumer<Assertions> assertionConfigurer) {
             String testMethod = testMethodFindingStrategy.get();
             Thread.currentThread().setName(testMethod + " (was: " + Thread.currentThread().getName() + ")");
-            if (!awaitReady()) {
+            FlightRecorder recorder = FlightRecorder.create(flightRecorderCapacity);
+            if (!awaitReady(recorder)) {
                 throw new IllegalStateException("Interrupted waiting for server start or similar.");
             }
             latch.increment();
-            Runnable releasePermit = acquirePermitIfThrottlingRequests();
+            Runnable releasePermit = acquirePermitIfThrottlingRequests(recorder);
             this.logger.accept(HarnessLogLevel.DEBUG, () -> "start " + testMethod + " on "
                     + Thread.currentThread().getName() + " fork "
                     + System.getProperty("forkNumber"));
+            AggregateResultsImpl aggregate = aggregate(super.group == null
+                    ? testMethod
+                    : super.group);
+            aggregate.launched();
             CompletableFuture<HttpResponse<String>> fut = null;
             try {
                 List<AssertionResult> list = new CopyOnWriteArrayList<>();
@@ -287,12 +329,29 @@ final class TestHarness extends AbstractHttpTestHarness {
                 });
                 HttpRequest req = bldr.build();
                 String reqInfo = req.method() + " " + req.uri();
+                recorder.record(FlightRecorder.Event.REQUEST_BUILT,
+                        req.headers().map().size(),
+                        req.version().map(Enum::ordinal).orElse(-1));
+                recorder.record(FlightRecorder.Event.TIMEOUTS,
+                        req.timeout().map(Duration::toMillis).orElse(-1L),
+                        super.overallResponseTimeout == null
+                        ? -1L
+                        : super.overallResponseTimeout.toMillis());
                 AssertionsImpl assertions = new AssertionsImpl(
-                        reqInfo, resultConsumer(list), aborted, super.codec, latch,
-                        Optional.ofNullable(super.overallResponseTimeout));
+                        reqInfo, resultConsumer(list), aborted,
+                        TestHarness.this.codecs.withDefault(super.codec), latch,
+                        Optional.ofNullable(super.overallResponseTimeout), recorder,
+                        differencingOptions);
+                if (super.readBytesPerSecond > 0) {
+                    assertions.readRateLimit(super.readBytesPerSecond,
+                            client.executor().orElse(null));
+                }
                 assertionConfigurer.accept(assertions);
                 long launchAt = System.currentTimeMillis();
+                long sentAt = System.nanoTime();
+                assertions.sending(sentAt);
                 fut = client.sendAsync(req, assertions);
+                recorder.record(FlightRecorder.Event.SENT);
                 long timeoutMillis = timeoutCheckInterval.toMillis();
                 ScheduledFuture<?> timeoutChecks
                         = checkTimeouts.scheduleAtFixedRate(assertions,
@@ -309,6 +368,10 @@ final class TestHarness extends AbstractHttpTestHarness {
                             assertions.onError(thrown);
                         }
                     }
+                    Duration total = assertions.timings().total();
+                    aggregate.completed(total == null
+                            ? System.nanoTime() - sentAt
+                            : total.toNanos(), thrown != null || anyFatalFailures(list));
                     oneRequestCountDown.countDown();
                     timeoutChecks.cancel(true);
                     if (thrown instanceof HttpTimeoutException) {
@@ -326,18 +389,31 @@ final class TestHarness extends AbstractHttpTestHarness {
                         fut,
                         list,
                         launchAt,
+                        sentAt,
                         this.logger,
-                        super.codec);
+                        super.codec,
+                        assertions::chunkStatistics);
                 report.ifPresent(rep -> rep.add(results));
                 return results;
             } catch (Exception | Error e) {
                 latch.countDown();
                 if (fut != null) {
                     fut.completeExceptionally(e);
+                } else {
+                    aggregate.abandoned();
                 }
                 releasePermit.run();
                 return Exceptions.chuck(e);
             }
         }
     }
+
+    private static boolean anyFatalFailures(List<AssertionResult> results) {
+        for (AssertionResult r : results) {
+            if (r.severity() == FailureSeverity.FATAL && r.status().isFailure()) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
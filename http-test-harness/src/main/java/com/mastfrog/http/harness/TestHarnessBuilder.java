@@ -24,6 +24,7 @@
 package com.mastfrog.http.harness;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mastfrog.http.harness.difference.DifferencingOptions;
 import com.mastfrog.util.codec.Codec;
 import com.mastfrog.util.preconditions.Checks;
 import static com.mastfrog.util.preconditions.Checks.notNull;
@@ -48,6 +49,7 @@ public final class TestHarnessBuilder {
 
     private HttpClient client;
     private Codec mapper;
+    private final Map<String, Codec> codecsByContentType = new LinkedHashMap<>();
     private Duration defaultTimeout;
     private Map<String, String> defaultHeaders;
     private HttpClient.Version version;
@@ -60,6 +62,8 @@ public final class TestHarnessBuilder {
     private Semaphore concurrentRequestsThrottle;
     private BiConsumer<HarnessLogLevel, Supplier<String>> logger = new StdoutHarnessLog();
     private RequestIdProvider requestIdProvider;
+    private int flightRecorderCapacity = FlightRecorder.DEFAULT_CAPACITY;
+    private DifferencingOptions differencingOptions;
 
     TestHarnessBuilder() {
     }
@@ -196,10 +200,42 @@ public final class TestHarnessBuilder {
      * @return A test harness, ready to use
      */
     public HttpTestHarness<URI> build() {
-        return new TestHarness(client, mapper, defaultTimeout, defaultHeaders,
+        return new TestHarness(client, mapper, codecsByContentType, defaultTimeout, defaultHeaders,
                 version, timeoutCheckInterval, resultsConsumer, report,
                 defaultOverallTimeout, testMethodFindingStrategy, awaitReady,
-                concurrentRequestsThrottle, requestIdProvider, logger);
+                concurrentRequestsThrottle, requestIdProvider, logger,
+                flightRecorderCapacity, differencingOptions);
+    }
+
+    /**
+     * Set the default limits on how much work differencing an expected and
+     * actual response body may do when describing why an equality assertion
+     * failed - maximum depth, number of differences and time. Individual
+     * assertions can override these.
+     *
+     * @param options The options
+     * @return this
+     */
+    public TestHarnessBuilder withDifferencingOptions(DifferencingOptions options) {
+        this.differencingOptions = notNull("options", options);
+        return this;
+    }
+
+    /**
+     * Each request keeps a small in-memory ring buffer of the events the
+     * harness saw for it - waiting for a permit, sending, headers, chunks,
+     * watchdog checks, timeouts - which is attached to any assertion result
+     * that does not succeed, so failures that only show up under load come
+     * with some context. Recording is cheap (a few longs per event, formatted
+     * only on failure); set the number of events retained per request here,
+     * or pass zero to disable it. The default is 256.
+     *
+     * @param capacity The number of events to retain per request, or zero
+     * @return this
+     */
+    public TestHarnessBuilder withFlightRecorderCapacity(int capacity) {
+        this.flightRecorderCapacity = Checks.nonNegative("capacity", capacity);
+        return this;
     }
 
     /**
@@ -334,6 +370,41 @@ public final class TestHarnessBuilder {
         return this;
     }
 
+    /**
+     * Use a different ObjectMapper for requests and responses with the passed
+     * content type - for example, one constructed over a
+     * <code>SmileFactory</code> or <code>CBORFactory</code> for services that
+     * speak a binary JSON format. Responses whose <code>Content-Type</code>
+     * header matches are deserialized, differenced and parsed by JSON
+     * assertions in that format, without being decoded as text.
+     *
+     * @param contentType A content type such as
+     * <code>application/x-jackson-smile</code>; parameters are ignored
+     * @param mapper A mapper
+     * @return this
+     */
+    public TestHarnessBuilder withMapper(String contentType, ObjectMapper mapper) {
+        return withCodec(contentType, new ObjectMapperCodec(notNull("mapper", mapper)));
+    }
+
+    /**
+     * Use a different codec for requests and responses with the passed
+     * content type; it is chosen by the <code>Content-Type</code> header of a
+     * response, and the content type passed to <code>putObject()</code> or
+     * <code>postObject()</code>. Codecs registered this way take precedence
+     * over the default codec, and over one set on an individual request.
+     *
+     * @param contentType A content type; parameters such as charset are
+     * ignored
+     * @param codec A codec
+     * @return this
+     */
+    public TestHarnessBuilder withCodec(String contentType, Codec codec) {
+        codecsByContentType.put(notNull("contentType", contentType),
+                notNull("codec", codec));
+        return this;
+    }
+
     /**
      * Set the default timeout applied to the HTTP request for how long it can
      * take for the initial response line / start-of-headers to arrive; this has
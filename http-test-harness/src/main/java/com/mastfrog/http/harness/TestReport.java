@@ -30,7 +30,10 @@ import com.mastfrog.http.harness.difference.Difference;
 import com.mastfrog.util.strings.Escaper;
 import com.mastfrog.util.strings.Strings;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
@@ -61,6 +64,7 @@ public final class TestReport {
     private final String name;
     private final ZonedDateTime when = ZonedDateTime.now();
     private final List<Throwable> thrown = new ArrayList<>();
+    private volatile BaselineComparison baselineComparison;
 
     public TestReport(String name) {
         this.name = name;
@@ -78,6 +82,54 @@ public final class TestReport {
         this.thrown.add(thrown);
     }
 
+    /**
+     * Compare the response times of the runs recorded so far with those in
+     * a previously saved report, using the default criteria; the result is
+     * also included in this report's output.
+     *
+     * @param baseline A JSON report written by <code>save()</code>
+     * @return A comparison
+     * @throws IOException If the baseline cannot be read or parsed
+     */
+    public BaselineComparison compareWithBaseline(Path baseline) throws IOException {
+        return compareWithBaseline(baseline, RegressionCriteria.DEFAULT);
+    }
+
+    /**
+     * Compare the response times of the runs recorded so far with those in
+     * a previously saved report; the result is also included in this
+     * report's output.
+     *
+     * @param baseline A JSON report written by <code>save()</code>
+     * @param criteria What counts as a regression
+     * @return A comparison
+     * @throws IOException If the baseline cannot be read or parsed
+     */
+    public BaselineComparison compareWithBaseline(Path baseline,
+            RegressionCriteria criteria) throws IOException {
+        try (InputStream in = Files.newInputStream(baseline)) {
+            return compareWithBaseline(in, criteria);
+        }
+    }
+
+    /**
+     * Compare the response times of the runs recorded so far with those in
+     * a previously saved report; the result is also included in this
+     * report's output.
+     *
+     * @param baseline A stream of a JSON report written by <code>save()</code>
+     * @param criteria What counts as a regression
+     * @return A comparison
+     * @throws IOException If the baseline cannot be read or parsed
+     */
+    public BaselineComparison compareWithBaseline(InputStream baseline,
+            RegressionCriteria criteria) throws IOException {
+        BaselineComparison result = BaselineComparison.compare(
+                BaselineComparison.load(baseline), toMap(), criteria);
+        baselineComparison = result;
+        return result;
+    }
+
     private Map<String, Object> toMap(Throwable thrown) {
         Map<String, Object> result = new HashMap<>();
         result.put("type", thrown.getClass().getName());
@@ -296,6 +348,49 @@ public final class TestReport {
                             });
                         });
                     }
+                    tr.flightRecording().ifPresent(recording -> {
+                        hb.inTag("tr", style, () -> {
+                            hb.td(style, 4, () -> {
+                                hb.pre(String.join("\n", recording));
+                            });
+                        });
+                    });
+                }
+            });
+        }
+
+        BaselineComparison comparison = baselineComparison;
+        if (comparison != null) {
+            hb.h2("Baseline Comparison");
+            hb.para(comparison.criteria().toString());
+            hb.inTag("table", "wide", () -> {
+                hb.inTag("tr", () -> {
+                    hb.th("Endpoint");
+                    hb.th("Verdict");
+                    hb.th("Runs");
+                    hb.th("Baseline Median");
+                    hb.th("Current Median");
+                    hb.th("Change");
+                    hb.th("p");
+                });
+                for (BaselineComparison.EndpointComparison c : comparison) {
+                    hb.inTag("tr", () -> {
+                        hb.td(c.endpoint());
+                        if (c.verdict() == BaselineComparison.Verdict.REGRESSED) {
+                            hb.simpleTag("td", "fail", c.verdict());
+                        } else {
+                            hb.td(c.verdict());
+                        }
+                        hb.td(c.baselineRuns() + " / " + c.currentRuns());
+                        hb.td(Objects.toString(c.baselineMedian(), "-"));
+                        hb.td(Objects.toString(c.currentMedian(), "-"));
+                        hb.td(Double.isNaN(c.change())
+                                ? "-"
+                                : String.format("%+.1f%%", c.change() * 100));
+                        hb.td(Double.isNaN(c.pValue())
+                                ? "-"
+                                : String.format("%.3g", c.pValue()));
+                    });
                 }
             });
         }
@@ -386,6 +481,9 @@ public final class TestReport {
             runs.add(thisRun);
             thisRun.put("iteration", runId);
             thisRun.put("duration", results.runDuration().toString());
+            if (results instanceof TestResultsImpl) {
+                thisRun.put("endpoint", ((TestResultsImpl) results).endpoint());
+            }
 
             List<AssertionResult> allAssertionResults = results.allResults();
             thisRun.put("assertionResults", allAssertionResults);
@@ -443,6 +541,10 @@ public final class TestReport {
             }
             outer.put("thrown", throwns);
         }
+        BaselineComparison comparison = baselineComparison;
+        if (comparison != null) {
+            outer.put("baselineComparison", comparison.toMap());
+        }
 
         return outer;
     }
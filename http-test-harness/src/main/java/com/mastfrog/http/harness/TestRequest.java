@@ -24,6 +24,7 @@
 package com.mastfrog.http.harness;
 
 import com.mastfrog.util.codec.Codec;
+import static com.mastfrog.util.preconditions.Checks.greaterThanZero;
 import static com.mastfrog.util.preconditions.Checks.notNull;
 import java.net.URI;
 import java.net.http.HttpClient;
@@ -51,6 +52,8 @@ public abstract class TestRequest {
     HttpRequest.Builder bldr;
     Consumer<AssertionResult> additionalResultConsumer;
     Duration overallResponseTimeout;
+    long readBytesPerSecond;
+    String group;
     BiConsumer<HarnessLogLevel, Supplier<String>> logger;
     Codec codec;
 
@@ -159,6 +162,44 @@ public abstract class TestRequest {
         return this;
     }
 
+    /**
+     * Read the response body no faster than the passed rate, to see how a
+     * server copes with slow clients - whether its write buffers grow, how
+     * HTTP/2 flow control stalls, whether it times out. Rather than asking
+     * the HTTP client for all of the body up front, the harness asks for one
+     * batch of bytes at a time, and asks for the next only once the bytes
+     * already received would have taken that long to arrive at the passed
+     * rate; the client stops reading from the socket in between. Pacing is
+     * done from a timer thread shared by all requests, so thousands of slow
+     * readers need not tie up a thread each.
+     * <p>
+     * Note that the response finished timeout still applies, and a slowly
+     * read body may well exceed it.
+     * </p>
+     *
+     * @param bytesPerSecond The maximum rate
+     * @return this
+     */
+    public final TestRequest readRateLimit(long bytesPerSecond) {
+        this.readBytesPerSecond = greaterThanZero("bytesPerSecond", bytesPerSecond);
+        return this;
+    }
+
+    /**
+     * Count runs of this request in the named group's
+     * {@link AggregateResults}, rather than the default group named for the
+     * calling test method - useful for, say, asserting on the response time
+     * of one endpoint across several test methods, or on two endpoints
+     * hit by the same test method separately.
+     *
+     * @param group The name of a group
+     * @return this
+     */
+    public final TestRequest group(String group) {
+        this.group = notNull("group", group);
+        return this;
+    }
+
     public final TestRequest setHeader(String name, String value) {
         bldr = bldr.setHeader(name, value);
         return this;
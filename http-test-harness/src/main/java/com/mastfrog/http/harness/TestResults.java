@@ -28,6 +28,7 @@ import java.io.PrintStream;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.function.BiConsumer;
 import java.util.function.BiPredicate;
 import java.util.function.Supplier;
@@ -82,6 +83,14 @@ public interface TestResults<T> extends Iterable<AssertionResult> {
      */
     Duration runDuration();
 
+    /**
+     * Get the arrival times and sizes of the chunks of the response body
+     * received so far, with gap and throughput statistics.
+     *
+     * @return The statistics, empty if no body has arrived
+     */
+    ChunkStatistics chunkStatistics();
+
     /**
      * Throws an assertion error if any of the assertions applied to the request
      * have failed.
@@ -165,6 +174,27 @@ public interface TestResults<T> extends Iterable<AssertionResult> {
 
     BiConsumer<HarnessLogLevel, Supplier<String>> logger();
 
+    /**
+     * If any assertion did not succeed, get the harness events recorded for
+     * the request up to the point of the last such result - permit
+     * acquisition, headers, chunk sizes and timings, watchdog checks and
+     * similar. Always empty for requests where every assertion succeeded, or
+     * if flight recording was disabled in the harness's builder.
+     *
+     * @return The recorded events, if any
+     */
+    default Optional<List<String>> flightRecording() {
+        List<String> result = null;
+        for (AssertionResult r : this) {
+            if (r.status().isNonSuccess()) {
+                // Results are in the order they were emitted, so the last
+                // one recorded the most of the request
+                result = r.flightRecording().orElse(result);
+            }
+        }
+        return Optional.ofNullable(result);
+    }
+
     /**
      * Convenience method to print results to stdout or similar.
      *
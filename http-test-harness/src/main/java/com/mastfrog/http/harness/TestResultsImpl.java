@@ -58,15 +58,17 @@ final class TestResultsImpl implements TestResults<HttpResponse<String>> {
     private final String httpMethod;
     private final String testMethod;
     private final long launchedAt;
+    private final long launchedAtNanos;
     private volatile Duration runDuration;
     private final BiConsumer<HarnessLogLevel, Supplier<String>> logger;
     private final Codec codec;
+    private final Supplier<ChunkStatistics> chunkStatistics;
 
     TestResultsImpl(String testMethod, String httpMethod, URI uri, Task task,
             CountDownLatch awaitDone, CompletableFuture<HttpResponse<String>> future,
-            List<AssertionResult> liveResults, long launchedAt,
+            List<AssertionResult> liveResults, long launchedAt, long launchedAtNanos,
             BiConsumer<HarnessLogLevel, Supplier<String>> logger,
-            Codec codec) {
+            Codec codec, Supplier<ChunkStatistics> chunkStatistics) {
         this.liveResults = liveResults;
         this.uri = uri;
         this.task = task;
@@ -76,10 +78,12 @@ final class TestResultsImpl implements TestResults<HttpResponse<String>> {
         this.testMethod = testMethod;
         this.logger = logger;
         this.launchedAt = launchedAt;
+        this.launchedAtNanos = launchedAtNanos;
         future.whenComplete((resp, thrown) -> {
-            runDuration = Duration.ofMillis(System.currentTimeMillis() - this.launchedAt);
+            runDuration = Duration.ofNanos(System.nanoTime() - this.launchedAtNanos);
         });
         this.codec = codec;
+        this.chunkStatistics = chunkStatistics;
     }
 
     @Override
@@ -95,11 +99,27 @@ final class TestResultsImpl implements TestResults<HttpResponse<String>> {
     public Duration runDuration() {
         Duration result = runDuration;
         if (result == null) {
-            result = Duration.ofMillis(System.currentTimeMillis() - this.launchedAt);
+            result = Duration.ofNanos(System.nanoTime() - this.launchedAtNanos);
         }
         return result;
     }
 
+    /**
+     * The HTTP method and path, without host, port or query, under which
+     * runs are grouped when comparing reports.
+     *
+     * @return An endpoint string
+     */
+    String endpoint() {
+        String path = uri.getRawPath();
+        return httpMethod + " " + (path == null || path.isEmpty() ? "/" : path);
+    }
+
+    @Override
+    public ChunkStatistics chunkStatistics() {
+        return chunkStatistics.get();
+    }
+
     @Override
     public String testMethod() {
         return testMethod == null ? "-unknown-" : testMethod;
@@ -182,6 +202,12 @@ final class TestResultsImpl implements TestResults<HttpResponse<String>> {
                 }
             }
             StringBuilder sb = assertionListToString(failures);
+            flightRecording().ifPresent(recording -> {
+                sb.append("\n  Flight recording:");
+                for (String line : recording) {
+                    sb.append("\n    ").append(line);
+                }
+            });
             throw new AssertionError(sb);
         }
         return this;
@@ -0,0 +1,332 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import static com.mastfrog.util.preconditions.Checks.greaterThanZero;
+import static com.mastfrog.util.preconditions.Checks.notNull;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.Flow;
+
+/**
+ * Wraps another body publisher and sends its bytes slowly - in chunks of a
+ * fixed size, at a fixed rate in bytes per second, optionally pausing
+ * periodically - to test how servers hold up against slow clients. Every
+ * throttled body in the JVM is timed by one shared timer thread rather than
+ * a sleeping thread per request, so thousands of slow uploads can run at
+ * once; the timer only hands each chunk's work to a pool thread, since
+ * reading a file or serializing an object for the wrapped publisher may
+ * block.
+ * <p>
+ * Chunks are read-only views of the wrapped publisher's buffers, not copies;
+ * a chunk is never larger than the buffer it comes from, so chunks may be
+ * smaller than the configured size if the wrapped publisher produces small
+ * buffers. The rate holds regardless, as it is computed from the bytes
+ * actually sent.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class ThrottledBody implements HttpRequest.BodyPublisher {
+
+    private static final int DEFAULT_CHUNK_SIZE = 1_024;
+    private final HttpRequest.BodyPublisher body;
+    private final long bytesPerSecond;
+    private final int chunkSize;
+    private final long pauseEvery;
+    private final Duration pause;
+
+    private ThrottledBody(HttpRequest.BodyPublisher body, long bytesPerSecond,
+            int chunkSize, long pauseEvery, Duration pause) {
+        this.body = body;
+        this.bytesPerSecond = bytesPerSecond;
+        this.chunkSize = chunkSize;
+        this.pauseEvery = pauseEvery;
+        this.pause = pause;
+    }
+
+    /**
+     * Throttle a body publisher to the passed rate, sending 1Kb chunks.
+     *
+     * @param body The body to send slowly
+     * @param bytesPerSecond The rate
+     * @return A publisher
+     */
+    public static ThrottledBody of(HttpRequest.BodyPublisher body, long bytesPerSecond) {
+        return new ThrottledBody(notNull("body", body),
+                greaterThanZero("bytesPerSecond", bytesPerSecond),
+                DEFAULT_CHUNK_SIZE, 0, Duration.ZERO);
+    }
+
+    /**
+     * Throttle a byte array to the passed rate, sending 1Kb chunks.
+     *
+     * @param body The body to send slowly
+     * @param bytesPerSecond The rate
+     * @return A publisher
+     */
+    public static ThrottledBody of(byte[] body, long bytesPerSecond) {
+        return of(HttpRequest.BodyPublishers.ofByteArray(notNull("body", body)),
+                bytesPerSecond);
+    }
+
+    /**
+     * Send chunks of at most the passed size.
+     *
+     * @param chunkSize A number of bytes
+     * @return A new publisher
+     */
+    public ThrottledBody withChunkSize(int chunkSize) {
+        return new ThrottledBody(body, bytesPerSecond,
+                greaterThanZero("chunkSize", chunkSize), pauseEvery, pause);
+    }
+
+    /**
+     * Stop sending for the passed duration each time the passed number of
+     * bytes has been sent, in addition to the delays the rate requires.
+     *
+     * @param everyBytes The number of bytes between pauses
+     * @param pause How long to pause
+     * @return A new publisher
+     */
+    public ThrottledBody withPauses(long everyBytes, Duration pause) {
+        if (notNull("pause", pause).isNegative()) {
+            throw new IllegalArgumentException("Negative pause " + pause);
+        }
+        return new ThrottledBody(body, bytesPerSecond, chunkSize,
+                greaterThanZero("everyBytes", everyBytes), pause);
+    }
+
+    @Override
+    public long contentLength() {
+        return body.contentLength();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        Pacing pacing = new Pacing(subscriber);
+        body.subscribe(pacing);
+        subscriber.onSubscribe(pacing);
+        pacing.subscribed();
+    }
+
+    @Override
+    public String toString() {
+        return body + " at " + bytesPerSecond + " bytes/sec in "
+                + chunkSize + " byte chunks"
+                + (pauseEvery > 0 ? ", pausing " + pause + " every "
+                + pauseEvery + " bytes" : "");
+    }
+
+    /**
+     * Subscribes to the wrapped body, and hands its bytes on to the client
+     * a chunk at a time from tasks the timer hands off to a pool; at most
+     * one tick is scheduled or running at a time - one requested while
+     * another runs is deferred until it finishes - so the client is never
+     * called concurrently.
+     */
+    private final class Pacing implements Flow.Subscription, Flow.Subscriber<ByteBuffer> {
+
+        private final Flow.Subscriber<? super ByteBuffer> downstream;
+        private final Pacer pacer = new Pacer(bytesPerSecond);
+        private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>(2);
+        private volatile Flow.Subscription upstream;
+        private volatile boolean cancelled;
+        private long demand;
+        private long sinceLastPause;
+        private boolean upstreamRequested;
+        private boolean upstreamDone;
+        private Throwable upstreamFailure;
+        private boolean scheduled;
+        private boolean rescheduled;
+        private boolean terminated;
+        private boolean subscribed;
+
+        Pacing(Flow.Subscriber<? super ByteBuffer> downstream) {
+            this.downstream = downstream;
+        }
+
+        void subscribed() {
+            synchronized (this) {
+                subscribed = true;
+            }
+            schedule(0);
+        }
+
+        private synchronized void schedule(long delayNanos) {
+            if (terminated || cancelled) {
+                return;
+            }
+            if (scheduled) {
+                rescheduled = true;
+            } else {
+                scheduled = true;
+                Pacer.schedule(this::tick, delayNanos, null);
+            }
+        }
+
+        private void tick() {
+            long next = -1;
+            try {
+                next = step();
+            } finally {
+                boolean again;
+                synchronized (this) {
+                    scheduled = false;
+                    again = rescheduled;
+                    rescheduled = false;
+                }
+                if (again || next >= 0) {
+                    schedule(again ? 0 : next);
+                }
+            }
+        }
+
+        /**
+         * Do one chunk's worth of work.
+         *
+         * @return The delay before the next tick, or -1 if nothing is due
+         * until something else happens
+         */
+        private long step() {
+            ByteBuffer chunk = null;
+            Throwable failure = null;
+            boolean complete = false;
+            boolean requestUpstream = false;
+            synchronized (this) {
+                if (terminated || cancelled || !subscribed) {
+                    return -1;
+                }
+                if (upstreamFailure != null) {
+                    terminated = true;
+                    failure = upstreamFailure;
+                } else if (demand > 0) {
+                    ByteBuffer head = pending.peekFirst();
+                    if (head == null) {
+                        if (upstreamDone) {
+                            terminated = true;
+                            complete = true;
+                        } else if (!upstreamRequested) {
+                            upstreamRequested = true;
+                            requestUpstream = true;
+                        }
+                    } else {
+                        long wait = pacer.delayNanos();
+                        if (wait > 0) {
+                            return wait;
+                        }
+                        int count = Math.min(chunkSize, head.remaining());
+                        chunk = head.duplicate();
+                        chunk.limit(chunk.position() + count);
+                        chunk = chunk.slice();
+                        head.position(head.position() + count);
+                        if (!head.hasRemaining()) {
+                            pending.pollFirst();
+                        }
+                        demand--;
+                        pacer.sent(count);
+                        if (pauseEvery > 0 && (sinceLastPause += count) >= pauseEvery) {
+                            sinceLastPause = 0;
+                            pacer.pause(pause.toNanos());
+                        }
+                    }
+                }
+            }
+            if (requestUpstream) {
+                upstream.request(1);
+            } else if (failure != null) {
+                downstream.onError(failure);
+            } else if (complete) {
+                downstream.onComplete();
+            } else if (chunk != null) {
+                downstream.onNext(chunk);
+                return pacer.delayNanos();
+            }
+            return -1;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                synchronized (this) {
+                    upstreamFailure = new IllegalArgumentException("Bad demand " + n);
+                }
+            } else {
+                synchronized (this) {
+                    demand += n;
+                    if (demand < 0) {
+                        demand = Long.MAX_VALUE;
+                    }
+                }
+            }
+            schedule(0);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            Flow.Subscription up = upstream;
+            if (up != null) {
+                up.cancel();
+            }
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            upstream = subscription;
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            synchronized (this) {
+                upstreamRequested = false;
+                if (item.hasRemaining()) {
+                    // A read-only view, so the chunks handed on cannot be
+                    // used to alter the wrapped publisher's buffers, and
+                    // consuming them leaves its buffers' positions alone
+                    pending.add(item.asReadOnlyBuffer());
+                }
+            }
+            schedule(0);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            synchronized (this) {
+                upstreamFailure = throwable;
+            }
+            schedule(0);
+        }
+
+        @Override
+        public void onComplete() {
+            synchronized (this) {
+                upstreamDone = true;
+            }
+            schedule(0);
+        }
+    }
+}
@@ -25,6 +25,7 @@ package com.mastfrog.http.harness;
 
 import java.net.http.HttpRequest;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.List;
 import java.util.function.Function;
@@ -71,6 +72,11 @@ final class URIConvertingTestHarness<U, O> implements HttpTestHarness<U> {
         return delegate.put(converter.apply(uri), string, charset);
     }
 
+    @Override
+    public TestRequest put(U uri, Path file) {
+        return delegate.put(converter.apply(uri), file);
+    }
+
     @Override
     public TestRequest put(U uri, HttpRequest.BodyPublisher pub) {
         return delegate.put(converter.apply(uri), pub);
@@ -91,6 +97,11 @@ final class URIConvertingTestHarness<U, O> implements HttpTestHarness<U> {
         return delegate.post(converter.apply(uri), string, charset);
     }
 
+    @Override
+    public TestRequest post(U uri, Path file) {
+        return delegate.post(converter.apply(uri), file);
+    }
+
     @Override
     public TestRequest post(U uri, HttpRequest.BodyPublisher pub) {
         return delegate.post(converter.apply(uri), pub);
@@ -128,6 +139,16 @@ final class URIConvertingTestHarness<U, O> implements HttpTestHarness<U> {
         return delegate.currentlyRunningTasks();
     }
 
+    @Override
+    public AggregateResults aggregateResults() {
+        return delegate.aggregateResults();
+    }
+
+    @Override
+    public AggregateResults aggregateResults(String group) {
+        return delegate.aggregateResults(group);
+    }
+
     @Override
     public <T> TestRequest putObject(U uri, T toSerialize) {
         return delegate.putObject(converter.apply(uri), toSerialize);
@@ -138,6 +159,16 @@ final class URIConvertingTestHarness<U, O> implements HttpTestHarness<U> {
         return delegate.postObject(converter.apply(uri), toSerialize);
     }
 
+    @Override
+    public <T> TestRequest putObject(U uri, T toSerialize, String contentType) {
+        return delegate.putObject(converter.apply(uri), toSerialize, contentType);
+    }
+
+    @Override
+    public <T> TestRequest postObject(U uri, T toSerialize, String contentType) {
+        return delegate.postObject(converter.apply(uri), toSerialize, contentType);
+    }
+
     @Override
     public void awaitQuiet(Duration dur, boolean killOnTimeout) {
         delegate.awaitQuiet(dur, killOnTimeout);
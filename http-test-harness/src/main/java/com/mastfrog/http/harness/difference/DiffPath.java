@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness.difference;
+
+/**
+ * A property path in a differencing run, as a parent pointer and a segment
+ * name, so descending into a child costs one small allocation rather than a
+ * string concatenation per level per difference; paths are only turned into
+ * dot-delimited strings when the map of differences is built.
+ * <p>
+ * Segments for list and array indices below a fixed size are shared strings,
+ * so walking a long list does not allocate a new string per element.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class DiffPath {
+
+    static final DiffPath ROOT = new DiffPath();
+    private static final String[] INDICES = new String[1_024];
+    private final DiffPath parent;
+    private final String segment;
+    private final int depth;
+    private final int hash;
+    // Length of the rendered path, so rendering can allocate exactly once
+    private final int length;
+    private String rendered;
+
+    static {
+        for (int i = 0; i < INDICES.length; i++) {
+            INDICES[i] = Integer.toString(i).intern();
+        }
+    }
+
+    private DiffPath() {
+        parent = null;
+        segment = "";
+        depth = 0;
+        hash = 0;
+        length = 0;
+        rendered = "";
+    }
+
+    private DiffPath(DiffPath parent, String segment) {
+        this.parent = parent;
+        this.segment = segment;
+        this.depth = parent.depth + 1;
+        this.hash = parent.hash * 31 + segment.hashCode();
+        // Empty segments are not rendered
+        this.length = parent.length == 0 || segment.isEmpty()
+                ? parent.length + segment.length()
+                : parent.length + 1 + segment.length();
+    }
+
+    /**
+     * Get a string for a list index, shared for small indices.
+     *
+     * @param index An index
+     * @return A string
+     */
+    static String index(int index) {
+        return index >= 0 && index < INDICES.length
+                ? INDICES[index]
+                : Integer.toString(index);
+    }
+
+    DiffPath child(String segment) {
+        return new DiffPath(this, segment);
+    }
+
+    DiffPath child(int index) {
+        return new DiffPath(this, index(index));
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    String segment() {
+        return segment;
+    }
+
+    @Override
+    public String toString() {
+        String result = rendered;
+        if (result == null) {
+            char[] chars = new char[length];
+            int end = length;
+            for (DiffPath p = this; p.parent != null; p = p.parent) {
+                if (p.segment.isEmpty()) {
+                    continue;
+                }
+                int start = end - p.segment.length();
+                p.segment.getChars(0, p.segment.length(), chars, start);
+                if (start > 0) {
+                    chars[--start] = '.';
+                }
+                end = start;
+            }
+            rendered = result = new String(chars);
+        }
+        return result;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        } else if (!(o instanceof DiffPath)) {
+            return false;
+        }
+        DiffPath a = this;
+        DiffPath b = (DiffPath) o;
+        if (a.hash != b.hash || a.depth != b.depth) {
+            return false;
+        }
+        while (a != b) {
+            if (!a.segment.equals(b.segment)) {
+                return false;
+            }
+            a = a.parent;
+            b = b.parent;
+        }
+        return true;
+    }
+}
@@ -28,7 +28,20 @@ package com.mastfrog.http.harness.difference;
  * @author Tim Boudreau
  */
 public enum DifferenceKind {
-    CHANGE, INSERTION, DELETION, NONE, UNKNOWN;
+    CHANGE, INSERTION, DELETION, NONE, UNKNOWN,
+    /**
+     * Not a difference as such, but a marker that differencing hit one of the
+     * limits in its DifferencingOptions and the set of differences is
+     * incomplete; the new value describes why.
+     */
+    TRUNCATED,
+    /**
+     * The two object graphs have a different shape of back-references - one
+     * side refers back to an object that is already being compared further
+     * up the path, and the other does not (or refers back to a different
+     * one); the values are identity descriptions of the two objects.
+     */
+    CYCLE;
     
     public String toString() {
         return name().toLowerCase();
@@ -42,6 +55,10 @@ public enum DifferenceKind {
                 return "insert(" + nue + ")";
             case DELETION:
                 return "delete(" + old + ")";
+            case TRUNCATED:
+                return "truncated(" + nue + ")";
+            case CYCLE:
+                return "cycle(" + old + " -> " + nue + ")";
             default:
                 return name().toLowerCase();
         }
@@ -53,6 +70,8 @@ public enum DifferenceKind {
                 return new SimpleDifference<>(null, single, this);
             case DELETION:
                 return new SimpleDifference<>(single, null, this);
+            case TRUNCATED:
+                return new SimpleDifference<>(null, single, this);
             default:
                 throw new AssertionError(this + " does not support single arguments");
         }
@@ -61,6 +80,7 @@ public enum DifferenceKind {
     public <T> Difference<T> newDifference(T a, T b) {
         switch (this) {
             case CHANGE:
+            case CYCLE:
                 return new SimpleDifference<>(a, b, this);
             default:
                 throw new AssertionError(this + " does not support double arguments");
@@ -23,71 +23,318 @@
  */
 package com.mastfrog.http.harness.difference;
 
-import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.function.Function;
 
 /**
+ * Collects differences under dot-delimited property paths; children share a
+ * budget with their root, which enforces the limits of a DifferencingOptions,
+ * and each child steps through the options' compiled ignore-path and tolerance
+ * rules, so ignored subtrees are known before they are visited.
+ * <p>
+ * Children do not keep differences of their own - every builder in a run adds
+ * straight into a single map on the budget, keyed by DiffPath, and paths are
+ * rendered as strings once, when the root is built.
+ * </p>
  *
  * @author Tim Boudreau
  */
 final class DifferencesBuilder<P> {
 
-    private final String path;
+    private final DiffPath path;
     private final Function<DifferencesBuilder<P>, P> converter;
-    private final Map<String, Set<Difference<?>>> differences = new TreeMap<>();
+    private final Budget budget;
+    private final PathRules.State rules;
 
-    DifferencesBuilder(String path, Function<DifferencesBuilder<P>, P> converter) {
+    private DifferencesBuilder(DiffPath path, Function<DifferencesBuilder<P>, P> converter,
+            Budget budget, PathRules.State rules) {
         this.path = path;
         this.converter = converter;
+        this.budget = budget;
+        this.rules = rules;
     }
 
-    DifferencesBuilder<P> add(String childPath, Collection<? extends Difference<?>> coll) {
-        if (coll.isEmpty()) {
+    public DifferencesBuilder<P> add(String name, Difference<?> diff) {
+        if (rules.step(name).isIgnored() || !budget.spend()) {
             return this;
         }
-        String key = path.isEmpty() ? childPath : path + "." + childPath;
-        Set<Difference<?>> diffs = differences.computeIfAbsent(key, k -> new HashSet<>());
-        diffs.addAll(coll);
+        budget.add(path.child(name), diff);
         return this;
     }
 
-    public DifferencesBuilder<P> add(String name, Difference<?> diff) {
-        String key = path.isEmpty() ? name : path + "." + name;
-        Set<Difference<?>> diffs = differences.computeIfAbsent(key, k -> new HashSet<>());
-        diffs.add(diff);
+    /**
+     * Add a difference under a child of this builder's path without matching
+     * the name against the ignored paths, for differencers which track their
+     * own paths and have already applied the rules to every segment of it -
+     * the name may be a whole JSON pointer, which the rules would otherwise
+     * see as a single segment.
+     *
+     * @param name A path relative to this builder's
+     * @param diff A difference
+     * @return this
+     */
+    DifferencesBuilder<P> addFiltered(String name, Difference<?> diff) {
+        if (budget.spend()) {
+            budget.add(path.child(name), diff);
+        }
         return this;
     }
 
     public DifferencesBuilder<P> add(Difference<?> diff) {
-        Set<Difference<?>> diffs = differences.computeIfAbsent(path, k -> new HashSet<>());
-        diffs.add(diff);
+        if (rules.isIgnored() || !budget.spend()) {
+            return this;
+        }
+        budget.add(path, diff);
         return this;
     }
 
     public static DifferencesBuilder<Map<String, Set<Difference<?>>>> root() {
-        return new DifferencesBuilder<>("", bldr -> {
-            return new TreeMap<>(bldr.differences);
-        });
+        return root(DifferencingOptions.DEFAULT);
+    }
+
+    public static DifferencesBuilder<Map<String, Set<Difference<?>>>> root(
+            DifferencingOptions options) {
+        return new DifferencesBuilder<>(DiffPath.ROOT, bldr -> {
+            Map<String, Set<Difference<?>>> result = new TreeMap<>();
+            bldr.budget.differences.forEach((path, diffs) -> {
+                // Distinct paths can render the same if a segment contains
+                // a dot
+                result.merge(path.toString(), diffs, (a, b) -> {
+                    a.addAll(b);
+                    return a;
+                });
+            });
+            bldr.budget.truncation().ifPresent(marker -> {
+                result.computeIfAbsent("", k -> new HashSet<>()).add(marker);
+            });
+            return result;
+        }, new Budget(options), options.rules().start());
     }
 
+    /**
+     * Get the last segment of this builder's path.
+     *
+     * @return The path segment
+     */
     public String path() {
-        return path;
+        return path.segment();
+    }
+
+    /**
+     * Get the number of differences recorded so far in this differencing
+     * run, for differencers which only report a summary of a change if
+     * something under it survives the ignore rules and tolerances.
+     *
+     * @return A count
+     */
+    int differenceCount() {
+        return budget.count;
+    }
+
+    /**
+     * Get the options limiting this differencing run.
+     *
+     * @return The options
+     */
+    DifferencingOptions options() {
+        return budget.options;
+    }
+
+    /**
+     * Returns true if the difference or time limit has been hit, and
+     * differencers should stop walking.
+     *
+     * @return Whether to stop
+     */
+    boolean isExhausted() {
+        return budget.isExhausted();
+    }
+
+    /**
+     * Returns true if this builder is deeper than the maximum depth, in which
+     * case the caller should not descend, but determine whether the values
+     * differ at all and record a single change if so.
+     *
+     * @return Whether the depth limit has been exceeded
+     */
+    boolean isTooDeep() {
+        return isTooDeep(path.depth());
+    }
+
+    /**
+     * Check an externally tracked depth (such as JSON nesting) against the
+     * maximum depth.
+     *
+     * @param depth A depth
+     * @return Whether the depth limit has been exceeded
+     */
+    boolean isTooDeep(int depth) {
+        return depth > budget.options.maxDepth();
+    }
+
+    /**
+     * Record that the depth limit kept differences below some path from
+     * being itemized (or, where it could not be determined, detected).
+     */
+    void depthTruncated() {
+        budget.truncate("max depth " + budget.options.maxDepth() + " exceeded");
+    }
+
+    /**
+     * Get the pairs of objects this differencing run has visited.
+     *
+     * @return The visited pairs
+     */
+    VisitedPairs visited() {
+        return budget.visited();
+    }
+
+    /**
+     * Returns true if the options say to ignore differences at this builder's
+     * path, in which case nothing should be compared into it.
+     *
+     * @return Whether this path is ignored
+     */
+    boolean isIgnored() {
+        return rules.isIgnored();
+    }
+
+    /**
+     * Get the numeric tolerance for this path, if any.
+     *
+     * @return A tolerance, or NaN
+     */
+    double tolerance() {
+        return rules.tolerance();
+    }
+
+    /**
+     * Get the state of matching this builder's path against the ignored paths
+     * and tolerances in the options, for differencers which track their own
+     * paths.
+     *
+     * @return A state
+     */
+    PathRules.State rules() {
+        return rules;
+    }
+
+    /**
+     * Get the structural hasher for this run, if the options enable
+     * structural hashing.
+     *
+     * @return A hasher or null
+     */
+    StructuralHasher structuralHasher() {
+        return budget.options.structuralHashing() ? budget.hasher() : null;
+    }
+
+    /**
+     * Get a structural hasher for this run for matching up elements by
+     * content, whether or not the options enable structural hashing for
+     * skipping equal subtrees.
+     *
+     * @return A hasher
+     */
+    StructuralHasher contentHasher() {
+        return budget.hasher();
     }
 
     public DifferencesBuilder<DifferencesBuilder<P>> child(String childName) {
-        return new DifferencesBuilder<>(childName, bldr -> {
-            bldr.differences.forEach((key, coll) -> {
-                add(key, coll);
-            });
-            return this;
-        });
+        return new DifferencesBuilder<>(path.child(childName), bldr -> this,
+                budget, rules.step(childName));
     }
 
     public P build() {
         return converter.apply(this);
     }
+
+    /**
+     * Shared state for one differencing run, counting differences, tracking
+     * the deadline and the pairs of objects visited, and hashing them if
+     * enabled.
+     */
+    private static final class Budget {
+
+        private final DifferencingOptions options;
+        private final long deadline;
+        private int count;
+        private int checks;
+        private boolean exhausted;
+        private String reason;
+        private VisitedPairs visited;
+        private final Map<DiffPath, Set<Difference<?>>> differences = new HashMap<>();
+        private StructuralHasher hasher;
+
+        Budget(DifferencingOptions options) {
+            this.options = options;
+            long budgetNanos = options.timeBudget().toNanos();
+            long now = System.nanoTime();
+            // Guard against overflow with enormous budgets
+            this.deadline = Long.MAX_VALUE - now < budgetNanos
+                    ? Long.MAX_VALUE
+                    : now + budgetNanos;
+        }
+
+        boolean spend() {
+            if (isExhausted()) {
+                return false;
+            }
+            if (count == options.maxDifferences()) {
+                // Only truncated if a difference is actually dropped
+                exhausted = true;
+                truncate("max differences " + options.maxDifferences() + " reached");
+                return false;
+            }
+            count++;
+            return true;
+        }
+
+        boolean isExhausted() {
+            if (exhausted) {
+                return true;
+            }
+            // nanoTime() is cheap but not free; only look at the clock
+            // every few checks
+            if ((++checks & 31) == 0 && System.nanoTime() - deadline > 0) {
+                exhausted = true;
+                truncate("time budget " + options.timeBudget() + " exceeded");
+            }
+            return exhausted;
+        }
+
+        void add(DiffPath path, Difference<?> diff) {
+            differences.computeIfAbsent(path, k -> new HashSet<>(4)).add(diff);
+        }
+
+        VisitedPairs visited() {
+            return visited == null ? visited = new VisitedPairs() : visited;
+        }
+
+        StructuralHasher hasher() {
+            if (hasher == null) {
+                hasher = new StructuralHasher(options.maxDepth());
+            }
+            return hasher;
+        }
+
+        void truncate(String why) {
+            if (reason == null) {
+                reason = why;
+            } else if (!reason.contains(why)) {
+                reason += "; " + why;
+            }
+        }
+
+        Optional<Difference<String>> truncation() {
+            return reason == null
+                    ? Optional.empty()
+                    : Optional.of(DifferenceKind.TRUNCATED.newDifference(reason));
+        }
+    }
 }
@@ -23,7 +23,11 @@
  */
 package com.mastfrog.http.harness.difference;
 
+import com.fasterxml.jackson.core.JsonParser;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 
 /**
@@ -36,9 +40,150 @@ public interface Differencing {
 
     Map<String, Set<Difference<?>>> differences();
 
+    /**
+     * Determine whether a map of differences contains any actual differences,
+     * as opposed to only a {@link DifferenceKind#TRUNCATED} marker saying
+     * that a limit was hit - which says the output is incomplete, not that
+     * the values differ.
+     *
+     * @param differences A map of differences
+     * @return true if any difference is not a truncation marker
+     */
+    public static boolean hasDifferences(Map<String, Set<Difference<?>>> differences) {
+        for (Set<Difference<?>> set : differences.values()) {
+            for (Difference<?> diff : set) {
+                if (diff.kind() != DifferenceKind.TRUNCATED) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the marker saying why a map of differences is incomplete, if a
+     * limit was hit.
+     *
+     * @param differences A map of differences
+     * @return The truncation marker, if any
+     */
+    public static Optional<Difference<?>> truncation(Map<String, Set<Difference<?>>> differences) {
+        Set<Difference<?>> root = differences.get("");
+        if (root != null) {
+            for (Difference<?> diff : root) {
+                if (diff.kind() == DifferenceKind.TRUNCATED) {
+                    return Optional.of(diff);
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
     public static <T> Map<String, Set<Difference<?>>> difference(T a, T b) {
-        DifferencesBuilder<Map<String, Set<Difference<?>>>> bldr = DifferencesBuilder.root();
+        return difference(a, b, DifferencingOptions.DEFAULT);
+    }
+
+    /**
+     * Difference two objects reflectively, within the limits set by the
+     * passed options.
+     *
+     * @param <T> The type
+     * @param a The expected object
+     * @param b The actual object
+     * @param options Limits on the work done
+     * @return A map of property path to differences
+     */
+    public static <T> Map<String, Set<Difference<?>>> difference(T a, T b,
+            DifferencingOptions options) {
+        DifferencesBuilder<Map<String, Set<Difference<?>>>> bldr
+                = DifferencesBuilder.root(options);
         new ReflectionDifferencer().difference("", a, b, bldr);
         return bldr.build();
     }
+
+    /**
+     * Difference two JSON documents by walking their token streams side by
+     * side, without deserializing either; differences are keyed by JSON
+     * pointer, within the limits of the default options.
+     *
+     * @param expected The expected JSON
+     * @param actual The actual JSON
+     * @return A map of JSON pointer to differences, empty if equivalent
+     * @throws IOException If either document is not valid JSON
+     */
+    public static Map<String, Set<Difference<?>>> jsonDifference(byte[] expected,
+            byte[] actual) throws IOException {
+        return jsonDifference(expected, actual, DifferencingOptions.DEFAULT);
+    }
+
+    /**
+     * Difference two JSON documents by walking their token streams side by
+     * side, without deserializing either, stopping once the passed number of
+     * differences has been found.
+     *
+     * @param expected The expected JSON
+     * @param actual The actual JSON
+     * @param maxDifferences The maximum number of differences to collect
+     * @return A map of JSON pointer to differences, empty if equivalent
+     * @throws IOException If either document is not valid JSON
+     */
+    public static Map<String, Set<Difference<?>>> jsonDifference(byte[] expected,
+            byte[] actual, int maxDifferences) throws IOException {
+        return jsonDifference(expected, actual,
+                DifferencingOptions.DEFAULT.withMaxDifferences(maxDifferences));
+    }
+
+    /**
+     * Difference two JSON documents by walking their token streams side by
+     * side, without deserializing either, within the limits set by the
+     * passed options.
+     *
+     * @param expected The expected JSON
+     * @param actual The actual JSON
+     * @param options Limits on the work done
+     * @return A map of JSON pointer to differences, empty if equivalent
+     * @throws IOException If either document is not valid JSON
+     */
+    public static Map<String, Set<Difference<?>>> jsonDifference(byte[] expected,
+            byte[] actual, DifferencingOptions options) throws IOException {
+        DifferencesBuilder<Map<String, Set<Difference<?>>>> bldr
+                = DifferencesBuilder.root(options);
+        JsonStreamDifferencer.difference(expected, actual, bldr);
+        return bldr.build();
+    }
+
+    /**
+     * Difference two documents by walking the token streams of the passed
+     * parsers side by side; since any Jackson format produces the same token
+     * model, the parsers need not be for the same format - JSON text can be
+     * compared with Smile or CBOR directly, without converting either.
+     *
+     * @param expected A parser for the expected document, not yet advanced
+     * @param actual A parser for the actual document, not yet advanced
+     * @param options Limits on the work done
+     * @return A map of JSON pointer to differences, empty if equivalent
+     * @throws IOException If either document cannot be parsed
+     */
+    public static Map<String, Set<Difference<?>>> jsonDifference(JsonParser expected,
+            JsonParser actual, DifferencingOptions options) throws IOException {
+        DifferencesBuilder<Map<String, Set<Difference<?>>>> bldr
+                = DifferencesBuilder.root(options);
+        JsonStreamDifferencer.difference(expected, actual, bldr);
+        return bldr.build();
+    }
+
+    /**
+     * Difference two JSON documents by walking their token streams side by
+     * side, without deserializing either.
+     *
+     * @param expected The expected JSON
+     * @param actual The actual JSON
+     * @return A map of JSON pointer to differences, empty if equivalent
+     * @throws IOException If either document is not valid JSON
+     */
+    public static Map<String, Set<Difference<?>>> jsonDifference(String expected,
+            String actual) throws IOException {
+        return jsonDifference(expected.getBytes(StandardCharsets.UTF_8),
+                actual.getBytes(StandardCharsets.UTF_8));
+    }
 }
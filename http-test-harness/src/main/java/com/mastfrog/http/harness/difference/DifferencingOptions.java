@@ -0,0 +1,326 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness.difference;
+
+import static com.mastfrog.util.preconditions.Checks.greaterThanZero;
+import static com.mastfrog.util.preconditions.Checks.notNull;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Limits on how much work differencing two objects or documents may do -
+ * when a response is completely wrong, walking all of it and collecting every
+ * difference produces output nobody reads. When a limit is hit, differencing
+ * stops (or, for depth, stops descending) and the result contains a
+ * {@link DifferenceKind#TRUNCATED} difference under the empty key saying why.
+ * That marker means the output is incomplete, not that the values differ -
+ * use <code>Differencing.hasDifferences()</code> to tell.
+ * <p>
+ * Options also control how values are compared - whether collections are
+ * ordered, which paths are ignored, and numeric tolerances.
+ * </p>
+ * <p>
+ * Instances are immutable; the <code>with</code> methods return modified
+ * copies.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class DifferencingOptions {
+
+    /**
+     * The default options - at most 1000 differences, 256 levels deep, 30
+     * seconds of work, no structural hashing, ordered collections, and
+     * nothing ignored.
+     */
+    public static final DifferencingOptions DEFAULT
+            = new DifferencingOptions(1_000, 256, Duration.ofSeconds(30), false,
+                    false, Collections.emptyList(), Collections.emptyMap());
+    private final int maxDifferences;
+    private final int maxDepth;
+    private final Duration timeBudget;
+    private final boolean structuralHashing;
+    private final boolean unorderedCollections;
+    private final List<String> ignoredPaths;
+    private final Map<String, Double> tolerances;
+    private volatile PathRules rules;
+
+    private DifferencingOptions(int maxDifferences, int maxDepth,
+            Duration timeBudget, boolean structuralHashing,
+            boolean unorderedCollections, List<String> ignoredPaths,
+            Map<String, Double> tolerances) {
+        this.maxDifferences = maxDifferences;
+        this.maxDepth = maxDepth;
+        this.timeBudget = timeBudget;
+        this.structuralHashing = structuralHashing;
+        this.unorderedCollections = unorderedCollections;
+        this.ignoredPaths = ignoredPaths;
+        this.tolerances = tolerances;
+    }
+
+    /**
+     * Get the default options.
+     *
+     * @return The defaults
+     */
+    public static DifferencingOptions defaults() {
+        return DEFAULT;
+    }
+
+    /**
+     * The maximum number of differences to collect before stopping.
+     *
+     * @return A number of differences
+     */
+    public int maxDifferences() {
+        return maxDifferences;
+    }
+
+    /**
+     * The maximum depth of properties or JSON nesting to descend into; past
+     * that depth, unequal values are reported as a single change.
+     *
+     * @return A depth
+     */
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * The maximum wall-clock time to spend differencing.
+     *
+     * @return A duration
+     */
+    public Duration timeBudget() {
+        return timeBudget;
+    }
+
+    /**
+     * Whether object graphs are structurally hashed before being compared.
+     *
+     * @return true if structural hashing is enabled
+     */
+    public boolean structuralHashing() {
+        return structuralHashing;
+    }
+
+    /**
+     * Whether lists and JSON arrays are compared without regard to the order
+     * of their elements.
+     *
+     * @return true if order is ignored
+     */
+    public boolean unorderedCollections() {
+        return unorderedCollections;
+    }
+
+    /**
+     * Paths under which differences are ignored.
+     *
+     * @return The paths, as passed to <code>withIgnoredPaths()</code>
+     */
+    public List<String> ignoredPaths() {
+        return ignoredPaths;
+    }
+
+    /**
+     * Numeric tolerances by path.
+     *
+     * @return A map of path to the largest difference between two numbers at
+     * that path which is not reported
+     */
+    public Map<String, Double> tolerances() {
+        return tolerances;
+    }
+
+    /**
+     * Get the ignored paths and tolerances compiled into a trie, computed on
+     * first use.
+     *
+     * @return The rules
+     */
+    PathRules rules() {
+        PathRules result = rules;
+        if (result == null) {
+            rules = result = PathRules.compile(ignoredPaths, tolerances);
+        }
+        return result;
+    }
+
+    /**
+     * Set the maximum number of differences to collect.
+     *
+     * @param maxDifferences A number greater than zero
+     * @return A new options
+     */
+    public DifferencingOptions withMaxDifferences(int maxDifferences) {
+        return new DifferencingOptions(greaterThanZero("maxDifferences",
+                maxDifferences), maxDepth, timeBudget, structuralHashing,
+                unorderedCollections, ignoredPaths, tolerances);
+    }
+
+    /**
+     * Set the maximum depth to descend to.
+     *
+     * @param maxDepth A number greater than zero
+     * @return A new options
+     */
+    public DifferencingOptions withMaxDepth(int maxDepth) {
+        return new DifferencingOptions(maxDifferences,
+                greaterThanZero("maxDepth", maxDepth), timeBudget, structuralHashing,
+                unorderedCollections, ignoredPaths, tolerances);
+    }
+
+    /**
+     * Set the maximum time to spend differencing.
+     *
+     * @param timeBudget A positive duration
+     * @return A new options
+     */
+    public DifferencingOptions withTimeBudget(Duration timeBudget) {
+        if (notNull("timeBudget", timeBudget).isNegative() || timeBudget.isZero()) {
+            throw new IllegalArgumentException("Time budget must be positive: "
+                    + timeBudget);
+        }
+        return new DifferencingOptions(maxDifferences, maxDepth, timeBudget,
+                structuralHashing, unorderedCollections, ignoredPaths, tolerances);
+    }
+
+    /**
+     * Enable or disable structural hashing of object graphs. When enabled,
+     * each object reached is hashed once - a 64-bit hash of its field values,
+     * recursively - and pairs of objects with the same hash are not walked,
+     * nor are list elements with the same hash treated as changed, even if
+     * their types do not implement <code>equals()</code>. That makes the cost
+     * of differencing large, mostly-identical graphs proportional to the size
+     * of the change, at the price of hashing both graphs up front, and of a
+     * vanishingly small chance that a hash collision hides a difference.
+     *
+     * @param structuralHashing Whether to use structural hashing
+     * @return A new options
+     */
+    public DifferencingOptions withStructuralHashing(boolean structuralHashing) {
+        return new DifferencingOptions(maxDifferences, maxDepth, timeBudget,
+                structuralHashing, unorderedCollections, ignoredPaths, tolerances);
+    }
+
+    /**
+     * Compare lists and JSON arrays without regard to the order of their
+     * elements, for endpoints which return sets as arrays in nondeterministic
+     * order. Elements are paired up by content, and those left over which are
+     * similar but not equal are paired most-similar-first and differenced
+     * field by field; the rest are reported as deletions, keyed by their
+     * original index, and insertions, keyed by their new index. Sets are
+     * always compared this way.
+     *
+     * @param unorderedCollections Whether to ignore order
+     * @return A new options
+     */
+    public DifferencingOptions withUnorderedCollections(boolean unorderedCollections) {
+        return new DifferencingOptions(maxDifferences, maxDepth, timeBudget,
+                structuralHashing, unorderedCollections, ignoredPaths, tolerances);
+    }
+
+    /**
+     * Ignore differences at or under the passed paths - timestamps, generated
+     * ids and such; ignored subtrees are not visited at all. Paths are either
+     * dot-delimited property paths, as used in the keys of the difference map
+     * for objects (<code>items.*.createdAt</code>), or JSON pointers, as used
+     * for JSON (<code>/items/0/id</code>). A segment of <code>*</code> matches
+     * any single property name or index, <code>**</code> matches any number
+     * of them, and a <code>*</code> within a segment matches any characters,
+     * as in <code>**.*Id</code>.
+     *
+     * @param paths Some paths
+     * @return A new options
+     */
+    public DifferencingOptions withIgnoredPaths(String... paths) {
+        List<String> all = new ArrayList<>(ignoredPaths);
+        for (String path : notNull("paths", paths)) {
+            all.add(notNull("path", path));
+        }
+        return new DifferencingOptions(maxDifferences, maxDepth, timeBudget,
+                structuralHashing, unorderedCollections,
+                Collections.unmodifiableList(all), tolerances);
+    }
+
+    /**
+     * Treat numbers at paths matching the passed path, in the syntax described
+     * for <code>withIgnoredPaths()</code>, as equal if they differ by no more
+     * than the passed tolerance - for floating point values with rounding
+     * noise.
+     *
+     * @param path A path
+     * @param tolerance A non-negative, finite tolerance
+     * @return A new options
+     */
+    public DifferencingOptions withTolerance(String path, double tolerance) {
+        if (tolerance < 0 || Double.isNaN(tolerance) || Double.isInfinite(tolerance)) {
+            throw new IllegalArgumentException("Bad tolerance " + tolerance);
+        }
+        Map<String, Double> all = new LinkedHashMap<>(tolerances);
+        all.put(notNull("path", path), tolerance);
+        return new DifferencingOptions(maxDifferences, maxDepth, timeBudget,
+                structuralHashing, unorderedCollections, ignoredPaths,
+                Collections.unmodifiableMap(all));
+    }
+
+    @Override
+    public String toString() {
+        return "DifferencingOptions(maxDifferences=" + maxDifferences
+                + ", maxDepth=" + maxDepth + ", timeBudget=" + timeBudget
+                + ", structuralHashing=" + structuralHashing
+                + ", unorderedCollections=" + unorderedCollections
+                + ", ignoredPaths=" + ignoredPaths
+                + ", tolerances=" + tolerances + ")";
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(maxDifferences, maxDepth, timeBudget,
+                structuralHashing, unorderedCollections, ignoredPaths, tolerances);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        } else if (obj == null || obj.getClass() != DifferencingOptions.class) {
+            return false;
+        }
+        DifferencingOptions other = (DifferencingOptions) obj;
+        return maxDifferences == other.maxDifferences
+                && maxDepth == other.maxDepth
+                && structuralHashing == other.structuralHashing
+                && unorderedCollections == other.unorderedCollections
+                && ignoredPaths.equals(other.ignoredPaths)
+                && tolerances.equals(other.tolerances)
+                && timeBudget.equals(other.timeBudget);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness.difference;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.min;
+
+/**
+ * Banded, bounded Levenshtein distance - only cells within <code>k</code> of
+ * the diagonal are computed, in O(k) memory and O(k * n) time, and the
+ * computation gives up as soon as every cell in a row exceeds the bound.
+ *
+ * @author Tim Boudreau
+ */
+final class EditDistance {
+
+    private EditDistance() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Compute the edit distance between two character sequences if it is no
+     * greater than <code>bound</code>.
+     *
+     * @param a One sequence
+     * @param b Another sequence
+     * @param bound The maximum distance of interest
+     * @return The distance, or <code>bound + 1</code> if it is greater than
+     * the bound
+     */
+    static int bounded(CharSequence a, CharSequence b, int bound) {
+        int n = a.length();
+        int m = b.length();
+        if (abs(n - m) > bound) {
+            return bound + 1;
+        }
+        if (n == 0 || m == 0) {
+            return Math.max(n, m);
+        }
+        final int over = bound + 1;
+        final int width = 2 * bound + 1;
+        // Cell (i, j) lives at index j - i + bound of its row
+        int[] prev = new int[width];
+        int[] curr = new int[width];
+        for (int ix = 0; ix < width; ix++) {
+            int j = ix - bound;
+            prev[ix] = j < 0 || j > m ? over : j;
+        }
+        for (int i = 1; i <= n; i++) {
+            char ca = a.charAt(i - 1);
+            int rowMin = over;
+            for (int ix = 0; ix < width; ix++) {
+                int j = i + ix - bound;
+                int val;
+                if (j < 0 || j > m) {
+                    val = over;
+                } else if (j == 0) {
+                    val = i;
+                } else {
+                    int subst = prev[ix] + (ca == b.charAt(j - 1) ? 0 : 1);
+                    int del = ix + 1 < width ? prev[ix + 1] + 1 : over;
+                    int ins = ix > 0 ? curr[ix - 1] + 1 : over;
+                    val = min(over, min(subst, min(del, ins)));
+                }
+                curr[ix] = val;
+                rowMin = min(rowMin, val);
+            }
+            if (rowMin > bound) {
+                return over;
+            }
+            int[] swap = prev;
+            prev = curr;
+            curr = swap;
+        }
+        return prev[m - n + bound];
+    }
+}
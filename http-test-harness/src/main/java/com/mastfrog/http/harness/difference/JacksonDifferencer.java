@@ -23,26 +23,41 @@
  */
 package com.mastfrog.http.harness.difference;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import java.io.IOException;
-import java.util.Map;
 
 /**
+ * Differences two objects as Jackson would serialize them, by serializing each
+ * into a token buffer and walking the two token streams side by side.
  *
  * @author Tim Boudreau
  */
 final class JacksonDifferencer implements Differencer<Object> {
 
+    private final ObjectMapper mapper;
+
+    JacksonDifferencer() {
+        this(new ObjectMapper());
+    }
+
+    JacksonDifferencer(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
     @Override
     public <P> void difference(String name, Object a, Object b, DifferencesBuilder<P> bldr) {
-        ReflectionDifferencer refl = new ReflectionDifferencer();
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            Map<?, ?> mapa = mapper.readValue(mapper.writeValueAsBytes(a), Map.class);
-            Map<?, ?> mapb = mapper.readValue(mapper.writeValueAsBytes(a), Map.class);
-            refl.difference(name, mapa, mapb, bldr);
+            TokenBuffer abuf = new TokenBuffer(mapper, false);
+            mapper.writeValue(abuf, a);
+            TokenBuffer bbuf = new TokenBuffer(mapper, false);
+            mapper.writeValue(bbuf, b);
+            try (JsonParser pa = abuf.asParser(); JsonParser pb = bbuf.asParser()) {
+                JsonStreamDifferencer.difference(pa, pb, bldr);
+            }
         } catch (IOException ex) {
-            refl.difference(name, a, b, bldr);
+            new ReflectionDifferencer().difference(name, a, b, bldr);
         }
     }
 }
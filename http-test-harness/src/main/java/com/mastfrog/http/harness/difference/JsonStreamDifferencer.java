@@ -0,0 +1,675 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness.difference;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import static com.fasterxml.jackson.core.JsonToken.END_ARRAY;
+import static com.fasterxml.jackson.core.JsonToken.END_OBJECT;
+import static com.fasterxml.jackson.core.JsonToken.FIELD_NAME;
+import static com.fasterxml.jackson.core.JsonToken.START_ARRAY;
+import static com.fasterxml.jackson.core.JsonToken.START_OBJECT;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.mastfrog.util.preconditions.Exceptions;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Differences two JSON documents by walking their token streams side by side,
+ * without deserializing either into objects or trees. Differences are keyed by
+ * JSON pointer (<code>/items/3/name</code>), and differencing stops once the
+ * limits in the builder's DifferencingOptions are hit.
+ * <p>
+ * Arrays are compared positionally, unless the options say collections are
+ * unordered, in which case the elements of each array are buffered, hashed
+ * and paired up by content. Object members are compared in lockstep
+ * while both documents have their keys in the same order; if the order
+ * diverges, only the remainder of <i>that</i> object is buffered (as token
+ * buffers, not trees) on each side and matched up by name.
+ * </p>
+ * <p>
+ * The path is matched against the options' ignored paths and tolerances one
+ * segment at a time as it is built, and ignored values are skipped in the
+ * token streams without being compared.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class JsonStreamDifferencer {
+
+    private static final int MAX_SUMMARY_CHARS = 256;
+    private static final JsonFactory FACTORY = new JsonFactory();
+    private static final long OBJECT_HASH = 0x5BE0CD19137E2179L;
+    private static final long ARRAY_HASH = 0x152FECD8F70E5939L;
+    private static final long NUMBER_HASH = 0xA54FF53A5F1D36F1L;
+    private static final long TRUE_HASH = 0xBB67AE8584CAA73BL;
+    private static final long FALSE_HASH = 0x3C6EF372FE94F82BL;
+    private static final long NULL_HASH = 0x6A09E667F3BCC908L;
+    private final DifferencesBuilder<?> bldr;
+    private final StringBuilder path = new StringBuilder(64);
+    // Where each segment of the path starts, and the state of matching
+    // ignored paths and tolerances after it
+    private int[] segmentStarts = new int[16];
+    private PathRules.State[] states = new PathRules.State[17];
+    private int segments;
+    private int depth;
+
+    private JsonStreamDifferencer(DifferencesBuilder<?> bldr) {
+        this.bldr = bldr;
+        states[0] = bldr.rules();
+    }
+
+    static <P> void difference(byte[] expected, byte[] actual,
+            DifferencesBuilder<P> into) throws IOException {
+        try (JsonParser a = FACTORY.createParser(expected);
+                JsonParser b = FACTORY.createParser(actual)) {
+            difference(a, b, into);
+        }
+    }
+
+    static <P> void difference(JsonParser expected, JsonParser actual,
+            DifferencesBuilder<P> into) throws IOException {
+        JsonStreamDifferencer differ = new JsonStreamDifferencer(into);
+        JsonToken ta = expected.nextToken();
+        JsonToken tb = actual.nextToken();
+        if (ta == null || tb == null) {
+            if (ta != tb) {
+                differ.emit(DifferenceKind.CHANGE, ta == null ? null
+                        : summarize(expected), tb == null ? null
+                        : summarize(actual));
+            }
+            return;
+        }
+        differ.value(expected, actual);
+    }
+
+    private boolean value(JsonParser a, JsonParser b) throws IOException {
+        if (states[segments].isIgnored()) {
+            a.skipChildren();
+            b.skipChildren();
+            return true;
+        }
+        JsonToken ta = a.currentToken();
+        JsonToken tb = b.currentToken();
+        if ((ta == START_OBJECT && tb == START_OBJECT)
+                || (ta == START_ARRAY && tb == START_ARRAY)) {
+            if (bldr.isTooDeep(depth + 1)) {
+                return tooDeep(a, b);
+            }
+            depth++;
+            try {
+                return ta == START_OBJECT ? object(a, b) : array(a, b);
+            } finally {
+                depth--;
+            }
+        } else if (ta.isScalarValue() && tb.isScalarValue()) {
+            return scalar(a, ta, b, tb);
+        }
+        return emit(DifferenceKind.CHANGE, summarize(a), summarize(b));
+    }
+
+    /**
+     * Past the maximum depth, find out whether two structures differ by
+     * comparing their structural hashes rather than walking them path by
+     * path, and record one change for the whole structure if they do.
+     * Ignored paths and tolerances below the limit are not applied.
+     */
+    private boolean tooDeep(JsonParser a, JsonParser b) throws IOException {
+        TokenBuffer bufA = new TokenBuffer(a);
+        bufA.copyCurrentStructure(a);
+        TokenBuffer bufB = new TokenBuffer(b);
+        bufB.copyCurrentStructure(b);
+        if (hash(bufA) == hash(bufB)) {
+            return !bldr.isExhausted();
+        }
+        bldr.depthTruncated();
+        try (JsonParser pa = bufA.asParser();
+                JsonParser pb = bufB.asParser()) {
+            pa.nextToken();
+            pb.nextToken();
+            return emit(DifferenceKind.CHANGE, summarize(pa), summarize(pb));
+        }
+    }
+
+    private boolean scalar(JsonParser a, JsonToken ta, JsonParser b,
+            JsonToken tb) throws IOException {
+        if (ta.isNumeric() && tb.isNumeric()) {
+            double tolerance = states[segments].tolerance();
+            boolean equal = Double.isNaN(tolerance)
+                    ? numbersEqual(a, b)
+                    : Math.abs(a.getDoubleValue() - b.getDoubleValue()) <= tolerance;
+            if (!equal) {
+                return emit(DifferenceKind.CHANGE, a.getNumberValue(),
+                        b.getNumberValue());
+            }
+            return true;
+        }
+        if (ta != tb) {
+            return emit(DifferenceKind.CHANGE, scalarValue(a), scalarValue(b));
+        }
+        switch (ta) {
+            case VALUE_STRING:
+                String sa = a.getText();
+                String sb = b.getText();
+                return sa.equals(sb)
+                        || emit(DifferenceKind.CHANGE, sa, sb);
+            case VALUE_EMBEDDED_OBJECT:
+                Object oa = a.getEmbeddedObject();
+                Object ob = b.getEmbeddedObject();
+                return Objects.equals(oa, ob)
+                        || emit(DifferenceKind.CHANGE, oa, ob);
+            default:
+                // true, false, null
+                return true;
+        }
+    }
+
+    private static boolean numbersEqual(JsonParser a, JsonParser b) throws IOException {
+        if (a.currentToken() == JsonToken.VALUE_NUMBER_INT
+                && b.currentToken() == JsonToken.VALUE_NUMBER_INT) {
+            JsonParser.NumberType na = a.getNumberType();
+            JsonParser.NumberType nb = b.getNumberType();
+            if (na != JsonParser.NumberType.BIG_INTEGER
+                    && nb != JsonParser.NumberType.BIG_INTEGER) {
+                return a.getLongValue() == b.getLongValue();
+            }
+            return a.getBigIntegerValue().equals(b.getBigIntegerValue());
+        }
+        return a.getDecimalValue().compareTo(b.getDecimalValue()) == 0;
+    }
+
+    private boolean array(JsonParser a, JsonParser b) throws IOException {
+        if (bldr.options().unorderedCollections()) {
+            return unorderedArray(a, b);
+        }
+        int len = path.length();
+        int index = 0;
+        JsonToken ta = a.nextToken();
+        JsonToken tb = b.nextToken();
+        try {
+            while (ta != END_ARRAY && tb != END_ARRAY) {
+                if (bldr.isExhausted() || !value(a, b, index++)) {
+                    return false;
+                }
+                truncate(len);
+                ta = a.nextToken();
+                tb = b.nextToken();
+            }
+            while (ta != END_ARRAY) {
+                appendSegment(index++);
+                if (!emit(DifferenceKind.DELETION, summarize(a), null)) {
+                    return false;
+                }
+                truncate(len);
+                ta = a.nextToken();
+            }
+            while (tb != END_ARRAY) {
+                appendSegment(index++);
+                if (!emit(DifferenceKind.INSERTION, null, summarize(b))) {
+                    return false;
+                }
+                truncate(len);
+                tb = b.nextToken();
+            }
+            return true;
+        } finally {
+            truncate(len);
+        }
+    }
+
+    private boolean unorderedArray(JsonParser a, JsonParser b) throws IOException {
+        List<TokenBuffer> ea = elements(a);
+        List<TokenBuffer> eb = elements(b);
+        Object[] aKeys = new Object[ea.size()];
+        for (int i = 0; i < aKeys.length; i++) {
+            aKeys[i] = hash(ea.get(i));
+        }
+        Object[] bKeys = new Object[eb.size()];
+        for (int i = 0; i < bKeys.length; i++) {
+            bKeys[i] = hash(eb.get(i));
+        }
+        List<Map<String, Long>> aMembers = new ArrayList<>(Collections.nCopies(ea.size(), null));
+        List<Map<String, Long>> bMembers = new ArrayList<>(Collections.nCopies(eb.size(), null));
+        UnorderedMatcher.Matches matches = UnorderedMatcher.match(aKeys, bKeys, (i, j) -> {
+            if (aMembers.get(i) == null) {
+                aMembers.set(i, members(ea.get(i)));
+            }
+            if (bMembers.get(j) == null) {
+                bMembers.set(j, members(eb.get(j)));
+            }
+            return similarity(aMembers.get(i), bMembers.get(j));
+        });
+        int len = path.length();
+        try {
+            for (int k = 0; k < matches.changedA.length; k++) {
+                appendSegment(matches.changedA[k]);
+                try (JsonParser pa = ea.get(matches.changedA[k]).asParser();
+                        JsonParser pb = eb.get(matches.changedB[k]).asParser()) {
+                    pa.nextToken();
+                    pb.nextToken();
+                    if (bldr.isExhausted() || !value(pa, pb)) {
+                        return false;
+                    }
+                }
+                truncate(len);
+            }
+            for (int i : matches.deleted) {
+                appendSegment(i);
+                try (JsonParser pa = ea.get(i).asParser()) {
+                    pa.nextToken();
+                    if (!emit(DifferenceKind.DELETION, summarize(pa), null)) {
+                        return false;
+                    }
+                }
+                truncate(len);
+            }
+            for (int i : matches.inserted) {
+                appendSegment(i);
+                try (JsonParser pb = eb.get(i).asParser()) {
+                    pb.nextToken();
+                    if (!emit(DifferenceKind.INSERTION, null, summarize(pb))) {
+                        return false;
+                    }
+                }
+                truncate(len);
+            }
+            return true;
+        } finally {
+            truncate(len);
+        }
+    }
+
+    private static List<TokenBuffer> elements(JsonParser p) throws IOException {
+        List<TokenBuffer> result = new ArrayList<>();
+        while (p.nextToken() != END_ARRAY) {
+            TokenBuffer buf = new TokenBuffer(p);
+            buf.copyCurrentStructure(p);
+            result.add(buf);
+        }
+        return result;
+    }
+
+    private long hash(TokenBuffer buf) throws IOException {
+        try (JsonParser p = buf.asParser()) {
+            p.nextToken();
+            return hash(p);
+        }
+    }
+
+    /**
+     * Hashes of the members of an object element, for scoring similarity, or
+     * an empty map if it is not an object.
+     */
+    private Map<String, Long> members(TokenBuffer buf) {
+        try (JsonParser p = buf.asParser()) {
+            if (p.nextToken() != START_OBJECT) {
+                return Collections.emptyMap();
+            }
+            Map<String, Long> result = new HashMap<>();
+            while (p.nextToken() == FIELD_NAME) {
+                String name = p.currentName();
+                p.nextToken();
+                result.put(name, hash(p));
+            }
+            return result;
+        } catch (IOException ex) {
+            // Token buffers are in memory and already parsed
+            return Exceptions.chuck(ex);
+        }
+    }
+
+    private static double similarity(Map<String, Long> a, Map<String, Long> b) {
+        if (a.isEmpty() || b.isEmpty()) {
+            return 0;
+        }
+        int same = 0;
+        for (Map.Entry<String, Long> e : a.entrySet()) {
+            if (e.getValue().equals(b.get(e.getKey()))) {
+                same++;
+            }
+        }
+        return same / (double) Math.max(a.size(), b.size());
+    }
+
+    /**
+     * Compute a structural hash of the value at the parser's current token,
+     * consuming it, consistent with how values are compared here - object
+     * members in any order, numbers by numeric value, and arrays in order
+     * unless the options say otherwise. Iterative rather than recursive, so
+     * deeply nested documents cannot overflow the stack.
+     */
+    private long hash(JsonParser p) throws IOException {
+        boolean unordered = bldr.options().unorderedCollections();
+        long[] acc = new long[16];
+        long[] names = new long[16];
+        boolean[] isArray = new boolean[16];
+        int top = -1;
+        JsonToken tok = p.currentToken();
+        for (;;) {
+            long value;
+            switch (tok) {
+                case START_OBJECT:
+                case START_ARRAY:
+                    if (++top == acc.length) {
+                        acc = Arrays.copyOf(acc, top * 2);
+                        names = Arrays.copyOf(names, top * 2);
+                        isArray = Arrays.copyOf(isArray, top * 2);
+                    }
+                    isArray[top] = tok == START_ARRAY;
+                    acc[top] = isArray[top] ? ARRAY_HASH : OBJECT_HASH;
+                    tok = p.nextToken();
+                    continue;
+                case FIELD_NAME:
+                    names[top] = StructuralHasher.chars(p.currentName());
+                    tok = p.nextToken();
+                    continue;
+                case END_OBJECT:
+                case END_ARRAY:
+                    value = StructuralHasher.mix(acc[top--]);
+                    break;
+                default:
+                    value = scalarHash(p, tok);
+            }
+            if (top < 0) {
+                return value;
+            } else if (!isArray[top]) {
+                acc[top] += StructuralHasher.mix(names[top] * 31 + value);
+            } else if (unordered) {
+                acc[top] += StructuralHasher.mix(value);
+            } else {
+                acc[top] = StructuralHasher.mix(acc[top] * 31 + value);
+            }
+            tok = p.nextToken();
+        }
+    }
+
+    private static long scalarHash(JsonParser p, JsonToken tok) throws IOException {
+        switch (tok) {
+            case VALUE_STRING:
+                return StructuralHasher.chars(p.getText());
+            case VALUE_NUMBER_INT:
+                if (p.getNumberType() != JsonParser.NumberType.BIG_INTEGER) {
+                    return StructuralHasher.mix(NUMBER_HASH ^ p.getLongValue());
+                }
+                return decimalHash(new BigDecimal(p.getBigIntegerValue()));
+            case VALUE_NUMBER_FLOAT:
+                return decimalHash(p.getDecimalValue());
+            case VALUE_TRUE:
+                return TRUE_HASH;
+            case VALUE_FALSE:
+                return FALSE_HASH;
+            case VALUE_EMBEDDED_OBJECT:
+                return Objects.hashCode(p.getEmbeddedObject());
+            default:
+                return NULL_HASH;
+        }
+    }
+
+    private static long decimalHash(BigDecimal d) {
+        // Numbers which compare equal must hash equal, so 1, 1.0 and 1e0 all
+        // hash as the long 1
+        BigDecimal stripped = d.stripTrailingZeros();
+        if (stripped.scale() <= 0 && stripped.precision() - stripped.scale() <= 18) {
+            return StructuralHasher.mix(NUMBER_HASH ^ stripped.longValueExact());
+        }
+        return StructuralHasher.mix(NUMBER_HASH ^ StructuralHasher.chars(stripped.toString()));
+    }
+
+    private boolean value(JsonParser a, JsonParser b, int index) throws IOException {
+        appendSegment(index);
+        return value(a, b);
+    }
+
+    private boolean object(JsonParser a, JsonParser b) throws IOException {
+        int len = path.length();
+        JsonToken ta = a.nextToken();
+        JsonToken tb = b.nextToken();
+        try {
+            while (ta == FIELD_NAME && tb == FIELD_NAME) {
+                String name = a.currentName();
+                if (!name.equals(b.currentName())) {
+                    break;
+                }
+                a.nextToken();
+                b.nextToken();
+                appendSegment(name);
+                if (bldr.isExhausted() || !value(a, b)) {
+                    return false;
+                }
+                truncate(len);
+                ta = a.nextToken();
+                tb = b.nextToken();
+            }
+            if (ta == END_OBJECT && tb == END_OBJECT) {
+                return true;
+            }
+            // Key order diverged (or one side ran out of keys) - buffer only
+            // what remains of this object on each side and match by name
+            Map<String, TokenBuffer> restA = remainder(a, ta);
+            Map<String, TokenBuffer> restB = remainder(b, tb);
+            for (Map.Entry<String, TokenBuffer> e : restA.entrySet()) {
+                appendSegment(e.getKey());
+                TokenBuffer other = restB.remove(e.getKey());
+                try (JsonParser pa = e.getValue().asParser()) {
+                    pa.nextToken();
+                    if (other == null) {
+                        if (!emit(DifferenceKind.DELETION, summarize(pa), null)) {
+                            return false;
+                        }
+                    } else {
+                        try (JsonParser pb = other.asParser()) {
+                            pb.nextToken();
+                            if (!value(pa, pb)) {
+                                return false;
+                            }
+                        }
+                    }
+                }
+                truncate(len);
+            }
+            for (Iterator<Map.Entry<String, TokenBuffer>> it
+                    = restB.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, TokenBuffer> e = it.next();
+                appendSegment(e.getKey());
+                try (JsonParser pb = e.getValue().asParser()) {
+                    pb.nextToken();
+                    if (!emit(DifferenceKind.INSERTION, null, summarize(pb))) {
+                        return false;
+                    }
+                }
+                truncate(len);
+            }
+            return true;
+        } finally {
+            truncate(len);
+        }
+    }
+
+    private static Map<String, TokenBuffer> remainder(JsonParser p, JsonToken tok) throws IOException {
+        Map<String, TokenBuffer> result = new LinkedHashMap<>();
+        while (tok == FIELD_NAME) {
+            String name = p.currentName();
+            p.nextToken();
+            TokenBuffer buf = new TokenBuffer(p);
+            buf.copyCurrentStructure(p);
+            result.put(name, buf);
+            tok = p.nextToken();
+        }
+        return result;
+    }
+
+    private void appendSegment(int index) {
+        PathRules.State state = states[segments];
+        pushSegment(state.step(state == PathRules.State.EMPTY
+                ? "" : DiffPath.index(index)));
+        path.append('/').append(index);
+    }
+
+    private void appendSegment(String name) {
+        pushSegment(states[segments].step(name));
+        path.append('/');
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            switch (c) {
+                case '~':
+                    path.append("~0");
+                    break;
+                case '/':
+                    path.append("~1");
+                    break;
+                default:
+                    path.append(c);
+            }
+        }
+    }
+
+    private void pushSegment(PathRules.State state) {
+        if (segments == segmentStarts.length) {
+            segmentStarts = Arrays.copyOf(segmentStarts, segments * 2);
+            states = Arrays.copyOf(states, segments * 2 + 1);
+        }
+        segmentStarts[segments++] = path.length();
+        states[segments] = state;
+    }
+
+    private void truncate(int len) {
+        path.setLength(len);
+        while (segments > 0 && segmentStarts[segments - 1] >= len) {
+            segments--;
+        }
+    }
+
+    private boolean emit(DifferenceKind kind, Object a, Object b) {
+        if (states[segments].isIgnored()) {
+            return !bldr.isExhausted();
+        }
+        Difference<?> diff;
+        switch (kind) {
+            case DELETION:
+                diff = kind.newDifference(a);
+                break;
+            case INSERTION:
+                diff = kind.newDifference(b);
+                break;
+            default:
+                diff = Difference.create(a, b);
+        }
+        if (path.length() == 0) {
+            bldr.add(diff);
+        } else {
+            // The rules were applied to each segment on the way down
+            bldr.addFiltered(path.toString(), diff);
+        }
+        return !bldr.isExhausted();
+    }
+
+    private static Object scalarValue(JsonParser p) throws IOException {
+        switch (p.currentToken()) {
+            case VALUE_STRING:
+                return p.getText();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return p.getNumberValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_EMBEDDED_OBJECT:
+                return p.getEmbeddedObject();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Get a value for the parser's current value, consuming it; structures are
+     * rendered as JSON, truncated if long.
+     */
+    private static Object summarize(JsonParser p) throws IOException {
+        JsonToken tok = p.currentToken();
+        if (tok != START_OBJECT && tok != START_ARRAY) {
+            return scalarValue(p);
+        }
+        CappedWriter out = new CappedWriter(MAX_SUMMARY_CHARS);
+        try (JsonGenerator gen = FACTORY.createGenerator(out)) {
+            gen.copyCurrentStructure(p);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writer which keeps the head of what is written to it and discards the
+     * rest, so the whole of a missing subtree is consumed but not retained.
+     */
+    private static final class CappedWriter extends Writer {
+
+        private final StringBuilder sb;
+        private final int max;
+        private long total;
+
+        CappedWriter(int max) {
+            this.max = max;
+            this.sb = new StringBuilder(Math.min(max, 64));
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            total += len;
+            int room = max - sb.length();
+            if (room > 0) {
+                sb.append(cbuf, off, Math.min(room, len));
+            }
+        }
+
+        @Override
+        public void flush() {
+            // do nothing
+        }
+
+        @Override
+        public void close() {
+            // do nothing
+        }
+
+        @Override
+        public String toString() {
+            if (total > sb.length()) {
+                return sb + "...(" + (total - sb.length()) + " more chars)";
+            }
+            return sb.toString();
+        }
+    }
+}
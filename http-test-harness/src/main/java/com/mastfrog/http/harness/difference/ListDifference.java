@@ -30,7 +30,8 @@ import java.util.List;
 
 /**
  * To make Jackson-friendly, extracts the relevant info from a
- * ParallelIterator.ListDiffChange, which references parent class values.
+ * ParallelIterator.ListDiffChange, which references parent class values, or
+ * describes one run found by MyersDiff.
  *
  * @author Tim Boudreau
  */
@@ -41,12 +42,19 @@ final class ListDifference implements Difference<List<?>> {
     private final String stringValue;
     private final DifferenceKind kind;
     private final int start;
+    private static final int MAX_ELEMENTS_IN_STRING = 32;
 
     ListDifference(ParallelIterator.ListDiffChange change) {
         this(change.oldValue(), change.newValue(), change.toString(), change.kind(),
                 change.getStart());
     }
 
+    ListDifference(List<?> oldValue, List<?> newValue, DifferenceKind kind,
+            int start, int of) {
+        this(oldValue, newValue, describe(oldValue, newValue, kind, start, of),
+                kind, start);
+    }
+
     @JsonCreator
     ListDifference(
             @JsonProperty("oldValue") List<?> oldValue,
@@ -61,6 +69,47 @@ final class ListDifference implements Difference<List<?>> {
         this.start = start;
     }
 
+    private static String describe(List<?> oldValue, List<?> newValue,
+            DifferenceKind kind, int start, int of) {
+        // Same format as ParallelIterator.ListDiffChange, but with long runs
+        // elided - a run can be the better part of a 100k element list
+        int length = Math.max(oldValue.size(), newValue.size());
+        StringBuilder sb = new StringBuilder(kind.name().toLowerCase())
+                .append('(')
+                .append(start)
+                .append('-')
+                .append(start + length - 1)
+                .append(" of ")
+                .append(of);
+        switch (kind) {
+            case DELETION:
+                appendElements(oldValue, sb.append(": <")).append('>');
+                break;
+            case INSERTION:
+                appendElements(newValue, sb.append(": <")).append('>');
+                break;
+            default:
+                appendElements(oldValue, sb.append(" from <")).append("> to <");
+                appendElements(newValue, sb).append('>');
+                break;
+        }
+        return sb.append(')').toString();
+    }
+
+    private static StringBuilder appendElements(List<?> items, StringBuilder into) {
+        int max = min(items.size(), MAX_ELEMENTS_IN_STRING);
+        for (int i = 0; i < max; i++) {
+            if (i > 0) {
+                into.append(',');
+            }
+            into.append(items.get(i));
+        }
+        if (items.size() > max) {
+            into.append(",...").append(items.size() - max).append(" more");
+        }
+        return into;
+    }
+
     @JsonProperty("start")
     public int start() {
         return start;
@@ -98,7 +147,7 @@ final class ListDifference implements Difference<List<?>> {
             for (int i = 0; i < max; i++) {
                 Object oldObj = oldValues.get(i);
                 Object newObj = newValues.get(i);
-                String ixString = Integer.toString(start + i);
+                String ixString = DiffPath.index(start + i);
                 DifferencesBuilder<DifferencesBuilder<P>> child
                         = bldr.child(ixString);
                 into.differenceIfPossible(ixString, oldObj, newObj, child);
@@ -0,0 +1,319 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness.difference;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Linear-space Myers O(ND) list diff, which, unlike ParallelIterator, is
+ * tolerant of duplicate elements and produces a minimal (or, for pathological
+ * inputs where the search is cut off, near-minimal) set of runs.
+ * <p>
+ * Elements are first interned to integer ids so the inner loops compare ints
+ * rather than calling <code>equals()</code>, a common prefix and suffix are
+ * trimmed, and the remainder is recursively split at the middle snake of each
+ * sub-problem, marking deleted and inserted indices in a pair of bit sets. Those
+ * are then walked to produce runs, pairing adjacent deletions and insertions
+ * up as changes so that the elements in them can be differenced individually.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class MyersDiff {
+
+    private static final int MIN_COST_LIMIT = 4_096;
+    private final List<?> old;
+    private final List<?> nue;
+    private final int[] xv;
+    private final int[] yv;
+    private final boolean[] deleted;
+    private final boolean[] inserted;
+    private final int[] fd;
+    private final int[] bd;
+    private final int diagOffset;
+    private final int costLimit;
+    private int xmid;
+    private int ymid;
+
+    private MyersDiff(List<?> old, List<?> nue, Function<Object, Object> keys) {
+        this.old = old;
+        this.nue = nue;
+        int n = old.size();
+        int m = nue.size();
+        xv = new int[n];
+        yv = new int[m];
+        Map<Object, Integer> ids = new HashMap<>(max(16, (n + m) / 2));
+        for (int i = 0; i < n; i++) {
+            xv[i] = ids.computeIfAbsent(keys.apply(old.get(i)), k -> ids.size());
+        }
+        for (int i = 0; i < m; i++) {
+            yv[i] = ids.computeIfAbsent(keys.apply(nue.get(i)), k -> ids.size());
+        }
+        deleted = new boolean[n];
+        inserted = new boolean[m];
+        int diags = n + m + 3;
+        fd = new int[diags];
+        bd = new int[diags];
+        diagOffset = m + 1;
+        // Same heuristic as GNU diff - roughly the square root of the number
+        // of diagonals, with a floor so ordinary inputs always get a minimal
+        // result
+        int limit = 1;
+        for (int d = diags; d != 0; d >>= 2) {
+            limit <<= 1;
+        }
+        costLimit = max(MIN_COST_LIMIT, limit);
+    }
+
+    /**
+     * Compute the differences between two lists.
+     *
+     * @param old The original list
+     * @param nue The new list
+     * @return A list of runs of deletions, insertions and changes, in order
+     */
+    static List<ListDifference> diff(List<?> old, List<?> nue) {
+        return diff(old, nue, Function.identity());
+    }
+
+    /**
+     * Compute the differences between two lists, treating elements as equal
+     * if the keys computed for them are.
+     *
+     * @param old The original list
+     * @param nue The new list
+     * @param keys Computes a key to compare in place of each element
+     * @return A list of runs of deletions, insertions and changes, in order
+     */
+    static List<ListDifference> diff(List<?> old, List<?> nue,
+            Function<Object, Object> keys) {
+        if (old.isEmpty() && nue.isEmpty()) {
+            return Collections.emptyList();
+        }
+        MyersDiff diff = new MyersDiff(old, nue, keys);
+        diff.compare(0, old.size(), 0, nue.size());
+        return diff.runs();
+    }
+
+    private void compare(int xoff, int xlim, int yoff, int ylim) {
+        while (xoff < xlim && yoff < ylim && xv[xoff] == yv[yoff]) {
+            xoff++;
+            yoff++;
+        }
+        while (xlim > xoff && ylim > yoff && xv[xlim - 1] == yv[ylim - 1]) {
+            xlim--;
+            ylim--;
+        }
+        if (xoff == xlim) {
+            for (int y = yoff; y < ylim; y++) {
+                inserted[y] = true;
+            }
+        } else if (yoff == ylim) {
+            for (int x = xoff; x < xlim; x++) {
+                deleted[x] = true;
+            }
+        } else {
+            split(xoff, xlim, yoff, ylim);
+            // Fields get clobbered by recursion
+            int xm = xmid;
+            int ym = ymid;
+            compare(xoff, xm, yoff, ym);
+            compare(xm, xlim, ym, ylim);
+        }
+    }
+
+    /**
+     * Find the midpoint of the shortest edit script for a sub-problem,
+     * searching forward from the start and backward from the end until the
+     * two meet; if that takes too long, settle for the furthest-reaching
+     * diagonal found so far, which yields a valid but possibly non-minimal
+     * script.
+     */
+    private void split(int xoff, int xlim, int yoff, int ylim) {
+        final int off = diagOffset;
+        final int dmin = xoff - ylim;
+        final int dmax = xlim - yoff;
+        final int fmid = xoff - yoff;
+        final int bmid = xlim - ylim;
+        int fmin = fmid;
+        int fmax = fmid;
+        int bmin = bmid;
+        int bmax = bmid;
+        final boolean odd = ((fmid - bmid) & 1) != 0;
+        fd[off + fmid] = xoff;
+        bd[off + bmid] = xlim;
+        for (int c = 1;; c++) {
+            if (fmin > dmin) {
+                fd[off + --fmin - 1] = -1;
+            } else {
+                ++fmin;
+            }
+            if (fmax < dmax) {
+                fd[off + ++fmax + 1] = -1;
+            } else {
+                --fmax;
+            }
+            for (int d = fmax; d >= fmin; d -= 2) {
+                int tlo = fd[off + d - 1];
+                int thi = fd[off + d + 1];
+                int x = tlo >= thi ? tlo + 1 : thi;
+                int y = x - d;
+                while (x < xlim && y < ylim && xv[x] == yv[y]) {
+                    x++;
+                    y++;
+                }
+                fd[off + d] = x;
+                if (odd && bmin <= d && d <= bmax && bd[off + d] <= x) {
+                    xmid = x;
+                    ymid = y;
+                    return;
+                }
+            }
+            if (bmin > dmin) {
+                bd[off + --bmin - 1] = Integer.MAX_VALUE;
+            } else {
+                ++bmin;
+            }
+            if (bmax < dmax) {
+                bd[off + ++bmax + 1] = Integer.MAX_VALUE;
+            } else {
+                --bmax;
+            }
+            for (int d = bmax; d >= bmin; d -= 2) {
+                int tlo = bd[off + d - 1];
+                int thi = bd[off + d + 1];
+                int x = tlo < thi ? tlo : thi - 1;
+                int y = x - d;
+                while (x > xoff && y > yoff && xv[x - 1] == yv[y - 1]) {
+                    x--;
+                    y--;
+                }
+                bd[off + d] = x;
+                if (!odd && fmin <= d && d <= fmax && x <= fd[off + d]) {
+                    xmid = x;
+                    ymid = y;
+                    return;
+                }
+            }
+            if (c >= costLimit) {
+                cutOff(xoff, xlim, yoff, ylim, fmin, fmax, bmin, bmax);
+                return;
+            }
+        }
+    }
+
+    private void cutOff(int xoff, int xlim, int yoff, int ylim,
+            int fmin, int fmax, int bmin, int bmax) {
+        final int off = diagOffset;
+        int fxybest = -1;
+        int fxbest = xoff;
+        for (int d = fmax; d >= fmin; d -= 2) {
+            int x = min(fd[off + d], xlim);
+            int y = x - d;
+            if (ylim < y) {
+                x = ylim + d;
+                y = ylim;
+            }
+            if (fxybest < x + y) {
+                fxybest = x + y;
+                fxbest = x;
+            }
+        }
+        int bxybest = Integer.MAX_VALUE;
+        int bxbest = xlim;
+        for (int d = bmax; d >= bmin; d -= 2) {
+            int x = max(xoff, bd[off + d]);
+            int y = x - d;
+            if (y < yoff) {
+                x = yoff + d;
+                y = yoff;
+            }
+            if (x + y < bxybest) {
+                bxybest = x + y;
+                bxbest = x;
+            }
+        }
+        if ((xlim + ylim) - bxybest < fxybest - (xoff + yoff)) {
+            xmid = fxbest;
+            ymid = fxybest - fxbest;
+        } else {
+            xmid = bxbest;
+            ymid = bxybest - bxbest;
+        }
+    }
+
+    private List<ListDifference> runs() {
+        int n = deleted.length;
+        int m = inserted.length;
+        int of = max(n, m);
+        List<ListDifference> result = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            if (i < n && j < m && !deleted[i] && !inserted[j]) {
+                i++;
+                j++;
+                continue;
+            }
+            int di = i;
+            while (di < n && deleted[di]) {
+                di++;
+            }
+            int dj = j;
+            while (dj < m && inserted[dj]) {
+                dj++;
+            }
+            if (di == i && dj == j) {
+                // Unreachable unless the bit sets are inconsistent
+                throw new IllegalStateException("Unmatched elements at "
+                        + i + " / " + j);
+            }
+            int paired = min(di - i, dj - j);
+            if (paired > 0) {
+                result.add(new ListDifference(old.subList(i, i + paired),
+                        nue.subList(j, j + paired), DifferenceKind.CHANGE, i, of));
+            }
+            if (di - i > paired) {
+                result.add(new ListDifference(old.subList(i + paired, di),
+                        Collections.emptyList(), DifferenceKind.DELETION,
+                        i + paired, of));
+            }
+            if (dj - j > paired) {
+                result.add(new ListDifference(Collections.emptyList(),
+                        nue.subList(j + paired, dj), DifferenceKind.INSERTION,
+                        j + paired, of));
+            }
+            i = di;
+            j = dj;
+        }
+        return result;
+    }
+}
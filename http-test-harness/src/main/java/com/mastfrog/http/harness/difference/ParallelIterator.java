@@ -599,7 +599,7 @@ final class ParallelIterator<T extends Object> {
                     int index = start + i;
                     Object oldObj = oldValues.get(i);
                     Object newObj = newValues.get(i);
-                    String ixString = Integer.toString(start + i);
+                    String ixString = DiffPath.index(start + i);
                     DifferencesBuilder<DifferencesBuilder<P>> child
                             = bldr.child(ixString);
                     into.differenceIfPossible(ixString, oldObj, newObj, child);
@@ -0,0 +1,294 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness.difference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ignore-paths and numeric tolerances from a DifferencingOptions, compiled
+ * into a trie of path segments which differencers step through as they
+ * descend, so that whether a subtree is ignored is known before it is
+ * visited.
+ * <p>
+ * Paths are either dot-delimited property paths (<code>items.*.createdAt</code>)
+ * or JSON pointers (<code>/items/0/id</code>). A segment of <code>*</code>
+ * matches any one segment, <code>**</code> matches any number of segments
+ * including none, and a segment containing <code>*</code> is matched as a
+ * glob against the segment name. Matching is done NFA-style - a State is the
+ * set of trie nodes the path so far could have reached.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class PathRules {
+
+    static final PathRules NONE = new PathRules(new Node(null));
+    private final State start;
+
+    private PathRules(Node root) {
+        this.start = root.isLeaf()
+                ? State.EMPTY
+                : closure(new Node[]{root}, 1);
+    }
+
+    static PathRules compile(List<String> ignored, Map<String, Double> tolerances) {
+        if (ignored.isEmpty() && tolerances.isEmpty()) {
+            return NONE;
+        }
+        Node root = new Node(null);
+        for (String path : ignored) {
+            root.add(segments(path), 0).ignore = true;
+        }
+        tolerances.forEach((path, tolerance) -> {
+            root.add(segments(path), 0).tolerance = tolerance;
+        });
+        return new PathRules(root);
+    }
+
+    /**
+     * The state at the root of the documents being compared.
+     *
+     * @return A state
+     */
+    State start() {
+        return start;
+    }
+
+    /**
+     * Split a path into segments, as a JSON pointer if it starts with
+     * <code>/</code>, and otherwise on <code>.</code>.
+     *
+     * @param path A path
+     * @return The segments
+     */
+    static List<String> segments(String path) {
+        List<String> result = new ArrayList<>();
+        if (path.isEmpty()) {
+            return result;
+        }
+        boolean pointer = path.charAt(0) == '/';
+        char delimiter = pointer ? '/' : '.';
+        int start = pointer ? 1 : 0;
+        for (int i = start; i <= path.length(); i++) {
+            if (i == path.length() || path.charAt(i) == delimiter) {
+                String seg = path.substring(start, i);
+                result.add(pointer ? seg.replace("~1", "/").replace("~0", "~") : seg);
+                start = i + 1;
+            }
+        }
+        return result;
+    }
+
+    private static State closure(Node[] nodes, int count) {
+        // Any node which has a ** child can also be in that child, having
+        // matched zero segments
+        for (int i = 0; i < count; i++) {
+            Node any = nodes[i].anyDepth;
+            if (any != null && !contains(nodes, count, any)) {
+                if (count == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, count * 2);
+                }
+                nodes[count++] = any;
+            }
+        }
+        return count == 0 ? State.EMPTY : new State(Arrays.copyOf(nodes, count));
+    }
+
+    private static boolean contains(Node[] nodes, int count, Node node) {
+        for (int i = 0; i < count; i++) {
+            if (nodes[i] == node) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The set of trie nodes reachable by some path, and whether that path is
+     * ignored or has a numeric tolerance.
+     */
+    static final class State {
+
+        static final State EMPTY = new State(new Node[0]);
+        private final Node[] nodes;
+        private final boolean ignored;
+        private final double tolerance;
+
+        private State(Node[] nodes) {
+            this.nodes = nodes;
+            boolean ign = false;
+            double tol = Double.NaN;
+            for (Node n : nodes) {
+                ign |= n.ignore;
+                if (!Double.isNaN(n.tolerance)) {
+                    tol = Double.isNaN(tol) ? n.tolerance : Math.max(tol, n.tolerance);
+                }
+            }
+            this.ignored = ign;
+            this.tolerance = tol;
+        }
+
+        /**
+         * Whether differences at or under this path are ignored.
+         *
+         * @return true if ignored
+         */
+        boolean isIgnored() {
+            return ignored;
+        }
+
+        /**
+         * The numeric tolerance for this path, or NaN if none.
+         *
+         * @return A tolerance
+         */
+        double tolerance() {
+            return tolerance;
+        }
+
+        /**
+         * Get the state for a child of the path this state represents.
+         *
+         * @param segment The child's name
+         * @return A state
+         */
+        State step(String segment) {
+            if (nodes.length == 0) {
+                return this;
+            }
+            Node[] next = new Node[nodes.length + 2];
+            int count = 0;
+            for (Node n : nodes) {
+                if (n.isAnyDepth && !contains(next, count, n)) {
+                    next = ensure(next, count);
+                    next[count++] = n;
+                }
+                Node lit = n.literals == null ? null : n.literals.get(segment);
+                if (lit != null && !contains(next, count, lit)) {
+                    next = ensure(next, count);
+                    next[count++] = lit;
+                }
+                if (n.globs != null) {
+                    for (Node g : n.globs) {
+                        if (globMatches(g.segment, segment) && !contains(next, count, g)) {
+                            next = ensure(next, count);
+                            next[count++] = g;
+                        }
+                    }
+                }
+            }
+            return closure(next, count);
+        }
+
+        private static Node[] ensure(Node[] nodes, int count) {
+            return count < nodes.length ? nodes : Arrays.copyOf(nodes, count * 2);
+        }
+    }
+
+    static boolean globMatches(String pattern, String text) {
+        // Iterative wildcard match with backtracking to the last star
+        int p = 0;
+        int t = 0;
+        int star = -1;
+        int mark = 0;
+        while (t < text.length()) {
+            if (p < pattern.length() && pattern.charAt(p) == text.charAt(t)
+                    && pattern.charAt(p) != '*') {
+                p++;
+                t++;
+            } else if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                mark = t;
+            } else if (star >= 0) {
+                p = star + 1;
+                t = ++mark;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') {
+            p++;
+        }
+        return p == pattern.length();
+    }
+
+    private static final class Node {
+
+        private final String segment;
+        private final boolean isAnyDepth;
+        private Map<String, Node> literals;
+        private List<Node> globs;
+        private Node anyDepth;
+        private boolean ignore;
+        private double tolerance = Double.NaN;
+
+        Node(String segment) {
+            this.segment = segment;
+            this.isAnyDepth = "**".equals(segment);
+        }
+
+        boolean isLeaf() {
+            return literals == null && globs == null && anyDepth == null
+                    && !ignore && Double.isNaN(tolerance);
+        }
+
+        Node add(List<String> segments, int index) {
+            if (index == segments.size()) {
+                return this;
+            }
+            String seg = segments.get(index);
+            Node child;
+            if ("**".equals(seg)) {
+                if (anyDepth == null) {
+                    anyDepth = new Node(seg);
+                }
+                child = anyDepth;
+            } else if (seg.indexOf('*') >= 0) {
+                if (globs == null) {
+                    globs = new ArrayList<>(2);
+                }
+                child = null;
+                for (Node g : globs) {
+                    if (g.segment.equals(seg)) {
+                        child = g;
+                        break;
+                    }
+                }
+                if (child == null) {
+                    globs.add(child = new Node(seg));
+                }
+            } else {
+                if (literals == null) {
+                    literals = new HashMap<>(4);
+                }
+                child = literals.computeIfAbsent(seg, Node::new);
+            }
+            return child.add(segments, index + 1);
+        }
+    }
+}
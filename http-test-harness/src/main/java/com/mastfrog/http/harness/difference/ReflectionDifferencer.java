@@ -24,8 +24,12 @@
 package com.mastfrog.http.harness.difference;
 
 import static com.mastfrog.http.harness.difference.DifferenceKind.INSERTION;
+import com.mastfrog.util.preconditions.Exceptions;
 import com.mastfrog.util.strings.Strings;
 import static java.lang.Math.abs;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import static java.lang.invoke.MethodType.methodType;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
@@ -90,8 +94,13 @@ final class ReflectionDifferencer implements Differencer<Object> {
     }
 
     public Map<String, Set<Difference<?>>> difference(Object a, Object b) {
+        return difference(a, b, DifferencingOptions.DEFAULT);
+    }
+
+    public Map<String, Set<Difference<?>>> difference(Object a, Object b,
+            DifferencingOptions options) {
         DifferencesBuilder<Map<String, Set<Difference<?>>>> db
-                = DifferencesBuilder.root();
+                = DifferencesBuilder.root(options);
         difference("", a, b, db);
         return db.build();
     }
@@ -99,10 +108,50 @@ final class ReflectionDifferencer implements Differencer<Object> {
     @Override
     public <P> void difference(String name, Object a, Object b,
             DifferencesBuilder<P> bldr) {
-        if (Objects.equals(a, b)) {
+        if (bldr.isIgnored() || Objects.equals(a, b) || bldr.isExhausted()) {
+            return;
+        }
+        if (bldr.isTooDeep()) {
+            // Not equals() is not the same as different - only report a
+            // change if a bounded structural comparison proves it; if that
+            // cannot tell, all we know is that the output is incomplete
+            StructuralHasher hasher = bldr.contentHasher();
+            if (hasher.provablyDifferent(a, b)) {
+                bldr.depthTruncated();
+                bldr.add(Difference.create(a, b));
+            } else if (!hasher.provablyEqual(a, b)) {
+                bldr.depthTruncated();
+            }
+            return;
+        }
+        if (!isTrackable(a) || !isTrackable(b)) {
+            differenceUntracked(name, a, b, bldr);
+            return;
+        }
+        StructuralHasher hasher = bldr.structuralHasher();
+        if (hasher != null && hasher.provablyEqual(a, b)) {
             return;
         }
+        VisitedPairs visited = bldr.visited();
+        switch (visited.enter(a, b)) {
+            case IN_PROGRESS:
+            case DONE:
+                return;
+            case CYCLE:
+                bldr.add(visited.cycle(a, b));
+                return;
+            default:
+                break;
+        }
+        try {
+            differenceUntracked(name, a, b, bldr);
+        } finally {
+            visited.exit(a, b);
+        }
+    }
 
+    private <P> void differenceUntracked(String name, Object a, Object b,
+            DifferencesBuilder<P> bldr) {
         for (Differencer<?> diff : differencers) {
             if (diff.differenceIfPossible(name, a, b, bldr)) {
                 return;
@@ -111,6 +160,15 @@ final class ReflectionDifferencer implements Differencer<Object> {
         bldr.add(Difference.create(a, b));
     }
 
+    /**
+     * Only objects which may have children need to be tracked for cycles and
+     * shared references.
+     */
+    private static boolean isTrackable(Object o) {
+        return o != null && !isPrimitiveLike(o)
+                && !(o instanceof Enum<?>) && !(o instanceof Class<?>);
+    }
+
     private static abstract class MatchingDifferencer<T> implements Differencer<T> {
 
         private final Class<? super T> type;
@@ -162,7 +220,10 @@ final class ReflectionDifferencer implements Differencer<Object> {
         @Override
         public <P> void difference(String name, Number a, Number b, DifferencesBuilder<P> bldr) {
             boolean isChange;
-            if (isFloatingPoint(a, b)) {
+            double tolerance = bldr.tolerance();
+            if (!Double.isNaN(tolerance)) {
+                isChange = abs(a.doubleValue() - b.doubleValue()) > tolerance;
+            } else if (isFloatingPoint(a, b)) {
                 double aval = a.doubleValue();
                 double bval = b.doubleValue();
                 isChange = abs(aval - bval) != 0D;
@@ -248,9 +309,31 @@ final class ReflectionDifferencer implements Differencer<Object> {
         @Override
         public <P> void difference(String name, Object a, Object b,
                 DifferencesBuilder<P> bldr) {
-            Map<String, Object> amap = toMap(a);
-            Map<String, Object> bmap = toMap(b);
-            ReflectionDifferencer.this.difference(name, amap, bmap, bldr);
+            if (a.getClass() != b.getClass()) {
+                // Different types may have different fields, so let the map
+                // differencer sort out which were added or removed
+                Map<String, Object> amap = toMap(a);
+                Map<String, Object> bmap = toMap(b);
+                ReflectionDifferencer.this.difference(name, amap, bmap, bldr);
+                return;
+            }
+            for (FieldAccessor field : FieldAccessor.forType(a.getClass())) {
+                if (bldr.isExhausted()) {
+                    break;
+                }
+                Object aval = field.get(a);
+                Object bval = field.get(b);
+                if (!Objects.equals(aval, bval)) {
+                    DifferencesBuilder<DifferencesBuilder<P>> ch
+                            = bldr.child(field.name);
+                    try {
+                        ReflectionDifferencer.this.difference(field.name, aval,
+                                bval, ch);
+                    } finally {
+                        ch.build();
+                    }
+                }
+            }
         }
 
         private boolean isCollectionOrArrayMap(Object o) {
@@ -266,37 +349,74 @@ final class ReflectionDifferencer implements Differencer<Object> {
         }
 
         Map<String, Object> toMap(Object o) {
-            Map<String, Object> m = new LinkedHashMap<>();
-            dissect(o, m::put);
+            FieldAccessor[] fields = FieldAccessor.forType(o.getClass());
+            Map<String, Object> m = new LinkedHashMap<>(fields.length * 2);
+            for (FieldAccessor field : fields) {
+                m.put(field.name, field.get(o));
+            }
             return m;
         }
+    }
 
-        private boolean dissect(Object o, BiConsumer<String, Object> c) {
-            if (!isPrimitiveLike(o)) {
-                dissect(o, o.getClass(), c);
-                return true;
-            } else {
-                c.accept("value", o);
+    /**
+     * Cached getter for one instance field; looking up declared fields and
+     * making them accessible on every comparison dominated the cost of
+     * differencing large lists of objects, so this is computed once per type.
+     */
+    static final class FieldAccessor {
+
+        private static final FieldAccessor[] NONE = new FieldAccessor[0];
+        private static final ClassValue<FieldAccessor[]> ACCESSORS
+                = new ClassValue<FieldAccessor[]>() {
+            @Override
+            protected FieldAccessor[] computeValue(Class<?> type) {
+                Map<String, FieldAccessor> result = new LinkedHashMap<>();
+                collect(type, result);
+                return result.isEmpty()
+                        ? NONE
+                        : result.values().toArray(NONE);
             }
-            return false;
+        };
+        final String name;
+        private final MethodHandle getter;
+
+        private FieldAccessor(String name, MethodHandle getter) {
+            this.name = name;
+            this.getter = getter;
         }
 
-        private void dissect(Object o, Class<?> type, BiConsumer<String, Object> c) {
-            if (type == Object.class || type == Class.class) {
-                return;
-            }
-            try {
-                Field[] flds = type.getDeclaredFields();
-                for (Field f : flds) {
-                    if ((f.getModifiers() & Modifier.STATIC) == 0) {
-                        f.setAccessible(true);
-                        Object value = f.get(o);
-                        c.accept(f.getName(), value);
+        static FieldAccessor[] forType(Class<?> type) {
+            return ACCESSORS.get(type);
+        }
+
+        private static void collect(Class<?> type, Map<String, FieldAccessor> into) {
+            // As with a map, a superclass field which a subclass field of the
+            // same name shadows keeps the subclass's position but gets the
+            // superclass's value
+            while (type != null && type != Object.class && type != Class.class) {
+                try {
+                    for (Field f : type.getDeclaredFields()) {
+                        if ((f.getModifiers() & Modifier.STATIC) == 0) {
+                            f.setAccessible(true);
+                            MethodHandle getter = MethodHandles.lookup()
+                                    .unreflectGetter(f)
+                                    .asType(methodType(Object.class, Object.class));
+                            into.put(f.getName(), new FieldAccessor(f.getName(), getter));
+                        }
                     }
+                } catch (Exception | Error e) {
+                    e.printStackTrace();
+                    return;
                 }
-                dissect(o, type.getSuperclass(), c);
-            } catch (Exception | Error e) {
-                e.printStackTrace();
+                type = type.getSuperclass();
+            }
+        }
+
+        Object get(Object o) {
+            try {
+                return (Object) getter.invokeExact(o);
+            } catch (Throwable ex) {
+                return Exceptions.chuck(ex);
             }
         }
     }
@@ -319,6 +439,9 @@ final class ReflectionDifferencer implements Differencer<Object> {
                 }
                 Set<Object> remainder = intersection(a.keySet(), b.keySet());
                 for (Object key : remainder) {
+                    if (bldr.isExhausted()) {
+                        break;
+                    }
                     String kname = key.toString();
                     DifferencesBuilder<DifferencesBuilder<P>> ch
                             = bldr.child(kname);
@@ -342,21 +465,59 @@ final class ReflectionDifferencer implements Differencer<Object> {
         @Override
         public <P> void difference(String name, Set<?> a, Set<?> b,
                 DifferencesBuilder<P> bldr) {
-            Set<Object> aset = setFrom(a);
-            Set<Object> bset = setFrom(b);
-            withKeyDivergence(aset, bset, (removed, added) -> {
-                for (Object o : bset) {
-                    bldr.add(name + ".added", INSERTION.newDifference(o));
-                }
-                for (Object o : aset) {
-                    bldr.add(name + ".removed", INSERTION.newDifference(o));
-                }
-            });
+            differenceUnordered(toList(a), toList(b), bldr);
+        }
+    }
+
+    /**
+     * Difference two collections as if they were multisets, pairing elements
+     * by structural hash, and pairing the leftovers by similarity so those can
+     * be differenced field by field.
+     */
+    private <P> void differenceUnordered(List<?> aa, List<?> bb,
+            DifferencesBuilder<P> bldr) {
+        StructuralHasher hasher = bldr.contentHasher();
+        Object[] aKeys = new Object[aa.size()];
+        for (int i = 0; i < aKeys.length; i++) {
+            aKeys[i] = hasher.key(aa.get(i));
+        }
+        Object[] bKeys = new Object[bb.size()];
+        for (int i = 0; i < bKeys.length; i++) {
+            bKeys[i] = hasher.key(bb.get(i));
+        }
+        UnorderedMatcher.Matches matches = UnorderedMatcher.match(aKeys, bKeys,
+                (i, j) -> hasher.similarity(aa.get(i), bb.get(j)));
+        for (int k = 0; k < matches.changedA.length && !bldr.isExhausted(); k++) {
+            String ixString = DiffPath.index(matches.changedA[k]);
+            DifferencesBuilder<DifferencesBuilder<P>> ch = bldr.child(ixString);
+            try {
+                difference(ixString, aa.get(matches.changedA[k]),
+                        bb.get(matches.changedB[k]), ch);
+            } finally {
+                ch.build();
+            }
+        }
+        for (int i : matches.deleted) {
+            bldr.add(DiffPath.index(i), DifferenceKind.DELETION.newDifference(aa.get(i)));
+        }
+        for (int i : matches.inserted) {
+            bldr.add(DiffPath.index(i), INSERTION.newDifference(bb.get(i)));
+        }
+        if (aa.size() != bb.size()) {
+            bldr.add("size", DifferenceKind.CHANGE.newDifference(aa.size(), bb.size()));
         }
     }
 
     private final class CollectionDifferencer extends MatchingDifferencer<Collection<?>> {
 
+        /**
+         * ParallelIterator is fast and its output for short lists is what
+         * existing tests expect, but it cannot handle duplicates and its
+         * output degrades on long lists, so past this combined size we use a
+         * Myers diff.
+         */
+        private static final int MAX_PARALLEL_ITERATOR_ELEMENTS = 512;
+
         CollectionDifferencer() {
             super(Collection.class);
         }
@@ -365,51 +526,50 @@ final class ReflectionDifferencer implements Differencer<Object> {
         @SuppressWarnings("unchecked")
         public <P> void difference(String name, Collection<?> a, Collection<?> b,
                 DifferencesBuilder<P> bldr) {
-
-            if (a instanceof List<?> && b instanceof List<?>) {
+            List<?> aa = a instanceof List<?> ? (List<?>) a : toList(a);
+            List<?> bb = b instanceof List<?> ? (List<?>) b : toList(b);
+            if (bldr.options().unorderedCollections()) {
+                differenceUnordered(aa, bb, bldr);
+                return;
+            }
+            List<? extends ListDifference> changes = null;
+            StructuralHasher hasher = bldr.structuralHasher();
+            if (hasher != null) {
+                // Elements which do not implement equals() but are
+                // structurally identical should not show up as changes
+                changes = MyersDiff.diff(aa, bb, hasher::key);
+            } else if (a instanceof List<?> && b instanceof List<?>
+                    && aa.size() + bb.size() <= MAX_PARALLEL_ITERATOR_ELEMENTS) {
                 try {
-
-                    // Sort by toString()?
-                    new ParallelIterator<>((List<Object>) a, (List<Object>) b)
-                            .getChanges()
-                            .forEach(diff -> {
-                                bldr.add(diff);
-                                diff.addChildDifferences(ReflectionDifferencer.this, bldr);
-                            });
-                    if (a.size() != b.size()) {
-                        bldr.add("size", DifferenceKind.CHANGE.newDifference(a.size(), b.size()));
-                    }
-                    return;
+                    changes = new ParallelIterator<>((List<Object>) aa, (List<Object>) bb)
+                            .getChanges();
                 } catch (IllegalStateException ex) {
                     // The algorithm is not duplicate-tolerant, and this may be
                     // thrown if the collection is not a set
                 }
             }
-            List<Object> aa = toList(a);
-            List<Object> bb = toList(b);
-
-            if (aa.size() != bb.size()) {
-                bldr.add("size", DifferenceKind.CHANGE.newDifference(aa.size(),
-                        bb.size()));
-            }
-            for (int i = 0; i < Math.min(aa.size(), bb.size()); i++) {
-                Object aaa = aa.get(i);
-                Object bbb = bb.get(i);
-                if (!Objects.equals(aaa, bbb)) {
-                    ReflectionDifferencer.this.difference(Integer.toString(i),
-                            aaa, bbb, bldr.child(Integer.toString(i)));
-                }
+            if (changes == null) {
+                changes = MyersDiff.diff(aa, bb);
             }
-            Set<Object> aset = setFrom(aa);
-            Set<Object> bset = setFrom(bb);
-            withKeyDivergence(aset, bset, (removed, added) -> {
-                for (Object o : bset) {
-                    bldr.add("added", DifferenceKind.INSERTION.newDifference(o));
+            for (ListDifference diff : changes) {
+                if (bldr.isExhausted()) {
+                    break;
                 }
-                for (Object o : aset) {
-                    bldr.add("removed", DifferenceKind.DELETION.newDifference(o));
+                if (diff.kind() == DifferenceKind.CHANGE) {
+                    // Only report the run if any of the pairs of elements in
+                    // it still differ once ignored paths and tolerances apply
+                    int before = bldr.differenceCount();
+                    diff.addChildDifferences(ReflectionDifferencer.this, bldr);
+                    if (bldr.differenceCount() > before) {
+                        bldr.add(diff);
+                    }
+                } else {
+                    bldr.add(diff);
                 }
-            });
+            }
+            if (aa.size() != bb.size()) {
+                bldr.add("size", DifferenceKind.CHANGE.newDifference(aa.size(), bb.size()));
+            }
         }
     }
 
@@ -6,7 +6,6 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.mastfrog.function.IntTriConsumer;
 import static com.mastfrog.util.strings.Escaper.NEWLINES_AND_OTHER_WHITESPACE;
-import com.mastfrog.util.strings.LevenshteinDistance;
 import com.mastfrog.util.strings.Strings;
 import static java.lang.Integer.max;
 import static java.lang.Math.min;
@@ -24,8 +23,25 @@ final class StringDifference implements Difference<CharSequence> {
     private static final char ELLIPSIS = '\u2026';
     private static final String ELLIPSIS_STRING = Character.toString(ELLIPSIS);
     private static final int STRING_LENGTH_LIMIT = 32;
+    /**
+     * Differing regions up to this length get an exact distance computed
+     * without a band.
+     */
+    private static final int EXACT_DISTANCE_LIMIT = 2_048;
+    /**
+     * Past the exact limit, the band (and so the greatest distance we will
+     * compute exactly) - anything further apart is reported as an upper bound
+     * from the common prefix and suffix alone.
+     */
+    private static final int DISTANCE_BAND = 256;
+    /**
+     * Past this length, even a banded computation is too slow to run while
+     * generating a report, so only the prefix/suffix bound is used.
+     */
+    private static final int BANDED_DISTANCE_LIMIT = 262_144;
     private final CharSequence old;
     private final CharSequence nue;
+    private volatile String stringValue;
     
     @JsonCreator
     StringDifference(@JsonProperty("oldValue") CharSequence old, 
@@ -54,11 +70,47 @@ final class StringDifference implements Difference<CharSequence> {
 
     @Override
     public String toString() {
-        StringBuilder sb = new StringBuilder("change(levenshtein=");
+        String result = stringValue;
+        if (result == null) {
+            stringValue = result = computeString();
+        }
+        return result;
+    }
+
+    private String computeString() {
+        StringBuilder sb = new StringBuilder("change(levenshtein");
 
         withDifferencesStartAndEnd((firstDifference, lastDifferenceOld, lastDifferenceNew) -> {
 
-            float score = LevenshteinDistance.score(old.toString(), nue.toString(), true);
+            // Stripping a common prefix and suffix does not change the
+            // edit distance, so only the differing middle is compared
+            int oldMid = lastDifferenceOld - firstDifference + 1;
+            int newMid = lastDifferenceNew - firstDifference + 1;
+            int upperBound = max(oldMid, newMid);
+            int distance = -1;
+            if (upperBound <= EXACT_DISTANCE_LIMIT) {
+                distance = EditDistance.bounded(
+                        old.subSequence(firstDifference, lastDifferenceOld + 1),
+                        nue.subSequence(firstDifference, lastDifferenceNew + 1),
+                        upperBound);
+            } else if (min(oldMid, newMid) <= BANDED_DISTANCE_LIMIT) {
+                int banded = EditDistance.bounded(
+                        old.subSequence(firstDifference, lastDifferenceOld + 1),
+                        nue.subSequence(firstDifference, lastDifferenceNew + 1),
+                        DISTANCE_BAND);
+                if (banded <= DISTANCE_BAND) {
+                    distance = banded;
+                }
+            }
+            int longest = max(old.length(), nue.length());
+            float score;
+            if (distance >= 0) {
+                score = longest == 0 ? 0 : distance / (float) longest;
+                sb.append('=');
+            } else {
+                score = upperBound / (float) longest;
+                sb.append("<=");
+            }
             sb.append(NumberFormat.getNumberInstance().format(score)).append(" '");
 
             CharSequence oldTailExemplar, newTailExemplar, oldExemplar, newExemplar;
@@ -134,15 +186,16 @@ final class StringDifference implements Difference<CharSequence> {
             }
             first++;
         }
-        for (int i = 1; i <= maxTraverse; i++) {
-            int o = old.length() - i;
-            int n = nue.length() - i;
-            char a = old.charAt(o);
-            char b = nue.charAt(n);
-            if (a != b) {
-                bc.accept(first, o, n);
+        // Do not let the common suffix overlap the common prefix, or a
+        // pure insertion or deletion ("ab" -> "abab") has no differing
+        // region at all
+        int suffix = 0;
+        for (int i = 1; i <= maxTraverse - first; i++) {
+            if (old.charAt(old.length() - i) != nue.charAt(nue.length() - i)) {
                 break;
             }
+            suffix++;
         }
+        bc.accept(first, old.length() - 1 - suffix, nue.length() - 1 - suffix);
     }
 }
@@ -0,0 +1,307 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness.difference;
+
+import com.mastfrog.http.harness.difference.ReflectionDifferencer.FieldAccessor;
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Computes 64-bit structural hashes of object graphs - Merkle-style, each
+ * object's hash derived from the hashes of its field values, elements or
+ * entries - memoized per object for the length of a differencing run, so
+ * that subtrees with equal hashes can be skipped without being walked, even
+ * when their types do not implement <code>equals()</code>.
+ * <p>
+ * Hashes follow the equality rules of ReflectionDifferencer: numbers hash by
+ * value regardless of type, character sequences by content, and objects by
+ * their field names and values but not their type (objects of different types
+ * with the same fields produce no differences). The hash of anything which
+ * refers back to an object outside its own subtree depends on where hashing
+ * started, so it is treated as unknown, as is anything nested more deeply than
+ * the maximum depth.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class StructuralHasher {
+
+    private static final Object UNKNOWN = new Object();
+    private static final long NULL = 0x6A09E667F3BCC908L;
+    private static final long TRUE = 0xBB67AE8584CAA73BL;
+    private static final long FALSE = 0x3C6EF372FE94F82BL;
+    private static final long NUMBER = 0xA54FF53A5F1D36F1L;
+    private static final long CHARS = 0x510E527FADE682D1L;
+    private static final long CHARACTER = 0x9B05688C2B3E6C1FL;
+    private static final long CONSTANT = 0x1F83D9ABFB41BD6BL;
+    private static final long OBJECT = 0x5BE0CD19137E2179L;
+    private static final long MAP = 0xCBBB9D5DC1059ED8L;
+    private static final long SET = 0x629A292A367CD507L;
+    private static final long LIST = 0x9159015A3070DD17L;
+    private static final long ARRAY = 0x152FECD8F70E5939L;
+    private static final long BACK_REFERENCE = 0x67332667FFC00B31L;
+    private final Map<Object, Object> memo = new IdentityHashMap<>();
+    private final Map<Object, Integer> onStack = new IdentityHashMap<>();
+    private final int maxDepth;
+    // The shallowest stack depth referred back to from within the subtree
+    // currently being hashed
+    private int backReference = Integer.MAX_VALUE;
+    private boolean incomplete;
+
+    StructuralHasher(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Determine if two objects are known to be structurally equal.
+     *
+     * @param a An object
+     * @param b Another object
+     * @return true if both hashes are known and they match
+     */
+    boolean provablyEqual(Object a, Object b) {
+        Long ha = hash(a);
+        return ha != null && ha.equals(hash(b));
+    }
+
+    /**
+     * Determine if two objects are known to be structurally different.
+     *
+     * @param a An object
+     * @param b Another object
+     * @return true if both hashes are known and they do not match
+     */
+    boolean provablyDifferent(Object a, Object b) {
+        Long ha = hash(a);
+        if (ha == null) {
+            return false;
+        }
+        Long hb = hash(b);
+        return hb != null && !ha.equals(hb);
+    }
+
+    /**
+     * Get a key for an object for use in a hash-based collection, which is
+     * equal for structurally equal objects - the object's hash if known, or
+     * the object itself if not.
+     *
+     * @param o An object
+     * @return A key
+     */
+    Object key(Object o) {
+        Long result = hash(o);
+        return result == null ? o : result;
+    }
+
+    /**
+     * Score how similar two objects are, as the fraction of their fields (or
+     * map entries) with structurally equal values; anything which is not an
+     * object with fields or a map scores zero.
+     *
+     * @param a An object
+     * @param b Another object
+     * @return A score from 0 to 1
+     */
+    double similarity(Object a, Object b) {
+        Map<Object, Object> ma = members(a);
+        Map<Object, Object> mb = ma == null ? null : members(b);
+        if (mb == null || (ma.isEmpty() && mb.isEmpty())) {
+            return 0;
+        }
+        int same = 0;
+        for (Map.Entry<Object, Object> e : ma.entrySet()) {
+            if (mb.containsKey(e.getKey())
+                    && Objects.equals(e.getValue(), mb.get(e.getKey()))) {
+                same++;
+            }
+        }
+        return same / (double) Math.max(ma.size(), mb.size());
+    }
+
+    private Map<Object, Object> members(Object o) {
+        if (o instanceof Map<?, ?>) {
+            Map<Object, Object> result = new HashMap<>();
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) o).entrySet()) {
+                result.put(key(e.getKey()), key(e.getValue()));
+            }
+            return result;
+        } else if (o == null || o instanceof Number || o instanceof CharSequence
+                || o instanceof Boolean || o instanceof Character
+                || o instanceof Enum<?> || o instanceof Class<?>
+                || o instanceof Collection<?> || o.getClass().isArray()) {
+            return null;
+        }
+        Map<Object, Object> result = new HashMap<>();
+        for (FieldAccessor field : FieldAccessor.forType(o.getClass())) {
+            result.put(field.name, key(field.get(o)));
+        }
+        return result;
+    }
+
+    /**
+     * Get the structural hash of an object, or null if it cannot be
+     * determined independently of where in the graph hashing started.
+     *
+     * @param o An object
+     * @return A hash or null
+     */
+    Long hash(Object o) {
+        backReference = Integer.MAX_VALUE;
+        incomplete = false;
+        long result = compute(o, 0);
+        return incomplete || backReference < 0 ? null : result;
+    }
+
+    private long compute(Object o, int depth) {
+        if (o == null) {
+            return NULL;
+        } else if (o instanceof Boolean) {
+            return ((Boolean) o) ? TRUE : FALSE;
+        } else if (o instanceof Number) {
+            return number((Number) o);
+        } else if (o instanceof CharSequence) {
+            return chars((CharSequence) o);
+        } else if (o instanceof Character) {
+            return mix(CHARACTER + (Character) o);
+        } else if (o instanceof Enum<?> || o instanceof Class<?>) {
+            String name = o instanceof Enum<?>
+                    ? ((Enum<?>) o).getDeclaringClass().getName() + "." + ((Enum<?>) o).name()
+                    : ((Class<?>) o).getName();
+            return mix(CONSTANT ^ chars(name));
+        }
+        Integer at = onStack.get(o);
+        if (at != null) {
+            backReference = Math.min(backReference, at);
+            return mix(BACK_REFERENCE + depth - at);
+        }
+        Object memoized = memo.get(o);
+        if (memoized == UNKNOWN) {
+            // Tainted by a back-reference above the point it was reached from
+            backReference = -1;
+            return 0;
+        } else if (memoized != null) {
+            return (Long) memoized;
+        } else if (depth > maxDepth) {
+            incomplete = true;
+            return 0;
+        }
+        int outerBackReference = backReference;
+        boolean outerIncomplete = incomplete;
+        backReference = Integer.MAX_VALUE;
+        incomplete = false;
+        onStack.put(o, depth);
+        long result;
+        try {
+            result = children(o, depth + 1);
+        } finally {
+            onStack.remove(o);
+        }
+        if (backReference < depth) {
+            memo.put(o, UNKNOWN);
+        } else if (!incomplete) {
+            // Incomplete results depend on the depth hashing started at, so
+            // they are recomputed if reached again from further down
+            memo.put(o, result);
+        }
+        backReference = Math.min(outerBackReference,
+                backReference < depth ? backReference : Integer.MAX_VALUE);
+        incomplete |= outerIncomplete;
+        return result;
+    }
+
+    private long children(Object o, int depth) {
+        if (o instanceof Map<?, ?>) {
+            // Order-insensitive, since map differencing compares by key
+            long result = MAP;
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) o).entrySet()) {
+                result += mix(compute(e.getKey(), depth) * 31
+                        + compute(e.getValue(), depth));
+            }
+            return mix(result);
+        } else if (o instanceof Set<?>) {
+            long result = SET;
+            for (Object item : (Set<?>) o) {
+                result += mix(compute(item, depth));
+            }
+            return mix(result);
+        } else if (o instanceof Collection<?>) {
+            long result = LIST;
+            for (Object item : (Collection<?>) o) {
+                result = mix(result * 31 + compute(item, depth));
+            }
+            return result;
+        } else if (o.getClass().isArray()) {
+            long result = ARRAY;
+            for (int i = 0, len = Array.getLength(o); i < len; i++) {
+                result = mix(result * 31 + compute(Array.get(o, i), depth));
+            }
+            return result;
+        }
+        // Summed rather than chained, like a map, so objects of different
+        // types with the same fields in a different order hash the same
+        long result = OBJECT;
+        for (FieldAccessor field : FieldAccessor.forType(o.getClass())) {
+            result += mix(chars(field.name) * 31 + compute(field.get(o), depth));
+        }
+        return mix(result);
+    }
+
+    private static long number(Number n) {
+        // Mirror NumberDifferencer: integral types compare as longs, and
+        // floating point values compare as doubles, including against
+        // integral ones
+        long bits;
+        if (n instanceof Double || n instanceof Float) {
+            double d = n.doubleValue();
+            if (d == (long) d) {
+                bits = (long) d;
+            } else {
+                bits = Double.doubleToLongBits(d);
+            }
+        } else {
+            bits = n.longValue();
+        }
+        return mix(NUMBER ^ bits);
+    }
+
+    static long chars(CharSequence seq) {
+        long result = CHARS;
+        for (int i = 0, len = seq.length(); i < len; i++) {
+            result = (result ^ seq.charAt(i)) * 0x100000001B3L;
+        }
+        return mix(result + seq.length());
+    }
+
+    static long mix(long z) {
+        // SplitMix64 finalizer
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
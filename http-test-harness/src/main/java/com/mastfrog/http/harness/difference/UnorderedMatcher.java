@@ -0,0 +1,182 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness.difference;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pairs up the elements of two collections without regard to order, for
+ * comparing JSON arrays and lists which are really sets (or multisets) in
+ * nondeterministic order.
+ * <p>
+ * Elements are first paired by content key in a single pass over each side
+ * (duplicates pair off one for one). The leftovers are then paired greedily,
+ * most similar first, so that an element which changed slightly can be
+ * differenced field by field rather than reported as one deletion and one
+ * insertion; that step is quadratic, so past a fixed number of comparisons the
+ * leftovers are simply paired in their original order.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class UnorderedMatcher {
+
+    static final int MAX_SIMILARITY_COMPARISONS = 4_096;
+    private static final int[] EMPTY = new int[0];
+
+    private UnorderedMatcher() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Match two arrays of keys.
+     *
+     * @param aKeys Content keys for the original elements
+     * @param bKeys Content keys for the new elements
+     * @param similarity Scores the similarity of an unmatched original and
+     * new element by index, from 0 (nothing in common) to 1
+     * @return The result
+     */
+    static Matches match(Object[] aKeys, Object[] bKeys, Similarity similarity) {
+        Map<Object, ArrayDeque<Integer>> byKey = new HashMap<>(aKeys.length * 2);
+        for (int i = 0; i < aKeys.length; i++) {
+            byKey.computeIfAbsent(aKeys[i], k -> new ArrayDeque<>(2)).add(i);
+        }
+        boolean[] matchedA = new boolean[aKeys.length];
+        int[] leftB = new int[bKeys.length];
+        int leftBCount = 0;
+        for (int j = 0; j < bKeys.length; j++) {
+            ArrayDeque<Integer> q = byKey.get(bKeys[j]);
+            Integer i = q == null ? null : q.poll();
+            if (i == null) {
+                leftB[leftBCount++] = j;
+            } else {
+                matchedA[i] = true;
+            }
+        }
+        int[] leftA = new int[aKeys.length - (bKeys.length - leftBCount)];
+        int leftACount = 0;
+        for (int i = 0; i < aKeys.length; i++) {
+            if (!matchedA[i]) {
+                leftA[leftACount++] = i;
+            }
+        }
+        leftB = Arrays.copyOf(leftB, leftBCount);
+        if (leftA.length == 0 || leftB.length == 0) {
+            return new Matches(EMPTY, EMPTY, leftA, leftB);
+        }
+        if ((long) leftA.length * leftB.length <= MAX_SIMILARITY_COMPARISONS) {
+            return greedy(leftA, leftB, similarity);
+        }
+        int pairs = Math.min(leftA.length, leftB.length);
+        return new Matches(Arrays.copyOf(leftA, pairs), Arrays.copyOf(leftB, pairs),
+                Arrays.copyOfRange(leftA, pairs, leftA.length),
+                Arrays.copyOfRange(leftB, pairs, leftB.length));
+    }
+
+    private static Matches greedy(int[] leftA, int[] leftB, Similarity similarity) {
+        int n = leftA.length;
+        int m = leftB.length;
+        double[] scores = new double[n * m];
+        Integer[] order = new Integer[n * m];
+        int candidates = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < m; j++) {
+                double score = similarity.similarity(leftA[i], leftB[j]);
+                if (score > 0) {
+                    scores[i * m + j] = score;
+                    order[candidates++] = i * m + j;
+                }
+            }
+        }
+        // Highest score first; ties go to the earliest original, then new,
+        // element so the result is deterministic
+        Arrays.sort(order, 0, candidates, (x, y) -> {
+            int result = Double.compare(scores[y], scores[x]);
+            return result != 0 ? result : Integer.compare(x, y);
+        });
+        boolean[] usedA = new boolean[n];
+        boolean[] usedB = new boolean[m];
+        int[] pairedA = new int[Math.min(n, m)];
+        int[] pairedB = new int[pairedA.length];
+        int pairs = 0;
+        for (int k = 0; k < candidates && pairs < pairedA.length; k++) {
+            int i = order[k] / m;
+            int j = order[k] % m;
+            if (!usedA[i] && !usedB[j]) {
+                usedA[i] = true;
+                usedB[j] = true;
+                pairedA[pairs] = leftA[i];
+                pairedB[pairs++] = leftB[j];
+            }
+        }
+        return new Matches(Arrays.copyOf(pairedA, pairs), Arrays.copyOf(pairedB, pairs),
+                unused(leftA, usedA), unused(leftB, usedB));
+    }
+
+    private static int[] unused(int[] indices, boolean[] used) {
+        int[] result = new int[indices.length];
+        int count = 0;
+        for (int i = 0; i < indices.length; i++) {
+            if (!used[i]) {
+                result[count++] = indices[i];
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    interface Similarity {
+
+        double similarity(int aIndex, int bIndex);
+    }
+
+    /**
+     * Result of matching: parallel arrays of indices of original and new
+     * elements that were paired up as similar but not equal, and indices of
+     * original elements that were deleted and new ones that were inserted;
+     * elements with equal keys are omitted.
+     */
+    static final class Matches {
+
+        final int[] changedA;
+        final int[] changedB;
+        final int[] deleted;
+        final int[] inserted;
+
+        Matches(int[] changedA, int[] changedB, int[] deleted, int[] inserted) {
+            this.changedA = changedA;
+            this.changedB = changedB;
+            this.deleted = deleted;
+            this.inserted = inserted;
+        }
+
+        boolean isEmpty() {
+            return changedA.length == 0 && deleted.length == 0
+                    && inserted.length == 0;
+        }
+    }
+}
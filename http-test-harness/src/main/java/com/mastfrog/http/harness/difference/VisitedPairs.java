@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness.difference;
+
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Identity-based record of which pairs of objects a differencing run has
+ * compared, so that object graphs with back-references do not recurse until
+ * the stack overflows, and subgraphs shared between several paths are only
+ * compared once.
+ * <p>
+ * Pairs currently being compared are tracked per side, so a back-reference
+ * on one side that the other side does not mirror can be reported as a
+ * {@link DifferenceKind#CYCLE}; the number of those is bounded by the maximum
+ * depth. Completed pairs are remembered only up to a fixed limit, after which
+ * shared subgraphs are simply compared again.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class VisitedPairs {
+
+    static final int MAX_COMPLETED_PAIRS = 65_536;
+    private final Map<Object, Object> inProgressA = new IdentityHashMap<>();
+    private final Map<Object, Object> inProgressB = new IdentityHashMap<>();
+    private final Set<Pair> completed = new HashSet<>();
+
+    /**
+     * Begin comparing a pair, if it should be compared; if this returns
+     * {@link Visit#NEW}, the caller must call <code>exit()</code> with the
+     * same pair when done.
+     *
+     * @param a One object
+     * @param b Another object
+     * @return What to do with the pair
+     */
+    Visit enter(Object a, Object b) {
+        Object partnerOfA = inProgressA.get(a);
+        Object partnerOfB = inProgressB.get(b);
+        if (partnerOfA == b) {
+            // Both sides loop back to the same pair - the comparison already
+            // under way will find any differences
+            return Visit.IN_PROGRESS;
+        } else if (partnerOfA != null || partnerOfB != null) {
+            return Visit.CYCLE;
+        } else if (!completed.isEmpty() && completed.contains(new Pair(a, b))) {
+            return Visit.DONE;
+        }
+        inProgressA.put(a, b);
+        inProgressB.put(b, a);
+        return Visit.NEW;
+    }
+
+    void exit(Object a, Object b) {
+        inProgressA.remove(a);
+        inProgressB.remove(b);
+        if (completed.size() < MAX_COMPLETED_PAIRS) {
+            completed.add(new Pair(a, b));
+        }
+    }
+
+    /**
+     * Create a difference describing a pair for which <code>enter()</code>
+     * returned {@link Visit#CYCLE}; must be called before anything else
+     * changes the set of pairs in progress.
+     *
+     * @param a One object
+     * @param b Another object
+     * @return A difference
+     */
+    Difference<String> cycle(Object a, Object b) {
+        return DifferenceKind.CYCLE.newDifference(
+                describe(a, inProgressA.containsKey(a)),
+                describe(b, inProgressB.containsKey(b)));
+    }
+
+    private static String describe(Object o, boolean backReference) {
+        // Deliberately not toString() - on a cyclic graph it may not terminate
+        String result = o.getClass().getSimpleName() + "@"
+                + Integer.toHexString(System.identityHashCode(o));
+        return backReference ? result + " (back-reference)" : result;
+    }
+
+    enum Visit {
+        NEW,
+        IN_PROGRESS,
+        DONE,
+        CYCLE
+    }
+
+    private static final class Pair {
+
+        private final Object a;
+        private final Object b;
+
+        Pair(Object a, Object b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(a) * 31 + System.identityHashCode(b);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Pair)) {
+                return false;
+            }
+            Pair other = (Pair) o;
+            return a == other.a && b == other.b;
+        }
+    }
+}
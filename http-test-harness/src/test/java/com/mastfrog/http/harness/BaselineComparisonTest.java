@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import com.mastfrog.http.harness.BaselineComparison.EndpointComparison;
+import com.mastfrog.http.harness.BaselineComparison.Verdict;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+final class BaselineComparisonTest {
+
+    @Test
+    public void testMannWhitney() {
+        long[] low = new long[10];
+        long[] high = new long[10];
+        for (int i = 0; i < 10; i++) {
+            low[i] = i + 1;
+            high[i] = i + 11;
+        }
+        MannWhitney mw = MannWhitney.test(low, high);
+        assertEquals(100D, mw.u());
+        assertEquals(1D, mw.probabilityOfGreater());
+        // z = 49.5 / sqrt(175) = 3.742
+        assertEquals(9.1e-5, mw.pGreater(), 0.2e-5);
+        assertTrue(mw.pLess() > 0.99, () -> Double.toString(mw.pLess()));
+
+        MannWhitney same = MannWhitney.test(low, low);
+        assertEquals(0.5, same.probabilityOfGreater());
+        assertTrue(same.pGreater() > 0.4 && same.pLess() > 0.4);
+
+        MannWhitney allTied = MannWhitney.test(new long[]{5, 5, 5}, new long[]{5, 5});
+        assertEquals(1D, allTied.pGreater());
+        assertEquals(1D, allTied.pLess());
+
+        assertEquals(0.5, MannWhitney.upperTail(0), 1e-7);
+        assertEquals(0.025, MannWhitney.upperTail(1.959964), 1e-6);
+    }
+
+    @Test
+    public void testVerdicts() {
+        SplittableRandom rnd = new SplittableRandom(5);
+        Map<String, List<Long>> baseline = new LinkedHashMap<>();
+        Map<String, List<Long>> current = new LinkedHashMap<>();
+        samples(rnd, baseline, "GET /same", 200, 10_000_000, 1.0);
+        samples(rnd, current, "GET /same", 200, 10_000_000, 1.0);
+        samples(rnd, baseline, "GET /slower", 200, 10_000_000, 1.0);
+        samples(rnd, current, "GET /slower", 200, 13_000_000, 1.0);
+        samples(rnd, baseline, "GET /faster", 200, 10_000_000, 1.0);
+        samples(rnd, current, "GET /faster", 200, 7_000_000, 1.0);
+        // Significant with this many runs, but below the minimum change
+        samples(rnd, baseline, "GET /trivial", 5_000, 10_000_000, 0.2);
+        samples(rnd, current, "GET /trivial", 5_000, 10_300_000, 0.2);
+        samples(rnd, baseline, "GET /rare", 3, 10_000_000, 1.0);
+        samples(rnd, current, "GET /rare", 3, 50_000_000, 1.0);
+        samples(rnd, current, "GET /new", 20, 10_000_000, 1.0);
+
+        BaselineComparison cmp = BaselineComparison.compare(report(baseline),
+                report(current), RegressionCriteria.DEFAULT);
+        Map<String, EndpointComparison> byEndpoint = new LinkedHashMap<>();
+        cmp.forEach(c -> byEndpoint.put(c.endpoint(), c));
+        assertEquals(6, byEndpoint.size(), cmp::toString);
+        assertEquals(Verdict.UNCHANGED, byEndpoint.get("GET /same").verdict(), cmp::toString);
+        assertEquals(Verdict.REGRESSED, byEndpoint.get("GET /slower").verdict(), cmp::toString);
+        assertEquals(Verdict.IMPROVED, byEndpoint.get("GET /faster").verdict(), cmp::toString);
+        assertEquals(Verdict.UNCHANGED, byEndpoint.get("GET /trivial").verdict(), cmp::toString);
+        assertTrue(byEndpoint.get("GET /trivial").pValue() < 0.01, cmp::toString);
+        assertEquals(Verdict.INSUFFICIENT_DATA, byEndpoint.get("GET /rare").verdict(), cmp::toString);
+        assertEquals(Verdict.INSUFFICIENT_DATA, byEndpoint.get("GET /new").verdict(), cmp::toString);
+        assertEquals(0, byEndpoint.get("GET /new").baselineRuns());
+
+        EndpointComparison slower = byEndpoint.get("GET /slower");
+        assertEquals(0.3, slower.change(), 0.05, slower::toString);
+        assertTrue(slower.probabilityOfSlower() > 0.5, slower::toString);
+        assertEquals(1, cmp.regressions().size());
+        AssertionError err = assertThrows(AssertionError.class, cmp::assertNoRegressions);
+        assertTrue(err.getMessage().contains("GET /slower"), err::getMessage);
+
+        BaselineComparison lenient = BaselineComparison.compare(report(baseline),
+                report(current), RegressionCriteria.DEFAULT.withMinimumChange(0.5));
+        lenient.assertNoRegressions();
+        assertEquals(0, lenient.toMap().get("regressions"));
+    }
+
+    @Test
+    public void testRunsWithoutEndpointsAreGroupedByTestMethod() {
+        Map<String, Object> run = new LinkedHashMap<>();
+        run.put("duration", "PT0.01S");
+        List<Object> runs = new ArrayList<>();
+        runs.add(run);
+        Map<String, Object> test = new LinkedHashMap<>();
+        test.put("runs", runs);
+        Map<String, Object> results = new LinkedHashMap<>();
+        results.put("testSomething", test);
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("results", results);
+        BaselineComparison cmp = BaselineComparison.compare(report, report,
+                RegressionCriteria.DEFAULT.withMinimumRuns(1));
+        assertEquals("testSomething", cmp.comparisons().get(0).endpoint());
+        assertEquals(Duration.ofMillis(10), cmp.comparisons().get(0).currentMedian());
+        assertThrows(IllegalArgumentException.class, ()
+                -> BaselineComparison.compare(results, report, RegressionCriteria.DEFAULT));
+    }
+
+    private static void samples(SplittableRandom rnd, Map<String, List<Long>> into,
+            String endpoint, int count, long median, double spread) {
+        List<Long> list = into.computeIfAbsent(endpoint, e -> new ArrayList<>());
+        for (int i = 0; i < count; i++) {
+            // Log-normal-ish latencies with a long tail
+            double factor = Math.exp(rnd.nextDouble(-0.1, 0.1) * spread)
+                    * (rnd.nextInt(20) == 0 ? 3 : 1);
+            list.add((long) (median * factor));
+        }
+    }
+
+    private static Map<String, Object> report(Map<String, List<Long>> durations) {
+        Map<String, Object> results = new LinkedHashMap<>();
+        durations.forEach((endpoint, list) -> {
+            List<Object> runs = new ArrayList<>();
+            for (Long nanos : list) {
+                Map<String, Object> run = new LinkedHashMap<>();
+                run.put("duration", Duration.ofNanos(nanos).toString());
+                run.put("endpoint", endpoint);
+                runs.add(run);
+            }
+            Map<String, Object> test = new LinkedHashMap<>();
+            test.put("runs", runs);
+            results.put("test" + endpoint.replace(' ', '_'), test);
+        });
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("results", results);
+        return report;
+    }
+}
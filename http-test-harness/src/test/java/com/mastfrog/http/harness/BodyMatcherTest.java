@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.regex.Pattern;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+final class BodyMatcherTest {
+
+    private static final String[] PATTERNS = {"", "a", "ab+c", "^ab", "c$",
+        "^$", "a.c", "[a-c]{2,3}d", "[^abc]", "(?:ab|ba)+c", "\\d+\\.\\d*",
+        "x?y*z", "(a|b)*?c", "\\w\\s\\W", "é+", "^\\s*$", "b{3}", "a|$",
+        "(?<name>ab)c", "[\\]x-]", "\\u00e9c", "a.*z$", "^(ab|cd){2,}$"};
+    private static final String[] INPUTS = {"", "a", "abc", "abbbc", "ba",
+        "bac\n", "abab c", "aéc", "12.5", "xyz", "ccd abd", "ab\r\n",
+        "a\nc", "ééé", " \t ", "cdabcd", "bbbb", "x]y", "x-", "a b!",
+        "abababc", "a ", " "};
+
+    @Test
+    public void testPatternsMatchLikeFind() {
+        Random rnd = new Random(37);
+        for (String regex : PATTERNS) {
+            Pattern p = Pattern.compile(regex);
+            assertNotNull(StreamingPattern.compile(p), regex);
+            for (String input : INPUTS) {
+                boolean expect = p.matcher(input).find();
+                for (int i = 0; i < 4; i++) {
+                    BodyMatcher m = new BodyMatcher();
+                    BodyMatcher.Target t = m.matches(p);
+                    feedInPieces(m, input, rnd);
+                    m.finish();
+                    assertTrue(t.isDecided());
+                    assertEquals(expect, t.isMatched(), () -> "/" + regex
+                            + "/ on '" + input.replace("\n", "\\n") + "'");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testUnsupportedSyntaxIsRejected() {
+        for (String regex : new String[]{"(a)\\1", "a(?=b)", "a++", "\\bword",
+            "\\p{L}", "[a[b]]", "[a-z&&[^e]]", "\\Qa.b\\E", "(?i)abc", "$\\n"}) {
+            assertNull(StreamingPattern.compile(Pattern.compile(regex)), regex);
+        }
+        assertNull(StreamingPattern.compile(Pattern.compile("abc",
+                Pattern.CASE_INSENSITIVE)));
+    }
+
+    @Test
+    public void testLiterals() {
+        Random rnd = new Random(41);
+        String body = "The quick brown fox jumps over the lazy dög, "
+                + "she sells sea shells by the sea shore";
+        for (int i = 0; i < 20; i++) {
+            BodyMatcher m = new BodyMatcher();
+            BodyMatcher.Target[] contains = {m.contains("she"), m.contains("he"),
+                m.contains("hers"), m.contains("sea sh"), m.contains("dög"),
+                m.contains(""), m.contains("shore!")};
+            BodyMatcher.Target[] starts = {m.startsWith("The q"),
+                m.startsWith("he"), m.startsWith(body + "x"), m.startsWith("")};
+            BodyMatcher.Target[] ends = {m.endsWith("shore"), m.endsWith(""),
+                m.endsWith("sea"), m.endsWith("x" + body)};
+            feedInPieces(m, body, rnd);
+            m.finish();
+            boolean[] expected = {true, true, false, true, true, true, false};
+            for (int j = 0; j < contains.length; j++) {
+                assertEquals(expected[j], contains[j].isMatched(), contains[j]::toString);
+            }
+            assertTrue(starts[0].isMatched());
+            assertFalse(starts[1].isMatched());
+            assertFalse(starts[2].isMatched());
+            assertTrue(starts[3].isMatched());
+            assertTrue(ends[0].isMatched());
+            assertTrue(ends[1].isMatched());
+            assertFalse(ends[2].isMatched());
+            assertFalse(ends[3].isMatched());
+        }
+    }
+
+    @Test
+    public void testDescriptionsMatchStringPredicates() {
+        BodyMatcher m = new BodyMatcher();
+        assertEquals("contains(foo)", m.contains("foo").toString());
+        assertEquals("starts_with(foo)", m.startsWith("foo").toString());
+        assertEquals("ends_with(foo)", m.endsWith("foo").toString());
+        assertEquals("Matches pattern fo+", m.matches(Pattern.compile("fo+")).toString());
+    }
+
+    private static void feedInPieces(BodyMatcher m, String input, Random rnd) {
+        // Split at arbitrary byte offsets, including inside multi-byte
+        // sequences
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        int pos = 0;
+        while (pos < bytes.length) {
+            int len = Math.min(bytes.length - pos, 1 + rnd.nextInt(4));
+            byte[] chunk = new byte[len + 2];
+            System.arraycopy(bytes, pos, chunk, 1, len);
+            m.feed(chunk, 1, len);
+            pos += len;
+        }
+    }
+}
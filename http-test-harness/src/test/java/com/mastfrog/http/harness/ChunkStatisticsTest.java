@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import java.time.Duration;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+final class ChunkStatisticsTest {
+
+    private static final long MS = 1_000_000;
+
+    @Test
+    public void testStatistics() {
+        ChunkTimeline timeline = new ChunkTimeline();
+        assertSame(ChunkStatistics.EMPTY, timeline.snapshot());
+        assertEquals(Duration.ZERO, timeline.snapshot().maxGap());
+        long origin = 5_000 * MS;
+        timeline.start(origin);
+        // Gaps of 10, 10, 10, ... 10, then one of 500
+        long at = origin;
+        for (int i = 0; i < 99; i++) {
+            at += 10 * MS;
+            timeline.record(at, 100);
+        }
+        at += 500 * MS;
+        timeline.record(at, 1_000);
+        ChunkStatistics stats = timeline.snapshot();
+        assertEquals(100, stats.chunkCount());
+        assertEquals(99 * 100 + 1_000, stats.totalBytes());
+        assertEquals(Duration.ofMillis(500), stats.maxGap());
+        assertEquals(Duration.ofMillis(10), stats.gapPercentile(50));
+        assertEquals(Duration.ofMillis(10), stats.gapPercentile(99));
+        assertEquals(Duration.ofMillis(500), stats.gapPercentile(100));
+        assertEquals(Duration.ofMillis(1_490), stats.duration());
+        assertEquals(Duration.ofMillis(20), stats.arrivalTime(1));
+        assertEquals(1_000, stats.size(99));
+
+        double[] rates = stats.bytesPerSecond(Duration.ofMillis(500));
+        // 0-499ms: 49 chunks; 500-999ms: 50; 1000-1499ms: just the last
+        assertArrayEquals(new double[]{9_800, 10_000, 2_000}, rates, 0.001);
+        assertEquals(4, stats.bytesPerSecond(Duration.ofMillis(400)).length);
+
+        // Snapshots are independent of later chunks
+        timeline.record(at + MS, 1);
+        assertEquals(100, stats.chunkCount());
+        assertEquals(101, timeline.snapshot().chunkCount());
+    }
+
+    @Test
+    public void testOpenStreamCountsTheStallAsAGap() {
+        ChunkTimeline timeline = new ChunkTimeline();
+        assertSame(ChunkStatistics.EMPTY, timeline.openSnapshot(1_000 * MS));
+        long origin = 5_000 * MS;
+        timeline.start(origin);
+        // Headers, then nothing
+        ChunkStatistics stats = timeline.openSnapshot(origin + 700 * MS);
+        assertTrue(stats.isOpen());
+        assertEquals(0, stats.chunkCount());
+        assertEquals(Duration.ofMillis(700), stats.maxGap());
+        assertFalse(timeline.snapshot().isOpen());
+        assertEquals(Duration.ZERO, timeline.snapshot().maxGap());
+
+        // Two quick chunks, then a stall
+        timeline.record(origin + 10 * MS, 100);
+        timeline.record(origin + 20 * MS, 100);
+        stats = timeline.openSnapshot(origin + 520 * MS);
+        assertEquals(2, stats.chunkCount());
+        assertEquals(Duration.ofMillis(500), stats.maxGap());
+        assertEquals(Duration.ofMillis(10), stats.gapPercentile(50));
+        assertEquals(Duration.ofMillis(20), stats.duration());
+        assertEquals(Duration.ofMillis(10), timeline.snapshot().maxGap());
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mastfrog.util.codec.Codec;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+final class CodecsTest {
+
+    @Test
+    public void testCodecIsChosenByMediaType() throws Exception {
+        Codec dflt = new ObjectMapperCodec();
+        Codec other = new ObjectMapperCodec(new ObjectMapper());
+        Map<String, Codec> map = new LinkedHashMap<>();
+        map.put(" Application/X-Jackson-Smile ", other);
+        Codecs codecs = new Codecs(dflt, map);
+
+        assertSame(dflt, codecs.forContentType(null));
+        assertSame(dflt, codecs.forContentType("application/json"));
+        assertSame(other, codecs.forContentType("application/x-jackson-smile"));
+        assertSame(other, codecs.forContentType(
+                "application/X-JACKSON-SMILE; charset=utf-8"));
+
+        Codec replacement = new JsonArrayElementsTest.PlainCodec();
+        Codecs withDefault = codecs.withDefault(replacement);
+        assertSame(codecs, codecs.withDefault(dflt));
+        assertSame(replacement, withDefault.forContentType("text/plain"));
+        assertSame(other, withDefault.forContentType("application/x-jackson-smile"));
+    }
+
+    @Test
+    public void testFactories() throws Exception {
+        assertSame(Codecs.TEXT, Codecs.jsonFactory(new JsonArrayElementsTest.PlainCodec()));
+        ObjectMapper mapper = new ObjectMapper();
+        assertSame(mapper.getFactory(), Codecs.jsonFactory(new ObjectMapperCodec(mapper)));
+        assertEquals("{\"a\":1}", Codecs.displayText("{\"a\":1}".getBytes("UTF-8"),
+                Codecs.TEXT));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mastfrog.util.codec.Codec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+final class JsonArrayElementsTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    public void testElementsAreTestedAsTheyArrive() {
+        List<Integer> seen = new ArrayList<>();
+        JsonArrayElements<Integer> els = new JsonArrayElements<>(Integer.class,
+                i -> seen.add(i), () -> new ObjectMapperCodec(MAPPER));
+        feed(els, "[0,1,2,3");
+        assertEquals(List.of(0, 1, 2), seen, "Last number may be incomplete");
+        feed(els, "4,5,6]");
+        els.finish();
+        assertEquals(List.of(0, 1, 2, 34, 5, 6), seen);
+        assertTrue(els.isSuccess(), els::outcome);
+        assertEquals(6, els.count());
+    }
+
+    @Test
+    public void testFirstFailureIsReportedWithIndex() {
+        String json = "[{\"a\":[1,2],\"b\":\"x\"},{\"a\":[],\"b\":\"y\"},"
+                + "{\"a\":[3],\"b\":\"z\"},{\"a\":[4],\"b\":\"w\"}]";
+        for (Codec codec : new Codec[]{new ObjectMapperCodec(MAPPER), new PlainCodec()}) {
+            JsonArrayElements<Map> els = new JsonArrayElements<>(Map.class,
+                    m -> !"z".equals(m.get("b")), () -> codec);
+            byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < bytes.length; i += 3) {
+                els.feed(bytes, i, Math.min(3, bytes.length - i));
+            }
+            els.finish();
+            assertFalse(els.isSuccess());
+            assertEquals(3, els.count(), "Should stop at the failure");
+            assertTrue(els.outcome().startsWith("Element 2 failed"), els.outcome());
+            assertTrue(els.outcome().contains("b=z"), els.outcome());
+        }
+    }
+
+    @Test
+    public void testMalformedBodies() {
+        assertFailure("{\"a\":1}", "not a JSON array");
+        assertFailure("[1,2", "after 2 elements");
+        assertFailure("[1,\"x\"]", "Element 1 could not be deserialized");
+        assertFailure("[1,2] [3]", "after the end");
+        assertFailure("[1,,2]", "Invalid JSON after 1");
+        JsonArrayElements<Integer> els = new JsonArrayElements<>(Integer.class,
+                i -> true, () -> new ObjectMapperCodec(MAPPER));
+        els.finish();
+        assertFalse(els.isSuccess());
+        feed(els = new JsonArrayElements<>(Integer.class, i -> false,
+                () -> new ObjectMapperCodec(MAPPER)), "[]");
+        els.finish();
+        assertTrue(els.isSuccess(), "Vacuously true for an empty array");
+    }
+
+    private static void assertFailure(String json, String expected) {
+        JsonArrayElements<Integer> els = new JsonArrayElements<>(Integer.class,
+                i -> true, () -> new ObjectMapperCodec(MAPPER));
+        feed(els, json);
+        els.finish();
+        assertFalse(els.isSuccess(), json);
+        assertTrue(els.outcome().contains(expected), els.outcome());
+    }
+
+    private static void feed(JsonArrayElements<?> els, String json) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        els.feed(bytes, 0, bytes.length);
+    }
+
+    static final class PlainCodec implements Codec {
+
+        @Override
+        public <T> T readValue(InputStream in, Class<T> type) throws IOException {
+            return MAPPER.readValue(in, type);
+        }
+
+        @Override
+        public <T> byte[] writeValueAsBytes(T t) throws IOException {
+            return MAPPER.writeValueAsBytes(t);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+final class JsonPathMatcherTest {
+
+    private static final String DOC = "{\"meta\":{\"count\":3,\"tags\":[\"a\",\"b\"]},"
+            + "\"skipped\":{\"deep\":[[1,2,[3]],{\"x\":{\"y\":[]}}]},"
+            + "\"items\":[{\"id\":1,\"name\":\"one\"},{\"id\":2,\"name\":\"two\","
+            + "\"extra\":{\"id\":99}},{\"id\":3,\"name\":\"three\"}],"
+            + "\"odd key\":true}";
+
+    @Test
+    public void testSelectorsInOnePass() {
+        for (int chunk : new int[]{1, 3, 7, DOC.length()}) {
+            JsonPathMatcher m = new JsonPathMatcher(() -> new ObjectMapperCodec(new ObjectMapper()));
+            List<Integer> ids = new ArrayList<>();
+            JsonPathMatcher.Selector<Integer> count = m.select("$.meta.count",
+                    Integer.class, c -> c == 3);
+            JsonPathMatcher.Selector<Integer> allIds = m.select("$.items[*].id",
+                    Integer.class, ids::add);
+            JsonPathMatcher.Selector<String> second = m.select("$['items'][1].name",
+                    String.class, "two"::equals);
+            JsonPathMatcher.Selector<List> tags = m.select("$.meta.tags",
+                    List.class, l -> l.equals(Arrays.asList("a", "b")));
+            JsonPathMatcher.Selector<Boolean> odd = m.select("$['odd key']",
+                    Boolean.class, b -> b);
+            JsonPathMatcher.Selector<Map> root = m.select("$", Map.class,
+                    map -> map.size() == 4);
+            JsonPathMatcher.Selector<Object> missing = m.select("$.items[7]",
+                    Object.class, o -> true);
+            JsonPathMatcher.Selector<Object> all = m.select("$.items.*.*",
+                    Object.class, o -> !(o instanceof Map));
+            feed(m, DOC, chunk);
+            m.finish();
+            assertTrue(count.isSuccess(), count::outcome);
+            assertTrue(allIds.isSuccess(), allIds::outcome);
+            assertEquals(Arrays.asList(1, 2, 3), ids);
+            assertTrue(second.isSuccess(), second::outcome);
+            assertTrue(tags.isSuccess(), tags::outcome);
+            assertTrue(odd.isSuccess(), odd::outcome);
+            assertTrue(root.isSuccess(), root::outcome);
+            assertFalse(missing.isSuccess());
+            assertEquals("Nothing matched $.items[7]", missing.outcome());
+            assertFalse(all.isSuccess());
+            assertEquals("$.items[1].extra failed: {id=99}", all.outcome());
+        }
+    }
+
+    @Test
+    public void testFailuresAndBadInput() {
+        JsonPathMatcher m = new JsonPathMatcher(() -> new ObjectMapperCodec(new ObjectMapper()));
+        JsonPathMatcher.Selector<Integer> names = m.select("$.items[*].name",
+                Integer.class, i -> true);
+        feed(m, DOC, 5);
+        m.finish();
+        assertTrue(names.outcome().startsWith("$.items[0].name could not be "
+                + "deserialized as Integer"), names.outcome());
+
+        m = new JsonPathMatcher(() -> new ObjectMapperCodec(new ObjectMapper()));
+        JsonPathMatcher.Selector<Integer> truncated = m.select("$.a",
+                Integer.class, i -> true);
+        feed(m, "{\"b\":[1,2", 3);
+        m.finish();
+        assertFalse(truncated.isSuccess());
+        assertTrue(truncated.outcome().startsWith("Invalid JSON")
+                || truncated.outcome().startsWith("Body ended"), truncated.outcome());
+    }
+
+    @Test
+    public void testPathSyntax() {
+        assertArrayEquals(new Object[]{"a", null, 3, "b.c", null},
+                JsonPathMatcher.parse("$.a[*][3]['b.c'].*"));
+        assertArrayEquals(new Object[0], JsonPathMatcher.parse("$"));
+        for (String bad : new String[]{"a.b", "$..a", "$[-1]", "$[1:2]",
+            "$[?(@.a)]", "$.", "$['a'", "$a"}) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> JsonPathMatcher.parse(bad), bad);
+        }
+    }
+
+    private static void feed(JsonPathMatcher m, String json, int chunk) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i += chunk) {
+            m.feed(bytes, i, Math.min(chunk, bytes.length - i));
+        }
+    }
+}
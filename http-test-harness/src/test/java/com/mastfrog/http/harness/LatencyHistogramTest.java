@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import static com.mastfrog.http.harness.LatencyHistogram.bucketFor;
+import static com.mastfrog.http.harness.LatencyHistogram.highestValueIn;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+final class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsAreContiguousAndBounded() {
+        int last = -1;
+        for (long v = 0; v < 100_000; v++) {
+            int b = bucketFor(v);
+            assertTrue(b == last || b == last + 1, "Gap at " + v);
+            assertTrue(highestValueIn(b) >= v, "Bucket too low for " + v);
+            last = b;
+        }
+        SplittableRandom rnd = new SplittableRandom(7);
+        for (int i = 0; i < 100_000; i++) {
+            long v = rnd.nextLong(Long.MAX_VALUE);
+            long high = highestValueIn(bucketFor(v));
+            assertTrue(high >= v, "Bucket too low for " + v);
+            assertTrue(high - v <= v / 64, "Bucket too wide for " + v);
+            assertEquals(bucketFor(v), bucketFor(high));
+        }
+        assertEquals(Long.MAX_VALUE, highestValueIn(bucketFor(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testPercentilesMatchExactValues() {
+        LatencyHistogram hist = new LatencyHistogram();
+        assertEquals(-1, hist.percentile(99));
+        assertEquals(-1, hist.min());
+        SplittableRandom rnd = new SplittableRandom(11);
+        long[] values = new long[10_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1_000_000 + rnd.nextLong(200_000_000);
+            hist.record(values[i]);
+        }
+        Arrays.sort(values);
+        assertEquals(values.length, hist.count());
+        assertEquals(values[0], hist.min());
+        assertEquals(values[values.length - 1], hist.max());
+        assertEquals(values[values.length - 1], hist.percentile(100));
+        for (double pct : new double[]{1, 50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(pct / 100 * values.length) - 1];
+            long approx = hist.percentile(pct);
+            assertTrue(approx >= exact && approx - exact <= exact / 64,
+                    "p" + pct + " exact " + exact + " approx " + approx);
+        }
+    }
+}
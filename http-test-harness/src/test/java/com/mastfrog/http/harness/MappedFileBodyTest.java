@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import com.mastfrog.http.harness.SerializingBodyPublisherTest.Collector;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+final class MappedFileBodyTest {
+
+    @Test
+    public void testFileAndRanges() throws Exception {
+        byte[] content = new byte[200_000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        Path file = Files.createTempFile("MappedFileBodyTest", ".bin");
+        try {
+            Files.write(file, content);
+            MappedFileBody body = MappedFileBody.of(file);
+            assertEquals(content.length, body.contentLength());
+            assertArrayEquals(content, read(body, 1));
+            assertArrayEquals(content, read(body.withSliceSize(333), Long.MAX_VALUE));
+
+            MappedFileBody range = MappedFileBody.of(file, 1000, 70_000);
+            assertEquals(70_000, range.contentLength());
+            assertArrayEquals(Arrays.copyOfRange(content, 1000, 71_000),
+                    read(range, 1));
+            assertArrayEquals(Arrays.copyOfRange(content, 1010, 1020),
+                    read(range.range(10, 10), 1));
+            assertThrows(IllegalArgumentException.class, () -> range.range(69_999, 2));
+
+            byte[] changed = Arrays.copyOf(content, 10);
+            Files.write(file, changed);
+            assertArrayEquals(changed, read(MappedFileBody.of(file), 1));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testMappingsAreNotHeldForever() throws Exception {
+        Path file = Files.createTempFile("MappedFileBodyTest", ".bin");
+        try {
+            Files.write(file, new byte[]{1, 2, 3, 4, 5});
+            MappedFileBody body = MappedFileBody.of(file);
+            assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, read(body, 1));
+            assertTrue(MappedFileBody.isCached(file));
+            // Shared while any publisher for it is reachable
+            assertArrayEquals(new byte[]{2, 3}, read(MappedFileBody.of(file, 1, 2), 1));
+            assertTrue(MappedFileBody.isCached(file));
+            body = null;
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (MappedFileBody.isCached(file) && System.currentTimeMillis() < deadline) {
+                System.gc();
+                Thread.sleep(20);
+            }
+            assertFalse(MappedFileBody.isCached(file), "Mapping still cached");
+            assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, read(MappedFileBody.of(file), 1));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static byte[] read(MappedFileBody body, long demand) throws Exception {
+        Collector collector = new Collector() {
+            @Override
+            public void onNext(ByteBuffer item) {
+                assertTrue(item.isReadOnly());
+                super.onNext(item);
+                if (demand == 1) {
+                    subscription.request(1);
+                }
+            }
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                super.onSubscribe(subscription);
+                subscription.request(demand);
+            }
+        };
+        body.subscribe(collector);
+        collector.done.get(10, TimeUnit.SECONDS);
+        return collector.bytes.toByteArray();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+final class ObjectMapperCodecTest {
+
+    @Test
+    public void testReadAndWriteWithoutCopies() throws Exception {
+        ObjectMapperCodec codec = new ObjectMapperCodec();
+        Map<String, Object> value = Map.of("a", 1);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.writeValue(value, out);
+        assertEquals("{\"a\":1}", out.toString(StandardCharsets.UTF_8));
+
+        ByteBuffer buf = ByteBuffer.allocate(32);
+        buf.put((byte) ' ');
+        codec.writeValue(value, buf);
+        buf.flip().position(1);
+        assertEquals(value, codec.readValue(buf, Map.class));
+        assertEquals(value, codec.readValue(buf.asReadOnlyBuffer(), Map.class));
+
+        BodyBuffer body = new BodyBuffer();
+        body.write("{\"a\":1}".getBytes(StandardCharsets.UTF_8));
+        assertEquals(value, new AssertionsImpl.JsonConverter<>(Map.class, codec)
+                .apply(body));
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import static com.mastfrog.http.harness.ResponseTimings.UNSET;
+import java.time.Duration;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+final class ResponseTimingsTest {
+
+    private static final long MS = 1_000_000;
+
+    @Test
+    public void testTimings() {
+        // nanoTime values may be negative
+        long sent = -500 * MS;
+        ResponseTimings t = new ResponseTimings(sent, sent + 20 * MS,
+                sent + 30 * MS, sent + 1_020 * MS, 5_000);
+        assertEquals(Duration.ofMillis(20), t.headers());
+        assertEquals(Duration.ofMillis(30), t.firstByte());
+        assertEquals(Duration.ofMillis(1_020), t.total());
+        assertEquals(5_000L, t.throughput());
+
+        ResponseTimings emptyBody = new ResponseTimings(sent, sent + 20 * MS,
+                UNSET, sent + 25 * MS, 0);
+        assertEquals(Duration.ofMillis(25), emptyBody.firstByte());
+        assertEquals(0L, emptyBody.throughput());
+
+        ResponseTimings timedOut = new ResponseTimings(sent, sent + 20 * MS,
+                UNSET, UNSET, 0);
+        assertEquals(Duration.ofMillis(20), timedOut.headers());
+        assertNull(timedOut.firstByte());
+        assertNull(timedOut.total());
+        assertNull(timedOut.throughput());
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import com.mastfrog.util.codec.Codec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+final class SerializingBodyPublisherTest {
+
+    @Test
+    public void testSerializesLazilyWithBoundedBuffering() throws Exception {
+        List<Integer> value = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            value.add(i);
+        }
+        ObjectMapperCodec codec = new ObjectMapperCodec();
+        byte[] expected = codec.writeValueAsBytes(value);
+        CountingCodec counting = new CountingCodec(codec);
+        SerializingBodyPublisher pub
+                = new SerializingBodyPublisher(value, counting, 1024, 2);
+        assertEquals(-1, pub.contentLength());
+        Collector collector = new Collector();
+        pub.subscribe(collector);
+        assertEquals(0, counting.written.get(), "Serialized before requested");
+
+        collector.subscription.request(1);
+        Thread.sleep(200);
+        // One buffer delivered, two queued, one being filled, plus whatever
+        // Jackson holds in its own buffer
+        assertTrue(counting.written.get() < 4 * 1024 + 16_000,
+                "Serialized too far ahead: " + counting.written.get()
+                + " of " + expected.length);
+        assertTrue(counting.written.get() < expected.length);
+
+        collector.subscription.request(Long.MAX_VALUE);
+        collector.done.get(10, TimeUnit.SECONDS);
+        assertArrayEquals(expected, collector.bytes.toByteArray());
+    }
+
+    @Test
+    public void testDeliveredBuffersAreNeverReused() throws Exception {
+        List<Integer> value = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            value.add(i);
+        }
+        byte[] expected = new ObjectMapperCodec().writeValueAsBytes(value);
+        SerializingBodyPublisher pub = new SerializingBodyPublisher(value,
+                new ObjectMapperCodec(), 512, 2);
+        // Like the HTTP/2 client, mark each buffer consumed while keeping
+        // views of its bytes queued for later
+        List<ByteBuffer> held = new ArrayList<>();
+        Collector collector = new Collector() {
+            @Override
+            public void onNext(ByteBuffer item) {
+                held.add(item.duplicate());
+                item.position(item.limit());
+            }
+        };
+        pub.subscribe(collector);
+        collector.subscription.request(Long.MAX_VALUE);
+        collector.done.get(10, TimeUnit.SECONDS);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (ByteBuffer buf : held) {
+            while (buf.hasRemaining()) {
+                out.write(buf.get());
+            }
+        }
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    @Test
+    public void testFailureIsPropagated() throws Exception {
+        Codec failing = new CountingCodec(new ObjectMapperCodec()) {
+            @Override
+            public <T> void writeValue(T t, OutputStream out) throws IOException {
+                out.write(new byte[3000]);
+                throw new IOException("Boom");
+            }
+        };
+        SerializingBodyPublisher pub
+                = new SerializingBodyPublisher("x", failing, 1024, 2);
+        Collector collector = new Collector();
+        pub.subscribe(collector);
+        collector.subscription.request(Long.MAX_VALUE);
+        Throwable thrown = collector.done.handle((ignored, t) -> t)
+                .get(10, TimeUnit.SECONDS);
+        assertEquals("Boom", thrown.getMessage());
+    }
+
+    static class CountingCodec implements Codec {
+
+        final AtomicLong written = new AtomicLong();
+        private final Codec delegate;
+
+        CountingCodec(Codec delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public <T> T readValue(InputStream in, Class<T> type) throws IOException {
+            return delegate.readValue(in, type);
+        }
+
+        @Override
+        public <T> byte[] writeValueAsBytes(T t) throws IOException {
+            return delegate.writeValueAsBytes(t);
+        }
+
+        @Override
+        public <T> void writeValue(T t, OutputStream out) throws IOException {
+            delegate.writeValue(t, new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    written.incrementAndGet();
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    written.addAndGet(len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    out.close();
+                }
+            });
+        }
+    }
+
+    static class Collector implements Flow.Subscriber<ByteBuffer> {
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        volatile Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            while (item.hasRemaining()) {
+                bytes.write(item.get());
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(null);
+        }
+    }
+}
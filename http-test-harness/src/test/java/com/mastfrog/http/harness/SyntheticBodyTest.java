@@ -0,0 +1,171 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mastfrog.http.harness.SerializingBodyPublisherTest.Collector;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+final class SyntheticBodyTest {
+
+    @Test
+    public void testDigitsBelow() {
+        long expected = 0;
+        for (long i = 0; i < 12_345; i++) {
+            expected += Long.toString(i).length();
+            assertEquals(expected, SyntheticBody.digitsBelow(i + 1), "at " + i);
+        }
+        assertEquals(0, SyntheticBody.digitsBelow(0));
+        assertEquals(14_888_888_888_888_938L, SyntheticBody.digitsBelow(1_000_000_000_000_003L));
+    }
+
+    @Test
+    public void testRandomBytesAreDeterministic() throws Exception {
+        byte[] a = read(SyntheticBody.randomBytes(7, 100_005), 1);
+        byte[] b = read(SyntheticBody.randomBytes(7, 100_005), Long.MAX_VALUE);
+        assertEquals(100_005, a.length);
+        assertArrayEquals(a, b);
+        byte[] c = read(SyntheticBody.randomBytes(8, 100_005), 1);
+        assertFalse(Arrays.equals(a, c));
+        assertDigest(SyntheticBody.randomBytes(7, 100_005), a);
+    }
+
+    @Test
+    public void testDeliveredBuffersAreNeverReused() throws Exception {
+        SyntheticBody body = SyntheticBody.randomBytes(3, 200_000);
+        byte[] expected = read(body, Long.MAX_VALUE);
+        // Like the HTTP/2 client, mark each buffer consumed while keeping
+        // views of its bytes queued for later
+        List<ByteBuffer> held = new ArrayList<>();
+        Collector collector = new Collector() {
+            @Override
+            public void onNext(ByteBuffer item) {
+                held.add(item.duplicate());
+                item.position(item.limit());
+            }
+        };
+        body.subscribe(collector);
+        collector.subscription.request(Long.MAX_VALUE);
+        collector.done.get(10, TimeUnit.SECONDS);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (ByteBuffer buf : held) {
+            while (buf.hasRemaining()) {
+                out.write(buf.get());
+            }
+        }
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    @Test
+    public void testRepeating() throws Exception {
+        SyntheticBody body = SyntheticBody.repeating("abc", 40_000);
+        byte[] bytes = read(body, 1);
+        assertEquals(40_000, bytes.length);
+        assertEquals(40_000, body.contentLength());
+        String text = new String(bytes, StandardCharsets.US_ASCII);
+        assertTrue(text.startsWith("abcabc"));
+        assertTrue(text.endsWith("bca"), text.substring(text.length() - 3));
+        assertDigest(body, bytes);
+    }
+
+    @Test
+    public void testJsonArray() throws Exception {
+        for (long count : new long[]{0, 1, 11, 10_001}) {
+            SyntheticBody body = SyntheticBody.jsonArray(
+                    "{\"id\":{index},\"name\":\"item-{index}\"}", count);
+            byte[] bytes = read(body, 1);
+            assertEquals(body.contentLength(), bytes.length, "count " + count);
+            List<Map<String, Object>> records = new ObjectMapper().readValue(bytes,
+                    new TypeReference<List<Map<String, Object>>>() {
+            });
+            assertEquals(count, records.size());
+            for (int i = 0; i < records.size(); i++) {
+                assertEquals(i, records.get(i).get("id"));
+                assertEquals("item-" + i, records.get(i).get("name"));
+            }
+            assertDigest(body, bytes);
+        }
+        assertEquals("[\"x\",\"x\"]", new String(read(SyntheticBody.jsonArray("\"x\"", 2),
+                Long.MAX_VALUE), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testBodyDigest() throws Exception {
+        SyntheticBody body = SyntheticBody.repeating("hello", 1_000);
+        byte[] bytes = read(body, Long.MAX_VALUE);
+        BodyDigest digest = new BodyDigest("SHA-256", body.digest("SHA-256").toUpperCase());
+        digest.feed(bytes, 0, 500);
+        assertFalse(digest.isSuccess());
+        assertEquals("Body incomplete after 500 bytes", digest.outcome());
+        digest.feed(bytes, 500, 500);
+        digest.finish();
+        assertTrue(digest.isSuccess(), digest.outcome());
+        assertTrue(digest.outcome().endsWith(" of 1000 bytes"), digest.outcome());
+    }
+
+    private static void assertDigest(SyntheticBody body, byte[] bytes) throws Exception {
+        assertEquals(BodyDigest.hex(MessageDigest.getInstance("SHA-256").digest(bytes)),
+                body.digest("SHA-256"));
+    }
+
+    private static byte[] read(SyntheticBody body, long demand) throws Exception {
+        Collector collector = new Collector() {
+            @Override
+            public void onNext(ByteBuffer item) {
+                super.onNext(item);
+                if (demand == 1) {
+                    subscription.request(1);
+                }
+            }
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                super.onSubscribe(subscription);
+                subscription.request(demand);
+            }
+        };
+        body.subscribe(collector);
+        collector.done.get(10, TimeUnit.SECONDS);
+        return collector.bytes.toByteArray();
+    }
+}
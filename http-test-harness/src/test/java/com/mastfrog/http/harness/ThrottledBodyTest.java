@@ -0,0 +1,186 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness;
+
+import com.mastfrog.http.harness.SerializingBodyPublisherTest.Collector;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+final class ThrottledBodyTest {
+
+    @Test
+    public void testSendsAtRate() throws Exception {
+        byte[] content = new byte[10_000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        ThrottledBody body = ThrottledBody.of(content, 50_000).withChunkSize(1_000);
+        assertEquals(content.length, body.contentLength());
+        List<Integer> sizes = new ArrayList<>();
+        long start = System.nanoTime();
+        byte[] received = read(body, sizes);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertArrayEquals(content, received);
+        assertEquals(10, sizes.size(), sizes::toString);
+        // Ten chunks, the first sent immediately, the rest 20ms apart
+        assertTrue(elapsed >= 170, "Too fast: " + elapsed + "ms");
+        assertTrue(elapsed < 2_000, "Too slow: " + elapsed + "ms");
+    }
+
+    @Test
+    public void testPausesAndSmallUpstreamBuffers() throws Exception {
+        // SyntheticBody produces 16Kb buffers; chunks never span them
+        SyntheticBody synthetic = SyntheticBody.repeating("abc", 40_000);
+        ThrottledBody body = ThrottledBody.of(synthetic, 1_000_000)
+                .withChunkSize(10_000)
+                .withPauses(20_000, Duration.ofMillis(150));
+        List<Integer> sizes = new ArrayList<>();
+        long start = System.nanoTime();
+        byte[] received = read(body, sizes);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(40_000, received.length);
+        assertEquals(synthetic.digest("SHA-256"), BodyDigest.hex(
+                BodyDigest.messageDigest("SHA-256").digest(received)));
+        for (int size : sizes) {
+            assertTrue(size <= 10_000, sizes::toString);
+        }
+        // Two pauses, one after 20000 bytes and one after 40000
+        assertTrue(elapsed >= 140, "Did not pause: " + elapsed + "ms");
+    }
+
+    @Test
+    public void testManyConcurrent() throws Exception {
+        List<Collector> all = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            Collector c = new Collector() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    super.onSubscribe(subscription);
+                    subscription.request(Long.MAX_VALUE);
+                }
+            };
+            ThrottledBody.of(HttpRequest.BodyPublishers.ofString("hello world"), 100)
+                    .withChunkSize(4).subscribe(c);
+            all.add(c);
+        }
+        for (Collector c : all) {
+            c.done.get(10, TimeUnit.SECONDS);
+            assertEquals("hello world", c.bytes.toString("UTF-8"));
+        }
+    }
+
+    @Test
+    public void testBlockingUpstreamDoesNotStallOtherBodies() throws Exception {
+        // Like BodyPublishers.ofFile(), reads on the requesting thread
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        HttpRequest.BodyPublisher blocking = new HttpRequest.BodyPublisher() {
+            @Override
+            public long contentLength() {
+                return 5;
+            }
+
+            @Override
+            public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+                AtomicBoolean sent = new AtomicBoolean();
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                        threads.add(Thread.currentThread().getName());
+                        if (sent.compareAndSet(false, true)) {
+                            try {
+                                Thread.sleep(1_000);
+                            } catch (InterruptedException ex) {
+                                subscriber.onError(ex);
+                                return;
+                            }
+                            subscriber.onNext(ByteBuffer.wrap("slow!".getBytes()));
+                            subscriber.onComplete();
+                        }
+                    }
+
+                    @Override
+                    public void cancel() {
+                        // do nothing
+                    }
+                });
+            }
+        };
+        Collector slow = new Collector() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                super.onSubscribe(subscription);
+                subscription.request(Long.MAX_VALUE);
+            }
+        };
+        ThrottledBody.of(blocking, 1_000_000).subscribe(slow);
+        Thread.sleep(50);
+        long start = System.nanoTime();
+        byte[] fast = read(ThrottledBody.of("hello world".getBytes(), 1_000_000),
+                new ArrayList<>());
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals("hello world", new String(fast));
+        assertTrue(elapsed < 500, "Stalled behind a blocking body: " + elapsed + "ms");
+        slow.done.get(10, TimeUnit.SECONDS);
+        assertEquals("slow!", slow.bytes.toString("UTF-8"));
+        assertFalse(threads.contains("http-test-harness-pacer"), threads::toString);
+    }
+
+    private static byte[] read(ThrottledBody body, List<Integer> sizes) throws Exception {
+        Collector collector = new Collector() {
+            @Override
+            public void onNext(ByteBuffer item) {
+                assertTrue(item.isReadOnly());
+                sizes.add(item.remaining());
+                super.onNext(item);
+                subscription.request(1);
+            }
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                super.onSubscribe(subscription);
+                subscription.request(1);
+            }
+        };
+        body.subscribe(collector);
+        collector.done.get(10, TimeUnit.SECONDS);
+        return collector.bytes.toByteArray();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness.difference;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+final class JsonStreamDifferencerTest {
+
+    @Test
+    public void testEquivalentDocumentsHaveNoDifferences() throws Exception {
+        Map<String, Set<Difference<?>>> diffs = Differencing.jsonDifference(
+                "{\"a\":1,\"b\":[1,2,{\"c\":true}],\"d\":{\"e\":null,\"f\":\"x\"}}",
+                "{\"d\":{\"f\":\"x\",\"e\":null},\"b\":[1,2.0,{\"c\":true}],\"a\":1}");
+        assertTrue(diffs.isEmpty(), diffs::toString);
+    }
+
+    @Test
+    public void testDifferencesAreKeyedByPointer() throws Exception {
+        Map<String, Set<Difference<?>>> diffs = Differencing.jsonDifference(
+                "{\"a\":1,\"items\":[{\"name\":\"x\"},{\"name\":\"y\"}],\"a/b\":{\"q\":3},\"gone\":[1,2]}",
+                "{\"a\":2,\"items\":[{\"name\":\"x\"},{\"name\":\"z\"},7],\"a/b\":{\"q\":\"3\"},\"new\":false}");
+        assertEquals(new TreeSet<>(Set.of("/a", "/items/1/name", "/items/2",
+                "/a~1b/q", "/gone", "/new")), diffs.keySet(), diffs::toString);
+        Difference<?> gone = diffs.get("/gone").iterator().next();
+        assertEquals(DifferenceKind.DELETION, gone.kind());
+        assertEquals("[1,2]", gone.oldValue());
+        assertEquals(DifferenceKind.INSERTION, diffs.get("/items/2").iterator().next().kind());
+    }
+
+    @Test
+    public void testStopsAtMaxDifferences() throws Exception {
+        StringBuilder a = new StringBuilder("[");
+        StringBuilder b = new StringBuilder("[");
+        for (int i = 0; i < 1000; i++) {
+            if (i > 0) {
+                a.append(',');
+                b.append(',');
+            }
+            a.append(i);
+            b.append(i + 1);
+        }
+        Map<String, Set<Difference<?>>> diffs = Differencing.jsonDifference(
+                a.append(']').toString().getBytes(), b.append(']').toString().getBytes(), 10);
+        assertEquals(11, diffs.size(), diffs::toString);
+        assertTrue(diffs.containsKey(""), diffs::toString);
+        assertEquals(DifferenceKind.TRUNCATED,
+                diffs.get("").iterator().next().kind(), diffs::toString);
+    }
+
+    @Test
+    public void testUnorderedArrays() throws Exception {
+        DifferencingOptions unordered = DifferencingOptions.DEFAULT
+                .withUnorderedCollections(true);
+        String a = "{\"items\":[{\"id\":1,\"name\":\"a\",\"tags\":[1,2]},"
+                + "{\"id\":2,\"name\":\"b\",\"tags\":[]},{\"id\":3,\"name\":\"c\"},5]}";
+        String b = "{\"items\":[5,{\"name\":\"c\",\"id\":3.0},"
+                + "{\"tags\":[2,1],\"id\":1,\"name\":\"a\"},{\"id\":2,\"name\":\"x\",\"tags\":[]}]}";
+        Map<String, Set<Difference<?>>> diffs = Differencing.jsonDifference(
+                a.getBytes(), b.getBytes(), unordered);
+        assertEquals(new TreeSet<>(Arrays.asList("/items/1/name")), diffs.keySet(),
+                diffs::toString);
+        assertFalse(Differencing.jsonDifference(a.getBytes(), b.getBytes()).isEmpty());
+
+        diffs = Differencing.jsonDifference("[1,2,3,3]".getBytes(),
+                "[3,4,1,2]".getBytes(), unordered);
+        assertEquals(new TreeSet<>(Arrays.asList("/3", "/1")), diffs.keySet(),
+                diffs::toString);
+        assertEquals(DifferenceKind.DELETION, diffs.get("/3").iterator().next().kind());
+        assertEquals(DifferenceKind.INSERTION, diffs.get("/1").iterator().next().kind());
+    }
+
+    @Test
+    public void testIgnoredPathsAndTolerances() throws Exception {
+        String a = "{\"id\":\"abc\",\"created\":1,\"items\":[{\"itemId\":1,"
+                + "\"price\":9.99,\"name\":\"x\"},{\"itemId\":2,\"price\":5.0,\"name\":\"y\"}]}";
+        String b = "{\"id\":\"def\",\"created\":2,\"items\":[{\"itemId\":7,"
+                + "\"price\":9.990001,\"name\":\"x\"},{\"itemId\":8,\"price\":5.5,\"name\":\"z\"}]}";
+        DifferencingOptions opts = DifferencingOptions.DEFAULT
+                .withIgnoredPaths("/id", "created", "**.*Id")
+                .withTolerance("items.*.price", 0.001);
+        Map<String, Set<Difference<?>>> diffs = Differencing.jsonDifference(
+                a.getBytes(), b.getBytes(), opts);
+        assertEquals(new TreeSet<>(Arrays.asList("/items/1/name", "/items/1/price")),
+                diffs.keySet(), diffs::toString);
+    }
+
+    @Test
+    public void testTopLevelGlobDoesNotMatchNestedPaths() throws Exception {
+        String a = "{\"ownerId\":1,\"items\":[{\"userId\":2}]}";
+        String b = "{\"ownerId\":3,\"items\":[{\"userId\":4}]}";
+        Map<String, Set<Difference<?>>> diffs = Differencing.jsonDifference(
+                a.getBytes(), b.getBytes(),
+                DifferencingOptions.DEFAULT.withIgnoredPaths("*Id"));
+        assertEquals(Collections.singleton("/items/0/userId"), diffs.keySet(),
+                diffs::toString);
+    }
+
+    @Test
+    public void testStopsAtMaxDepth() throws Exception {
+        String a = "{\"a\":{\"b\":{\"c\":{\"d\":1}}},\"e\":2}";
+        String b = "{\"a\":{\"b\":{\"c\":{\"d\":2}}},\"e\":3}";
+        Map<String, Set<Difference<?>>> diffs = Differencing.jsonDifference(
+                a.getBytes(), b.getBytes(), DifferencingOptions.DEFAULT.withMaxDepth(2));
+        assertTrue(diffs.containsKey("/e"), diffs::toString);
+        assertFalse(diffs.containsKey("/a/b/c/d"), diffs::toString);
+        assertTrue(diffs.containsKey(""), diffs::toString);
+        assertTrue(diffs.containsKey("/a/b"), diffs::toString);
+        assertEquals(DifferenceKind.CHANGE,
+                diffs.get("/a/b").iterator().next().kind(), diffs::toString);
+        assertTrue(Differencing.hasDifferences(diffs));
+        assertTrue(Differencing.truncation(diffs).isPresent());
+
+        // Identical below the limit is still identical
+        diffs = Differencing.jsonDifference(a.getBytes(), a.getBytes(),
+                DifferencingOptions.DEFAULT.withMaxDepth(2));
+        assertTrue(diffs.isEmpty(), diffs::toString);
+        diffs = Differencing.jsonDifference(a.getBytes(),
+                "{\"e\":2,\"a\":{\"b\":{\"c\":{\"d\":1.0}}}}".getBytes(),
+                DifferencingOptions.DEFAULT.withMaxDepth(2));
+        assertTrue(diffs.isEmpty(), diffs::toString);
+    }
+
+    @Test
+    public void testExactlyMaxDifferencesIsNotTruncated() throws Exception {
+        Map<String, Set<Difference<?>>> diffs = Differencing.jsonDifference(
+                "[1]".getBytes(), "[2]".getBytes(), 1);
+        assertEquals(Set.of("/0"), diffs.keySet(), diffs::toString);
+        diffs = Differencing.jsonDifference(
+                "[1,2,3]".getBytes(), "[2,3,3]".getBytes(), 2);
+        assertEquals(Set.of("/0", "/1"), diffs.keySet(), diffs::toString);
+        assertFalse(Differencing.truncation(diffs).isPresent());
+        diffs = Differencing.jsonDifference(
+                "[1,2,3]".getBytes(), "[2,3,4]".getBytes(), 2);
+        assertEquals(Set.of("", "/0", "/1"), diffs.keySet(), diffs::toString);
+        assertTrue(Differencing.truncation(diffs).isPresent());
+    }
+}
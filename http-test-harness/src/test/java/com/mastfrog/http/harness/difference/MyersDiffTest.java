@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness.difference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+final class MyersDiffTest {
+
+    @Test
+    public void testDuplicatesProduceMinimalRuns() {
+        List<String> a = Arrays.asList("a", "b", "a", "b", "a", "c", "a");
+        List<String> b = Arrays.asList("a", "b", "a", "c", "a", "d", "a");
+        List<ListDifference> diffs = MyersDiff.diff(a, b);
+        assertEquals(b, apply(a, diffs));
+        assertEquals(4, editCount(diffs), diffs::toString);
+    }
+
+    @Test
+    public void testChangesArePaired() {
+        List<Integer> a = Arrays.asList(1, 2, 3, 14, 15, 16, 100);
+        List<Integer> b = Arrays.asList(1, 2, 3, 24, 25, 26, 100);
+        List<ListDifference> diffs = MyersDiff.diff(a, b);
+        assertEquals(1, diffs.size(), diffs::toString);
+        ListDifference d = diffs.get(0);
+        assertEquals(DifferenceKind.CHANGE, d.kind());
+        assertEquals(3, d.start());
+        assertEquals(Arrays.asList(14, 15, 16), d.oldValue());
+        assertEquals(Arrays.asList(24, 25, 26), d.newValue());
+    }
+
+    @Test
+    public void testRandomEditsReconstruct() {
+        Random rnd = new Random(1729);
+        for (int round = 0; round < 200; round++) {
+            List<Integer> a = new ArrayList<>();
+            int size = rnd.nextInt(300);
+            for (int i = 0; i < size; i++) {
+                a.add(rnd.nextInt(20));
+            }
+            List<Integer> b = new ArrayList<>(a);
+            int edits = rnd.nextInt(30);
+            for (int i = 0; i < edits; i++) {
+                int op = rnd.nextInt(3);
+                if (b.isEmpty() || op == 0) {
+                    b.add(rnd.nextInt(b.size() + 1), rnd.nextInt(20));
+                } else if (op == 1) {
+                    b.remove(rnd.nextInt(b.size()));
+                } else {
+                    b.set(rnd.nextInt(b.size()), rnd.nextInt(20));
+                }
+            }
+            List<ListDifference> diffs = MyersDiff.diff(a, b);
+            assertEquals(b, apply(a, diffs), "Round " + round);
+            assertTrue(editCount(diffs) <= edits * 2, () -> "More edits than "
+                    + "were made: " + diffs);
+        }
+    }
+
+    private static int editCount(List<ListDifference> diffs) {
+        int result = 0;
+        for (ListDifference d : diffs) {
+            result += d.oldValue().size() + d.newValue().size();
+        }
+        return result;
+    }
+
+    private static <T> List<Object> apply(List<T> a, List<ListDifference> diffs) {
+        // Deletions and changes are indexed against the old list
+        List<Object> result = new ArrayList<>();
+        int ix = 0;
+        for (ListDifference d : diffs) {
+            if (d.kind() != DifferenceKind.INSERTION) {
+                while (ix < d.start()) {
+                    result.add(a.get(ix++));
+                }
+                ix += d.oldValue().size();
+            } else {
+                while (result.size() < d.start()) {
+                    result.add(a.get(ix++));
+                }
+            }
+            result.addAll(d.newValue());
+        }
+        while (ix < a.size()) {
+            result.add(a.get(ix++));
+        }
+        return result;
+    }
+}
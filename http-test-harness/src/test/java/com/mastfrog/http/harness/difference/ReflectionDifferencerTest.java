@@ -25,12 +25,17 @@ package com.mastfrog.http.harness.difference;
 
 import static com.mastfrog.http.harness.difference.ReflectionDifferencer.absent;
 import static com.mastfrog.http.harness.difference.ReflectionDifferencer.added;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 import org.junit.jupiter.api.Test;
 
@@ -109,6 +114,128 @@ final class ReflectionDifferencerTest {
 
     }
 
+    @Test
+    public void testCycles() throws Exception {
+        // Same shape, one differing value: no stack overflow, just the value
+        Node a1 = new Node("a1");
+        Node a2 = new Node("a2");
+        a1.next = a2;
+        a2.next = a1;
+        Node b1 = new Node("a1");
+        Node b2 = new Node("b2");
+        b1.next = b2;
+        b2.next = b1;
+        testOne(a1, b1, "next.name");
+
+        // One side loops back to itself, the other goes on to another node
+        Node c1 = new Node("c");
+        c1.next = c1;
+        Node d1 = new Node("c");
+        Node d2 = new Node("c");
+        d1.next = d2;
+        d2.next = d1;
+        testOne(c1, d1, "next");
+        assertEquals(DifferenceKind.CYCLE, DIFFS.difference(c1, d1).get("next")
+                .iterator().next().kind());
+    }
+
+    @Test
+    public void testStructuralHashing() throws Exception {
+        // Node does not implement equals(), so without structural hashing
+        // every element of these lists is a change
+        List<Node> a = new ArrayList<>();
+        List<Node> b = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            a.add(new Node("n" + i));
+            b.add(new Node(i == 1000 ? "changed" : "n" + i));
+        }
+        Map<String, Set<Difference<?>>> diffs = DIFFS.difference(a, b,
+                DifferencingOptions.DEFAULT.withStructuralHashing(true));
+        assertEquals(new TreeSet<>(Arrays.asList("", "1000.name")),
+                diffs.keySet(), diffs::toString);
+        assertEquals(1, diffs.get("").size(), diffs::toString);
+        // Structurally identical graphs produce no differences at all
+        Node c = new Node("c");
+        c.next = new Node("d");
+        Node d = new Node("c");
+        d.next = new Node("d");
+        assertEquals(0, DIFFS.difference(c, d,
+                DifferencingOptions.DEFAULT.withStructuralHashing(true)).size());
+    }
+
+    @Test
+    public void testPastMaxDepthOnlyRealChangesAreReported() throws Exception {
+        DifferencingOptions shallow = DifferencingOptions.DEFAULT.withMaxDepth(1);
+        // Node does not implement equals(), but these are the same
+        Map<String, Set<Difference<?>>> diffs = DIFFS.difference(
+                chain("a", "b", "c", "d"), chain("a", "b", "c", "d"), shallow);
+        assertEquals(0, diffs.size(), diffs::toString);
+
+        diffs = DIFFS.difference(chain("a", "b", "c", "d"),
+                chain("a", "b", "c", "x"), shallow);
+        assertEquals(new TreeSet<>(Arrays.asList("", "next.next")),
+                diffs.keySet(), diffs::toString);
+        assertEquals(DifferenceKind.CHANGE,
+                diffs.get("next.next").iterator().next().kind(), diffs::toString);
+        assertEquals(DifferenceKind.TRUNCATED,
+                diffs.get("").iterator().next().kind(), diffs::toString);
+    }
+
+    private static Node chain(String... names) {
+        Node head = new Node(names[0]);
+        Node curr = head;
+        for (int i = 1; i < names.length; i++) {
+            curr.next = new Node(names[i]);
+            curr = curr.next;
+        }
+        return head;
+    }
+
+    @Test
+    public void testUnorderedCollections() throws Exception {
+        DifferencingOptions unordered = DifferencingOptions.DEFAULT
+                .withUnorderedCollections(true);
+        List<Node> a = Arrays.asList(new Node("x"), new Node("y"), new Node("z"));
+        List<Node> b = Arrays.asList(new Node("z"), new Node("x"), new Node("y"));
+        assertEquals(0, DIFFS.difference(a, b, unordered).size());
+        assertEquals(0, DIFFS.difference(new HashSet<>(a), new HashSet<>(b)).size());
+
+        List<OtherThing> c = Arrays.asList(new OtherThing("a", 1),
+                new OtherThing("b", 2), new OtherThing("c", 3));
+        List<OtherThing> d = Arrays.asList(new OtherThing("q", 4),
+                new OtherThing("c", 3), new OtherThing("b", 7));
+        Map<String, Set<Difference<?>>> diffs = DIFFS.difference(c, d, unordered);
+        assertEquals(new TreeSet<>(Arrays.asList("0", "1.bar")), diffs.keySet(),
+                diffs::toString);
+    }
+
+    @Test
+    public void testIgnoredPathsAndTolerances() throws Exception {
+        DifferencingOptions opts = DifferencingOptions.DEFAULT
+                .withIgnoredPaths("s", "otherThings.*.foo", "hoober.**")
+                .withTolerance("intVal", 1000);
+        Map<String, Set<Difference<?>>> diffs = DIFFS.difference(THING_ONE, THING_NINE, opts);
+        assertEquals(new TreeSet<>(Arrays.asList("ints", "ints.size", "otherThings",
+                "otherThings.0.bar", "otherThings.size", "shortValue")),
+                diffs.keySet(), diffs::toString);
+    }
+
+    @Test
+    public void testListRunWithOnlyIgnoredChangesIsNotReported() throws Exception {
+        Thing changed = new Thing(23, (short) 25000, new int[]{13, 6, 17, 21},
+                "hurbles", new OtherThing[]{new OtherThing("q", 23), OTHER_THING_TWO},
+                HOOBER_ONE);
+        DifferencingOptions opts = DifferencingOptions.DEFAULT
+                .withIgnoredPaths("s", "otherThings.*.foo");
+        Map<String, Set<Difference<?>>> diffs = DIFFS.difference(THING_ONE, changed, opts);
+        assertTrue(diffs.isEmpty(), diffs::toString);
+        assertFalse(Differencing.hasDifferences(diffs));
+        // Without the ignored paths, the run is still reported
+        diffs = DIFFS.difference(THING_ONE, changed, DifferencingOptions.DEFAULT);
+        assertTrue(diffs.containsKey("otherThings"), diffs::toString);
+        assertTrue(diffs.containsKey("otherThings.0.foo"), diffs::toString);
+    }
+
     private void testOne(Object a, Object b, String... expected) throws Exception {
         Map<String, Set<Difference<?>>> differences = DIFFS.difference(a, b);
 //        differences.forEach((path, diffs) -> {
@@ -124,6 +251,16 @@ final class ReflectionDifferencerTest {
         }
     }
 
+    static final class Node {
+
+        final String name;
+        Node next;
+
+        Node(String name) {
+            this.name = name;
+        }
+    }
+
     static class Thing {
 
         private final int intVal;
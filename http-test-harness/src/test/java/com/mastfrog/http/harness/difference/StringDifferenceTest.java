@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.http.harness.difference;
+
+import com.mastfrog.util.strings.LevenshteinDistance;
+import java.util.Arrays;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+final class StringDifferenceTest {
+
+    @Test
+    public void testBoundedDistanceMatchesLevenshtein() {
+        Random rnd = new Random(5150);
+        for (int i = 0; i < 500; i++) {
+            String a = randomString(rnd, rnd.nextInt(40));
+            String b = mutate(rnd, a);
+            int expected = LevenshteinDistance.levenshteinDistance(a, b, true);
+            int bound = rnd.nextInt(20);
+            int got = EditDistance.bounded(a, b, bound);
+            if (expected <= bound) {
+                assertEquals(expected, got, a + " / " + b + " bound " + bound);
+            } else {
+                assertEquals(bound + 1, got, a + " / " + b + " bound " + bound);
+            }
+        }
+    }
+
+    @Test
+    public void testScoreAndCaching() {
+        StringDifference diff = new StringDifference("kitten", "sitting");
+        String str = diff.toString();
+        assertTrue(str.startsWith("change(levenshtein=0.429"), str);
+        assertTrue(str == diff.toString(), "Not cached");
+        // Pure insertions used to produce no detail at all
+        assertTrue(new StringDifference("ab", "abab").toString()
+                .startsWith("change(levenshtein=0.5"));
+    }
+
+    @Test
+    public void testLargeBodiesUseBound() {
+        char[] chars = new char[1_000_000];
+        Arrays.fill(chars, 'x');
+        String a = new String(chars);
+        for (int i = 1000; i < chars.length - 1000; i += 3) {
+            chars[i] = 'y';
+        }
+        String b = new String(chars);
+        String str = new StringDifference(a, b).toString();
+        assertTrue(str.startsWith("change(levenshtein<="), () -> str.substring(0, 80));
+        Arrays.fill(chars, 'x');
+        chars[500_000] = 'z';
+        String c = new String(chars);
+        String str2 = new StringDifference(a, c).toString();
+        assertTrue(str2.startsWith("change(levenshtein=0"), () -> str2.substring(0, 80));
+    }
+
+    private static String randomString(Random rnd, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + rnd.nextInt(4)));
+        }
+        return sb.toString();
+    }
+
+    private static String mutate(Random rnd, String s) {
+        StringBuilder sb = new StringBuilder(s);
+        int edits = rnd.nextInt(12);
+        for (int i = 0; i < edits; i++) {
+            int op = rnd.nextInt(3);
+            if (sb.length() == 0 || op == 0) {
+                sb.insert(rnd.nextInt(sb.length() + 1), (char) ('a' + rnd.nextInt(4)));
+            } else if (op == 1) {
+                sb.deleteCharAt(rnd.nextInt(sb.length()));
+            } else {
+                sb.setCharAt(rnd.nextInt(sb.length()), (char) ('a' + rnd.nextInt(4)));
+            }
+        }
+        return sb.toString();
+    }
+}